@@ -0,0 +1,64 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.Area;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Viewport query through the spatial index against a full scan of all widgets.
+ * Widgets are spread over a 100k x 100k plane (see Storages), viewport is 1k x 1k, so it holds ~100 of 1M widgets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AreaQueryBenchmark {
+    private static final int PLANE = 100_000;
+    private static final int VIEWPORT = 1_000;
+
+    @Param({"in-memory", "tree", "columnar", "off-heap", "gap"})
+    public String storage;
+
+    @Param({"1000000"})
+    public int size;
+
+    private WidgetDao<Widget> dao;
+    private List<Widget> all;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dao = Storages.create(storage);
+        Storages.fill(dao, size);
+        all = dao.getAll(size, 0);
+    }
+
+    @Benchmark
+    public List<Widget> indexed() {
+        return dao.getAllInArea(viewport(), false, Integer.MAX_VALUE, Integer.MIN_VALUE);
+    }
+
+    @Benchmark
+    public int fullScan() {
+        final Area viewport = viewport();
+        int result = 0;
+        for (Widget widget : all) {
+            if (viewport.contains(Area.of(widget))) {
+                ++result;
+            }
+        }
+        return result;
+    }
+
+    private static Area viewport() {
+        final int x = ThreadLocalRandom.current().nextInt(PLANE - VIEWPORT);
+        final int y = ThreadLocalRandom.current().nextInt(PLANE - VIEWPORT);
+        return Area.of(x, y, x + VIEWPORT, y + VIEWPORT);
+    }
+}
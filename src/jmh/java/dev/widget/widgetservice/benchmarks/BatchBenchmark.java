@@ -0,0 +1,65 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.Operation;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Time to move batchSize random widgets to random Z in a store of 100k widgets:
+ * one update after another versus a single batch. Every move in the middle pushes widgets above it up,
+ * which the in-memory batch does in one merge pass instead of one pass per update
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx2g"})
+public class BatchBenchmark {
+    private static final int SIZE = 100_000;
+
+    @Param({"in-memory", "tree"})
+    public String storage;
+
+    @Param({"10", "100", "1000"})
+    public int batchSize;
+
+    private WidgetDao<Widget> dao;
+    private List<String> ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dao = Storages.create(storage);
+        ids = Storages.fill(dao, SIZE);
+    }
+
+    @Benchmark
+    public Widget oneByOne() {
+        Widget result = null;
+        for (Operation<Widget> operation : moves()) {
+            result = dao.update(operation.getEntity());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Widget> batch() {
+        return dao.apply(moves());
+    }
+
+    private List<Operation<Widget>> moves() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final List<Operation<Widget>> result = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; ++i) {
+            final String id = ids.get(random.nextInt(SIZE));
+            result.add(Operation.update(id, Widget.builder().id(id).z(random.nextInt(SIZE)).build()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.application.WidgetServiceApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Load test of a cluster: clients create widgets on random boards and read their first pages, every request
+ * to a random node, so most requests are forwarded once. For every number of nodes prints aggregate throughput
+ * and the share of requests expected to be forwarded as JSON lines; the cluster scales as long as throughput
+ * grows with nodes.
+ * Nodes run on localhost in this JVM, so they share its cores: throughput grows with nodes only while a node
+ * doesn't use all cores, e.g. it is bound by its storage lock or by Tomcat worker pool, and the forwarding hop costs
+ * are visible. Nodes on hosts of their own are measured by passing their base URLs instead of node counts.
+ * Usage: ClusterLoadTest [nodes...] | [url...]
+ */
+public final class ClusterLoadTest {
+    private static final int CLIENTS = 64;
+    private static final int BOARDS = 1024;
+    private static final Duration WARMUP = Duration.ofSeconds(10);
+    private static final Duration MEASUREMENT = Duration.ofSeconds(20);
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final byte[] BODY = "{\"x\":1,\"y\":2,\"z\":1,\"width\":3,\"height\":4}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private ClusterLoadTest() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if ((args.length > 0) && args[0].startsWith("http")) {
+            run(Arrays.asList(args));
+            return;
+        }
+        final int[] counts = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1, 2, 3, 4};
+        for (int count : counts) {
+            final List<String> urls = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                try (ServerSocket socket = new ServerSocket(0)) {
+                    urls.add("http://localhost:" + socket.getLocalPort());
+                }
+            }
+            final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+            try {
+                for (String url : urls) {
+                    nodes.add(new SpringApplication(WidgetServiceApplication.class).run(
+                            "--server.port=" + URI.create(url).getPort(),
+                            "--logging.level.root=WARN",
+                            "--storage=in-memory",
+                            "--concurrency=monitor",
+                            "--clusterNodes=" + String.join(",", urls),
+                            "--clusterNode=" + url,
+                            "--clusterSecret=benchmark"));
+                }
+                run(urls);
+            } finally {
+                nodes.forEach(ConfigurableApplicationContext::close);
+            }
+        }
+    }
+
+    private static void run(final List<String> urls) throws InterruptedException {
+        final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final List<Thread> threads = new ArrayList<>();
+        final long end = System.nanoTime() + WARMUP.plus(MEASUREMENT).toNanos();
+        final long measured = System.nanoTime() + WARMUP.toNanos();
+        for (int i = 0; i < CLIENTS; ++i) {
+            final Thread thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    final boolean ok = call(client, urls);
+                    if (System.nanoTime() >= measured) {
+                        (ok ? requests : failures).increment();
+                    }
+                }
+            }, "client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final double seconds = MEASUREMENT.toNanos() / 1e9;
+        System.out.printf("{\"nodes\":%d,\"clients\":%d,\"boards\":%d,\"requests\":%d,\"failures\":%d,"
+                        + "\"requestsPerSecond\":%.0f,\"expectedForwardedShare\":%.2f}%n",
+                urls.size(), CLIENTS, BOARDS, requests.sum(), failures.sum(), requests.sum() / seconds,
+                (urls.size() - 1) / (double) urls.size());
+    }
+
+    /*
+     * creates a widget on a random board, or reads its first page, through a random node
+     */
+    private static boolean call(final HttpClient client, final List<String> urls) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String url = String.format("%s/boards/board-%d/widgets", urls.get(random.nextInt(urls.size())),
+                random.nextInt(BOARDS));
+        final HttpRequest request = random.nextBoolean()
+                ? HttpRequest.newBuilder(URI.create(url))
+                .timeout(TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(BODY))
+                .build()
+                : HttpRequest.newBuilder(URI.create(url + "?pageSize=10")).timeout(TIMEOUT).build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() < 300;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
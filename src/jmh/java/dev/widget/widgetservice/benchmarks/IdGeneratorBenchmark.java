@@ -0,0 +1,35 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.persistance.IdGenerator;
+import dev.widget.widgetservice.persistance.TimeOrderedIdGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Id generation under contention of all available threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class IdGeneratorBenchmark {
+    @Param({"uuid", "time-ordered"})
+    public String ids;
+
+    private IdGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        generator = "uuid".equals(ids) ? new IdGenerator() : new TimeOrderedIdGenerator(Clock.systemUTC(), 0);
+    }
+
+    @Benchmark
+    public String generateId() {
+        return generator.generateId();
+    }
+}
@@ -0,0 +1,83 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.application.WidgetServiceApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Moves a whole board through the service: imports widgets as newline delimited json into an empty storage,
+ * then exports them back, and prints how long both took and how much heap the board took, as a JSON line.
+ * Widgets are sent in reverse Z order, so import has to sort every chunk and merge it below the chunks before.
+ * Usage: ImportExportLoadTest servlet|reactive [widgets]
+ */
+public final class ImportExportLoadTest {
+    private static final String NDJSON = "application/x-ndjson";
+
+    private ImportExportLoadTest() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final String stack = args.length > 0 ? args[0] : "servlet";
+        final int widgets = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        final byte[] body = board(widgets);
+        final ConfigurableApplicationContext context = new SpringApplication(WidgetServiceApplication.class).run(
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                "--spring.profiles.active=" + ("reactive".equals(stack) ? "dev,reactive" : "dev"));
+        try {
+            final String url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            final HttpClient client = HttpClient.newHttpClient();
+            final long heap = usedHeap();
+
+            long start = System.nanoTime();
+            final HttpResponse<String> imported = client.send(HttpRequest.newBuilder(URI.create(url + "/widgets/import"))
+                            .header("Content-Type", NDJSON)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            final long importNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final HttpResponse<InputStream> exported = client.send(
+                    HttpRequest.newBuilder(URI.create(url + "/widgets/export")).build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            final long exportedBytes;
+            try (InputStream in = exported.body()) {
+                exportedBytes = in.transferTo(OutputStream.nullOutputStream());
+            }
+            final long exportNanos = System.nanoTime() - start;
+
+            System.out.printf("{\"stack\":\"%s\",\"widgets\":%d,\"importStatus\":%d,\"importSeconds\":%.2f,"
+                            + "\"exportSeconds\":%.2f,\"importedMB\":%.1f,\"exportedMB\":%.1f,\"boardHeapMB\":%d}%n",
+                    stack, widgets, imported.statusCode(), importNanos / 1e9, exportNanos / 1e9, body.length / 1e6,
+                    exportedBytes / 1e6, (usedHeap() - heap) >> 20);
+        } finally {
+            context.close();
+        }
+    }
+
+    private static byte[] board(final int widgets) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int z = widgets - 1; z >= 0; --z) {
+            out.write(String.format("{\"id\":\"%016x\",\"x\":%d,\"y\":%d,\"z\":%d,\"width\":10,\"height\":10,"
+                            + "\"lastModification\":\"2020-01-01T00:00:00.123Z\"}\n", z, z % 1000, z / 1000, z)
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
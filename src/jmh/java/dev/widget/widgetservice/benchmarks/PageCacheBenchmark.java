@@ -0,0 +1,65 @@
+package dev.widget.widgetservice.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import dev.widget.widgetservice.controllers.PageCache;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Body of a hot page of GET /widgets: loaded and serialized on every call, as without the page cache,
+ * sent as cached, and loaded again after a change which didn't touch the page, which is only compared
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageCacheBenchmark {
+    @Param({"10", "500"})
+    public int pageSize;
+
+    @Param({"100000"})
+    public int size;
+
+    private WidgetDao<Widget> dao;
+    private ObjectWriter writer;
+    private PageCache cache;
+    private PageCache.Key key;
+    private long version;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dao = Storages.create("in-memory");
+        Storages.fill(dao, size);
+        final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build(); // as the service's
+        writer = mapper.writerFor(new TypeReference<List<Widget>>() {
+        });
+        cache = new PageCache(64 << 20, mapper);
+        key = PageCache.offset(pageSize, 0);
+        cache.load(key, version, () -> dao.getAll(pageSize, 0));
+    }
+
+    @Benchmark
+    public byte[] serialized() throws JsonProcessingException {
+        return writer.writeValueAsBytes(dao.getAll(pageSize, 0));
+    }
+
+    @Benchmark
+    public byte[] cached() {
+        return cache.get(key, version).getBody();
+    }
+
+    @Benchmark
+    public byte[] revalidated() {
+        return cache.load(key, ++version, () -> dao.getAll(pageSize, 0)).getBody();
+    }
+}
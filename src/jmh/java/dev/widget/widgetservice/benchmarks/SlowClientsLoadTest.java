@@ -0,0 +1,166 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.application.WidgetServiceApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Load test with slow clients: every client sends a create request whose body trickles in over a few seconds,
+ * so on servlet stack it holds a request thread all that time, while a probe keeps reading the first page.
+ * For every number of concurrent slow clients prints how many of them were served and how long the probe waited,
+ * as JSON lines; the service sustains the load as long as the probe stays fast and every client is served.
+ * Usage: SlowClientsLoadTest platform|virtual [clients...]; virtual threads need Java 21
+ */
+public final class SlowClientsLoadTest {
+    private static final Duration TRICKLE = Duration.ofSeconds(5); // how long a client takes to send its body
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration PROBE_INTERVAL = Duration.ofMillis(50);
+    private static final byte[] BODY = "{\"x\":1,\"y\":2,\"width\":3,\"height\":4}".getBytes(StandardCharsets.UTF_8);
+
+    private SlowClientsLoadTest() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final String threads = args.length > 0 ? args[0] : "platform";
+        final int[] clients = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{100, 200, 400, 800, 1600};
+        final ConfigurableApplicationContext context = new SpringApplication(WidgetServiceApplication.class).run(
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                "--storage=in-memory",
+                "--concurrency=snapshot",
+                "--threads=" + threads);
+        try {
+            final int port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+            for (int count : clients) {
+                run(threads, port, count);
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void run(final String threads, final int port, final int clients) throws Exception {
+        final Probe probe = new Probe(URI.create("http://localhost:" + port + "/widgets?pageSize=10"));
+        final long start = System.nanoTime();
+        final List<Socket> sockets = new ArrayList<>(clients);
+        int served = 0;
+        try {
+            for (int i = 0; i < clients; ++i) {
+                sockets.add(open(port));
+            }
+            probe.start();
+            for (byte b : BODY) {
+                for (Socket socket : sockets) {
+                    socket.getOutputStream().write(b);
+                }
+                Thread.sleep(TRICKLE.toMillis() / BODY.length);
+            }
+            for (Socket socket : sockets) {
+                served += created(socket) ? 1 : 0;
+            }
+        } finally {
+            probe.stop();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        final List<Long> latencies = probe.latencies();
+        System.out.printf("{\"threads\":\"%s\",\"clients\":%d,\"served\":%d,\"seconds\":%.1f,\"probes\":%d,"
+                        + "\"probeFailures\":%d,\"probeP50Millis\":%d,\"probeP99Millis\":%d,\"probeMaxMillis\":%d}%n",
+                threads, clients, served, (System.nanoTime() - start) / 1e9, latencies.size(), probe.failures,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 1.0));
+    }
+
+    private static Socket open(final int port) throws IOException {
+        final Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout((int) TIMEOUT.toMillis());
+        final OutputStream out = socket.getOutputStream();
+        out.write(("POST /widgets HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+                + "Connection: close\r\nContent-Length: " + BODY.length + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        return socket;
+    }
+
+    private static boolean created(final Socket socket) {
+        try {
+            final String status = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII)).readLine();
+            return (status != null) && status.startsWith("HTTP/1.1 201");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long percentile(final List<Long> sorted, final double percentile) {
+        if (sorted.isEmpty()) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(sorted.get((int) Math.ceil(percentile * sorted.size()) - 1));
+    }
+
+    /*
+     * fast client reading a page one request at a time, until stopped
+     */
+    private static final class Probe {
+        private final HttpClient client = HttpClient.newHttpClient();
+        private final HttpRequest request;
+        private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        private final Thread thread = new Thread(this::loop, "probe");
+        private volatile boolean stopped;
+        private volatile int failures;
+
+        private Probe(final URI uri) {
+            this.request = HttpRequest.newBuilder(uri).timeout(TIMEOUT).build();
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            stopped = true;
+            thread.join();
+        }
+
+        List<Long> latencies() {
+            final List<Long> result = new ArrayList<>(latencies);
+            Collections.sort(result);
+            return result;
+        }
+
+        private void loop() {
+            while (!stopped) {
+                final long start = System.nanoTime();
+                try {
+                    client.send(request, HttpResponse.BodyHandlers.discarding());
+                    latencies.add(System.nanoTime() - start);
+                    Thread.sleep(PROBE_INTERVAL.toMillis());
+                } catch (IOException e) {
+                    ++failures;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
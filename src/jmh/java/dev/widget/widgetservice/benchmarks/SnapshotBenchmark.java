@@ -0,0 +1,72 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.SnapshotFile;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cold start from a snapshot: loading it into an empty storage, and writing it from a filled one.
+ * Filled storage is kept only by write, so load runs on an otherwise empty heap, like on start
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx4g"}) // heap sized upfront, as for a service
+public class SnapshotBenchmark {
+    @State(Scope.Benchmark)
+    public static class Snapshot {
+        @Param({"in-memory", "tree", "columnar", "off-heap", "gap"})
+        public String storage;
+
+        @Param({"1000000"})
+        public int size;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            final WidgetDao<Widget> dao = Storages.create(storage);
+            Storages.fill(dao, size);
+            path = Files.createTempFile("widgets", ".snapshot");
+            SnapshotFile.write(path, dao.getAll(Integer.MAX_VALUE, 0), 0);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.delete(path);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Filled {
+        List<Widget> widgets;
+
+        @Setup(Level.Trial)
+        public void setUp(final Snapshot snapshot) {
+            final WidgetDao<Widget> dao = Storages.create(snapshot.storage);
+            Storages.fill(dao, snapshot.size);
+            widgets = dao.getAll(Integer.MAX_VALUE, 0);
+        }
+    }
+
+    @Benchmark
+    public WidgetDao<Widget> load(final Snapshot snapshot) throws IOException {
+        final WidgetDao<Widget> dao = Storages.create(snapshot.storage);
+        SnapshotFile.load(snapshot.path, dao);
+        return dao;
+    }
+
+    @Benchmark
+    public Path write(final Snapshot snapshot, final Filled filled) throws IOException {
+        SnapshotFile.write(snapshot.path, filled.widgets, 0);
+        return snapshot.path;
+    }
+}
@@ -0,0 +1,68 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.ColumnarWidgetDao;
+import dev.widget.widgetservice.persistance.GapWidgetDao;
+import dev.widget.widgetservice.persistance.IdGenerator;
+import dev.widget.widgetservice.persistance.InMemoryWidgetDao;
+import dev.widget.widgetservice.persistance.OffHeapWidgetDao;
+import dev.widget.widgetservice.persistance.SnapshotWidgetLock;
+import dev.widget.widgetservice.persistance.TreeWidgetDao;
+import dev.widget.widgetservice.persistance.WidgetDao;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * creates and fills DAOs outside of Spring context, storages are named as in application.yml
+ */
+final class Storages {
+    private static final int OFF_HEAP_CAPACITY = 1_100_000; // largest store and writes on top of it
+    private Storages() {
+    }
+
+    static WidgetDao<Widget> create(final String storage) {
+        switch (storage) {
+            case "in-memory":
+                return new InMemoryWidgetDao(new IdGenerator(), new ArrayList<>(), new ConcurrentHashMap<>(),
+                        Clock.systemUTC(), new SnapshotWidgetLock());
+            case "tree":
+                return new TreeWidgetDao(new IdGenerator(), Clock.systemUTC());
+            case "columnar":
+                return new ColumnarWidgetDao(new IdGenerator(), Clock.systemUTC());
+            case "off-heap":
+                return new OffHeapWidgetDao(new IdGenerator(), Clock.systemUTC(), config(OFF_HEAP_CAPACITY));
+            case "gap":
+                return new GapWidgetDao(new IdGenerator(), Clock.systemUTC());
+            default:
+                throw new IllegalArgumentException("Unknown storage " + storage);
+        }
+    }
+
+    private static AppConfiguration config(final int offHeapCapacity) {
+        final AppConfiguration result = new AppConfiguration();
+        result.setOffHeapCapacity(offHeapCapacity);
+        return result;
+    }
+
+    /*
+     * creates given number of foreground widgets, returns their ids in Z order
+     */
+    static List<String> fill(final WidgetDao<Widget> dao, final int size) {
+        final List<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            result.add(dao.create(randomWidget().build()).getId());
+        }
+        return result;
+    }
+
+    static Widget.WidgetBuilder randomWidget() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return Widget.builder().x(random.nextInt(100_000)).y(random.nextInt(100_000))
+                .width(1 + random.nextInt(100)).height(1 + random.nextInt(100));
+    }
+}
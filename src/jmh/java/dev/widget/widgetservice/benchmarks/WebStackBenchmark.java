@@ -0,0 +1,66 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.application.WidgetServiceApplication;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Load test of the whole service over HTTP: servlet stack (Tomcat, thread per request) against
+ * reactive profile (Netty event loop, storage on its own scheduler), many clients reading large pages at once.
+ * Sample time mode reports throughput as the sample count and p99 among percentiles
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(256)
+@Fork(1)
+public class WebStackBenchmark {
+    private static final int SIZE = 10_000;
+
+    @Param({"servlet", "reactive"})
+    public String stack;
+
+    @Param({"10", "500"})
+    public int pageSize;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String widgetsUrl;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        context = new SpringApplication(WidgetServiceApplication.class).run(
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                "--spring.profiles.active=" + ("reactive".equals(stack) ? "dev,reactive" : "dev"));
+        Storages.fill(context.getBean(WidgetDao.class), SIZE);
+        client = HttpClient.newHttpClient();
+        widgetsUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/widgets";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public String getAll() throws IOException, InterruptedException {
+        final int offset = ThreadLocalRandom.current().nextInt(SIZE - pageSize);
+        final HttpRequest request = HttpRequest.newBuilder(
+                URI.create(widgetsUrl + "?pageSize=" + pageSize + "&offset=" + offset)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
@@ -0,0 +1,64 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Multi threaded mix: readers page through the store and look up widgets by id
+ * while a writer keeps moving widgets along Z. Store size doesn't change, so the state is shared by all iterations.
+ * JMH reports every group method separately, as well as the group total.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetDaoMixedBenchmark {
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"in-memory", "tree", "columnar", "off-heap", "gap"})
+    public String storage;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private WidgetDao<Widget> dao;
+    private List<String> ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dao = Storages.create(storage);
+        ids = Storages.fill(dao, size);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public List<Widget> getAll() {
+        return dao.getAll(PAGE_SIZE, ThreadLocalRandom.current().nextInt(size));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Widget get() {
+        return dao.get(randomId());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Widget updateZ() {
+        return dao.update(Widget.builder().id(randomId()).z(ThreadLocalRandom.current().nextInt(size)).build());
+    }
+
+    private String randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(size));
+    }
+}
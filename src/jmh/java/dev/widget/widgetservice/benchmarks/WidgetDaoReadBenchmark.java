@@ -0,0 +1,57 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Single threaded reads from a store of given size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetDaoReadBenchmark {
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"in-memory", "tree", "columnar", "off-heap", "gap"})
+    public String storage;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private WidgetDao<Widget> dao;
+    private List<String> ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dao = Storages.create(storage);
+        ids = Storages.fill(dao, size);
+    }
+
+    @Benchmark
+    public Widget get() {
+        return dao.get(ids.get(ThreadLocalRandom.current().nextInt(size)));
+    }
+
+    @Benchmark
+    public List<Widget> getAllFirstPage() {
+        return dao.getAll(PAGE_SIZE, 0);
+    }
+
+    @Benchmark
+    public List<Widget> getAllMiddlePage() {
+        return dao.getAll(PAGE_SIZE, size / 2);
+    }
+
+    @Benchmark
+    public List<Widget> getAllLastPage() {
+        return dao.getAll(PAGE_SIZE, size - PAGE_SIZE);
+    }
+}
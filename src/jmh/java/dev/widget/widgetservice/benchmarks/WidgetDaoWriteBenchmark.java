@@ -0,0 +1,83 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Single threaded writes. Every write changes the store, so each iteration starts from a freshly filled store
+ * and measures a batch of BATCH writes; reported time is per batch, not per write.
+ * Store is filled with foreground widgets, i.e. Z goes from 0 to size - 1 without gaps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = WidgetDaoWriteBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = WidgetDaoWriteBenchmark.BATCH)
+@Fork(1)
+public class WidgetDaoWriteBenchmark {
+    static final int BATCH = 100;
+
+    @Param({"in-memory", "tree", "columnar", "off-heap", "gap"})
+    public String storage;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private WidgetDao<Widget> dao;
+    private List<String> ids;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        dao = Storages.create(storage);
+        ids = new ArrayList<>(Storages.fill(dao, size));
+        Collections.shuffle(ids);
+        next = 0;
+    }
+
+    @Benchmark
+    public Widget createForeground() {
+        return dao.create(Storages.randomWidget().build());
+    }
+
+    @Benchmark
+    public Widget createAtBottom() {
+        return dao.create(Storages.randomWidget().z(0).build()); // pushes up everything
+    }
+
+    @Benchmark
+    public Widget createInMiddle() {
+        return dao.create(Storages.randomWidget().z(size / 2).build());
+    }
+
+    @Benchmark
+    public Widget createAtTop() {
+        return dao.create(Storages.randomWidget().z(size - 1).build()); // pushes up a single widget
+    }
+
+    @Benchmark
+    public Widget updateData() {
+        return dao.update(Widget.builder().id(nextId()).x(ThreadLocalRandom.current().nextInt()).build());
+    }
+
+    @Benchmark
+    public Widget updateZ() {
+        return dao.update(Widget.builder().id(nextId()).z(ThreadLocalRandom.current().nextInt(size)).build());
+    }
+
+    @Benchmark
+    public boolean delete() {
+        return dao.delete(nextId());
+    }
+
+    private String nextId() {
+        return ids.get(next++);
+    }
+}
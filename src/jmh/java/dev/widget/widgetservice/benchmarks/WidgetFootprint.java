@@ -0,0 +1,42 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+/*
+ * Prints retained heap of every storage filled with the same number of widgets, as JSON lines.
+ * Everything reachable from the DAO is counted, including ids, spatial index, and published snapshot;
+ * direct buffers allocated while filling the storage are reported separately.
+ * Usage: WidgetFootprint [size]
+ */
+public final class WidgetFootprint {
+    private static final String[] STORAGES = {"in-memory", "tree", "columnar", "off-heap"};
+
+    private WidgetFootprint() {
+    }
+
+    public static void main(final String[] args) {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        for (String storage : STORAGES) {
+            final long directBefore = directMemoryUsed();
+            final WidgetDao<Widget> dao = Storages.create(storage);
+            Storages.fill(dao, size);
+            final GraphLayout layout = GraphLayout.parseInstance(dao);
+            final long direct = directMemoryUsed() - directBefore;
+            System.out.printf("{\"storage\":\"%s\",\"size\":%d,\"bytes\":%d,\"directBytes\":%d,\"objects\":%d,"
+                            + "\"bytesPerWidget\":%.1f}%n",
+                    storage, size, layout.totalSize(), direct, layout.totalCount(), (double) layout.totalSize() / size);
+        }
+    }
+
+    private static long directMemoryUsed() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> "direct".equals(pool.getName()))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+    }
+}
@@ -0,0 +1,60 @@
+package dev.widget.widgetservice.benchmarks;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.DurableWidgetDao;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import dev.widget.widgetservice.persistance.WriteAheadLog;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Create throughput of a durable storage under contention of 16 writers (they mostly wait for disk, not CPU),
+ * compared to the plain in-memory storage. Without delay a batch is whatever was appended during the previous fsync;
+ * with delay flusher also waits up to 1ms for more changes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class WriteAheadLogBenchmark {
+    @Param({"memory", "no-delay", "delay-1ms"})
+    public String durability;
+
+    private WidgetDao<Widget> dao;
+    private Path path;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        final WidgetDao<Widget> storage = Storages.create("in-memory");
+        if ("memory".equals(durability)) {
+            dao = storage;
+            return;
+        }
+        path = Files.createTempFile("widgets", ".wal");
+        final WriteAheadLog log = "delay-1ms".equals(durability)
+                ? new WriteAheadLog(path, Duration.ofMillis(1), 1024)
+                : new WriteAheadLog(path, Duration.ZERO, 1024);
+        dao = new DurableWidgetDao(storage, log);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        if (dao instanceof DurableWidgetDao) {
+            ((DurableWidgetDao) dao).close();
+            Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public Widget create() {
+        return dao.create(Storages.randomWidget().build()); // foreground, so push up cost is out of the picture
+    }
+}
@@ -4,6 +4,11 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 @EnableConfigurationProperties
@@ -12,4 +17,66 @@ import org.springframework.context.annotation.Configuration;
 public class AppConfiguration {
     private int defaultPageSize;
     private int maxPageSize;
+    private int maxBatchSize = 1000;
+    private Storage storage = Storage.IN_MEMORY;
+    private Concurrency concurrency = Concurrency.MONITOR;
+    private Ids ids = Ids.UUID;
+    private Threads threads = Threads.PLATFORM;
+    private int nodeId; // unique id of this instance, 0..65535; part of time-ordered ids
+    private int offHeapCapacity = 1_000_000; // max number of widgets in off-heap storage
+    private String walPath; // write-ahead log file; storage is not durable if not set
+    private Duration walFlushInterval = Duration.ZERO; // how long log waits for a batch to fill before fsync
+    private int walBatchSize = 1024; // log doesn't wait once batch has that many changes
+    private DataSize walSegmentSize = DataSize.ofMegabytes(64); // log file size; older files are deleted by checkpoints
+    private String snapshotPath; // snapshot of the whole state, so start replays only the recent log; needs walPath
+    private Duration snapshotInterval = Duration.ofMinutes(5); // how often snapshot is written
+    private int changeFeedCapacity = 4096; // latest changes kept for change feed subscribers, rounded up to 2^n
+    private Duration boardIdleTimeout = Duration.ofMinutes(10); // board nobody calls that long is evicted, see WidgetBoards
+    private String boardPath; // directory idle boards are paged out to; non-empty boards stay in memory if not set
+    private List<String> clusterNodes = new ArrayList<>(); // base URLs of every node boards are spread over, see BoardRing
+    private String clusterNode; // base URL of this instance, one of clusterNodes; needed if they are set
+    private int clusterVirtualNodes = 128; // points of every node on the ring
+    private Duration clusterTimeout = Duration.ofSeconds(30); // how long a request forwarded to another node may take
+    private String clusterSecret; // shared by cluster nodes only; cluster endpoints and node to node requests need it
+    private String replicaOf; // base URL of the leader this instance is a read replica of, see WidgetReplica
+    private Duration replicaHeartbeat = Duration.ofMillis(500); // how often the leader tells the replica it is in sync
+    private Duration replicaMaxLag = Duration.ofSeconds(5); // replica doesn't serve reads which may be staler than that
+    private DataSize pageCacheSize; // heap for serialized pages of GET /widgets, see PageCache; not cached if not set
+
+    /*
+     * available persistence implementations
+     */
+    public enum Storage {
+        IN_MEMORY, // ArrayList based, see InMemoryWidgetDao
+        TREE, // order-statistic tree based, see TreeWidgetDao
+        COLUMNAR, // primitive arrays based, see ColumnarWidgetDao
+        OFF_HEAP, // direct ByteBuffers based, capacity is bounded by offHeapCapacity, see OffHeapWidgetDao
+        GAP // packed memory array based, push up is lazy, see GapWidgetDao
+    }
+
+    /*
+     * available concurrency strategies of in-memory storage
+     */
+    public enum Concurrency {
+        MONITOR, // everything is serialized, see MonitorWidgetLock
+        READ_WRITE, // readers don't block each other, see ReadWriteWidgetLock
+        OPTIMISTIC, // readers don't lock at all unless there is a concurrent write, see OptimisticWidgetLock
+        SNAPSHOT // readers never lock, they use immutable snapshot published by writer, see SnapshotWidgetLock
+    }
+
+    /*
+     * available threads servlet requests are handled on
+     */
+    public enum Threads {
+        PLATFORM, // Tomcat worker pool
+        VIRTUAL // a new virtual thread per request, needs Java 21 and a storage which doesn't pin, see VirtualThreads
+    }
+
+    /*
+     * available widget id strategies
+     */
+    public enum Ids {
+        UUID, // random, see IdGenerator
+        TIME_ORDERED // monotonic, time ordered, node aware, see TimeOrderedIdGenerator
+    }
 }
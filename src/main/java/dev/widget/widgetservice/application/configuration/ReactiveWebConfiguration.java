@@ -0,0 +1,37 @@
+package dev.widget.widgetservice.application.configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfiguration {
+    /*
+     * reactive stack runs on Netty: servlet starter is on the classpath too, and Spring Boot would otherwise
+     * serve WebFlux from Tomcat, which it prefers when both are there
+     */
+    @Bean
+    NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /*
+     * json decoder also reads newline delimited json, value by value, so imports are decoded as they arrive.
+     * Replaces decoder set up by Spring's own customizer, so goes after it
+     */
+    @Bean
+    @Order(1)
+    CodecCustomizer ndjsonCodecCustomizer(final ObjectMapper mapper) {
+        return configurer -> configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(mapper,
+                MediaType.APPLICATION_JSON,
+                new MediaType("application", "*+json"),
+                MediaType.parseMediaType("application/x-ndjson")));
+    }
+}
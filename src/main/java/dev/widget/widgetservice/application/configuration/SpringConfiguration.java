@@ -1,24 +1,338 @@
 package dev.widget.widgetservice.application.configuration;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.controllers.PageCache;
 import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.BoardRing;
+import dev.widget.widgetservice.persistance.ColumnarWidgetDao;
+import dev.widget.widgetservice.persistance.DurableWidgetDao;
+import dev.widget.widgetservice.persistance.GapWidgetDao;
+import dev.widget.widgetservice.persistance.IdGenerator;
 import dev.widget.widgetservice.persistance.InMemoryWidgetDao;
+import dev.widget.widgetservice.persistance.MeteredWidgetDao;
+import dev.widget.widgetservice.persistance.MonitorWidgetLock;
+import dev.widget.widgetservice.persistance.OffHeapWidgetDao;
+import dev.widget.widgetservice.persistance.OptimisticWidgetLock;
+import dev.widget.widgetservice.persistance.ReadWriteWidgetLock;
+import dev.widget.widgetservice.persistance.SnapshotWidgetLock;
+import dev.widget.widgetservice.persistance.TimeOrderedIdGenerator;
+import dev.widget.widgetservice.persistance.TreeWidgetDao;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import dev.widget.widgetservice.persistance.WidgetChangeFeed;
 import dev.widget.widgetservice.persistance.WidgetDao;
+import dev.widget.widgetservice.persistance.WidgetLock;
+import dev.widget.widgetservice.persistance.WidgetReplica;
+import dev.widget.widgetservice.persistance.WriteAheadLog;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
 import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class SpringConfiguration {
 
     /*
-     * this is where we select underlying persistence implementation
+     * this is where we select underlying persistence implementation, make it durable if log is configured,
+     * and measure it
      */
     @Bean
     @Primary
-    WidgetDao<Widget> widgetDao(final InMemoryWidgetDao dao) {
-        return dao;
+    WidgetDao<Widget> widgetDao(final AppConfiguration config,
+                                final ObjectProvider<InMemoryWidgetDao> inMemoryWidgetDao,
+                                final ObjectProvider<TreeWidgetDao> treeWidgetDao,
+                                final ObjectProvider<ColumnarWidgetDao> columnarWidgetDao,
+                                final ObjectProvider<OffHeapWidgetDao> offHeapWidgetDao,
+                                final ObjectProvider<GapWidgetDao> gapWidgetDao,
+                                final MeterRegistry meterRegistry) throws IOException {
+        final WidgetDao<Widget> storage = storage(config, inMemoryWidgetDao, treeWidgetDao, columnarWidgetDao,
+                offHeapWidgetDao, gapWidgetDao);
+        if (config.getWalPath() == null) {
+            return new MeteredWidgetDao(storage, meterRegistry);
+        }
+        return new MeteredWidgetDao(new DurableWidgetDao(storage,
+                new WriteAheadLog(Path.of(config.getWalPath()), config.getWalFlushInterval(), config.getWalBatchSize(),
+                        config.getWalSegmentSize().toBytes()),
+                config.getSnapshotPath() != null ? Path.of(config.getSnapshotPath()) : null,
+                config.getSnapshotInterval()), meterRegistry);
+    }
+
+    private static WidgetDao<Widget> storage(final AppConfiguration config,
+                                             final ObjectProvider<InMemoryWidgetDao> inMemoryWidgetDao,
+                                             final ObjectProvider<TreeWidgetDao> treeWidgetDao,
+                                             final ObjectProvider<ColumnarWidgetDao> columnarWidgetDao,
+                                             final ObjectProvider<OffHeapWidgetDao> offHeapWidgetDao,
+                                             final ObjectProvider<GapWidgetDao> gapWidgetDao) {
+        switch (config.getStorage()) {
+            case TREE:
+                return treeWidgetDao.getObject();
+            case COLUMNAR:
+                return columnarWidgetDao.getObject();
+            case OFF_HEAP:
+                return offHeapWidgetDao.getObject();
+            case GAP:
+                return gapWidgetDao.getObject();
+            case IN_MEMORY:
+            default:
+                return inMemoryWidgetDao.getObject();
+        }
+    }
+
+    /*
+     * this is where we select how in-memory persistence handles concurrent access
+     */
+    @Bean
+    WidgetLock widgetLock(final AppConfiguration config) {
+        return newWidgetLock(config);
+    }
+
+    private static WidgetLock newWidgetLock(final AppConfiguration config) {
+        switch (config.getConcurrency()) {
+            case READ_WRITE:
+                return new ReadWriteWidgetLock();
+            case OPTIMISTIC:
+                return new OptimisticWidgetLock();
+            case SNAPSHOT:
+                return new SnapshotWidgetLock();
+            case MONITOR:
+            default:
+                return new MonitorWidgetLock();
+        }
+    }
+
+    /*
+     * exposes lock contention counters, i.e. how long in-memory persistence waits for its lock
+     */
+    @Bean
+    MeterBinder widgetLockMetrics(final WidgetLock lock) {
+        return registry -> {
+            FunctionTimer.builder("widget.lock.wait", lock, l -> l.statistics().getReads(),
+                    l -> l.statistics().getReadWaitNanos(), TimeUnit.NANOSECONDS)
+                    .description("Time readers waited for the storage lock")
+                    .tag("access", "read")
+                    .register(registry);
+            FunctionTimer.builder("widget.lock.wait", lock, l -> l.statistics().getWrites(),
+                    l -> l.statistics().getWriteWaitNanos(), TimeUnit.NANOSECONDS)
+                    .description("Time writers waited for the storage lock")
+                    .tag("access", "write")
+                    .register(registry);
+        };
+    }
+
+    /*
+     * latest changes of the storage for change feed subscribers; only in-memory storage records them
+     */
+    @Bean
+    WidgetChangeFeed widgetChangeFeed(final AppConfiguration config, final WidgetDao<Widget> widgetDao,
+                                      final Clock clock) {
+        final WidgetChangeFeed feed = new WidgetChangeFeed(config.getChangeFeedCapacity(),
+                Schedulers.newSingle("changes"), ChronoUnit.MICROS.between(Instant.EPOCH, clock.instant()));
+        widgetDao.setChangeListener(feed);
+        return feed;
+    }
+
+    @Bean
+    MeterBinder widgetChangeFeedMetrics(final WidgetChangeFeed feed) {
+        return registry -> Gauge.builder("widget.changes.subscribers", feed, WidgetChangeFeed::subscribers)
+                .description("Number of open change feed streams")
+                .register(registry);
+    }
+
+    /*
+     * stores of boards, see WidgetBoards. Every board gets a new storage of the selected implementation;
+     * off-heap storage sizes its index for the whole capacity upfront, so boards use columnar storage instead.
+     * Boards are not durable with the write-ahead log, they are only paged out
+     */
+    @Bean
+    WidgetBoards widgetBoards(final AppConfiguration config, final IdGenerator idGenerator, final Clock clock)
+            throws IOException {
+        return new WidgetBoards(() -> boardStorage(config, idGenerator, clock), clock, config.getBoardIdleTimeout(),
+                config.getBoardPath() != null ? Path.of(config.getBoardPath()) : null);
+    }
+
+    private static WidgetDao<Widget> boardStorage(final AppConfiguration config, final IdGenerator idGenerator,
+                                                  final Clock clock) {
+        switch (config.getStorage()) {
+            case TREE:
+                return new TreeWidgetDao(idGenerator, clock);
+            case COLUMNAR:
+            case OFF_HEAP:
+                return new ColumnarWidgetDao(idGenerator, clock);
+            case GAP:
+                return new GapWidgetDao(idGenerator, clock);
+            case IN_MEMORY:
+            default:
+                return new InMemoryWidgetDao(idGenerator, new ArrayList<>(), new ConcurrentHashMap<>(), clock,
+                        newWidgetLock(config));
+        }
+    }
+
+    @Bean
+    MeterBinder widgetBoardsMetrics(final WidgetBoards boards) {
+        return registry -> {
+            Gauge.builder("widget.boards", boards, WidgetBoards::loaded)
+                    .description("Number of boards in memory")
+                    .tag("state", "loaded")
+                    .register(registry);
+            Gauge.builder("widget.boards", boards, WidgetBoards::pagedOut)
+                    .description("Number of boards paged out")
+                    .tag("state", "paged-out")
+                    .register(registry);
+        };
+    }
+
+    /*
+     * placement of boards on cluster nodes; without cluster nodes every board is served by this instance
+     */
+    @Bean
+    BoardRing boardRing(final AppConfiguration config) {
+        if (!config.getClusterNodes().isEmpty() && (config.getClusterNode() == null)) {
+            throw new IllegalStateException("clusterNode must be set to the URL of this instance in clusterNodes");
+        }
+        if (!config.getClusterNodes().isEmpty() && (config.getClusterSecret() == null)) {
+            throw new IllegalStateException("clusterSecret must be set, nodes only trust each other with it");
+        }
+        return new BoardRing(config.getClusterNodes(), config.getClusterVirtualNodes());
+    }
+
+    /*
+     * client requests are forwarded to other cluster nodes with, boards are handed over with,
+     * and a replica follows its leader with
+     */
+    @Bean
+    HttpClient clusterClient(final AppConfiguration config) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(config.getClusterTimeout())
+                .build();
+    }
+
+    /*
+     * follows the leader if this instance is its replica; only in-memory storage can replay the leader's changes
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "replicaOf")
+    WidgetReplica widgetReplica(final AppConfiguration config, final InMemoryWidgetDao inMemoryWidgetDao,
+                                final HttpClient clusterClient, final ObjectMapper mapper, final Clock clock) {
+        if (config.getStorage() != AppConfiguration.Storage.IN_MEMORY) {
+            throw new IllegalStateException("Replica needs in-memory storage, not " + config.getStorage());
+        }
+        final WidgetReplica replica = new WidgetReplica(inMemoryWidgetDao, config.getReplicaOf(), clusterClient, mapper,
+                clock, config.getReplicaHeartbeat());
+        replica.start();
+        return replica;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "replicaOf")
+    MeterBinder widgetReplicaMetrics(final WidgetReplica replica) {
+        return registry -> Gauge.builder("widget.replica.lag", replica, WidgetReplica::lag)
+                .description("Milliseconds since the replica was last known in sync with its leader")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    /*
+     * serialized pages of the default storage, see PageCache
+     */
+    @Bean
+    @ConditionalOnProperty(name = "pageCacheSize")
+    PageCache pageCache(final AppConfiguration config, final ObjectMapper mapper) {
+        return new PageCache(config.getPageCacheSize().toBytes(), mapper);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pageCacheSize")
+    MeterBinder pageCacheMetrics(final PageCache cache) {
+        return registry -> {
+            FunctionCounter.builder("widget.page.cache.calls", cache, PageCache::hits)
+                    .description("Pages sent as cached")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("widget.page.cache.calls", cache, PageCache::revalidations)
+                    .description("Pages loaded again and found unchanged, so not serialized")
+                    .tag("result", "revalidated")
+                    .register(registry);
+            FunctionCounter.builder("widget.page.cache.calls", cache, PageCache::misses)
+                    .description("Pages loaded and serialized")
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("widget.page.cache.evictions", cache, PageCache::evictions)
+                    .description("Pages evicted to stay within the cache size")
+                    .register(registry);
+            Gauge.builder("widget.page.cache.hit.ratio", cache, PageCache::hitRatio)
+                    .description("Share of pages sent without serializing them")
+                    .register(registry);
+            Gauge.builder("widget.page.cache.size", cache, PageCache::weight)
+                    .description("Weight of cached pages")
+                    .baseUnit("bytes")
+                    .register(registry);
+        };
+    }
+
+    /*
+     * threads reactive controller calls storage on, so event loop threads never wait for the storage lock
+     */
+    @Bean(destroyMethod = "dispose")
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    Scheduler storageScheduler() {
+        return Schedulers.newBoundedElastic(Schedulers.DEFAULT_BOUNDED_ELASTIC_SIZE,
+                Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "storage");
+    }
+
+    /*
+     * with virtual threads Tomcat handles every request on a new virtual thread instead of its worker pool,
+     * so a request waiting for the storage lock or for its log fsync doesn't hold a platform thread
+     */
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnProperty(name = "threads", havingValue = "virtual")
+    TomcatProtocolHandlerCustomizer<?> virtualThreads(final AppConfiguration config) {
+        VirtualThreads.checkStorage(config);
+        final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /*
+     * id lookup of in-memory persistence, it is read without locking
+     */
+    @Bean
+    ConcurrentHashMap<String, Widget> widgetLookup() {
+        return new ConcurrentHashMap<>();
+    }
+
+    /*
+     * this is where we select how widget ids look like
+     */
+    @Bean
+    IdGenerator idGenerator(final AppConfiguration config, final Clock clock) {
+        switch (config.getIds()) {
+            case TIME_ORDERED:
+                return new TimeOrderedIdGenerator(clock, config.getNodeId());
+            case UUID:
+            default:
+                return new IdGenerator();
+        }
     }
 
     @Bean
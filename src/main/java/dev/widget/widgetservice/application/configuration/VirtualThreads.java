@@ -0,0 +1,35 @@
+package dev.widget.widgetservice.application.configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Virtual threads are looked up reflectively: the build targets Java 11 like the rest of the service,
+ * and only this mode needs Java 21 at run time.
+ * A virtual thread blocked inside a synchronized block pins its carrier thread, so the mode is allowed only
+ * with storage guarded by java.util.concurrent locks: in-memory storage with any concurrency but monitor
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or newer, running on " + Runtime.version());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create virtual thread executor", e);
+        }
+    }
+
+    static void checkStorage(final AppConfiguration config) {
+        if ((config.getStorage() != AppConfiguration.Storage.IN_MEMORY)
+                || (config.getConcurrency() == AppConfiguration.Concurrency.MONITOR)) {
+            throw new IllegalStateException(String.format(
+                    "Storage %s with %s concurrency pins virtual threads; use in-memory storage "
+                            + "with read-write, optimistic, or snapshot concurrency",
+                    config.getStorage(), config.getConcurrency()));
+        }
+    }
+}
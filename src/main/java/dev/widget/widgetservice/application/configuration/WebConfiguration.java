@@ -0,0 +1,31 @@
+package dev.widget.widgetservice.application.configuration;
+
+import dev.widget.widgetservice.controllers.BoardForwarding;
+import dev.widget.widgetservice.controllers.EndpointMetrics;
+import dev.widget.widgetservice.controllers.ReplicaReads;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class WebConfiguration implements WebMvcConfigurer {
+    private final EndpointMetrics endpointMetrics;
+    private final BoardForwarding boardForwarding;
+    private final ReplicaReads replicaReads;
+
+    public WebConfiguration(final EndpointMetrics endpointMetrics, final BoardForwarding boardForwarding,
+                            final ReplicaReads replicaReads) {
+        this.endpointMetrics = endpointMetrics;
+        this.boardForwarding = boardForwarding;
+        this.replicaReads = replicaReads;
+    }
+
+    @Override
+    public void addInterceptors(final InterceptorRegistry registry) {
+        registry.addInterceptor(endpointMetrics);
+        registry.addInterceptor(replicaReads);
+        registry.addInterceptor(boardForwarding).addPathPatterns("/boards/**");
+    }
+}
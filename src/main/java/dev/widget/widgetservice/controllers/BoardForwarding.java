@@ -0,0 +1,302 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.persistance.BoardRing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.servlet.HandlerInterceptor;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/*
+ * Forwards requests to boards of other cluster nodes to their owners, see BoardRing, and streams responses back,
+ * so any node accepts any request. Forwarded request is marked with the node it came from, and the owner serves it
+ * itself even if its node list differs, so a request never bounces between nodes.
+ * Requests without a board go to the default storage of the node they come to.
+ * A node serves a board only once it has taken the board over from the node which may still have it: from
+ * the previous owner after the node list changed, and from the node which forwarded a board placed elsewhere here,
+ * as lists differ while a new one is passed on. Otherwise a write would create an empty board here, and the old
+ * owner could never hand the board over. Boards handed over come marked and are served as they are.
+ * Marks are trusted only on requests which carry clusterSecret, so only other nodes make a node serve a board
+ * it doesn't own, or skip taking it over; clients can't, and their marks are not forwarded either.
+ * Registered as interceptor on servlet stack, and picked up as web filter on reactive stack.
+ */
+@Component
+public class BoardForwarding implements HandlerInterceptor, WebFilter {
+    public static final String FORWARDED_HEADER = "X-Widget-Forwarded-By";
+    public static final String HANDOFF_HEADER = "X-Widget-Handoff";
+    public static final String SECRET_HEADER = "X-Widget-Cluster-Secret";
+    static final String HANDOFF_PATH = "/cluster/boards/%s/handoff";
+
+    private static final Logger logger = LoggerFactory.getLogger(BoardForwarding.class);
+    private static final Pattern BOARD_PATH = Pattern.compile("/boards/([\\w-]+)(/.*)?");
+    private static final long TAKE_OVER_RETRY_MILLIS = 50;
+    // connection specific, set by the client itself, or set by this node
+    private static final Set<String> SKIPPED_HEADERS = Set.of("connection", "content-length", "date", "expect", "from",
+            "host", "keep-alive", "proxy-connection", "te", "trailer", "transfer-encoding", "upgrade", "via", "warning",
+            "x-widget-forwarded-by", "x-widget-handoff", "x-widget-cluster-secret");
+
+    private final BoardRing ring;
+    private final String node;
+    private final Duration timeout;
+    private final String secret;
+    private final HttpClient client;
+    private final WebClient webClient;
+    private final ObjectMapper mapper;
+
+    public BoardForwarding(final BoardRing ring, final AppConfiguration config, final HttpClient client,
+                           final ObjectMapper mapper) {
+        this.ring = ring;
+        this.node = config.getClusterNode();
+        this.timeout = config.getClusterTimeout();
+        this.secret = config.getClusterSecret();
+        this.client = client;
+        this.webClient = WebClient.create();
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+                             final Object handler) throws IOException, InterruptedException {
+        final boolean peer = isPeer(secret, request.getHeader(SECRET_HEADER));
+        final String forwardedBy = peer ? request.getHeader(FORWARDED_HEADER) : null;
+        final String owner = owner(request.getRequestURI(), forwardedBy);
+        if (owner == null) {
+            final String boardId = boardId(request.getRequestURI());
+            final String source = source(boardId, forwardedBy, peer ? request.getHeader(HANDOFF_HEADER) : null);
+            final ErrorResponse error = (source != null) ? takeOver(boardId, source) : null;
+            if (error != null) {
+                response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                mapper.writeValue(response.getOutputStream(), error);
+            }
+            return error == null;
+        }
+        final HttpRequest.Builder forwarded = HttpRequest.newBuilder(uri(owner, request.getRequestURI(),
+                request.getQueryString()))
+                .timeout(timeout)
+                .method(request.getMethod(), (request.getContentLengthLong() > 0)
+                        || (request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null)
+                        ? HttpRequest.BodyPublishers.ofInputStream(() -> body(request))
+                        : HttpRequest.BodyPublishers.noBody());
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (!skipped(name)) {
+                Collections.list(request.getHeaders(name)).forEach(value -> forwarded.header(name, value));
+            }
+        }
+        forwarded.header(FORWARDED_HEADER, node);
+        forwarded.header(SECRET_HEADER, secret);
+        final HttpResponse<InputStream> result;
+        try {
+            result = client.send(forwarded.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            logger.warn("Request can't be forwarded to [{}]", owner, e);
+            response.setStatus(HttpStatus.BAD_GATEWAY.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            mapper.writeValue(response.getOutputStream(), unavailable(owner));
+            return false;
+        }
+        response.setStatus(result.statusCode());
+        result.headers().map().forEach((name, values) -> {
+            if (!skipped(name)) {
+                values.forEach(value -> response.addHeader(name, value));
+            }
+        });
+        try (InputStream body = result.body()) {
+            body.transferTo(response.getOutputStream());
+        }
+        return false;
+    }
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        final ServerHttpRequest request = exchange.getRequest();
+        final ServerHttpResponse response = exchange.getResponse();
+        final boolean peer = isPeer(secret, request.getHeaders().getFirst(SECRET_HEADER));
+        final String forwardedBy = peer ? request.getHeaders().getFirst(FORWARDED_HEADER) : null;
+        final String owner = owner(request.getURI().getRawPath(), forwardedBy);
+        if (owner == null) {
+            final String boardId = boardId(request.getURI().getRawPath());
+            final String source = source(boardId, forwardedBy,
+                    peer ? request.getHeaders().getFirst(HANDOFF_HEADER) : null);
+            if (source == null) {
+                return chain.filter(exchange);
+            }
+            return Mono.fromCallable(() -> Optional.ofNullable(takeOver(boardId, source)))
+                    .subscribeOn(Schedulers.boundedElastic()) // waits for the other node
+                    .flatMap(error -> error.isPresent()
+                            ? write(response, HttpStatus.SERVICE_UNAVAILABLE, error.get())
+                            : chain.filter(exchange));
+        }
+        return webClient.method(request.getMethod())
+                .uri(uri(owner, request.getURI().getRawPath(), request.getURI().getRawQuery()))
+                .headers(headers -> {
+                    request.getHeaders().forEach((name, values) -> {
+                        if (!skipped(name)) {
+                            headers.addAll(name, values);
+                        }
+                    });
+                    headers.set(FORWARDED_HEADER, node);
+                    headers.set(SECRET_HEADER, secret);
+                })
+                .body(BodyInserters.fromDataBuffers(request.getBody()))
+                .exchange()
+                .timeout(timeout)
+                .flatMap(result -> {
+                    response.setStatusCode(result.statusCode());
+                    result.headers().asHttpHeaders().forEach((name, values) -> {
+                        if (!skipped(name)) {
+                            response.getHeaders().addAll(name, values);
+                        }
+                    });
+                    return response.writeWith(result.bodyToFlux(DataBuffer.class));
+                })
+                .onErrorResume(e -> !response.isCommitted(), e -> {
+                    logger.warn("Request can't be forwarded to [{}]", owner, e);
+                    return write(response, HttpStatus.BAD_GATEWAY, unavailable(owner));
+                });
+    }
+
+    /*
+     * node the request goes to, or null if this node serves it
+     */
+    String owner(final String path, final String forwardedBy) {
+        if ((forwardedBy != null) || !ring.isClustered()) {
+            return null;
+        }
+        final String boardId = boardId(path);
+        if (boardId == null) {
+            return null;
+        }
+        final String owner = ring.owner(boardId);
+        return owner.equals(node) ? null : owner;
+    }
+
+    /*
+     * node the board has to be taken over from before this node serves it, or null if it is here already
+     */
+    String source(final String boardId, final String forwardedBy, final String handoff) {
+        if ((boardId == null) || (handoff != null) || (node == null) || !ring.isClustered()) {
+            return null;
+        }
+        if (!ring.owner(boardId).equals(node)) {
+            return forwardedBy; // the forwarding node places it here, so it is handing the board over
+        }
+        final String previous = ring.previousOwner(boardId);
+        return (previous == null) || previous.equals(node) || ring.isTakenOver(boardId) ? null : previous;
+    }
+
+    /*
+     * asks the source to hand the board over to this node; retries while the source places the board elsewhere,
+     * until its node list changes too or the timeout passes. Returns null once the board is here, or the error
+     */
+    ErrorResponse takeOver(final String boardId, final String source) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            final HttpResponse<String> response;
+            try {
+                response = client.send(HttpRequest.newBuilder(URI.create(source + format(HANDOFF_PATH, boardId)))
+                        .timeout(timeout)
+                        .header(FORWARDED_HEADER, node)
+                        .header(SECRET_HEADER, secret)
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build(), HttpResponse.BodyHandlers.ofString());
+            } catch (IOException e) {
+                logger.warn("Board [{}] can't be taken over, [{}] is not available", boardId, source, e);
+                return handingOver(boardId, source);
+            }
+            final int status = response.statusCode();
+            if (status == HttpStatus.NO_CONTENT.value()) {
+                if (ring.owner(boardId).equals(node)) {
+                    ring.setTakenOver(boardId);
+                }
+                return null;
+            }
+            if ((status != HttpStatus.CONFLICT.value()) || (System.nanoTime() - deadline >= 0)) {
+                logger.warn("Board [{}] can't be taken over from [{}]: {} {}", boardId, source, status,
+                        response.body());
+                return handingOver(boardId, source);
+            }
+            Thread.sleep(TAKE_OVER_RETRY_MILLIS);
+        }
+    }
+
+    /*
+     * true if the request comes from another cluster node, or an operator: it carries the secret nodes share
+     */
+    static boolean isPeer(final String secret, final String presented) {
+        return (secret != null) && (presented != null) && MessageDigest.isEqual(
+                secret.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mono<Void> write(final ServerHttpResponse response, final HttpStatus status, final ErrorResponse error) {
+        response.setStatusCode(status);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return Mono.fromCallable(() -> response.bufferFactory().wrap(mapper.writeValueAsBytes(error)))
+                .flatMap(buffer -> response.writeWith(Mono.just(buffer)));
+    }
+
+    private static String boardId(final String path) {
+        final Matcher matcher = BOARD_PATH.matcher(path);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    private static URI uri(final String owner, final String path, final String query) {
+        return URI.create(owner + path + (query != null ? "?" + query : ""));
+    }
+
+    private static boolean skipped(final String header) {
+        return SKIPPED_HEADERS.contains(header.toLowerCase(Locale.ROOT));
+    }
+
+    private static InputStream body(final HttpServletRequest request) {
+        try {
+            return request.getInputStream();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ErrorResponse unavailable(final String owner) {
+        return ErrorResponse.builder().message(format("Board owner %s is not available", owner)).build();
+    }
+
+    private static ErrorResponse handingOver(final String boardId, final String source) {
+        return ErrorResponse.builder().message(format("Board [%s] is being handed over from %s", boardId, source))
+                .build();
+    }
+}
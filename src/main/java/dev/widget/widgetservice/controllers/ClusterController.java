@@ -0,0 +1,280 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.BoardRing;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/*
+ * Membership of the cluster: node list set on any node is passed on to every node which is or was in it,
+ * then every node hands boards it doesn't own anymore over to their new owners by import, in the background.
+ * A joining node is added to the list and starts with the boards it owns now; a leaving node is removed from it,
+ * hands all its boards over, and may be stopped once it has no boards loaded.
+ * Board owner which already got widgets of its own, e.g. from clients with a different node list, refuses
+ * the import; the board then stays where it was and is logged, as merging two boards would reorder their Z.
+ * Nodes also hand boards over on start, e.g. paged out boards of a node which restarts with a new node list.
+ * A new owner doesn't wait for the background: it takes a board over before serving it (see BoardForwarding),
+ * and the node which has the board hands it over right away. If that node is gone for good, setting the same
+ * node list once more lets the new owners serve its boards without it.
+ * Node list and handoff are served only to requests with clusterSecret, i.e. to other nodes and operators,
+ * as they make a node send its boards elsewhere. The secret must not reach clients; nodes send it to each other
+ * in plain HTTP unless their URLs are https, so they are expected to talk over a private network.
+ */
+@RestController
+@Component
+public class ClusterController {
+    private final static String CLUSTER_NODES_PATH = "/cluster/nodes";
+    private final static String BOARD_HANDOFF_PATH = "/cluster/boards/{boardId:[\\w-]+}/handoff";
+    private final static Pattern NODE = Pattern.compile("https?://[^/?#]+");
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterController.class);
+
+    private final BoardRing ring;
+    private final WidgetBoards boards;
+    private final String node;
+    private final Duration timeout;
+    private final String secret;
+    private final HttpClient client;
+    private final ObjectMapper mapper;
+    private final ObjectWriter lineWriter;
+    private final ExecutorService handoffs = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "widget-board-handoff");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService takeOvers = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "widget-board-take-over");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ClusterController(final BoardRing ring, final WidgetBoards boards, final AppConfiguration config,
+                             final HttpClient client, final ObjectMapper mapper) {
+        this.ring = ring;
+        this.boards = boards;
+        this.node = config.getClusterNode();
+        this.timeout = config.getClusterTimeout();
+        this.secret = config.getClusterSecret();
+        this.client = client;
+        this.mapper = mapper;
+        this.lineWriter = WidgetController.lineWriter(mapper);
+    }
+
+    @GetMapping(CLUSTER_NODES_PATH)
+    public ResponseEntity<List<String>> getNodes() {
+        return ResponseEntity.ok(ring.getNodes());
+    }
+
+    /*
+     * replaces node list; nodes are base URLs like http://host:port. Request which has come from another node
+     * is not passed on. Accepted as soon as this node uses the list, boards are handed over later.
+     * A list set by an operator must keep this node, so it is set on a node which stays and passed on from there
+     */
+    @PutMapping(CLUSTER_NODES_PATH)
+    public ResponseEntity setNodes(@RequestHeader(name = BoardForwarding.SECRET_HEADER, required = false)
+                                   final String presented,
+                                   @RequestHeader(name = BoardForwarding.FORWARDED_HEADER, required = false)
+                                   final String forwardedBy,
+                                   @RequestBody final List<String> nodes) {
+        if (!BoardForwarding.isPeer(secret, presented)) {
+            return forbidden();
+        }
+        if (node == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(
+                    ErrorResponse.builder().message("Node has no clusterNode URL, so it can't be clustered").build()
+            );
+        }
+        for (String each : nodes) {
+            if ((each == null) || !NODE.matcher(each).matches()) {
+                return ResponseEntity.badRequest().body(
+                        ErrorResponse.builder().message(format("Node %s is not a base URL", each)).build()
+                );
+            }
+        }
+        if (Set.copyOf(nodes).size() != nodes.size()) {
+            return ResponseEntity.badRequest().body(
+                    ErrorResponse.builder().message("Node list has duplicates").build()
+            );
+        }
+        if ((forwardedBy == null) && !nodes.contains(node)) {
+            return ResponseEntity.badRequest().body(
+                    ErrorResponse.builder().message(format("Node list has no %s, set it on a node which stays", node))
+                            .build()
+            );
+        }
+        final Set<String> affected = new LinkedHashSet<>(ring.getNodes());
+        affected.addAll(nodes);
+        affected.remove(node);
+        ring.setNodes(nodes);
+        handoffs.execute(() -> {
+            if (forwardedBy == null) {
+                affected.forEach(other -> propagate(other, nodes));
+            }
+            handOff();
+        });
+        return ResponseEntity.accepted().body(nodes);
+    }
+
+    /*
+     * hands the board over to the node which asks for it, right away, as that node waits to serve it.
+     * Conflict if this node places the board elsewhere: the node list is yet to change here, so the caller retries
+     */
+    @PostMapping(BOARD_HANDOFF_PATH)
+    public CompletableFuture<ResponseEntity> handOver(
+            @RequestHeader(name = BoardForwarding.SECRET_HEADER, required = false) final String presented,
+            @RequestHeader(name = BoardForwarding.FORWARDED_HEADER, required = false) final String requestedBy,
+            @PathVariable final String boardId) {
+        if (!BoardForwarding.isPeer(secret, presented)) {
+            return CompletableFuture.completedFuture(forbidden());
+        }
+        if ((requestedBy == null) || !requestedBy.equals(ring.owner(boardId))) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.CONFLICT).body(
+                    ErrorResponse.builder().message(format("Board [%s] belongs to %s here", boardId,
+                            ring.owner(boardId))).build()
+            ));
+        }
+        return CompletableFuture.supplyAsync(() -> boards.release(boardId,
+                widgets -> transfer(requestedBy, boardId, widgets))
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.status(HttpStatus.BAD_GATEWAY).body(
+                        ErrorResponse.builder().message(format("Board [%s] stays here", boardId)).build()
+                ), takeOvers);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void started() {
+        if (ring.isClustered()) {
+            handoffs.execute(this::handOff);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        handoffs.shutdown();
+        takeOvers.shutdown();
+        handoffs.awaitTermination(1, TimeUnit.MINUTES);
+        takeOvers.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /*
+     * hands over every board this node doesn't own. Returns the number of boards which stay here though
+     */
+    int handOff() {
+        int kept = 0;
+        try {
+            for (String boardId : boards.ids()) {
+                final String owner = ring.owner(boardId);
+                if ((owner != null) && !owner.equals(node)
+                        && !boards.release(boardId, widgets -> transfer(owner, boardId, widgets))) {
+                    ++kept;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Boards can't be handed over", e);
+        }
+        return kept;
+    }
+
+    /*
+     * imports widgets into the board on its owner, true if the owner has them now
+     */
+    private boolean transfer(final String owner, final String boardId, final List<Widget> widgets) {
+        try {
+            final HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                    URI.create(format("%s/boards/%s/widgets/import", owner, boardId)))
+                    .timeout(timeout)
+                    .header(HttpHeaders.CONTENT_TYPE, WidgetController.NDJSON)
+                    .header(BoardForwarding.FORWARDED_HEADER, node)
+                    .header(BoardForwarding.HANDOFF_HEADER, "true")
+                    .header(BoardForwarding.SECRET_HEADER, secret)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(lines(widgets)))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() == HttpStatus.NO_CONTENT.value()) {
+                return true;
+            }
+            logger.warn("Board [{}] stays, [{}] refused it: {} {}", boardId, owner, response.statusCode(),
+                    response.body());
+        } catch (IOException e) {
+            logger.warn("Board [{}] stays, [{}] is not available", boardId, owner, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void propagate(final String other, final List<String> nodes) {
+        try {
+            final HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                    URI.create(other + CLUSTER_NODES_PATH))
+                    .timeout(timeout)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .header(BoardForwarding.FORWARDED_HEADER, node)
+                    .header(BoardForwarding.SECRET_HEADER, secret)
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(nodes)))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != HttpStatus.ACCEPTED.value()) {
+                logger.warn("Node list is not set on [{}]: {} {}", other, response.statusCode(), response.body());
+            }
+        } catch (IOException e) {
+            logger.warn("Node list is not set on [{}], it is not available", other, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ResponseEntity forbidden() {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(
+                ErrorResponse.builder().message("Cluster endpoints need clusterSecret of the cluster").build()
+        );
+    }
+
+    private byte[] lines(final List<Widget> widgets) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = lineWriter.createGenerator(out)) {
+            for (Widget widget : widgets) {
+                lineWriter.writeValue(generator, widget);
+                generator.writeRaw('\n');
+            }
+        }
+        return out.toByteArray();
+    }
+}
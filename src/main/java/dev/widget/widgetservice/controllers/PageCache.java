@@ -0,0 +1,192 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import dev.widget.widgetservice.models.Widget;
+import lombok.Value;
+
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Serialized pages of the default storage, so hot pages, e.g. the first ones every dashboard polls,
+ * are neither loaded nor serialized again as long as the storage doesn't change.
+ * A page is cached along with the storage version it was loaded at. A call at the same version gets it as is;
+ * after a change the page is loaded again and compared with the cached widgets, so a change which doesn't touch it,
+ * e.g. a widget created in the foreground while the page is in the background, costs a load but no serialization.
+ * Pages are evicted least recently used first once their total weight is above the capacity; weight is the body
+ * plus the widgets kept for comparison, which take about as much heap as their JSON.
+ */
+public class PageCache {
+    private final long capacity; // bytes
+    private final ObjectWriter writer;
+    private final LinkedHashMap<Key, Page> pages = new LinkedHashMap<>(16, 0.75f, true); // guarded by itself
+    private long weight; // of all pages, guarded by pages
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PageCache(final long capacity, final ObjectMapper mapper) {
+        this.capacity = capacity;
+        this.writer = mapper.writerFor(new TypeReference<List<Widget>>() {
+        });
+    }
+
+    public static Key offset(final int pageSize, final int offset) {
+        return new Key(false, pageSize, offset);
+    }
+
+    public static Key after(final int pageSize, final int after) {
+        return new Key(true, pageSize, after);
+    }
+
+    /*
+     * page cached at given storage version or later, null if there is none; cheap enough for an event loop
+     */
+    public Page get(final Key key, final long version) {
+        final Page page;
+        synchronized (pages) {
+            page = pages.get(key);
+        }
+        if ((page == null) || (page.version < version)) {
+            return null;
+        }
+        hits.increment();
+        return page;
+    }
+
+    /*
+     * loads page as of given storage version, serializes it only if it isn't cached with the same widgets,
+     * and caches it
+     */
+    public Page load(final Key key, final long version, final Supplier<List<Widget>> loader) {
+        final List<Widget> widgets = loader.get();
+        final Page cached;
+        synchronized (pages) {
+            cached = pages.get(key);
+        }
+        final Page page;
+        if ((cached != null) && cached.widgets.equals(widgets)) {
+            revalidations.increment();
+            page = new Page(widgets, cached.body, version);
+        } else {
+            misses.increment();
+            try {
+                page = new Page(widgets, writer.writeValueAsBytes(widgets), version);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        put(key, page);
+        return page;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long revalidations() {
+        return revalidations.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /*
+     * share of calls which didn't serialize anything
+     */
+    public double hitRatio() {
+        final long hits = hits() + revalidations();
+        final long calls = hits + misses();
+        return calls > 0 ? (double) hits / calls : 0;
+    }
+
+    public long weight() {
+        synchronized (pages) {
+            return weight;
+        }
+    }
+
+    public int size() {
+        synchronized (pages) {
+            return pages.size();
+        }
+    }
+
+    private void put(final Key key, final Page page) {
+        synchronized (pages) {
+            final Page previous = pages.get(key);
+            if ((previous != null) && (previous.version > page.version)) {
+                return; // a later call cached it already
+            }
+            if (previous != null) {
+                pages.remove(key);
+                weight -= previous.weight();
+            }
+            if (page.weight() > capacity) {
+                return;
+            }
+            pages.put(key, page);
+            weight += page.weight();
+            final Iterator<Page> eldest = pages.values().iterator();
+            while (weight > capacity) {
+                weight -= eldest.next().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /*
+     * which page: offset or cursor of keyset pagination, and page size
+     */
+    @Value
+    public static class Key {
+        boolean after;
+        int pageSize;
+        int position;
+    }
+
+    /*
+     * widgets of a page, and their JSON array
+     */
+    public static final class Page {
+        private final List<Widget> widgets;
+        private final byte[] body;
+        private final long version;
+
+        private Page(final List<Widget> widgets, final byte[] body, final long version) {
+            this.widgets = widgets;
+            this.body = body;
+            this.version = version;
+        }
+
+        public List<Widget> getWidgets() {
+            return widgets;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        private long weight() {
+            return 2L * body.length;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import dev.widget.widgetservice.models.WidgetOperation;
+import dev.widget.widgetservice.persistance.Area;
+import dev.widget.widgetservice.persistance.CapacityExceededException;
+import dev.widget.widgetservice.persistance.Operation;
+import dev.widget.widgetservice.persistance.VersionMismatchException;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import dev.widget.widgetservice.persistance.WidgetChangeFeed;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import dev.widget.widgetservice.persistance.WidgetNotFoundException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebInputException;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/*
+ * Same API as WidgetController on WebFlux, used instead of it with reactive profile.
+ * Storage is called on its own scheduler, so event loop never waits for the storage lock,
+ * and pages are serialized a chunk at a time as the connection asks for more, instead of being rendered whole
+ */
+@RestController
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWidgetController {
+    private final static String WIDGETS_PATH = "/widgets";
+    private final static String BOARD_PATH = "/boards/{boardId:[\\w-]+}"; // prefix of the same routes on a board
+    private final static String WIDGET_PATH = "/widget/{id}";
+    private final static String BATCH_PATH = "/widgets/batch";
+    private final static String EXPORT_PATH = "/widgets/export";
+    private final static String IMPORT_PATH = "/widgets/import";
+    private final static String CHANGES_PATH = "/widgets/changes";
+    private final static String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private final static MediaType NDJSON = MediaType.parseMediaType(WidgetController.NDJSON);
+    private final static int CHUNK_SIZE = 64; // widgets serialized into one buffer of a page
+
+    private final WidgetDao<Widget> dao;
+    private final AppConfiguration config;
+    private final ObjectWriter writer;
+    private final ObjectWriter lineWriter;
+    private final Scheduler scheduler;
+    private final WidgetChangeFeed feed;
+    private final WidgetBoards boards;
+    private final PageCache pageCache; // null if pages are not cached
+
+    public ReactiveWidgetController(final WidgetDao<Widget> dao, final AppConfiguration config,
+                                    final ObjectMapper mapper, final Scheduler storageScheduler,
+                                    final WidgetChangeFeed feed, final WidgetBoards boards,
+                                    final ObjectProvider<PageCache> pageCache) {
+        this.dao = dao;
+        this.boards = boards;
+        this.pageCache = pageCache.getIfAvailable();
+        this.config = config;
+        this.feed = feed;
+        this.writer = mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.lineWriter = WidgetController.lineWriter(mapper);
+        this.scheduler = storageScheduler;
+    }
+
+    @PostMapping({WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH})
+    public Mono<ResponseEntity> createWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                             @RequestBody final Widget src, final UriComponentsBuilder uriBuilder) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final Widget input = Optional.ofNullable(src).orElseGet(Widget::new);
+        if (!input.isValidSource()) {
+            return Mono.just(ResponseEntity.badRequest().body(
+                    ErrorResponse.builder().message("Request missing required params").build()
+            ));
+        }
+        return call(() -> {
+            final Widget result;
+            try {
+                result = dao.create(src);
+            } catch (CapacityExceededException e) {
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(
+                        ErrorResponse.builder().message(e.getMessage()).build()
+                );
+            }
+            return ResponseEntity.created(
+                    (boardId != null
+                        ? uriBuilder.path(BOARD_PATH + WIDGET_PATH).buildAndExpand(boardId, result.getId())
+                        : uriBuilder.path(WIDGET_PATH).buildAndExpand(result.getId())).toUri()
+            ).body(result);
+        });
+    }
+
+    /*
+     * conditional GETs are answered right on the event loop, see WidgetController; store version is read
+     * without the storage lock
+     */
+    @GetMapping({WIDGET_PATH, BOARD_PATH + WIDGET_PATH})
+    public Mono<ResponseEntity> getWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                          @PathVariable("id") final String id,
+                                          @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        final String current = WidgetController.currentTag(ifNoneMatch, version);
+        if (current != null) {
+            return Mono.just(WidgetController.notModified(current));
+        }
+        return call(() -> {
+            final Widget result = dao.get(id);
+            if (result != null) {
+                return ResponseEntity.ok().eTag(WidgetController.widgetTag(version, result)).body(result);
+            } else {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(
+                        ErrorResponse.builder().message(format("Widget [%s] not found", id)).build()
+                );
+            }
+        });
+    }
+
+    @GetMapping({WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH})
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getAllWidgets(
+            @PathVariable(name = "boardId", required = false) final String boardId,
+            @RequestParam(name = "pageSize", required = false) final Integer pageSize,
+            @RequestParam(name = "offset", required = false) final Integer offset,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+            final ServerHttpResponse response) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final int requestedPageSize = Optional.ofNullable(pageSize).orElseGet(config::getDefaultPageSize);
+        final int requestedOffset = Optional.ofNullable(offset).orElse(0);
+        if (requestedPageSize > config.getMaxPageSize()) {
+            return Mono.just(tooBigPageSize(requestedPageSize, response.bufferFactory()));
+        }
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        if (WidgetController.isCurrent(ifNoneMatch, version)) {
+            return Mono.just(WidgetController.notModified(version));
+        }
+        if ((boardId == null) && (pageCache != null)) {
+            return cached(PageCache.offset(requestedPageSize, requestedOffset), version,
+                    () -> dao.getAll(requestedPageSize, requestedOffset), response.bufferFactory());
+        }
+        return call(() -> {
+            final List<Widget> result = dao.getAll(requestedPageSize, requestedOffset);
+            if (result.size() == 0) {
+                return ResponseEntity.noContent().build();
+            }
+            return ResponseEntity.ok().eTag(Long.toString(version)).contentType(MediaType.APPLICATION_JSON)
+                    .body(stream(result, response.bufferFactory()));
+        });
+    }
+
+    /*
+     * keyset pagination, see WidgetController
+     */
+    @GetMapping(value = {WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH}, params = "after")
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getWidgetsAfter(
+            @PathVariable(name = "boardId", required = false) final String boardId,
+            @RequestParam(name = "pageSize", required = false) final Integer pageSize,
+            @RequestParam(name = "after") final int after,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+            final ServerHttpResponse response) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final int requestedPageSize = Optional.ofNullable(pageSize).orElseGet(config::getDefaultPageSize);
+        if (requestedPageSize > config.getMaxPageSize()) {
+            return Mono.just(tooBigPageSize(requestedPageSize, response.bufferFactory()));
+        }
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        if (WidgetController.isCurrent(ifNoneMatch, version)) {
+            return Mono.just(WidgetController.notModified(version));
+        }
+        if ((boardId == null) && (pageCache != null)) {
+            return cached(PageCache.after(requestedPageSize, after), version,
+                    () -> dao.getAllAfter(requestedPageSize, after), response.bufferFactory());
+        }
+        return call(() -> {
+            final List<Widget> result = dao.getAllAfter(requestedPageSize, after);
+            return page(result, requestedPageSize, version, response.bufferFactory());
+        });
+    }
+
+    /*
+     * widgets inside the rectangle (or intersecting it), see WidgetController
+     */
+    @GetMapping(value = {WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH}, params = {"x1", "y1", "x2", "y2"})
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getWidgetsInArea(
+            @PathVariable(name = "boardId", required = false) final String boardId,
+            @RequestParam(name = "x1") final int x1,
+            @RequestParam(name = "y1") final int y1,
+            @RequestParam(name = "x2") final int x2,
+            @RequestParam(name = "y2") final int y2,
+            @RequestParam(name = "intersecting", defaultValue = "false") final boolean intersecting,
+            @RequestParam(name = "pageSize", required = false) final Integer pageSize,
+            @RequestParam(name = "after", required = false) final Integer after,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+            final ServerHttpResponse response) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final int requestedPageSize = Optional.ofNullable(pageSize).orElseGet(config::getDefaultPageSize);
+        if (requestedPageSize > config.getMaxPageSize()) {
+            return Mono.just(tooBigPageSize(requestedPageSize, response.bufferFactory()));
+        }
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        if (WidgetController.isCurrent(ifNoneMatch, version)) {
+            return Mono.just(WidgetController.notModified(version));
+        }
+        return call(() -> {
+            final List<Widget> result = dao.getAllInArea(Area.of(x1, y1, x2, y2), intersecting, requestedPageSize,
+                    Optional.ofNullable(after).orElse(Integer.MIN_VALUE));
+            return page(result, requestedPageSize, version, response.bufferFactory());
+        });
+    }
+
+    /*
+     * streams every widget of a storage snapshot as newline delimited json, see WidgetController.
+     * Chunks are serialized only as the connection asks for more
+     */
+    @GetMapping({EXPORT_PATH, BOARD_PATH + EXPORT_PATH})
+    public Mono<ResponseEntity<Flux<DataBuffer>>> exportWidgets(
+            @PathVariable(name = "boardId", required = false) final String boardId,
+            @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+            final ServerHttpResponse response) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        if (WidgetController.isCurrent(ifNoneMatch, version)) {
+            return Mono.just(WidgetController.notModified(version));
+        }
+        return call(() -> {
+            final ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+            final List<Widget> widgets;
+            if (boardId == null) { // a replica follows changes right after the export
+                final long[] sequence = new long[1];
+                final long[] storeVersion = new long[1]; // of the snapshot, ETag may be older
+                widgets = dao.snapshot(snapshot -> {
+                    sequence[0] = feed.next();
+                    storeVersion[0] = dao.version();
+                    return snapshot;
+                });
+                builder.header(WidgetController.CHANGE_SEQUENCE_HEADER, Long.toString(sequence[0]));
+                builder.header(WidgetController.STORE_VERSION_HEADER, Long.toString(storeVersion[0]));
+            } else {
+                widgets = dao.snapshot();
+            }
+            return builder.eTag(Long.toString(version)).contentType(NDJSON)
+                    .body(Flux.range(0, (widgets.size() + CHUNK_SIZE - 1) / CHUNK_SIZE)
+                            .map(chunk -> writeLines(widgets, chunk * CHUNK_SIZE,
+                                    Math.min(widgets.size(), (chunk + 1) * CHUNK_SIZE), response.bufferFactory())));
+        });
+    }
+
+    /*
+     * loads newline delimited json as is, chunk by chunk, see WidgetController.
+     * Widgets are decoded one by one as they arrive, storage is called once a chunk is there;
+     * the first error cancels the rest of the body
+     */
+    @PostMapping(value = {IMPORT_PATH, BOARD_PATH + IMPORT_PATH}, consumes = WidgetController.NDJSON)
+    public Mono<ResponseEntity> importWidgets(@PathVariable(name = "boardId", required = false) final String boardId,
+                                              @RequestBody final Flux<Widget> body) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final int[] decoded = new int[1];
+        final int[] imported = new int[1];
+        return body.doOnNext(widget -> ++decoded[0])
+                .buffer(WidgetController.IMPORT_CHUNK_SIZE)
+                .concatMap(chunk -> call(() -> {
+                    final ResponseEntity error = WidgetController.importChunk(dao, chunk, imported[0]);
+                    imported[0] += chunk.size();
+                    return error; // empty if the chunk is restored
+                }))
+                .next()
+                .defaultIfEmpty(ResponseEntity.noContent().build())
+                .onErrorResume(ServerWebInputException.class, e -> Mono.just(WidgetController.importError(
+                        HttpStatus.BAD_REQUEST, format("Widget %s is malformed", decoded[0]), imported[0])));
+    }
+
+    /*
+     * streams changes as server-sent events, see WidgetController. Feed never waits for the storage lock,
+     * so it is subscribed to right on the event loop
+     */
+    @GetMapping(value = CHANGES_PATH, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<WidgetChange>> getChanges(
+            @RequestHeader(name = WidgetController.LAST_EVENT_ID_HEADER, required = false) final Long lastEventId,
+            @RequestParam(name = "heartbeat", required = false) final Long heartbeat) {
+        return WidgetController.withHeartbeats(feed.changes(lastEventId).map(WidgetController::toEvent), heartbeat);
+    }
+
+    @PutMapping({WIDGET_PATH, BOARD_PATH + WIDGET_PATH})
+    public Mono<ResponseEntity> setWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                          @PathVariable("id") final String id, @RequestBody final Widget widget,
+                                          @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final Widget input = Optional.ofNullable(widget).orElseGet(Widget::new);
+        if (!input.isValidSource()) {
+            return Mono.just(ResponseEntity.badRequest().body(
+                    ErrorResponse.builder().message("Request missing required params").build()
+            ));
+        }
+        if ((input.getId() != null) && !Objects.equals(input.getId(), id)) {
+            return Mono.just(ResponseEntity.badRequest().body(
+                    ErrorResponse.builder()
+                            .message(format(
+                                    "Widget ID [%s] from request path doesn't match widget ID [%s] from request body",
+                                    input.getId(), id))
+                            .build()
+            ));
+        }
+        try {
+            input.setVersion(WidgetController.expectedVersion(ifMatch)); // version from the body is not a precondition
+        } catch (NumberFormatException e) {
+            return Mono.just(ResponseEntity.badRequest().body(
+                    ErrorResponse.builder().message("If-Match must be a widget version").build()
+            ));
+        }
+        input.setId(id);
+        return call(() -> {
+            final Widget result;
+            try {
+                result = dao.update(input);
+            } catch (VersionMismatchException e) {
+                return WidgetController.versionMismatch(e);
+            }
+            if (result != null) {
+                return ResponseEntity.ok(result);
+            } else {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(
+                        ErrorResponse.builder().message(format("Widget ID [%s] not found", id)).build()
+                );
+            }
+        });
+    }
+
+    @DeleteMapping({WIDGET_PATH, BOARD_PATH + WIDGET_PATH})
+    public Mono<ResponseEntity> removeWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                             @PathVariable("id") final String id) {
+        final WidgetDao<Widget> dao = board(boardId);
+        return call(() -> {
+            if (dao.delete(id)) {
+                return ResponseEntity.noContent().build();
+            } else {
+                return ResponseEntity.status(HttpStatus.GONE).build();
+            }
+        });
+    }
+
+    /*
+     * applies all operations atomically, see WidgetController
+     */
+    @PostMapping({BATCH_PATH, BOARD_PATH + BATCH_PATH})
+    public Mono<ResponseEntity> applyBatch(@PathVariable(name = "boardId", required = false) final String boardId,
+                                           @RequestBody final List<WidgetOperation> operations) {
+        final WidgetDao<Widget> dao = board(boardId);
+        if (operations.size() > config.getMaxBatchSize()) {
+            return Mono.just(ResponseEntity.badRequest().body(
+                    ErrorResponse.builder()
+                            .message(format(
+                                    "Batch of %s operations is more than maximum batch size %s",
+                                    operations.size(), config.getMaxBatchSize()))
+                            .build()
+            ));
+        }
+        final List<Operation<Widget>> batch = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); ++i) {
+            final Operation<Widget> operation = WidgetController.toOperation(operations.get(i));
+            if (operation == null) {
+                return Mono.just(ResponseEntity.badRequest().body(
+                        ErrorResponse.builder().message(format("Operation %s missing required params", i)).build()
+                ));
+            }
+            batch.add(operation);
+        }
+        return call(() -> {
+            final List<Widget> result;
+            try {
+                result = dao.apply(batch);
+            } catch (WidgetNotFoundException e) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(
+                        ErrorResponse.builder().message(e.getMessage()).build()
+                );
+            } catch (VersionMismatchException e) {
+                return WidgetController.versionMismatch(e);
+            } catch (CapacityExceededException e) {
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(
+                        ErrorResponse.builder().message(e.getMessage()).build()
+                );
+            }
+            return ResponseEntity.ok(result);
+        });
+    }
+
+    /*
+     * storage of the board, or the default one on routes without a board
+     */
+    private WidgetDao<Widget> board(final String boardId) {
+        return boardId != null ? boards.get(boardId) : dao;
+    }
+
+    /*
+     * runs storage call on storage scheduler, response is built there too
+     */
+    private <T> Mono<T> call(final Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(scheduler);
+    }
+
+    /*
+     * page of keyset pagination: next cursor is returned in a header as long as the page is full
+     */
+    private ResponseEntity<Flux<DataBuffer>> page(final List<Widget> result, final int requestedPageSize,
+                                                  final long version, final DataBufferFactory bufferFactory) {
+        if (result.size() == 0) {
+            return ResponseEntity.noContent().build();
+        }
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(Long.toString(version))
+                .contentType(MediaType.APPLICATION_JSON);
+        if (result.size() == requestedPageSize) {
+            response.header(NEXT_CURSOR_HEADER, result.get(result.size() - 1).getZ().toString());
+        }
+        return response.body(stream(result, bufferFactory));
+    }
+
+    /*
+     * page of the default storage as cached JSON, see PageCache: a cached page is sent right from the event loop,
+     * anything else is loaded on the storage scheduler
+     */
+    private Mono<ResponseEntity<Flux<DataBuffer>>> cached(final PageCache.Key key, final long version,
+                                                          final Supplier<List<Widget>> loader,
+                                                          final DataBufferFactory bufferFactory) {
+        final PageCache.Page page = pageCache.get(key, version);
+        if (page != null) {
+            return Mono.just(cached(key, version, page, bufferFactory));
+        }
+        return call(() -> cached(key, version, pageCache.load(key, version, loader), bufferFactory));
+    }
+
+    private static ResponseEntity<Flux<DataBuffer>> cached(final PageCache.Key key, final long version,
+                                                           final PageCache.Page page,
+                                                           final DataBufferFactory bufferFactory) {
+        final List<Widget> result = page.getWidgets();
+        if (result.size() == 0) {
+            return ResponseEntity.noContent().build();
+        }
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(Long.toString(version))
+                .contentType(MediaType.APPLICATION_JSON);
+        if (key.isAfter() && (result.size() == key.getPageSize())) {
+            response.header(NEXT_CURSOR_HEADER, result.get(result.size() - 1).getZ().toString());
+        }
+        return response.body(Flux.defer(() -> Mono.just(bufferFactory.wrap(page.getBody()))));
+    }
+
+    /*
+     * writes widgets as json array, every buffer holds a chunk of them
+     */
+    private Flux<DataBuffer> stream(final List<Widget> widgets, final DataBufferFactory bufferFactory) {
+        return Flux.range(0, (widgets.size() + CHUNK_SIZE - 1) / CHUNK_SIZE)
+                .map(chunk -> write(widgets, chunk * CHUNK_SIZE, Math.min(widgets.size(), (chunk + 1) * CHUNK_SIZE),
+                        bufferFactory));
+    }
+
+    private DataBuffer write(final List<Widget> widgets, final int from, final int to,
+                             final DataBufferFactory bufferFactory) {
+        final DataBuffer buffer = bufferFactory.allocateBuffer();
+        try {
+            final OutputStream out = buffer.asOutputStream();
+            out.write(from == 0 ? '[' : ',');
+            for (int i = from; i < to; ++i) {
+                if (i > from) {
+                    out.write(',');
+                }
+                writer.writeValue(out, widgets.get(i));
+            }
+            if (to == widgets.size()) {
+                out.write(']');
+            }
+            return buffer;
+        } catch (IOException e) {
+            DataBufferUtils.release(buffer);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private DataBuffer writeLines(final List<Widget> widgets, final int from, final int to,
+                                  final DataBufferFactory bufferFactory) {
+        final DataBuffer buffer = bufferFactory.allocateBuffer();
+        try (JsonGenerator generator = lineWriter.createGenerator(buffer.asOutputStream())) {
+            for (int i = from; i < to; ++i) {
+                lineWriter.writeValue(generator, widgets.get(i));
+                generator.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            DataBufferUtils.release(buffer);
+            throw new UncheckedIOException(e);
+        }
+        return buffer;
+    }
+
+    private ResponseEntity<Flux<DataBuffer>> tooBigPageSize(final int requestedPageSize,
+                                                            final DataBufferFactory bufferFactory) {
+        final ErrorResponse error = ErrorResponse.builder()
+                .message(format(
+                        "Requested page size %s is more than maximum page size %s",
+                        requestedPageSize, config.getMaxPageSize()))
+                .build();
+        return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(
+                Mono.fromCallable(() -> bufferFactory.wrap(writer.writeValueAsBytes(error))).flux()
+        );
+    }
+}
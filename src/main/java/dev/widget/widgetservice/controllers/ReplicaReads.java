@@ -0,0 +1,147 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.persistance.WidgetReplica;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.servlet.HandlerInterceptor;
+import reactor.core.publisher.Mono;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/*
+ * Serves reads of a replica, see WidgetReplica: every widget read reports the replica lag in milliseconds,
+ * and is refused with 503 once the lag is above the max, so a read is never staler than that.
+ * Writes, and everything on boards which are not replicated, are redirected to the leader with 307,
+ * so method and body are kept. Does nothing on an instance which is not a replica.
+ * Registered as interceptor on servlet stack, and picked up as web filter on reactive stack.
+ */
+@Component
+public class ReplicaReads implements HandlerInterceptor, WebFilter {
+    public static final String REPLICA_LAG_HEADER = "X-Replica-Lag";
+
+    private static final Pattern WIDGETS_PATH = Pattern.compile("/widgets?(/.*)?");
+    private static final Pattern BOARDS_PATH = Pattern.compile("/boards(/.*)?");
+
+    private final WidgetReplica replica;
+    private final long maxLag;
+    private final ObjectMapper mapper;
+
+    public ReplicaReads(final ObjectProvider<WidgetReplica> replica, final AppConfiguration config,
+                        final ObjectMapper mapper) {
+        this.replica = replica.getIfAvailable();
+        this.maxLag = config.getReplicaMaxLag().toMillis();
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+                             final Object handler) throws IOException {
+        final Decision decision = decide(request.getRequestURI(), HttpMethod.resolve(request.getMethod()));
+        if (decision == null) {
+            return true;
+        }
+        if (decision.lag != null) {
+            response.setHeader(REPLICA_LAG_HEADER, decision.lag);
+        }
+        if (decision.status == null) {
+            return true;
+        }
+        response.setStatus(decision.status.value());
+        if (decision.status == HttpStatus.TEMPORARY_REDIRECT) {
+            response.setHeader(HttpHeaders.LOCATION, replica.getLeader() + request.getRequestURI()
+                    + (request.getQueryString() != null ? "?" + request.getQueryString() : ""));
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        mapper.writeValue(response.getOutputStream(), decision.error);
+        return false;
+    }
+
+    @Override
+    public Mono<Void> filter(final ServerWebExchange exchange, final WebFilterChain chain) {
+        final ServerHttpRequest request = exchange.getRequest();
+        final Decision decision = decide(request.getURI().getRawPath(), request.getMethod());
+        if (decision == null) {
+            return chain.filter(exchange);
+        }
+        final ServerHttpResponse response = exchange.getResponse();
+        if (decision.lag != null) {
+            response.getHeaders().set(REPLICA_LAG_HEADER, decision.lag);
+        }
+        if (decision.status == null) {
+            return chain.filter(exchange);
+        }
+        response.setStatusCode(decision.status);
+        if (decision.status == HttpStatus.TEMPORARY_REDIRECT) {
+            response.getHeaders().set(HttpHeaders.LOCATION, replica.getLeader() + request.getURI().getRawPath()
+                    + (request.getURI().getRawQuery() != null ? "?" + request.getURI().getRawQuery() : ""));
+        }
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return Mono.fromCallable(() -> response.bufferFactory().wrap(mapper.writeValueAsBytes(decision.error)))
+                .flatMap(buffer -> response.writeWith(Mono.just(buffer)));
+    }
+
+    /*
+     * what a replica does with the request: null if it is not about widgets or this is no replica,
+     * just the lag if it is served, or the status it is refused with
+     */
+    Decision decide(final String path, final HttpMethod method) {
+        if (replica == null) {
+            return null;
+        }
+        final boolean board = BOARDS_PATH.matcher(path).matches();
+        if (!board && !WIDGETS_PATH.matcher(path).matches()) {
+            return null;
+        }
+        if (board || ((method != HttpMethod.GET) && (method != HttpMethod.HEAD))) {
+            return new Decision(HttpStatus.TEMPORARY_REDIRECT, null, board
+                    ? "Boards are not replicated, call the leader"
+                    : "Replica is read-only, write to the leader");
+        }
+        final long lag = replica.lag();
+        if (lag == Long.MAX_VALUE) {
+            return new Decision(HttpStatus.SERVICE_UNAVAILABLE, null, "Replica is not in sync with the leader yet");
+        }
+        if (lag > maxLag) {
+            return new Decision(HttpStatus.SERVICE_UNAVAILABLE, Long.toString(lag),
+                    format("Replica is %s ms behind the leader", lag));
+        }
+        return new Decision(null, Long.toString(lag), null);
+    }
+
+    static final class Decision {
+        private final HttpStatus status; // null if served
+        private final String lag;
+        private final ErrorResponse error;
+
+        private Decision(final HttpStatus status, final String lag, final String message) {
+            this.status = status;
+            this.lag = lag;
+            this.error = message != null ? ErrorResponse.builder().message(message).build() : null;
+        }
+
+        HttpStatus getStatus() {
+            return status;
+        }
+
+        String getLag() {
+            return lag;
+        }
+    }
+}
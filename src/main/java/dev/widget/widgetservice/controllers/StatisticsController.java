@@ -0,0 +1,28 @@
+package dev.widget.widgetservice.controllers;
+
+import dev.widget.widgetservice.persistance.LockStatistics;
+import dev.widget.widgetservice.persistance.WidgetLock;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/*
+ * exposes internal counters, so different storage settings can be compared under the same load
+ */
+@RestController
+@Component
+public class StatisticsController {
+    private final static String LOCK_STATISTICS_PATH = "/statistics/lock";
+
+    private final WidgetLock lock;
+
+    public StatisticsController(final WidgetLock lock) {
+        this.lock = lock;
+    }
+
+    @GetMapping(LOCK_STATISTICS_PATH)
+    public ResponseEntity<LockStatistics> getLockStatistics() {
+        return ResponseEntity.ok(lock.statistics());
+    }
+}
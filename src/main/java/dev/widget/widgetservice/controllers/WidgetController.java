@@ -1,54 +1,134 @@
 package dev.widget.widgetservice.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import dev.widget.widgetservice.application.configuration.AppConfiguration;
 import dev.widget.widgetservice.models.ErrorResponse;
 import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import dev.widget.widgetservice.models.WidgetOperation;
+import dev.widget.widgetservice.persistance.Area;
+import dev.widget.widgetservice.persistance.CapacityExceededException;
+import dev.widget.widgetservice.persistance.IdTooLongException;
+import dev.widget.widgetservice.persistance.Operation;
+import dev.widget.widgetservice.persistance.VersionMismatchException;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import dev.widget.widgetservice.persistance.WidgetChangeFeed;
 import dev.widget.widgetservice.persistance.WidgetDao;
+import dev.widget.widgetservice.persistance.WidgetNotFoundException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 
 import static java.lang.String.format;
 
 @RestController
 @Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class WidgetController {
     private final static String WIDGETS_PATH = "/widgets";
+    private final static String BOARD_PATH = "/boards/{boardId:[\\w-]+}"; // prefix of the same routes on a board
     private final static String WIDGET_PATH = "/widget/{id}";
+    private final static String BATCH_PATH = "/widgets/batch";
+    private final static String EXPORT_PATH = "/widgets/export";
+    private final static String IMPORT_PATH = "/widgets/import";
+    final static String CHANGE_SEQUENCE_HEADER = "X-Change-Sequence";
+    final static String STORE_VERSION_HEADER = "X-Store-Version";
+    final static String HEARTBEAT = "heartbeat";
+    private final static String CHANGES_PATH = "/widgets/changes";
+    private final static String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    final static String NDJSON = "application/x-ndjson";
+    final static String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+    final static int IMPORT_CHUNK_SIZE = 8192; // widgets of an import restored in a single bulk
 
     private final WidgetDao<Widget> dao;
     private final AppConfiguration config;
+    private final ObjectWriter lineWriter;
+    private final ObjectReader reader;
+    private final WidgetChangeFeed feed;
+    private final WidgetBoards boards;
+    private final PageCache pageCache; // null if pages are not cached
 
-    public WidgetController(final WidgetDao<Widget> dao, final AppConfiguration config) {
+    public WidgetController(final WidgetDao<Widget> dao, final AppConfiguration config, final ObjectMapper mapper,
+                            final WidgetChangeFeed feed, final WidgetBoards boards,
+                            final ObjectProvider<PageCache> pageCache) {
         this.dao = dao;
+        this.boards = boards;
+        this.pageCache = pageCache.getIfAvailable();
         this.config = config;
+        this.feed = feed;
+        this.lineWriter = lineWriter(mapper);
+        this.reader = mapper.readerFor(Widget.class);
     }
 
-    @PostMapping(WIDGETS_PATH)
-    public ResponseEntity createWidget(@RequestBody final Widget src, final UriComponentsBuilder uriBuilder) {
+    @PostMapping({WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH})
+    public ResponseEntity createWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                       @RequestBody final Widget src, final UriComponentsBuilder uriBuilder) {
+        final WidgetDao<Widget> dao = board(boardId);
         final Widget input = Optional.ofNullable(src).orElseGet(Widget::new);
         if (!input.isValidSource()) {
             return ResponseEntity.badRequest().body(
                     ErrorResponse.builder().message("Request missing required params").build()
             );
         }
-        final Widget result = dao.create(src);
+        final Widget result;
+        try {
+            result = dao.create(src);
+        } catch (CapacityExceededException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(
+                    ErrorResponse.builder().message(e.getMessage()).build()
+            );
+        }
         return ResponseEntity.created(
-                uriBuilder.path(WIDGET_PATH).buildAndExpand(result.getId()).toUri()
+                (boardId != null
+                        ? uriBuilder.path(BOARD_PATH + WIDGET_PATH).buildAndExpand(boardId, result.getId())
+                        : uriBuilder.path(WIDGET_PATH).buildAndExpand(result.getId())).toUri()
         ).body(result);
     }
 
-    @GetMapping(WIDGET_PATH)
-    public ResponseEntity getWidget(@PathVariable("id") final String id) {
+    /*
+     * ETag of widgets and pages starts with the store version, so a client which has a current copy gets 304
+     * before anything is loaded or serialized. ETag of a widget goes on with the widget version, see widgetTag
+     */
+    @GetMapping({WIDGET_PATH, BOARD_PATH + WIDGET_PATH})
+    public ResponseEntity getWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                    @PathVariable("id") final String id,
+                                    @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        final String current = currentTag(ifNoneMatch, version);
+        if (current != null) {
+            return notModified(current);
+        }
         final Widget result = dao.get(id);
         if (result != null) {
-            return ResponseEntity.ok(result);
+            return ResponseEntity.ok().eTag(widgetTag(version, result)).body(result);
         } else {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(
                     ErrorResponse.builder().message(format("Widget [%s] not found", id)).build()
@@ -56,30 +136,190 @@ public class WidgetController {
         }
     }
 
-    @GetMapping(WIDGETS_PATH)
-    public ResponseEntity getAllWidgets(@RequestParam(name = "pageSize", required = false) final Integer pageSize,
-                                        @RequestParam(name = "offset", required = false) final Integer offset) {
+    @GetMapping({WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH})
+    public ResponseEntity getAllWidgets(@PathVariable(name = "boardId", required = false) final String boardId,
+                                        @RequestParam(name = "pageSize", required = false) final Integer pageSize,
+                                        @RequestParam(name = "offset", required = false) final Integer offset,
+                                        @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        final WidgetDao<Widget> dao = board(boardId);
         final int requestedPageSize = Optional.ofNullable(pageSize).orElseGet(config::getDefaultPageSize);
         final int requestedOffset = Optional.ofNullable(offset).orElse(0);
         if (requestedPageSize > config.getMaxPageSize()) {
-            return ResponseEntity.badRequest().body(
-                    ErrorResponse.builder()
-                            .message(format(
-                                    "Requested page size %s is more than maximum page size %s",
-                                    requestedPageSize, config.getMaxPageSize()))
-                            .build()
-            );
+            return tooBigPageSize(requestedPageSize);
+        }
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        if (isCurrent(ifNoneMatch, version)) {
+            return notModified(version);
+        }
+        if ((boardId == null) && (pageCache != null)) {
+            return cached(PageCache.offset(requestedPageSize, requestedOffset), version,
+                    () -> dao.getAll(requestedPageSize, requestedOffset));
         }
         final List<Widget> result = dao.getAll(requestedPageSize, requestedOffset);
         if (result.size() == 0) {
             return ResponseEntity.noContent().build();
         } else {
-            return ResponseEntity.ok(result);
+            return ResponseEntity.ok().eTag(Long.toString(version)).body(result);
+        }
+    }
+
+    /*
+     * keyset pagination: returns widgets above Z given as a cursor, next cursor is returned in a header
+     * as long as the page is full. Unlike offset, cursor doesn't cost anything to skip to
+     */
+    @GetMapping(value = {WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH}, params = "after")
+    public ResponseEntity getWidgetsAfter(@PathVariable(name = "boardId", required = false) final String boardId,
+                                          @RequestParam(name = "pageSize", required = false) final Integer pageSize,
+                                          @RequestParam(name = "after") final int after,
+                                          @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final int requestedPageSize = Optional.ofNullable(pageSize).orElseGet(config::getDefaultPageSize);
+        if (requestedPageSize > config.getMaxPageSize()) {
+            return tooBigPageSize(requestedPageSize);
+        }
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        if (isCurrent(ifNoneMatch, version)) {
+            return notModified(version);
+        }
+        if ((boardId == null) && (pageCache != null)) {
+            return cached(PageCache.after(requestedPageSize, after), version,
+                    () -> dao.getAllAfter(requestedPageSize, after));
+        }
+        final List<Widget> result = dao.getAllAfter(requestedPageSize, after);
+        if (result.size() == 0) {
+            return ResponseEntity.noContent().build();
+        }
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(Long.toString(version));
+        if (result.size() == requestedPageSize) {
+            response.header(NEXT_CURSOR_HEADER, result.get(result.size() - 1).getZ().toString());
+        }
+        return response.body(result);
+    }
+
+    /*
+     * returns widgets fully inside the rectangle (or intersecting it), ordered by Z.
+     * Uses the same Z cursor as keyset pagination to walk through large areas
+     */
+    @GetMapping(value = {WIDGETS_PATH, BOARD_PATH + WIDGETS_PATH}, params = {"x1", "y1", "x2", "y2"})
+    public ResponseEntity getWidgetsInArea(@PathVariable(name = "boardId", required = false) final String boardId,
+                                           @RequestParam(name = "x1") final int x1,
+                                           @RequestParam(name = "y1") final int y1,
+                                           @RequestParam(name = "x2") final int x2,
+                                           @RequestParam(name = "y2") final int y2,
+                                           @RequestParam(name = "intersecting", defaultValue = "false")
+                                           final boolean intersecting,
+                                           @RequestParam(name = "pageSize", required = false) final Integer pageSize,
+                                           @RequestParam(name = "after", required = false) final Integer after,
+                                           @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch) {
+        final WidgetDao<Widget> dao = board(boardId);
+        final int requestedPageSize = Optional.ofNullable(pageSize).orElseGet(config::getDefaultPageSize);
+        if (requestedPageSize > config.getMaxPageSize()) {
+            return tooBigPageSize(requestedPageSize);
         }
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        if (isCurrent(ifNoneMatch, version)) {
+            return notModified(version);
+        }
+        final List<Widget> result = dao.getAllInArea(Area.of(x1, y1, x2, y2), intersecting, requestedPageSize,
+                Optional.ofNullable(after).orElse(Integer.MIN_VALUE));
+        if (result.size() == 0) {
+            return ResponseEntity.noContent().build();
+        }
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(Long.toString(version));
+        if (result.size() == requestedPageSize) {
+            response.header(NEXT_CURSOR_HEADER, result.get(result.size() - 1).getZ().toString());
+        }
+        return response.body(result);
+    }
+
+    /*
+     * streams every widget in Z order as newline delimited json, straight from a storage snapshot to the connection.
+     * Memory doesn't grow with the number of widgets, and storage lock is not held while the client reads
+     */
+    @GetMapping({EXPORT_PATH, BOARD_PATH + EXPORT_PATH})
+    public void exportWidgets(@PathVariable(name = "boardId", required = false) final String boardId,
+                              @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+                              final HttpServletResponse response) throws IOException {
+        final WidgetDao<Widget> dao = board(boardId);
+        final long version = dao.version(); // read before data, so ETag is never newer than the body
+        response.setHeader(HttpHeaders.ETAG, format("\"%s\"", version));
+        if (isCurrent(ifNoneMatch, version)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        final List<Widget> widgets;
+        if (boardId == null) { // a replica follows changes right after the export
+            final long[] sequence = new long[1];
+            final long[] storeVersion = new long[1]; // of the snapshot, ETag may be older
+            widgets = dao.snapshot(snapshot -> {
+                sequence[0] = feed.next();
+                storeVersion[0] = dao.version();
+                return snapshot;
+            });
+            response.setHeader(CHANGE_SEQUENCE_HEADER, Long.toString(sequence[0]));
+            response.setHeader(STORE_VERSION_HEADER, Long.toString(storeVersion[0]));
+        } else {
+            widgets = dao.snapshot();
+        }
+        response.setContentType(NDJSON);
+        try (JsonGenerator generator = lineWriter.createGenerator(response.getOutputStream())) {
+            for (Widget widget : widgets) {
+                lineWriter.writeValue(generator, widget);
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    /*
+     * loads newline delimited json, e.g. an export of another board, as is: ids, Z, and last modifications are kept.
+     * Widgets are parsed one by one straight from the connection, and every IMPORT_CHUNK_SIZE of them are sorted
+     * and restored in a single bulk, so memory holds one chunk whatever the size of the import, and nothing
+     * is pushed up or shifted along the way. Ids and Z must not be stored yet, so a non-empty storage is merged into.
+     * Chunks restored before an error stay, the error tells how many widgets they had
+     */
+    @PostMapping(value = {IMPORT_PATH, BOARD_PATH + IMPORT_PATH}, consumes = NDJSON)
+    public ResponseEntity importWidgets(@PathVariable(name = "boardId", required = false) final String boardId,
+                                        final InputStream body) throws IOException {
+        final WidgetDao<Widget> dao = board(boardId);
+        List<Widget> chunk = new ArrayList<>();
+        int imported = 0;
+        try (MappingIterator<Widget> lines = reader.readValues(body)) {
+            while (lines.hasNextValue()) {
+                chunk.add(lines.nextValue());
+                if (chunk.size() == IMPORT_CHUNK_SIZE) {
+                    final ResponseEntity error = importChunk(dao, chunk, imported);
+                    if (error != null) {
+                        return error;
+                    }
+                    imported += chunk.size();
+                    chunk = new ArrayList<>(); // the storage may keep the restored one
+                }
+            }
+        } catch (JsonProcessingException e) {
+            return importError(HttpStatus.BAD_REQUEST, format("Widget %s is malformed", imported + chunk.size()),
+                    imported);
+        }
+        final ResponseEntity error = chunk.isEmpty() ? null : importChunk(dao, chunk, imported);
+        return error != null ? error : ResponseEntity.noContent().build();
     }
 
-    @PutMapping(WIDGET_PATH)
-    public ResponseEntity setWidget(@PathVariable("id") final String id, @RequestBody final Widget widget) {
+    /*
+     * streams changes as server-sent events, from now on or right after the last event id a reconnecting client sends.
+     * Event id is the sequence of the change; after a reset event the stream ends, and the client
+     * has to load widgets again and reconnect from the reset
+     */
+    @GetMapping(value = CHANGES_PATH, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<WidgetChange>> getChanges(
+            @RequestHeader(name = LAST_EVENT_ID_HEADER, required = false) final Long lastEventId,
+            @RequestParam(name = "heartbeat", required = false) final Long heartbeat) {
+        return withHeartbeats(feed.changes(lastEventId).map(WidgetController::toEvent), heartbeat);
+    }
+
+    @PutMapping({WIDGET_PATH, BOARD_PATH + WIDGET_PATH})
+    public ResponseEntity setWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                    @PathVariable("id") final String id, @RequestBody final Widget widget,
+                                    @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+        final WidgetDao<Widget> dao = board(boardId);
         final Widget input = Optional.ofNullable(widget).orElseGet(Widget::new);
         if (!input.isValidSource()) {
             return ResponseEntity.badRequest().body(
@@ -95,8 +335,20 @@ public class WidgetController {
                             .build()
             );
         }
+        try {
+            input.setVersion(expectedVersion(ifMatch)); // version from the body is not a precondition
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body(
+                    ErrorResponse.builder().message("If-Match must be a widget version").build()
+            );
+        }
         input.setId(id);
-        final Widget result = dao.update(widget);
+        final Widget result;
+        try {
+            result = dao.update(input);
+        } catch (VersionMismatchException e) {
+            return versionMismatch(e);
+        }
         if (result != null) {
             return ResponseEntity.ok(result);
         } else {
@@ -106,12 +358,296 @@ public class WidgetController {
         }
     }
 
-    @DeleteMapping(WIDGET_PATH)
-    public ResponseEntity removeWidget(@PathVariable("id") final String id) {
+    @DeleteMapping({WIDGET_PATH, BOARD_PATH + WIDGET_PATH})
+    public ResponseEntity removeWidget(@PathVariable(name = "boardId", required = false) final String boardId,
+                                       @PathVariable("id") final String id) {
+        final WidgetDao<Widget> dao = board(boardId);
         if (dao.delete(id)) {
             return ResponseEntity.noContent().build();
         } else {
             return ResponseEntity.status(HttpStatus.GONE).build();
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * applies all operations atomically, as if they were sent one by one, and responds with result of every one;
+     * for delete it is the deleted widget. Nothing is applied if any operation is invalid or misses its widget
+     */
+    @PostMapping({BATCH_PATH, BOARD_PATH + BATCH_PATH})
+    public ResponseEntity applyBatch(@PathVariable(name = "boardId", required = false) final String boardId,
+                                     @RequestBody final List<WidgetOperation> operations) {
+        final WidgetDao<Widget> dao = board(boardId);
+        if (operations.size() > config.getMaxBatchSize()) {
+            return ResponseEntity.badRequest().body(
+                    ErrorResponse.builder()
+                            .message(format(
+                                    "Batch of %s operations is more than maximum batch size %s",
+                                    operations.size(), config.getMaxBatchSize()))
+                            .build()
+            );
+        }
+        final List<Operation<Widget>> batch = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); ++i) {
+            final Operation<Widget> operation = toOperation(operations.get(i));
+            if (operation == null) {
+                return ResponseEntity.badRequest().body(
+                        ErrorResponse.builder().message(format("Operation %s missing required params", i)).build()
+                );
+            }
+            batch.add(operation);
+        }
+        final List<Widget> result;
+        try {
+            result = dao.apply(batch);
+        } catch (WidgetNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(
+                    ErrorResponse.builder().message(e.getMessage()).build()
+            );
+        } catch (VersionMismatchException e) {
+            return versionMismatch(e);
+        } catch (CapacityExceededException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(
+                    ErrorResponse.builder().message(e.getMessage()).build()
+            );
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /*
+     * converts operation of a request, returns null if it misses required params.
+     * Same rules as for single requests apply: version from the body is not a precondition
+     */
+    static Operation<Widget> toOperation(final WidgetOperation operation) {
+        if ((operation == null) || (operation.getOp() == null)) {
+            return null;
+        }
+        final Widget widget = operation.getWidget();
+        final String id = operation.getId();
+        switch (operation.getOp()) {
+            case CREATE:
+                return (widget != null) && widget.isValidSource() ? Operation.create(widget) : null;
+            case UPDATE:
+                if ((id == null) || (widget == null) || !widget.isValidSource()
+                        || ((widget.getId() != null) && !Objects.equals(widget.getId(), id))) {
+                    return null;
+                }
+                return Operation.update(id, widget.toBuilder().id(id).version(null).build());
+            case DELETE:
+            default:
+                return id != null ? Operation.delete(id) : null;
+        }
+    }
+
+    /*
+     * checks that a chunk of imported widgets is complete and distinct, and that neither ids nor Z of it are stored,
+     * sorts it by Z and restores it in a single bulk; imported is the number of widgets before the chunk.
+     * Returns error response, or null if the chunk is restored
+     */
+    static ResponseEntity importChunk(final WidgetDao<Widget> dao, final List<Widget> chunk, final int imported) {
+        final Set<String> ids = new HashSet<>(chunk.size() * 2);
+        for (int i = 0; i < chunk.size(); ++i) {
+            final Widget widget = chunk.get(i);
+            if ((widget == null) || (widget.getId() == null) || (widget.getZ() == null) || !widget.isValidSource()) {
+                return importError(HttpStatus.BAD_REQUEST, format("Widget %s missing required params", imported + i),
+                        imported);
+            }
+            if (!ids.add(widget.getId())) {
+                return importError(HttpStatus.BAD_REQUEST, format("Widget ID [%s] is imported twice", widget.getId()),
+                        imported);
+            }
+        }
+        chunk.sort(Comparator.comparingInt(Widget::getZ)); // single pass if already ordered, e.g. an export
+        for (int i = 1; i < chunk.size(); ++i) {
+            if (chunk.get(i - 1).getZ().equals(chunk.get(i).getZ())) {
+                return importError(HttpStatus.BAD_REQUEST, format("Z %s is imported twice", chunk.get(i).getZ()),
+                        imported);
+            }
+        }
+        final int size = dao.size();
+        if (size != 0) {
+            final List<Widget> top = dao.getAll(1, size - 1);
+            final boolean above = !top.isEmpty() && (top.get(0).getZ() < chunk.get(0).getZ()); // e.g. next chunk
+            for (Widget widget : chunk) {
+                if (dao.get(widget.getId()) != null) {
+                    return importError(HttpStatus.CONFLICT, format("Widget ID [%s] is stored already",
+                            widget.getId()), imported);
+                }
+                if (!above && isTaken(dao, widget.getZ())) {
+                    return importError(HttpStatus.CONFLICT, format("Z %s is stored already", widget.getZ()),
+                            imported);
+                }
+            }
+        }
+        try {
+            dao.restoreAll(chunk);
+        } catch (IllegalStateException e) { // stored concurrently
+            return importError(HttpStatus.CONFLICT, e.getMessage(), imported);
+        } catch (IdTooLongException e) {
+            return importError(HttpStatus.BAD_REQUEST, e.getMessage(), imported);
+        } catch (CapacityExceededException e) {
+            return importError(HttpStatus.INSUFFICIENT_STORAGE, e.getMessage(), imported);
+        }
+        return null;
+    }
+
+    /*
+     * error of an import which has restored given number of widgets before it
+     */
+    static ResponseEntity importError(final HttpStatus status, final String message, final int imported) {
+        return ResponseEntity.status(status).body(ErrorResponse.builder()
+                .message(imported == 0 ? message : format("%s; first %s widgets are imported", message, imported))
+                .build());
+    }
+
+    /*
+     * storage of the board, or the default one on routes without a board
+     */
+    private WidgetDao<Widget> board(final String boardId) {
+        return boardId != null ? boards.get(boardId) : dao;
+    }
+
+    /*
+     * page of the default storage as cached JSON, see PageCache; next cursor is returned as long as a page
+     * of keyset pagination is full
+     */
+    private ResponseEntity cached(final PageCache.Key key, final long version, final Supplier<List<Widget>> loader) {
+        PageCache.Page page = pageCache.get(key, version);
+        if (page == null) {
+            page = pageCache.load(key, version, loader);
+        }
+        final List<Widget> result = page.getWidgets();
+        if (result.size() == 0) {
+            return ResponseEntity.noContent().build();
+        }
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(Long.toString(version))
+                .contentType(MediaType.APPLICATION_JSON);
+        if (key.isAfter() && (result.size() == key.getPageSize())) {
+            response.header(NEXT_CURSOR_HEADER, result.get(result.size() - 1).getZ().toString());
+        }
+        return response.body(page.getBody());
+    }
+
+    /*
+     * true if If-None-Match has an ETag of given store version, i.e. client's copy is current
+     */
+    static boolean isCurrent(final String ifNoneMatch, final long version) {
+        return currentTag(ifNoneMatch, version) != null;
+    }
+
+    /*
+     * the ETag of If-None-Match which is current as of given store version, unquoted; null if none is.
+     * Tags are compared weakly, as If-None-Match wants; "*" is not honoured, since a missing widget has no copy.
+     * Tag of a widget is current as long as its store version part is, nothing in the store has changed since
+     */
+    static String currentTag(final String ifNoneMatch, final long version) {
+        if (ifNoneMatch == null) {
+            return null;
+        }
+        final String etag = format("\"%s\"", version);
+        final String prefix = format("\"%s-", version);
+        for (String tag : ifNoneMatch.split(",")) {
+            final String trimmed = tag.trim();
+            final String strong = trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed;
+            if (strong.equals(etag) || (strong.startsWith(prefix) && strong.endsWith("\""))) {
+                return strong.substring(1, strong.length() - 1);
+            }
+        }
+        return null;
+    }
+
+    static <T> ResponseEntity<T> notModified(final long version) {
+        return notModified(Long.toString(version));
+    }
+
+    static <T> ResponseEntity<T> notModified(final String tag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+    }
+
+    /*
+     * ETag of a single widget: the store version, which tells whether the copy is current, dash, and the widget
+     * version, which If-Match checks. Push up changes the former only, so it is not a conflicting update.
+     * Widgets stored before versions have the store version only
+     */
+    static String widgetTag(final long version, final Widget widget) {
+        return widget.getVersion() != null ? version + "-" + widget.getVersion() : Long.toString(version);
+    }
+
+    /*
+     * widget version If-Match asks for, null if the update is unconditional (no header or "*"):
+     * the part after the dash of a widgetTag, or the whole tag, e.g. a version from the body.
+     * Tags are compared strongly, as If-Match wants, so a weak one gets a version no widget has
+     */
+    static Long expectedVersion(final String ifMatch) {
+        if ((ifMatch == null) || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        final String tag = ifMatch.trim();
+        final boolean weak = tag.startsWith("W/");
+        final String quoted = weak ? tag.substring(2) : tag;
+        if ((quoted.length() < 2) || !quoted.startsWith("\"") || !quoted.endsWith("\"")) {
+            throw new NumberFormatException("Not a single entity tag: " + ifMatch);
+        }
+        final String unquoted = quoted.substring(1, quoted.length() - 1);
+        final int dash = unquoted.lastIndexOf('-'); // not the sign of a store version
+        final long version = Long.parseLong(dash > 0 ? unquoted.substring(dash + 1) : unquoted);
+        return weak ? 0 : version; // versions start from 1
+    }
+
+    static ResponseEntity versionMismatch(final VersionMismatchException e) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(
+                ErrorResponse.builder().message(e.getMessage()).build()
+        );
+    }
+
+    /*
+     * server-sent event of a change, named by its type
+     */
+    static ServerSentEvent<WidgetChange> toEvent(final WidgetChange change) {
+        return ServerSentEvent.builder(change)
+                .id(Long.toString(change.getSequence()))
+                .event(change.getType().name().toLowerCase())
+                .build();
+    }
+
+    /*
+     * adds a comment every heartbeat milliseconds, if requested, until the stream ends: a subscriber which got
+     * a heartbeat has got every change before it, e.g. a replica knows how fresh it is while nothing changes
+     */
+    static Flux<ServerSentEvent<WidgetChange>> withHeartbeats(final Flux<ServerSentEvent<WidgetChange>> events,
+                                                             final Long heartbeat) {
+        if ((heartbeat == null) || (heartbeat <= 0)) {
+            return events;
+        }
+        return events.publish(shared -> Flux.merge(shared, Flux.interval(Duration.ofMillis(heartbeat))
+                .map(i -> ServerSentEvent.<WidgetChange>builder().comment(HEARTBEAT).build())
+                .takeUntilOther(shared.ignoreElements())));
+    }
+
+    /*
+     * writer of newline delimited json: values have no separator of their own, and are flushed only by buffer
+     */
+    static ObjectWriter lineWriter(final ObjectMapper mapper) {
+        return mapper.writer()
+                .withRootValueSeparator((String) null)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /*
+     * whether a stored widget has given Z
+     */
+    private static boolean isTaken(final WidgetDao<Widget> dao, final int z) {
+        final List<Widget> next = z == Integer.MIN_VALUE ? dao.getAll(1, 0) : dao.getAllAfter(1, z - 1);
+        return !next.isEmpty() && (next.get(0).getZ() == z);
+    }
+
+    private ResponseEntity tooBigPageSize(final int requestedPageSize) {
+        return ResponseEntity.badRequest().body(
+                ErrorResponse.builder()
+                        .message(format(
+                                "Requested page size %s is more than maximum page size %s",
+                                requestedPageSize, config.getMaxPageSize()))
+                        .build()
+        );
+    }
+}
@@ -0,0 +1,94 @@
+package dev.widget.widgetservice.models;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.datatype.jsr310.deser.InstantDeserializer;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+
+/*
+ * Reads instants written the way we write them, e.g. 2020-01-01T10:00:00.123Z, straight from parser's buffer
+ * without a formatter; it is most of the cost of reading a widget otherwise. Anything else, e.g. an offset
+ * or a timestamp, is left to the standard deserializer
+ */
+public class IsoInstantDeserializer extends StdScalarDeserializer<Instant> {
+    private static final int SHORTEST = "2020-01-01T00:00:00Z".length();
+    private static final int LONGEST = "2020-01-01T00:00:00.123456789Z".length();
+
+    public IsoInstantDeserializer() {
+        super(Instant.class);
+    }
+
+    @Override
+    public Instant deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+        if (parser.hasToken(JsonToken.VALUE_STRING)) {
+            final Instant result = parse(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            if (result != null) {
+                return result;
+            }
+        }
+        return InstantDeserializer.INSTANT.deserialize(parser, context);
+    }
+
+    /*
+     * returns null if text is not in yyyy-MM-ddTHH:mm:ss[.fraction]Z form
+     */
+    static Instant parse(final char[] text, final int offset, final int length) {
+        if ((length < SHORTEST) || (length > LONGEST) || (length == SHORTEST + 1) || (text[offset + length - 1] != 'Z')
+                || (text[offset + 4] != '-') || (text[offset + 7] != '-') || (text[offset + 10] != 'T')
+                || (text[offset + 13] != ':') || (text[offset + 16] != ':')) {
+            return null;
+        }
+        final int year = digits(text, offset, 4);
+        final int month = digits(text, offset + 5, 2);
+        final int day = digits(text, offset + 8, 2);
+        final int hour = digits(text, offset + 11, 2);
+        final int minute = digits(text, offset + 14, 2);
+        final int second = digits(text, offset + 17, 2);
+        if ((year < 0) || (month < 0) || (day < 0) || (hour < 0) || (hour > 23) || (minute < 0) || (minute > 59)
+                || (second < 0) || (second > 59)) {
+            return null;
+        }
+        int nanos = 0;
+        if (length > SHORTEST) {
+            if (text[offset + 19] != '.') {
+                return null;
+            }
+            final int fraction = length - SHORTEST - 1;
+            nanos = digits(text, offset + 20, fraction);
+            if (nanos < 0) {
+                return null;
+            }
+            for (int i = fraction; i < 9; ++i) {
+                nanos *= 10;
+            }
+        }
+        final long days;
+        try {
+            days = LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return null;
+        }
+        return Instant.ofEpochSecond(days * 86_400 + hour * 3_600 + minute * 60 + second, nanos);
+    }
+
+    /*
+     * returns value of count decimal digits, or -1 if any of them is not a digit
+     */
+    private static int digits(final char[] text, final int from, final int count) {
+        int result = 0;
+        for (int i = from; i < from + count; ++i) {
+            final int digit = text[i] - '0';
+            if ((digit < 0) || (digit > 9)) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+}
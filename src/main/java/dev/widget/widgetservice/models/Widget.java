@@ -1,6 +1,7 @@
 package dev.widget.widgetservice.models;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -18,8 +19,10 @@ public class Widget {
     private Integer z;
     private Integer width;
     private Integer height;
+    @JsonDeserialize(using = IsoInstantDeserializer.class)
     private Instant lastModification;
     private String id;
+    private Long version; // 1 when created, grows with every update; push up doesn't change it
 
     /*
      * true if this object can be used as a valid source, i.e. has x, y, weight, height
@@ -30,7 +33,7 @@ public class Widget {
     }
 
     /*
-     * merge source on top of target, skipping null fields, ID, and last modification
+     * merge source on top of target, skipping null fields, ID, last modification, and version
      */
     public static Widget merge(final Widget target, final Widget source) {
         return Widget.builder()
@@ -41,9 +44,17 @@ public class Widget {
                 .height(merge(target.getHeight(), source.getHeight()))
                 .lastModification(target.getLastModification())
                 .id(target.getId())
+                .version(target.getVersion())
                 .build();
     }
 
+    /*
+     * version of given widget after one more update; widgets stored without a version start over from 1
+     */
+    public static long nextVersion(final Widget widget) {
+        return widget.getVersion() != null ? widget.getVersion() + 1 : 1;
+    }
+
     /*
      * merge source on top of target, if source is not null
      */
@@ -0,0 +1,63 @@
+package dev.widget.widgetservice.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/*
+ * Single event of the change feed. Created and updated carry the whole widget, deleted only its id.
+ * Pushed means every widget with Z from fromZ to toZ, both inclusive, moved one up; it comes before
+ * the change which pushed them. Reset means events were lost: state has to be loaded again,
+ * and the feed subscribed again from now on. The last change of every write carries the store version
+ * the write ended with, so a replica which applies the changes up to it ends with the same version
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WidgetChange {
+    public enum Type {
+        @JsonProperty("created")
+        CREATED,
+        @JsonProperty("updated")
+        UPDATED,
+        @JsonProperty("deleted")
+        DELETED,
+        @JsonProperty("pushed")
+        PUSHED,
+        @JsonProperty("reset")
+        RESET
+    }
+
+    private long sequence;
+    private Type type;
+    private Widget widget;
+    private String id;
+    private Integer fromZ;
+    private Integer toZ;
+    private Long version;
+
+    public static WidgetChange created(final Widget widget) {
+        return WidgetChange.builder().type(Type.CREATED).widget(widget).build();
+    }
+
+    public static WidgetChange updated(final Widget widget) {
+        return WidgetChange.builder().type(Type.UPDATED).widget(widget).build();
+    }
+
+    public static WidgetChange deleted(final String id) {
+        return WidgetChange.builder().type(Type.DELETED).id(id).build();
+    }
+
+    public static WidgetChange pushed(final int fromZ, final int toZ) {
+        return WidgetChange.builder().type(Type.PUSHED).fromZ(fromZ).toZ(toZ).build();
+    }
+
+    public static WidgetChange reset() {
+        return WidgetChange.builder().type(Type.RESET).build();
+    }
+}
@@ -0,0 +1,29 @@
+package dev.widget.widgetservice.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/*
+ * Single change of a batch request: create a widget, update widget by id, or delete widget by id
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class WidgetOperation {
+    public enum Type {
+        @JsonProperty("create")
+        CREATE,
+        @JsonProperty("update")
+        UPDATE,
+        @JsonProperty("delete")
+        DELETE
+    }
+
+    private Type op;
+    private String id;
+    private Widget widget;
+}
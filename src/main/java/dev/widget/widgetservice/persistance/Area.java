@@ -0,0 +1,42 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import lombok.Value;
+
+/*
+ * axis aligned rectangle with inclusive bounds; long coordinates so x + width never overflows
+ */
+@Value
+public class Area {
+    long x1;
+    long y1;
+    long x2;
+    long y2;
+
+    /*
+     * creates area from any two opposite corners
+     */
+    public static Area of(final long x1, final long y1, final long x2, final long y2) {
+        return new Area(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2));
+    }
+
+    /*
+     * returns area covered by widget, or null if widget has no coordinates or size
+     */
+    public static Area of(final Widget widget) {
+        if (!widget.isValidSource()) {
+            return null;
+        }
+        final long x = widget.getX();
+        final long y = widget.getY();
+        return of(x, y, x + widget.getWidth(), y + widget.getHeight());
+    }
+
+    public boolean contains(final Area other) {
+        return (x1 <= other.x1) && (other.x2 <= x2) && (y1 <= other.y1) && (other.y2 <= y2);
+    }
+
+    public boolean intersects(final Area other) {
+        return (x1 <= other.x2) && (other.x1 <= x2) && (y1 <= other.y2) && (other.y1 <= y2);
+    }
+}
@@ -0,0 +1,140 @@
+package dev.widget.widgetservice.persistance;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Places boards on cluster nodes with consistent hashing: every node has a number of virtual points on a ring
+ * of 64 bit hashes, and a board belongs to the node of the first point at or after the hash of its id.
+ * When a node joins it takes over only boards which are closer to its points now; when a node leaves only its
+ * boards move to the nodes of the next points. Nodes are base URLs; every node with the same node list
+ * places every board on the same node, so a board has a single owner and Z of its widgets is ordered there.
+ * Node list is replaced as a whole, lookups are lock free. The list before the last change is kept along with
+ * boards taken over from their previous owners since, so a new owner knows which boards it still has to take over.
+ */
+public class BoardRing {
+    private final int virtualNodes;
+    private volatile Ring ring;
+    private volatile Ring previous; // null until the list changes
+    private volatile Set<String> takenOver = ConcurrentHashMap.newKeySet();
+
+    /*
+     * virtual nodes is the number of points of every node, the more points the more even the spread
+     */
+    public BoardRing(final List<String> nodes, final int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Number of virtual nodes must be positive: " + virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+        this.ring = new Ring(nodes, virtualNodes);
+    }
+
+    /*
+     * node the board belongs to, or null if there are no nodes, i.e. the service is not clustered
+     */
+    public String owner(final String boardId) {
+        return ring.owner(hash(boardId));
+    }
+
+    /*
+     * owner of the board under the node list before the last change, or null if the list hasn't changed
+     */
+    public String previousOwner(final String boardId) {
+        final Ring before = previous;
+        return before != null ? before.owner(hash(boardId)) : null;
+    }
+
+    /*
+     * true if the board is taken over from its previous owner since the last change of the node list
+     */
+    public boolean isTakenOver(final String boardId) {
+        return takenOver.contains(boardId);
+    }
+
+    public void setTakenOver(final String boardId) {
+        takenOver.add(boardId);
+    }
+
+    public List<String> getNodes() {
+        return ring.nodes;
+    }
+
+    /*
+     * replaces node list, boards of nodes which left or are closer to joined nodes change their owners
+     */
+    public synchronized void setNodes(final List<String> nodes) {
+        takenOver = ConcurrentHashMap.newKeySet();
+        previous = ring;
+        ring = new Ring(nodes, virtualNodes);
+    }
+
+    public boolean isClustered() {
+        return !ring.nodes.isEmpty();
+    }
+
+    private static long hash(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) { // every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Ring {
+        private final List<String> nodes;
+        private final long[] points; // sorted
+        private final String[] owners; // node of every point
+
+        private Ring(final List<String> nodes, final int virtualNodes) {
+            this.nodes = List.copyOf(nodes);
+            final Point[] all = new Point[this.nodes.size() * virtualNodes];
+            for (int i = 0; i < this.nodes.size(); ++i) {
+                for (int j = 0; j < virtualNodes; ++j) {
+                    final String node = this.nodes.get(i);
+                    all[i * virtualNodes + j] = new Point(hash(node + "#" + j), node);
+                }
+            }
+            // ties are broken by node, so the ring doesn't depend on the order of nodes
+            Arrays.sort(all, Comparator.comparingLong((Point point) -> point.hash).thenComparing(point -> point.node));
+            this.points = new long[all.length];
+            this.owners = new String[all.length];
+            for (int i = 0; i < all.length; ++i) {
+                points[i] = all[i].hash;
+                owners[i] = all[i].node;
+            }
+        }
+
+        private String owner(final long hash) {
+            if (points.length == 0) {
+                return null;
+            }
+            int i = Arrays.binarySearch(points, hash);
+            if (i < 0) {
+                i = -i - 1;
+            } else {
+                while ((i > 0) && (points[i - 1] == hash)) { // the first of equal points
+                    --i;
+                }
+            }
+            return owners[i < points.length ? i : 0]; // past the last point is the first one
+        }
+    }
+
+    private static final class Point {
+        private final long hash;
+        private final String node;
+
+        private Point(final long hash, final String node) {
+            this.hash = hash;
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package dev.widget.widgetservice.persistance;
+
+/*
+ * thrown when storage with bounded capacity can't take one more widget
+ */
+public class CapacityExceededException extends RuntimeException {
+    public CapacityExceededException(final int capacity) {
+        super(String.format("Storage capacity of %s widgets is exhausted", capacity));
+    }
+}
@@ -0,0 +1,396 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+import static java.util.Collections.unmodifiableList;
+
+/*
+ * Storage keeping widgets in struct-of-arrays layout: every field is a primitive column indexed by slot.
+ * Null fields are tracked in a bit mask column, last modification is kept as epoch nanos,
+ * widget version is zero for widgets restored without one.
+ * Z order is an int array of slots, id lookup is an open addressing map from id to slot.
+ * So a stored widget costs its id string and a few dozens of bytes in arrays instead of ~7 objects,
+ * and push up just increments Z column in place without allocating anything.
+ * Widget objects are created only for callers, on the way out.
+ * All methods are synchronized, same as TreeWidgetDao.
+ */
+@Component
+@Lazy
+public class ColumnarWidgetDao implements WidgetDao<Widget> {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte NULL_X = 1;
+    private static final byte NULL_Y = 2;
+    private static final byte NULL_WIDTH = 4;
+    private static final byte NULL_HEIGHT = 8;
+    private static final byte NULL_MODIFICATION = 16;
+    private static final byte ALL_NULLS = NULL_X | NULL_Y | NULL_WIDTH | NULL_HEIGHT | NULL_MODIFICATION;
+    private static final long NANOS = 1_000_000_000L;
+
+    private final IdGenerator idGenerator;
+    private final Clock clock;
+    private final SlotIndex lookup = new SlotIndex(INITIAL_CAPACITY);
+    private final SpatialIndex<String> areas = new SpatialIndex<>();
+
+    // columns, indexed by slot
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] zs = new int[INITIAL_CAPACITY];
+    private int[] widths = new int[INITIAL_CAPACITY];
+    private int[] heights = new int[INITIAL_CAPACITY];
+    private long[] modifications = new long[INITIAL_CAPACITY];
+    private long[] versions = new long[INITIAL_CAPACITY];
+    private byte[] nulls = new byte[INITIAL_CAPACITY];
+
+    private int[] order = new int[INITIAL_CAPACITY]; // slots sorted by Z
+    private int size;
+    private int[] free = new int[0]; // released slots, reused before new ones
+    private int freeCount;
+    private int used; // slots ever used
+    private volatile long version;
+    private IntConsumer pushUpListener = count -> {
+    };
+
+    public ColumnarWidgetDao(final IdGenerator idGenerator, final Clock clock) {
+        this.idGenerator = idGenerator;
+        this.clock = clock;
+        this.version = WidgetDao.firstVersion(clock);
+    }
+
+    @Override
+    public synchronized Widget create(final Widget src) {
+        final int slot = allocate();
+        final String id = idGenerator.generateId();
+        ids[slot] = id;
+        nulls[slot] = ALL_NULLS;
+        write(slot, src);
+        zs[slot] = src.getZ() != null ? src.getZ() : foreground();
+        versions[slot] = 1;
+        modify(slot);
+        insert(slot);
+        lookup.put(id, slot);
+        index(slot);
+        ++version;
+        return toWidget(slot);
+    }
+
+    @Override
+    public synchronized Widget get(final String id) {
+        final int slot = lookup.get(id);
+        return slot >= 0 ? toWidget(slot) : null;
+    }
+
+    @Override
+    public synchronized List<Widget> getAll(final int pageSize, final int offset) {
+        return page(Math.min(Math.max(offset, 0), size), pageSize);
+    }
+
+    @Override
+    public synchronized List<Widget> getAllAfter(final int pageSize, final int z) {
+        return page(firstAbove(z), pageSize);
+    }
+
+    @Override
+    public synchronized List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize,
+                                                  final int z) {
+        final List<Integer> found = new ArrayList<>();
+        areas.search(area, intersecting, id -> {
+            final int slot = lookup.get(id);
+            if (zs[slot] > z) {
+                found.add(slot);
+            }
+        });
+        found.sort((a, b) -> Integer.compare(zs[a], zs[b]));
+        final List<Widget> result = new ArrayList<>(Math.min(Math.max(pageSize, 0), found.size()));
+        for (int i = 0; i < found.size() && i < pageSize; ++i) {
+            result.add(toWidget(found.get(i)));
+        }
+        return unmodifiableList(result);
+    }
+
+    @Override
+    public synchronized Widget update(final Widget entity) {
+        final int slot = lookup.get(entity.getId());
+        if (slot < 0) {
+            return null;
+        }
+        VersionMismatchException.check(entity, versionOf(slot));
+        final Area before = areaOf(slot);
+        write(slot, entity);
+        ++versions[slot]; // no version starts over from 1
+        modify(slot);
+        moved(slot, before);
+        if ((entity.getZ() != null) && (entity.getZ() != zs[slot])) { // Z changed
+            move(slot, entity.getZ());
+        }
+        ++version;
+        return toWidget(slot);
+    }
+
+    @Override
+    public synchronized List<Widget> apply(final List<Operation<Widget>> operations) {
+        Operation.checkTargets(operations, id -> lookup.get(id) >= 0);
+        VersionMismatchException.check(operations, id -> versionOf(lookup.get(id)));
+        return Operation.applyOneByOne(this, operations);
+    }
+
+    @Override
+    public synchronized Widget restore(final Widget entity) {
+        int slot = lookup.get(entity.getId());
+        if (slot >= 0) {
+            final Area before = areaOf(slot);
+            nulls[slot] = ALL_NULLS;
+            write(slot, entity);
+            versions[slot] = entity.getVersion() != null ? entity.getVersion() : 0;
+            modify(slot, entity.getLastModification());
+            moved(slot, before);
+            if (entity.getZ() != zs[slot]) {
+                move(slot, entity.getZ());
+            }
+        } else {
+            slot = allocate();
+            ids[slot] = entity.getId();
+            nulls[slot] = ALL_NULLS;
+            write(slot, entity);
+            zs[slot] = entity.getZ();
+            versions[slot] = entity.getVersion() != null ? entity.getVersion() : 0;
+            modify(slot, entity.getLastModification());
+            insert(slot);
+            lookup.put(entity.getId(), slot);
+            index(slot);
+        }
+        ++version;
+        return toWidget(slot);
+    }
+
+    @Override
+    public synchronized boolean delete(final String id) {
+        final int slot = lookup.remove(id);
+        if (slot < 0) {
+            return false;
+        }
+        final Area area = areaOf(slot);
+        if (area != null) {
+            areas.remove(id, area);
+        }
+        removeFromOrder(slot);
+        release(slot);
+        ++version;
+        return true;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void setPushUpListener(final IntConsumer listener) {
+        pushUpListener = listener;
+    }
+
+    /*
+     * copies not null fields except Z, id and last modification into slot columns
+     */
+    private void write(final int slot, final Widget src) {
+        byte mask = nulls[slot];
+        if (src.getX() != null) {
+            xs[slot] = src.getX();
+            mask &= ~NULL_X;
+        }
+        if (src.getY() != null) {
+            ys[slot] = src.getY();
+            mask &= ~NULL_Y;
+        }
+        if (src.getWidth() != null) {
+            widths[slot] = src.getWidth();
+            mask &= ~NULL_WIDTH;
+        }
+        if (src.getHeight() != null) {
+            heights[slot] = src.getHeight();
+            mask &= ~NULL_HEIGHT;
+        }
+        nulls[slot] = mask;
+    }
+
+    private void modify(final int slot) {
+        modify(slot, clock.instant());
+    }
+
+    private void modify(final int slot, final Instant now) {
+        if (now != null) {
+            modifications[slot] = now.getEpochSecond() * NANOS + now.getNano();
+            nulls[slot] &= ~NULL_MODIFICATION;
+        } else {
+            nulls[slot] |= NULL_MODIFICATION;
+        }
+    }
+
+    private Widget toWidget(final int slot) {
+        final byte mask = nulls[slot];
+        final long modification = modifications[slot];
+        return Widget.builder()
+                .id(ids[slot])
+                .x((mask & NULL_X) == 0 ? xs[slot] : null)
+                .y((mask & NULL_Y) == 0 ? ys[slot] : null)
+                .z(zs[slot])
+                .width((mask & NULL_WIDTH) == 0 ? widths[slot] : null)
+                .height((mask & NULL_HEIGHT) == 0 ? heights[slot] : null)
+                .lastModification((mask & NULL_MODIFICATION) == 0
+                        ? Instant.ofEpochSecond(Math.floorDiv(modification, NANOS), Math.floorMod(modification, NANOS))
+                        : null)
+                .version(versionOf(slot))
+                .build();
+    }
+
+    private Long versionOf(final int slot) {
+        return versions[slot] != 0 ? versions[slot] : null;
+    }
+
+    private List<Widget> page(final int from, final int pageSize) {
+        final int to = from + Math.min(Math.max(pageSize, 0), size - from);
+        final List<Widget> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; ++i) {
+            result.add(toWidget(order[i]));
+        }
+        return unmodifiableList(result);
+    }
+
+    /*
+     * returns area covered by widget in slot, or null if it has no coordinates or size
+     */
+    private Area areaOf(final int slot) {
+        if ((nulls[slot] & (NULL_X | NULL_Y | NULL_WIDTH | NULL_HEIGHT)) != 0) {
+            return null;
+        }
+        final long x = xs[slot];
+        final long y = ys[slot];
+        return Area.of(x, y, x + widths[slot], y + heights[slot]);
+    }
+
+    /*
+     * keeps area index in sync after slot coordinates or size are changed
+     */
+    private void moved(final int slot, final Area before) {
+        if (!Objects.equals(before, areaOf(slot))) {
+            if (before != null) {
+                areas.remove(ids[slot], before);
+            }
+            index(slot);
+        }
+    }
+
+    /*
+     * moves slot to another Z, pushing other widgets up if needed
+     */
+    private void move(final int slot, final int z) {
+        removeFromOrder(slot);
+        zs[slot] = z;
+        insert(slot);
+    }
+
+    private void index(final int slot) {
+        final Area area = areaOf(slot);
+        if (area != null) {
+            areas.add(ids[slot], area);
+        }
+    }
+
+    /*
+     * returns current foreground z-index
+     */
+    private int foreground() {
+        return size == 0 ? 0 : zs[order[size - 1]] + 1;
+    }
+
+    /*
+     * binary search for the first position in Z order with Z not less than given one
+     */
+    private int lowerBound(final int z) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (zs[order[middle]] < z) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstAbove(final int z) {
+        return z == Integer.MAX_VALUE ? size : lowerBound(z + 1);
+    }
+
+    /*
+     * inserts slot into Z order pushing other widgets up, in place
+     */
+    private void insert(final int slot) {
+        final int z = zs[slot];
+        final int i = lowerBound(z);
+        if ((i < size) && (zs[order[i]] == z)) { // found
+            for (int j = i; j < size; ++j) { // push up
+                ++zs[order[j]];
+            }
+            pushUpListener.accept(size - i);
+        } else {
+            pushUpListener.accept(0);
+        }
+        if (size == order.length) {
+            order = Arrays.copyOf(order, size * 2);
+        }
+        System.arraycopy(order, i, order, i + 1, size - i);
+        order[i] = slot;
+        ++size;
+    }
+
+    private void removeFromOrder(final int slot) {
+        final int i = lowerBound(zs[slot]); // Z is unique
+        System.arraycopy(order, i + 1, order, i, size - i - 1);
+        --size;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (used == ids.length) {
+            final int capacity = used * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            widths = Arrays.copyOf(widths, capacity);
+            heights = Arrays.copyOf(heights, capacity);
+            modifications = Arrays.copyOf(modifications, capacity);
+            versions = Arrays.copyOf(versions, capacity);
+            nulls = Arrays.copyOf(nulls, capacity);
+        }
+        return used++;
+    }
+
+    private void release(final int slot) {
+        ids[slot] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, Math.max(16, freeCount * 2));
+        }
+        free[freeCount++] = slot;
+    }
+}
@@ -0,0 +1,50 @@
+package dev.widget.widgetservice.persistance;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * thread-safe counters shared by WidgetLock implementations; LongAdder keeps counting itself contention-free
+ */
+class ContentionCounters {
+    private final String mode;
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readWaitNanos = new LongAdder();
+    private final LongAdder optimisticReads = new LongAdder();
+    private final LongAdder optimisticFailures = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeWaitNanos = new LongAdder();
+
+    ContentionCounters(final String mode) {
+        this.mode = mode;
+    }
+
+    void read(final long waitNanos) {
+        reads.increment();
+        readWaitNanos.add(waitNanos);
+    }
+
+    void optimisticRead() {
+        optimisticReads.increment();
+    }
+
+    void optimisticFailure() {
+        optimisticFailures.increment();
+    }
+
+    void write(final long waitNanos) {
+        writes.increment();
+        writeWaitNanos.add(waitNanos);
+    }
+
+    LockStatistics toStatistics() {
+        return LockStatistics.builder()
+                .mode(mode)
+                .reads(reads.sum())
+                .readWaitNanos(readWaitNanos.sum())
+                .optimisticReads(optimisticReads.sum())
+                .optimisticFailures(optimisticFailures.sum())
+                .writes(writes.sum())
+                .writeWaitNanos(writeWaitNanos.sum())
+                .build();
+    }
+}
@@ -0,0 +1,346 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/*
+ * Makes any storage durable with a write-ahead log.
+ * On start the log is replayed into the storage. Every successful change is written to the log
+ * as the full state of the changed widget (or its deletion), so replay doesn't depend on clock or id generator.
+ * Change and append happen under a single lock, so log order is the order changes were applied;
+ * waiting for fsync happens outside of it, so concurrent writers share fsyncs (group commit).
+ * Locks are not monitors, so a virtual thread waiting for them, or for the snapshot write, doesn't pin its carrier.
+ * Writer returns only once its change is on disk; readers may see a change a bit earlier.
+ *
+ * With a snapshot file, start loads the snapshot first and replays only the log written after it.
+ * Checkpoint captures the full state along with the log position under the same lock as writers,
+ * then writes the snapshot without any lock. Capture is the storage snapshot: the immutable one of the in-memory
+ * storage costs writers nothing, other storages copy all widgets while writers wait.
+ * Checkpoint runs periodically and on close. It keeps the snapshot it replaces as the previous one and truncates
+ * the log before it, so disk use and start time are bounded by the state and two checkpoint intervals of changes.
+ * A snapshot which can't be loaded is skipped with a warning: start falls back to the previous one,
+ * and without any replays the log from its start.
+ */
+public class DurableWidgetDao implements WidgetDao<Widget>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DurableWidgetDao.class);
+
+    private final WidgetDao<Widget> storage;
+    private final WriteAheadLog log;
+    private final Path snapshot;
+    private final Path previous;
+    private final ScheduledExecutorService checkpoints;
+    private final Lock lock = new ReentrantLock(); // guards change and its append
+    private final Lock checkpointLock = new ReentrantLock(); // one checkpoint at a time, they share temporary file
+
+    private Path latest; // snapshot file the state was last checkpointed to, guarded by checkpointLock
+    private long latestPosition; // its log position, guarded by checkpointLock
+
+    public DurableWidgetDao(final WidgetDao<Widget> storage, final WriteAheadLog log) {
+        this(storage, log, null, Duration.ZERO);
+    }
+
+    /*
+     * snapshot is optional; checkpoints are not scheduled if interval is not positive
+     */
+    public DurableWidgetDao(final WidgetDao<Widget> storage, final WriteAheadLog log, final Path snapshot,
+                            final Duration checkpointInterval) {
+        this.storage = storage;
+        this.log = log;
+        this.snapshot = snapshot;
+        this.previous = snapshot != null ? snapshot.resolveSibling(snapshot.getFileName() + ".previous") : null;
+        try {
+            log.replay(storage, load());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't restore widgets", e);
+        }
+        if ((snapshot != null) && !checkpointInterval.isNegative() && !checkpointInterval.isZero()) {
+            checkpoints = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "widget-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpoints.scheduleWithFixedDelay(this::scheduledCheckpoint, checkpointInterval.toNanos(),
+                    checkpointInterval.toNanos(), TimeUnit.NANOSECONDS);
+        } else {
+            checkpoints = null;
+        }
+    }
+
+    /*
+     * writes snapshot of the current state; returns once it is on disk.
+     * The snapshot it replaces becomes the previous one, and the log before that is deleted
+     */
+    public void checkpoint() throws IOException {
+        if (snapshot == null) {
+            throw new IllegalStateException("Snapshot is not configured");
+        }
+        checkpointLock.lock();
+        try {
+            final List<Widget> state;
+            final long position;
+            final long seq;
+            lock.lock();
+            try {
+                state = storage.snapshot();
+                position = log.position();
+                seq = log.sequence();
+            } finally {
+                lock.unlock();
+            }
+            log.await(seq); // snapshot must never be ahead of the log
+            if (snapshot.equals(latest)) {
+                Files.move(snapshot, previous, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                latest = previous; // stays right if the write below fails, so the next checkpoint doesn't move again
+            }
+            SnapshotFile.write(snapshot, state, position);
+            log.truncate(latestPosition); // the previous snapshot, if any, is at least that recent
+            latest = snapshot;
+            latestPosition = position;
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    @Override
+    public Widget create(final Widget src) {
+        final Widget result;
+        final long seq;
+        lock.lock();
+        try {
+            result = storage.create(src);
+            seq = log.put(result);
+        } finally {
+            lock.unlock();
+        }
+        log.await(seq);
+        return result;
+    }
+
+    @Override
+    public Widget get(final String id) {
+        return storage.get(id);
+    }
+
+    @Override
+    public List<Widget> getAll(final int pageSize, final int offset) {
+        return storage.getAll(pageSize, offset);
+    }
+
+    @Override
+    public List<Widget> getAllAfter(final int pageSize, final int z) {
+        return storage.getAllAfter(pageSize, z);
+    }
+
+    @Override
+    public List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize, final int z) {
+        return storage.getAllInArea(area, intersecting, pageSize, z);
+    }
+
+    @Override
+    public List<Widget> snapshot() {
+        return storage.snapshot();
+    }
+
+    @Override
+    public <R> R snapshot(final Function<List<Widget>, R> capture) {
+        return storage.snapshot(capture);
+    }
+
+    @Override
+    public Widget update(final Widget entity) {
+        final Widget result;
+        final long seq;
+        lock.lock();
+        try {
+            result = storage.update(entity);
+            if (result == null) {
+                return null;
+            }
+            seq = log.put(result);
+        } finally {
+            lock.unlock();
+        }
+        log.await(seq);
+        return result;
+    }
+
+    /*
+     * every result is the state right after its operation, so restoring results one by one replays the batch
+     */
+    @Override
+    public List<Widget> apply(final List<Operation<Widget>> operations) {
+        final List<Widget> results;
+        long seq = 0;
+        lock.lock();
+        try {
+            results = storage.apply(operations);
+            for (int i = 0; i < operations.size(); ++i) {
+                final Operation<Widget> operation = operations.get(i);
+                seq = operation.getType() == Operation.Type.DELETE
+                        ? log.delete(operation.getId())
+                        : log.put(results.get(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.await(seq);
+        return results;
+    }
+
+    @Override
+    public Widget restore(final Widget entity) {
+        final Widget result;
+        final long seq;
+        lock.lock();
+        try {
+            result = storage.restore(entity);
+            seq = log.put(result);
+        } finally {
+            lock.unlock();
+        }
+        log.await(seq);
+        return result;
+    }
+
+    /*
+     * logs the whole bulk under a single lock and waits for a single fsync
+     */
+    @Override
+    public void restoreAll(final List<Widget> entities) {
+        long seq = 0;
+        lock.lock();
+        try {
+            storage.restoreAll(entities);
+            for (Widget entity : entities) {
+                seq = log.put(entity);
+            }
+        } finally {
+            lock.unlock();
+        }
+        log.await(seq);
+    }
+
+    @Override
+    public boolean delete(final String id) {
+        final long seq;
+        lock.lock();
+        try {
+            if (!storage.delete(id)) {
+                return false;
+            }
+            seq = log.delete(id);
+        } finally {
+            lock.unlock();
+        }
+        log.await(seq);
+        return true;
+    }
+
+    @Override
+    public long version() {
+        return storage.version();
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+
+    @Override
+    public void setPushUpListener(final IntConsumer listener) {
+        storage.setPushUpListener(listener);
+    }
+
+    @Override
+    public void setChangeListener(final Consumer<List<WidgetChange>> listener) {
+        storage.setChangeListener(listener);
+    }
+
+    /*
+     * stops checkpoints, writes the last snapshot so the next start has nothing to replay, and closes the log
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (checkpoints != null) {
+                checkpoints.shutdown();
+                checkpoints.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            if (snapshot != null) {
+                checkpoint();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            log.close();
+        }
+    }
+
+    /*
+     * loads the latest snapshot which can be loaded, returns the log position replay continues from
+     */
+    private long load() throws IOException {
+        if (snapshot != null) {
+            for (Path file : List.of(snapshot, previous)) {
+                if (!Files.exists(file)) {
+                    continue;
+                }
+                try {
+                    final long position = SnapshotFile.load(file, storage);
+                    if (position < log.start()) {
+                        throw new IOException(String.format("Snapshot is at position %d, but log starts at %d",
+                                position, log.start()));
+                    }
+                    latest = file;
+                    latestPosition = position;
+                    return position;
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Can't load snapshot {}, falling back to an older state", file, e);
+                    clear();
+                }
+            }
+        }
+        if (log.start() > 0) {
+            logger.warn("Log starts at position {}, changes before it are lost", log.start());
+        }
+        latestPosition = log.start();
+        return log.start();
+    }
+
+    /*
+     * removes whatever a failed load has restored
+     */
+    private void clear() {
+        for (Widget widget : storage.snapshot()) {
+            storage.delete(widget.getId());
+        }
+    }
+
+    private void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) { // keep trying, log alone is enough to restore everything
+            logger.warn("Checkpoint failed", e);
+        }
+    }
+}
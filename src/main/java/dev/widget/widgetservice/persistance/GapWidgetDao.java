@@ -0,0 +1,429 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+import static java.util.Collections.unmodifiableList;
+
+/*
+ * Storage keeping Z ordered widgets in a packed memory array: a sorted array with free slots spread between widgets.
+ * A new widget usually finds a free slot between its neighbours and is placed without moving anybody.
+ * When the neighbourhood is full, the smallest aligned window around it which is sparse enough is spread evenly
+ * (window may be denser the smaller it is, from full for LEAF slots down to half full for the whole array),
+ * and the array doubles once it is half full. This costs amortized O(log^2 n) moves per insert.
+ * Push up doesn't touch the widgets either: it is a "+1 from this slot on" mark in a Fenwick tree,
+ * so actual Z of a widget is its stored Z plus the marks up to its slot, O(log n).
+ * Marks inside a spread window are collapsed into a single mark right after it.
+ * Another Fenwick tree counts widgets by slot, so the slot of a given rank is found in O(log n) for paging.
+ * Observable Z order and push up are exactly the same as of InMemoryWidgetDao.
+ * All methods are synchronized, same as TreeWidgetDao.
+ */
+@Component
+@Lazy
+public class GapWidgetDao implements WidgetDao<Widget> {
+    private static final int MIN_CAPACITY = 64;
+    private static final int LEAF = 8; // smallest window spread when there is no free slot between neighbours
+
+    private final IdGenerator idGenerator;
+    private final Clock clock;
+    private final Map<String, Integer> lookup = new HashMap<>(); // id to slot
+    private final SpatialIndex<String> areas = new SpatialIndex<>();
+    private Widget[] slots; // Z of stored widgets is ignored
+    private int[] zs; // Z of widget in the slot, not including marks
+    private int[] marks; // push up marks by slot
+    private int[] markTree; // Fenwick tree of marks
+    private int[] countTree; // Fenwick tree of occupied slots
+    private int size;
+    private volatile long version;
+    private IntConsumer pushUpListener = count -> {
+    };
+
+    public GapWidgetDao(final IdGenerator idGenerator, final Clock clock) {
+        this.idGenerator = idGenerator;
+        this.clock = clock;
+        this.version = WidgetDao.firstVersion(clock);
+        allocate(MIN_CAPACITY);
+    }
+
+    @Override
+    public synchronized Widget create(final Widget src) {
+        final Widget widget = src.toBuilder().id(idGenerator.generateId()).build();
+        if (widget.getZ() == null) {
+            widget.setZ(foreground());
+        }
+        widget.setLastModification(clock.instant());
+        widget.setVersion(1L);
+        insert(widget);
+        index(widget);
+        ++version;
+        return widget.toBuilder().build();
+    }
+
+    @Override
+    public synchronized Widget get(final String id) {
+        final Integer slot = lookup.get(id);
+        return slot != null ? toWidget(slot) : null;
+    }
+
+    @Override
+    public synchronized List<Widget> getAll(final int pageSize, final int offset) {
+        final int from = Math.max(offset, 0);
+        final int count = Math.max(0, Math.min(pageSize, size - from));
+        final List<Widget> result = new ArrayList<>(count);
+        if (count == 0) {
+            return unmodifiableList(result);
+        }
+        int slot = slotOf(from);
+        int shift = sum(markTree, slot);
+        while (true) {
+            result.add(slots[slot].toBuilder().z(zs[slot] + shift).build());
+            if (result.size() == count) {
+                return unmodifiableList(result);
+            }
+            do {
+                shift += marks[++slot];
+            } while (slots[slot] == null);
+        }
+    }
+
+    @Override
+    public synchronized List<Widget> getAllAfter(final int pageSize, final int z) {
+        final int offset = z == Integer.MAX_VALUE ? size : lowerBound(z + 1);
+        return getAll(pageSize, offset);
+    }
+
+    @Override
+    public synchronized List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize,
+                                                  final int z) {
+        final List<Widget> result = new ArrayList<>();
+        areas.search(area, intersecting, id -> {
+            final int slot = lookup.get(id);
+            final int actualZ = zOf(slot);
+            if (actualZ > z) {
+                result.add(slots[slot].toBuilder().z(actualZ).build());
+            }
+        });
+        result.sort(Comparator.comparingInt(Widget::getZ));
+        return unmodifiableList(result.subList(0, Math.min(Math.max(pageSize, 0), result.size())));
+    }
+
+    @Override
+    public synchronized Widget update(final Widget entity) {
+        final Integer slot = lookup.get(entity.getId());
+        if (slot == null) {
+            return null;
+        }
+        VersionMismatchException.check(entity, slots[slot].getVersion());
+        final Widget result = Widget.merge(toWidget(slot), entity);
+        result.setLastModification(clock.instant());
+        result.setVersion(Widget.nextVersion(slots[slot]));
+        replace(slot, result);
+        ++version;
+        return result.toBuilder().build();
+    }
+
+    @Override
+    public synchronized List<Widget> apply(final List<Operation<Widget>> operations) {
+        Operation.checkTargets(operations, lookup::containsKey);
+        VersionMismatchException.check(operations, id -> get(id).getVersion());
+        return Operation.applyOneByOne(this, operations); // push up is a single mark already
+    }
+
+    @Override
+    public synchronized Widget restore(final Widget entity) {
+        final Widget result = entity.toBuilder().build();
+        final Integer slot = lookup.get(result.getId());
+        if (slot != null) {
+            replace(slot, result);
+        } else {
+            insert(result);
+            index(result);
+        }
+        ++version;
+        return result.toBuilder().build();
+    }
+
+    @Override
+    public synchronized boolean delete(final String id) {
+        final Integer slot = lookup.get(id);
+        if (slot == null) {
+            return false;
+        }
+        unindex(slots[slot]);
+        remove(slot);
+        ++version;
+        return true;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void setPushUpListener(final IntConsumer listener) {
+        pushUpListener = listener;
+    }
+
+    /*
+     * replaces widget stored in the slot with a new version of it
+     */
+    private void replace(final int slot, final Widget result) {
+        if (!Objects.equals(Area.of(slots[slot]), Area.of(result))) {
+            unindex(slots[slot]);
+            index(result);
+        }
+        if (result.getZ() == zOf(slot)) { // no changes in Z; just update data
+            slots[slot] = result;
+        } else { // Z changed
+            remove(slot);
+            insert(result);
+        }
+    }
+
+    private void index(final Widget widget) {
+        final Area area = Area.of(widget);
+        if (area != null) {
+            areas.add(widget.getId(), area);
+        }
+    }
+
+    private void unindex(final Widget widget) {
+        final Area area = Area.of(widget);
+        if (area != null) {
+            areas.remove(widget.getId(), area);
+        }
+    }
+
+    /*
+     * returns current foreground z-index
+     */
+    private int foreground() {
+        return size == 0 ? 0 : zOf(slotOf(size - 1)) + 1;
+    }
+
+    /*
+     * inserts widget pushing other widgets up; push up is just a mark at the slot of the widget taking the same Z
+     */
+    private void insert(final Widget widget) {
+        if ((size + 1) * 2 > slots.length) {
+            resize(slots.length * 2);
+        }
+        final int z = widget.getZ();
+        final int rank = lowerBound(z);
+        final int next = rank < size ? slotOf(rank) : slots.length;
+        if ((next < slots.length) && (zOf(next) == z)) { // found
+            mark(next, 1);
+            pushUpListener.accept(size - rank);
+        } else {
+            pushUpListener.accept(0);
+        }
+        final int previous = rank > 0 ? slotOf(rank - 1) : -1;
+        if (next - previous > 1) { // free slot in between
+            final int slot;
+            if (next == slots.length) { // foreground, keep them dense
+                slot = previous + 1;
+            } else if (previous < 0) { // background
+                slot = next - 1;
+            } else {
+                slot = (previous + next) >>> 1;
+            }
+            place(slot, widget, z);
+        } else {
+            spread(next, widget);
+        }
+    }
+
+    /*
+     * removes widget from the slot; its marks stay, they belong to the widgets above
+     */
+    private void remove(final int slot) {
+        lookup.remove(slots[slot].getId());
+        slots[slot] = null;
+        add(countTree, slot, -1);
+        --size;
+        if ((slots.length > MIN_CAPACITY) && (size * 8 < slots.length)) {
+            resize(slots.length / 2);
+        }
+    }
+
+    private void place(final int slot, final Widget widget, final int z) {
+        slots[slot] = widget;
+        zs[slot] = z - sum(markTree, slot);
+        add(countTree, slot, 1);
+        lookup.put(widget.getId(), slot);
+        ++size;
+    }
+
+    /*
+     * spreads widgets of the smallest window around position which has room for one more, evenly over the window,
+     * putting the widget right before the one at position
+     */
+    private void spread(final int position, final Widget widget) {
+        final int anchor = Math.min(position, slots.length - 1);
+        final int levels = Integer.numberOfTrailingZeros(slots.length / LEAF);
+        int level = 0;
+        int width = LEAF;
+        int from = anchor & -width;
+        int count = count(from, width) + 1;
+        while ((width < slots.length) && ((long) count * 2 * levels > (long) width * (2 * levels - level))) {
+            ++level;
+            width <<= 1;
+            from = anchor & -width;
+            count = count(from, width) + 1;
+        }
+        final int to = from + width;
+        final Widget[] moved = new Widget[count];
+        final int[] movedZs = new int[count];
+        int shift = sum(markTree, from - 1);
+        int collapsed = 0;
+        int n = 0;
+        for (int slot = from; slot < to; ++slot) {
+            if (slot == position) {
+                moved[n] = widget;
+                movedZs[n++] = widget.getZ();
+            }
+            if (marks[slot] != 0) {
+                shift += marks[slot];
+                collapsed += marks[slot];
+                add(markTree, slot, -marks[slot]);
+                marks[slot] = 0;
+            }
+            if (slots[slot] != null) {
+                moved[n] = slots[slot];
+                movedZs[n++] = zs[slot] + shift;
+                add(countTree, slot, -1);
+                slots[slot] = null;
+            }
+        }
+        if (position >= to) {
+            moved[n] = widget;
+            movedZs[n] = widget.getZ();
+        }
+        if ((collapsed != 0) && (to < slots.length)) {
+            mark(to, collapsed);
+        }
+        size -= count - 1;
+        for (int i = 0; i < count; ++i) {
+            place(from + (int) ((long) i * width / count), moved[i], movedZs[i]);
+        }
+    }
+
+    /*
+     * moves all widgets into arrays of given capacity, spread evenly and with no marks
+     */
+    private void resize(final int capacity) {
+        final Widget[] moved = new Widget[size];
+        final int[] movedZs = new int[size];
+        int shift = 0;
+        int n = 0;
+        for (int slot = 0; n < size; ++slot) {
+            shift += marks[slot];
+            if (slots[slot] != null) {
+                moved[n] = slots[slot];
+                movedZs[n++] = zs[slot] + shift;
+            }
+        }
+        allocate(capacity);
+        for (int i = 0; i < moved.length; ++i) {
+            place((int) ((long) i * capacity / moved.length), moved[i], movedZs[i]);
+        }
+    }
+
+    private void allocate(final int capacity) {
+        slots = new Widget[capacity];
+        zs = new int[capacity];
+        marks = new int[capacity];
+        markTree = new int[capacity + 1];
+        countTree = new int[capacity + 1];
+        size = 0;
+    }
+
+    private void mark(final int slot, final int delta) {
+        marks[slot] += delta;
+        add(markTree, slot, delta);
+    }
+
+    private Widget toWidget(final int slot) {
+        return slots[slot].toBuilder().z(zOf(slot)).build();
+    }
+
+    /*
+     * returns actual Z of the widget in the slot
+     */
+    private int zOf(final int slot) {
+        return zs[slot] + sum(markTree, slot);
+    }
+
+    /*
+     * returns number of widgets with Z less than given
+     */
+    private int lowerBound(final int z) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (zOf(slotOf(middle)) < z) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * returns slot of the widget with given zero based rank in Z order
+     */
+    private int slotOf(final int rank) {
+        int position = 0;
+        int remaining = rank + 1;
+        for (int step = Integer.highestOneBit(countTree.length - 1); step > 0; step >>= 1) {
+            final int next = position + step;
+            if ((next < countTree.length) && (countTree[next] < remaining)) {
+                position = next;
+                remaining -= countTree[next];
+            }
+        }
+        return position;
+    }
+
+    /*
+     * returns number of widgets in width slots starting from given one
+     */
+    private int count(final int from, final int width) {
+        return sum(countTree, from + width - 1) - sum(countTree, from - 1);
+    }
+
+    private static void add(final int[] tree, final int slot, final int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /*
+     * returns sum of slots from the first one up to given one, inclusive
+     */
+    private static int sum(final int[] tree, final int slot) {
+        int result = 0;
+        for (int i = slot + 1; i > 0; i -= i & -i) {
+            result += tree[i];
+        }
+        return result;
+    }
+}
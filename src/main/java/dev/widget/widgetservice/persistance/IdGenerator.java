@@ -1,13 +1,10 @@
 package dev.widget.widgetservice.persistance;
 
-import org.springframework.stereotype.Component;
-
 import java.util.UUID;
 
 /*
- * generates unique ids based on GUIDs
+ * generates unique ids based on GUIDs; subclasses provide other id strategies
  */
-@Component
 public class IdGenerator {
     public String generateId() {
         return UUID.randomUUID().toString();
@@ -0,0 +1,10 @@
+package dev.widget.widgetservice.persistance;
+
+/*
+ * thrown when storage with fixed width records can't keep an id that long, nothing is stored then
+ */
+public class IdTooLongException extends RuntimeException {
+    public IdTooLongException(final String id, final int maxLength) {
+        super(String.format("Widget ID [%s] is longer than %s bytes", id, maxLength));
+    }
+}
@@ -1,84 +1,523 @@
 package dev.widget.widgetservice.persistance;
 
 import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
 import org.springframework.stereotype.Component;
 
 import java.time.Clock;
 import java.util.*;
-
-import static java.util.stream.Collectors.toUnmodifiableList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 /*
  * Simple storage using ArrayList as storage backend.
  * Widgets are stored ordered by Z, Map provides quick lookup by id functionality.
- * Avoids race conditions in the simplest way with synchronized methods.
+ * Avoids race conditions between writers with a configurable WidgetLock; the simplest one is a single monitor.
  * Since call semantic requires mass changes in widgets as a result of a single call
  * (i.e. a new /modified widget push other widgets up),
  * it is not as bad as it sounds.
  * As long as both List and Map is in-memory storage this should be fast enough
+ *
+ * Stored widgets are never modified once they are visible to readers: push up replaces shifted widgets with copies.
+ * After every change writer publishes a new immutable snapshot of the Z ordered list, tagged with a version.
+ * Versions start from the creation time of the storage, see WidgetDao.
+ * Snapshot is split into fixed size chunks, only chunks touched by the change are copied from the list,
+ * the rest is shared with the previous version. This keeps appending to the foreground cheap.
+ * Readers only look at the latest snapshot and at the concurrent lookup map, so they never observe
+ * a half done push up and don't need the lock at all (see SnapshotWidgetLock).
+ *
+ * Widget areas are indexed by a SpatialIndex of ids. Push up doesn't move widgets on the plane,
+ * so the index changes only when a widget is created, deleted, or resized/moved.
+ * Index is guarded by its own read/write lock: writers hold it for the whole change,
+ * so area queries see lookup consistent with the index even if the main lock lets readers in.
+ *
+ * Batch of changes is played aside and merged into the list in a single pass (see WidgetBatch),
+ * so k changes in the middle cost O(n + k log^2 n) instead of k push ups of O(n) each.
+ *
+ * If there is a change listener, every write records its changes and hands them over on publish.
+ * Push up is recorded as a single range of Z, not as a change of every pushed widget.
+ * The last change of a write carries the version it is published with; a replica replays changes of a leader
+ * and reloads its export with the leader's versions, so an ETag means the same state on every instance.
  */
 @Component
 public class InMemoryWidgetDao implements WidgetDao<Widget> {
     private final IdGenerator idGenerator;
     private final ArrayList<Widget> widgets; // we want to make sure add(index, element) is supported
-    private final Map<String, Widget> lookup;
+    private final ConcurrentHashMap<String, Widget> lookup; // read without locking
     private final Clock clock;
+    private final WidgetLock lock;
+    private final SpatialIndex<String> areas = new SpatialIndex<>();
+    private final ReadWriteLock areasLock = new ReentrantReadWriteLock();
+    private volatile Snapshot snapshot;
+    private int changedFrom = Integer.MAX_VALUE; // range of widgets indexes changed since last publish
+    private int changedTo = 0;
+    private volatile IntConsumer pushUpListener = count -> {
+    };
+    private volatile Consumer<List<WidgetChange>> changeListener; // nothing is recorded if null
+    private final List<WidgetChange> changes = new ArrayList<>(); // recorded since last publish
 
     public InMemoryWidgetDao(final IdGenerator idGenerator, final ArrayList<Widget> widgets,
-                             final Map<String, Widget> lookup, final Clock clock) {
+                             final ConcurrentHashMap<String, Widget> lookup, final Clock clock,
+                             final WidgetLock lock) {
         this.idGenerator = idGenerator;
         this.widgets = widgets;
         this.lookup = lookup;
         this.clock = clock;
+        this.lock = lock;
+        this.snapshot = new Snapshot(WidgetDao.firstVersion(clock), new Widget[0][], 0);
     }
 
     @Override
-    public synchronized Widget create(final Widget src) {
+    public Widget create(final Widget src) {
         final Widget result = src.toBuilder().id(idGenerator.generateId()).build();
-        if (result.getZ() == null) {
-            result.setZ(foreground());
+        return write(() -> {
+            if (result.getZ() == null) {
+                result.setZ(foreground());
+            }
+            result.setLastModification(clock.instant());
+            result.setVersion(1L);
+            insert(result);
+            lookup.put(result.getId(), result);
+            index(result);
+            record(WidgetChange.created(result));
+            publish();
+            return result;
+        });
+    }
+
+    @Override
+    public Widget get(String id) {
+        return lock.read(() -> lookup.get(id));
+    }
+
+    @Override
+    public List<Widget> getAll(int pageSize, int offset) {
+        return lock.read(() -> {
+            final List<Widget> current = snapshot;
+            final int from = Math.min(Math.max(offset, 0), current.size());
+            final int to = from + Math.min(Math.max(pageSize, 0), current.size() - from);
+            return List.copyOf(current.subList(from, to));
+        });
+    }
+
+    @Override
+    public List<Widget> getAllAfter(int pageSize, int z) {
+        return lock.read(() -> {
+            final List<Widget> current = snapshot;
+            final int from = firstAbove(current, z);
+            final int to = from + Math.min(Math.max(pageSize, 0), current.size() - from);
+            return List.copyOf(current.subList(from, to));
+        });
+    }
+
+    @Override
+    public List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize, final int z) {
+        final List<Widget> result = new ArrayList<>();
+        areasLock.readLock().lock();
+        try {
+            areas.search(area, intersecting, id -> {
+                final Widget widget = lookup.get(id);
+                if (widget.getZ() > z) {
+                    result.add(widget);
+                }
+            });
+        } finally {
+            areasLock.readLock().unlock();
         }
-        result.setLastModification(clock.instant());
-        insert(result);
-        lookup.put(result.getId(), result);
-        return result;
+        result.sort(Comparator.comparingInt(Widget::getZ));
+        return List.copyOf(result.subList(0, Math.min(Math.max(pageSize, 0), result.size())));
+    }
+
+    /*
+     * latest published snapshot as is, neither copied nor locked
+     */
+    @Override
+    public List<Widget> snapshot() {
+        return snapshot;
+    }
+
+    /*
+     * changes are handed over to the listener under the write lock, so does capture
+     */
+    @Override
+    public <R> R snapshot(final Function<List<Widget>, R> capture) {
+        return write(() -> capture.apply(snapshot));
+    }
+
+    @Override
+    public Widget update(Widget entity) {
+        return write(() -> {
+            final Widget target = lookup.get(entity.getId());
+            if (target == null) {
+                return null;
+            }
+            VersionMismatchException.check(entity, target.getVersion());
+            final Widget result = Widget.merge(target, entity);
+            result.setLastModification(clock.instant());
+            result.setVersion(Widget.nextVersion(target));
+            replace(target, result);
+            record(WidgetChange.updated(result));
+            publish();
+            return result;
+        });
+    }
+
+    /*
+     * plays the whole batch aside first, then moves every widget once, see WidgetBatch
+     */
+    @Override
+    public List<Widget> apply(final List<Operation<Widget>> operations) {
+        return write(() -> {
+            Operation.checkTargets(operations, lookup::containsKey);
+            VersionMismatchException.check(operations, id -> lookup.get(id).getVersion());
+            final WidgetBatch batch = new WidgetBatch(widgets, lookup, idGenerator, clock, pushUpListener,
+                    this::record);
+            final List<Widget> results = new ArrayList<>(operations.size());
+            for (Operation<Widget> operation : operations) {
+                final Widget result = batch.apply(operation);
+                results.add(result);
+                record(operation.getType() == Operation.Type.DELETE ? WidgetChange.deleted(result.getId())
+                        : operation.getType() == Operation.Type.CREATE ? WidgetChange.created(result)
+                        : WidgetChange.updated(result));
+            }
+            final int from = batch.merge((before, after) -> {
+                if (after == null) {
+                    unindex(before);
+                    lookup.remove(before.getId());
+                } else {
+                    if (before == null) {
+                        index(after);
+                    } else {
+                        reindex(before, after);
+                    }
+                    lookup.put(after.getId(), after);
+                }
+            });
+            changed(from, widgets.size());
+            publish();
+            return results;
+        });
+    }
+
+    @Override
+    public Widget restore(final Widget entity) {
+        final Widget result = entity.toBuilder().build();
+        return write(() -> {
+            put(result);
+            publish();
+            return result;
+        });
+    }
+
+    /*
+     * publishes the whole bulk at once; into an empty storage Z ordered bulk is appended without any push up
+     * and indexed in bulk, into a non-empty one it is merged in a single pass from the top.
+     * Takes ownership of given widgets, they are not copied
+     */
+    @Override
+    public void restoreAll(final List<Widget> entities) {
+        write(() -> {
+            if (lookup.isEmpty()) {
+                load(entities);
+            } else {
+                merge(entities);
+            }
+            publish();
+            return null;
+        });
+    }
+
+    /*
+     * replaces the whole state with Z ordered widgets, e.g. with a fresh copy of a leader, under a single lock,
+     * so readers see either the old state or the new one, which gets the given version. Takes ownership of widgets
+     */
+    public void reload(final List<Widget> entities, final long version) {
+        write(() -> {
+            widgets.forEach(this::unindex);
+            changed(0, widgets.size());
+            widgets.clear();
+            lookup.clear();
+            try {
+                load(entities);
+            } finally { // storage is empty if entities can't be loaded
+                publish(version);
+            }
+            return null;
+        });
+    }
+
+    /*
+     * applies changes recorded by another storage, e.g. streamed by a leader, in their order under a single lock,
+     * and publishes them at once, so readers never see a push up without the change which caused it.
+     * State gets the version of the last change, if it has one.
+     * Changes are recorded again for the change listener of this storage; resets are left to the caller
+     */
+    public void replay(final List<WidgetChange> changes) {
+        write(() -> {
+            String aside = null; // id of the updated widget taken out to make room for it, as the leader did
+            for (int i = 0; i < changes.size(); ++i) {
+                final WidgetChange change = changes.get(i);
+                switch (change.getType()) {
+                    case CREATED:
+                    case UPDATED:
+                        final Widget widget = change.getWidget().toBuilder().build();
+                        if (widget.getId().equals(aside)) {
+                            add(widget);
+                            record(WidgetChange.updated(widget));
+                            aside = null;
+                        } else {
+                            put(widget);
+                        }
+                        break;
+                    case DELETED:
+                        final Widget target = lookup.get(change.getId());
+                        if (target != null) {
+                            unindex(target);
+                            remove(change.getId());
+                            record(WidgetChange.deleted(change.getId()));
+                        }
+                        break;
+                    case PUSHED:
+                        final WidgetChange cause = cause(changes, i);
+                        // update takes its widget out before pushing the others up, so it would share Z otherwise
+                        if ((aside == null) && (cause != null) && (cause.getType() == WidgetChange.Type.UPDATED)) {
+                            final Widget updated = lookup.get(cause.getWidget().getId());
+                            if (updated != null) {
+                                unindex(updated);
+                                remove(updated.getId());
+                                aside = updated.getId();
+                            }
+                        }
+                        shift(change.getFromZ(), change.getToZ());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            final Long version = changes.isEmpty() ? null : changes.get(changes.size() - 1).getVersion();
+            publish(version != null ? version : snapshot.version + 1);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean delete(String id) {
+        return write(() -> {
+            final Widget target = lookup.get(id);
+            if (target != null) {
+                unindex(target);
+            }
+            if (remove(id)) {
+                record(WidgetChange.deleted(id));
+                publish();
+                return true;
+            } else {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public long version() {
+        return snapshot.version;
     }
 
     @Override
-    public synchronized Widget get(String id) {
-        return lookup.get(id);
+    public int size() {
+        return snapshot.size();
     }
 
     @Override
-    public synchronized List<Widget> getAll(int pageSize, int offset) {
-        return widgets.stream().skip(offset).limit(pageSize).collect(toUnmodifiableList());
+    public void setPushUpListener(final IntConsumer listener) {
+        pushUpListener = listener;
     }
 
     @Override
-    public synchronized Widget update(Widget entity) {
-        final Widget target = lookup.get(entity.getId());
-        if (target == null) {
+    public void setChangeListener(final Consumer<List<WidgetChange>> listener) {
+        write(() -> {
+            changeListener = listener;
             return null;
+        });
+    }
+
+    /*
+     * runs change under the main lock and the area index lock
+     */
+    private <T> T write(final Supplier<T> change) {
+        return lock.write(() -> {
+            areasLock.writeLock().lock();
+            try {
+                return change.get();
+            } finally {
+                areasLock.writeLock().unlock();
+            }
+        });
+    }
+
+    /*
+     * stores widget as is, replacing the one with the same id
+     */
+    private void put(final Widget result) {
+        final Widget target = lookup.get(result.getId());
+        if (target != null) {
+            replace(target, result);
+            record(WidgetChange.updated(result));
+        } else {
+            add(result);
+            record(WidgetChange.created(result));
         }
-        final Widget result = Widget.merge(target, entity);
-        result.setLastModification(clock.instant());
+    }
+
+    /*
+     * stores widget which is not there yet
+     */
+    private void add(final Widget result) {
+        insert(result);
+        lookup.put(result.getId(), result);
+        index(result);
+    }
+
+    /*
+     * first change after the push up at index which is no push up, i.e. the one which caused it; null if none
+     */
+    private static WidgetChange cause(final List<WidgetChange> changes, final int index) {
+        for (int i = index + 1; i < changes.size(); ++i) {
+            if (changes.get(i).getType() != WidgetChange.Type.PUSHED) {
+                return changes.get(i);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * appends Z ordered bulk and indexes it in bulk
+     */
+    private void load(final List<Widget> entities) {
+        widgets.ensureCapacity(entities.size());
+        for (Widget entity : entities) {
+            if (widgets.isEmpty() || (widgets.get(widgets.size() - 1).getZ() < entity.getZ())) {
+                widgets.add(entity);
+            } else {
+                insert(entity);
+            }
+        }
+        changed(0, widgets.size());
+        lookup.putAll(byId(widgets)); // sizes the table once, instead of growing it step by step
+        if (lookup.size() != widgets.size()) {
+            widgets.clear();
+            lookup.clear();
+            changedFrom = Integer.MAX_VALUE;
+            changedTo = 0;
+            throw new IllegalArgumentException("Bulk restore needs distinct ids");
+        }
+        final List<String> ids = new ArrayList<>(widgets.size());
+        final List<Area> bounds = new ArrayList<>(widgets.size());
+        for (Widget widget : widgets) {
+            final Area area = Area.of(widget);
+            if (area != null) {
+                ids.add(widget.getId());
+                bounds.add(area);
+            }
+        }
+        areas.addAll(ids, bounds);
+        record(WidgetChange.reset()); // the bulk is way too large to be sent as changes
+    }
+
+    /*
+     * merges Z ordered bulk with ids and Z not stored yet into the stored widgets, moving each of them at most once
+     */
+    private void merge(final List<Widget> entities) {
+        for (Widget entity : entities) {
+            if (lookup.containsKey(entity.getId()) || (searchByZ(entity) >= 0)) {
+                throw new IllegalStateException(String.format("Widget ID [%s] or Z %s is stored already",
+                        entity.getId(), entity.getZ()));
+            }
+        }
+        int stored = widgets.size() - 1;
+        int to = widgets.size() + entities.size() - 1;
+        widgets.addAll(Collections.nCopies(entities.size(), null));
+        for (int i = entities.size() - 1; i >= 0; --to) {
+            if ((stored >= 0) && (widgets.get(stored).getZ() > entities.get(i).getZ())) {
+                widgets.set(to, widgets.get(stored--));
+            } else {
+                widgets.set(to, entities.get(i--));
+            }
+        }
+        changed(to + 1, widgets.size());
+        for (Widget entity : entities) {
+            lookup.put(entity.getId(), entity);
+            index(entity);
+            record(WidgetChange.created(entity));
+        }
+    }
+
+    /*
+     * moves every widget with Z from fromZ to toZ, both inclusive, one up, as a recorded push up did
+     */
+    private void shift(final int fromZ, final int toZ) {
+        final int from = firstAbove(widgets, fromZ - 1);
+        int i = from;
+        for (; (i < widgets.size()) && (widgets.get(i).getZ() <= toZ); ++i) {
+            final Widget pushed = widgets.get(i);
+            final Widget result = pushed.toBuilder().z(pushed.getZ() + 1).build();
+            widgets.set(i, result);
+            lookup.put(result.getId(), result);
+        }
+        changed(from, i);
+        record(WidgetChange.pushed(fromZ, toZ));
+    }
+
+    private void index(final Widget widget) {
+        final Area area = Area.of(widget);
+        if (area != null) {
+            areas.add(widget.getId(), area);
+        }
+    }
+
+    private void reindex(final Widget target, final Widget result) {
+        if (!Objects.equals(Area.of(target), Area.of(result))) {
+            unindex(target);
+            index(result);
+        }
+    }
+
+    private void unindex(final Widget widget) {
+        final Area area = Area.of(widget);
+        if (area != null) {
+            areas.remove(widget.getId(), area);
+        }
+    }
+
+    /*
+     * replaces stored widget with a new version of it
+     */
+    private void replace(final Widget target, final Widget result) {
+        reindex(target, result);
         if (target.getZ().equals(result.getZ())) { // no changes in Z; just update data
             int i = searchByZ(result);
             widgets.set(i, result);
+            changed(i, i + 1);
         } else { // Z changed
-            delete(result.getId());
+            remove(result.getId());
             insert(result);
         }
         lookup.put(result.getId(), result);
-        return result;
     }
 
-    @Override
-    public synchronized boolean delete(String id) {
+    /*
+     * removes widget by id, if exists
+     */
+    private boolean remove(final String id) {
         final Widget widget = lookup.get(id);
         if (widget != null) {
             int i = searchByZ(widget); // Z is unique
             widgets.remove(i);
+            changed(i, widgets.size());
             lookup.remove(id);
             return true;
         } else {
@@ -86,6 +525,76 @@ public class InMemoryWidgetDao implements WidgetDao<Widget> {
         }
     }
 
+    /*
+     * map view of widgets by id, for bulk puts
+     */
+    private static Map<String, Widget> byId(final List<Widget> widgets) {
+        return new AbstractMap<>() {
+            @Override
+            public Set<Entry<String, Widget>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, Widget>> iterator() {
+                        final Iterator<Widget> iterator = widgets.iterator();
+                        return new Iterator<>() {
+                            @Override
+                            public boolean hasNext() {
+                                return iterator.hasNext();
+                            }
+
+                            @Override
+                            public Entry<String, Widget> next() {
+                                final Widget widget = iterator.next();
+                                return new SimpleImmutableEntry<>(widget.getId(), widget);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return widgets.size();
+                    }
+                };
+            }
+        };
+    }
+
+    /*
+     * makes current state visible to readers; must be called by writer at the end of every change
+     */
+    private void publish() {
+        publish(snapshot.version + 1);
+    }
+
+    private void publish(final long version) {
+        snapshot = snapshot.next(widgets, changedFrom, changedTo, version);
+        changedFrom = Integer.MAX_VALUE;
+        changedTo = 0;
+        final Consumer<List<WidgetChange>> listener = changeListener;
+        if ((listener != null) && !changes.isEmpty()) {
+            changes.get(changes.size() - 1).setVersion(version);
+            listener.accept(List.copyOf(changes));
+        }
+        changes.clear();
+    }
+
+    /*
+     * keeps change until publish, if anyone listens
+     */
+    private void record(final WidgetChange change) {
+        if (changeListener != null) {
+            changes.add(change);
+        }
+    }
+
+    /*
+     * marks widgets indexes which must be copied to the next snapshot
+     */
+    private void changed(final int from, final int to) {
+        changedFrom = Math.min(changedFrom, from);
+        changedTo = Math.max(changedTo, to);
+    }
+
     /*
      * returns current foreground z-index
      */
@@ -100,6 +609,23 @@ public class InMemoryWidgetDao implements WidgetDao<Widget> {
         return Collections.binarySearch(widgets, widget, Comparator.comparingInt(Widget::getZ));
     }
 
+    /*
+     * binary search for the first widget with Z above given one
+     */
+    private static int firstAbove(final List<Widget> widgets, final int z) {
+        int low = 0;
+        int high = widgets.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (widgets.get(middle).getZ() <= z) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
     /*
      * inserts widget pushing other widgets up
      */
@@ -107,9 +633,63 @@ public class InMemoryWidgetDao implements WidgetDao<Widget> {
         int i = searchByZ(widget);
         if (i >= 0) { //found
             widgets.add(i, widget);
-            widgets.stream().skip(i + 1).forEach(w -> w.setZ(w.getZ() + 1)); // push up
+            for (int j = i + 1; j < widgets.size(); ++j) { // push up
+                final Widget pushed = widgets.get(j);
+                final Widget result = pushed.toBuilder().z(pushed.getZ() + 1).build();
+                widgets.set(j, result);
+                lookup.put(result.getId(), result);
+            }
+            changed(i, widgets.size());
+            pushUpListener.accept(widgets.size() - i - 1);
+            record(WidgetChange.pushed(widget.getZ(), widgets.get(widgets.size() - 1).getZ() - 1));
         } else { //not found
             widgets.add(-i - 1, widget);
+            changed(-i - 1, widgets.size());
+            pushUpListener.accept(0);
+        }
+    }
+
+    /*
+     * immutable Z ordered state of the storage, split into chunks of CHUNK_SIZE widgets
+     */
+    private static final class Snapshot extends AbstractList<Widget> implements RandomAccess {
+        private static final int CHUNK_BITS = 10;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+        private final long version;
+        private final Widget[][] chunks;
+        private final int size;
+
+        private Snapshot(final long version, final Widget[][] chunks, final int size) {
+            this.version = version;
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        @Override
+        public Widget get(final int index) {
+            Objects.checkIndex(index, size);
+            return chunks[index >>> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /*
+         * creates given version copying only chunks which contain changed widgets
+         */
+        private Snapshot next(final List<Widget> widgets, final int changedFrom, final int changedTo,
+                              final long version) {
+            final int count = (widgets.size() + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+            final Widget[][] result = Arrays.copyOf(chunks, count);
+            final int last = Math.min(count, (changedTo + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            for (int i = changedFrom >>> CHUNK_BITS; i < last; ++i) {
+                final int from = i << CHUNK_BITS;
+                result[i] = widgets.subList(from, Math.min(from + CHUNK_SIZE, widgets.size())).toArray(new Widget[0]);
+            }
+            return new Snapshot(version, result, widgets.size());
         }
     }
 }
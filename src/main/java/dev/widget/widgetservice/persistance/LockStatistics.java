@@ -0,0 +1,19 @@
+package dev.widget.widgetservice.persistance;
+
+import lombok.Builder;
+import lombok.Value;
+
+/*
+ * contention counters of a WidgetLock; wait times are in nanoseconds
+ */
+@Value
+@Builder
+public class LockStatistics {
+    String mode;
+    long reads;
+    long readWaitNanos;
+    long optimisticReads; // reads completed without acquiring the lock, not included in reads
+    long optimisticFailures; // optimistic reads retried under the lock
+    long writes;
+    long writeWaitNanos;
+}
@@ -0,0 +1,218 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+ * Measures any storage: a timer with percentile histogram for every method (lock waits and fsyncs included),
+ * number of stored widgets, and distribution of how many widgets every insert pushed up.
+ * Meters are registered once upfront, so a call only reads the clock twice and records into its own timer;
+ * no tags or samples are created per call.
+ * Closing closes the storage, if it is closeable.
+ */
+public class MeteredWidgetDao implements WidgetDao<Widget>, Closeable {
+    private final WidgetDao<Widget> storage;
+    private final Clock clock;
+    private final Timer creates;
+    private final Timer gets;
+    private final Timer pages;
+    private final Timer pagesAfter;
+    private final Timer areaPages;
+    private final Timer snapshots;
+    private final Timer updates;
+    private final Timer batches;
+    private final Timer restores;
+    private final Timer bulkRestores;
+    private final Timer deletes;
+
+    public MeteredWidgetDao(final WidgetDao<Widget> storage, final MeterRegistry registry) {
+        this.storage = storage;
+        this.clock = registry.config().clock();
+        this.creates = timer(registry, "create");
+        this.gets = timer(registry, "get");
+        this.pages = timer(registry, "getAll");
+        this.pagesAfter = timer(registry, "getAllAfter");
+        this.areaPages = timer(registry, "getAllInArea");
+        this.snapshots = timer(registry, "snapshot");
+        this.updates = timer(registry, "update");
+        this.batches = timer(registry, "apply");
+        this.restores = timer(registry, "restore");
+        this.bulkRestores = timer(registry, "restoreAll");
+        this.deletes = timer(registry, "delete");
+        Gauge.builder("widget.store.size", storage, WidgetDao::size)
+                .description("Number of stored widgets")
+                .register(registry);
+        final DistributionSummary pushUps = DistributionSummary.builder("widget.push.ups")
+                .description("Number of widgets pushed up by an insert")
+                .baseUnit("widgets")
+                .publishPercentileHistogram()
+                .register(registry);
+        storage.setPushUpListener(pushUps::record);
+    }
+
+    @Override
+    public Widget create(final Widget src) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.create(src);
+        } finally {
+            record(creates, start);
+        }
+    }
+
+    @Override
+    public Widget get(final String id) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.get(id);
+        } finally {
+            record(gets, start);
+        }
+    }
+
+    @Override
+    public List<Widget> getAll(final int pageSize, final int offset) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.getAll(pageSize, offset);
+        } finally {
+            record(pages, start);
+        }
+    }
+
+    @Override
+    public List<Widget> getAllAfter(final int pageSize, final int z) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.getAllAfter(pageSize, z);
+        } finally {
+            record(pagesAfter, start);
+        }
+    }
+
+    @Override
+    public List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize, final int z) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.getAllInArea(area, intersecting, pageSize, z);
+        } finally {
+            record(areaPages, start);
+        }
+    }
+
+    @Override
+    public List<Widget> snapshot() {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.snapshot();
+        } finally {
+            record(snapshots, start);
+        }
+    }
+
+    @Override
+    public <R> R snapshot(final Function<List<Widget>, R> capture) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.snapshot(capture);
+        } finally {
+            record(snapshots, start);
+        }
+    }
+
+    @Override
+    public Widget update(final Widget entity) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.update(entity);
+        } finally {
+            record(updates, start);
+        }
+    }
+
+    @Override
+    public List<Widget> apply(final List<Operation<Widget>> operations) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.apply(operations);
+        } finally {
+            record(batches, start);
+        }
+    }
+
+    @Override
+    public Widget restore(final Widget entity) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.restore(entity);
+        } finally {
+            record(restores, start);
+        }
+    }
+
+    @Override
+    public void restoreAll(final List<Widget> entities) {
+        final long start = clock.monotonicTime();
+        try {
+            storage.restoreAll(entities);
+        } finally {
+            record(bulkRestores, start);
+        }
+    }
+
+    @Override
+    public boolean delete(final String id) {
+        final long start = clock.monotonicTime();
+        try {
+            return storage.delete(id);
+        } finally {
+            record(deletes, start);
+        }
+    }
+
+    @Override
+    public long version() {
+        return storage.version();
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+
+    @Override
+    public void setChangeListener(final Consumer<List<WidgetChange>> listener) {
+        storage.setChangeListener(listener);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    private void record(final Timer timer, final long start) {
+        timer.record(clock.monotonicTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static Timer timer(final MeterRegistry registry, final String method) {
+        return Timer.builder("widget.dao.calls")
+                .description("Storage method calls")
+                .tag("method", method)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
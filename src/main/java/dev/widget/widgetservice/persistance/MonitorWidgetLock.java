@@ -0,0 +1,33 @@
+package dev.widget.widgetservice.persistance;
+
+import java.util.function.Supplier;
+
+/*
+ * the simplest strategy: everything, including reads, is serialized on a single monitor
+ */
+public class MonitorWidgetLock implements WidgetLock {
+    private final ContentionCounters counters = new ContentionCounters("monitor");
+
+    @Override
+    public <T> T read(final Supplier<T> action) {
+        final long start = System.nanoTime();
+        synchronized (this) {
+            counters.read(System.nanoTime() - start);
+            return action.get();
+        }
+    }
+
+    @Override
+    public <T> T write(final Supplier<T> action) {
+        final long start = System.nanoTime();
+        synchronized (this) {
+            counters.write(System.nanoTime() - start);
+            return action.get();
+        }
+    }
+
+    @Override
+    public LockStatistics statistics() {
+        return counters.toStatistics();
+    }
+}
@@ -0,0 +1,90 @@
+package dev.widget.widgetservice.persistance;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntPredicate;
+
+/*
+ * open addressing hash table of slots kept in a direct ByteBuffer, so it costs nothing to GC.
+ * Every entry is id hash and slot + 1 (0 is an empty entry); keys themselves live in the slots,
+ * so caller checks if slot holds the key. Table is sized once for the given capacity with load factor below 3/4.
+ * Linear probing; removal shifts following entries back, so there are no tombstones.
+ * Not thread safe.
+ */
+class OffHeapSlotIndex {
+    private static final int ENTRY = 8;
+    private static final int HASH = 0;
+    private static final int SLOT = 4;
+
+    private final ByteBuffer table;
+    private final int mask;
+
+    OffHeapSlotIndex(final int capacity) {
+        final int entries = Integer.highestOneBit(Math.max(8, capacity + capacity / 3) * 2 - 1);
+        table = ByteBuffer.allocateDirect(entries * ENTRY);
+        mask = entries - 1;
+    }
+
+    /*
+     * returns slot for which matches is true, or -1
+     */
+    int find(final int hash, final IntPredicate matches) {
+        for (int i = hash & mask; !empty(i); i = (i + 1) & mask) {
+            if ((hashAt(i) == hash) && matches.test(slotAt(i))) {
+                return slotAt(i);
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * adds slot, caller makes sure the key is not there yet
+     */
+    void add(final int hash, final int slot) {
+        int i = hash & mask;
+        while (!empty(i)) {
+            i = (i + 1) & mask;
+        }
+        set(i, hash, slot + 1);
+    }
+
+    /*
+     * removes and returns slot for which matches is true, or returns -1
+     */
+    int remove(final int hash, final IntPredicate matches) {
+        int i = hash & mask;
+        while (!empty(i) && ((hashAt(i) != hash) || !matches.test(slotAt(i)))) {
+            i = (i + 1) & mask;
+        }
+        if (empty(i)) {
+            return -1;
+        }
+        final int result = slotAt(i);
+        set(i, 0, 0);
+        for (int j = (i + 1) & mask; !empty(j); j = (j + 1) & mask) { // close the gap
+            final int home = hashAt(j) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) { // entry at j may move back to i
+                set(i, hashAt(j), slotAt(j) + 1);
+                set(j, 0, 0);
+                i = j;
+            }
+        }
+        return result;
+    }
+
+    private boolean empty(final int i) {
+        return table.getInt(i * ENTRY + SLOT) == 0;
+    }
+
+    private int hashAt(final int i) {
+        return table.getInt(i * ENTRY + HASH);
+    }
+
+    private int slotAt(final int i) {
+        return table.getInt(i * ENTRY + SLOT) - 1;
+    }
+
+    private void set(final int i, final int hash, final int storedSlot) {
+        table.putInt(i * ENTRY + HASH, hash);
+        table.putInt(i * ENTRY + SLOT, storedSlot);
+    }
+}
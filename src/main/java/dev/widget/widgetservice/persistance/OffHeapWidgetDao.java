@@ -0,0 +1,475 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.Widget;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import static java.util.Collections.unmodifiableList;
+
+/*
+ * Storage keeping widget records off-heap, in direct ByteBuffers with fixed width slots.
+ * Slots are allocated in chunks as storage grows, up to the configured capacity; then create fails.
+ * Id lookup is an off-heap hash table of slots (OffHeapSlotIndex), ids are stored in the slots as UTF-8,
+ * up to MAX_ID_LENGTH bytes; a longer one is rejected before anything is stored.
+ * Z order is a single int array of slots; it is the only structure of heap size proportional to widgets count,
+ * and it holds no references, so GC doesn't need to walk it.
+ * Push up and z-ordering work as in InMemoryWidgetDao; push up increments Z in records in place.
+ * To keep heap flat there is no spatial index: area query scans all records.
+ * All methods are synchronized, same as TreeWidgetDao.
+ */
+@Component
+@Lazy
+public class OffHeapWidgetDao implements WidgetDao<Widget> {
+    public static final int MAX_CAPACITY = 1 << 26; // index table has to fit in a single ByteBuffer
+    public static final int MAX_ID_LENGTH = 50;
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_BITS;
+    // record layout
+    private static final int X = 0;
+    private static final int Y = 4;
+    private static final int Z = 8;
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 16;
+    private static final int MODIFICATION = 20;
+    private static final int VERSION = 28; // zero for widgets restored without one
+    private static final int NULLS = 36;
+    private static final int ID_LENGTH = 37;
+    private static final int ID = 38;
+    private static final int RECORD = ID + MAX_ID_LENGTH;
+
+    private static final byte NULL_X = 1;
+    private static final byte NULL_Y = 2;
+    private static final byte NULL_WIDTH = 4;
+    private static final byte NULL_HEIGHT = 8;
+    private static final byte NULL_MODIFICATION = 16;
+    private static final byte ALL_NULLS = NULL_X | NULL_Y | NULL_WIDTH | NULL_HEIGHT | NULL_MODIFICATION;
+    private static final long NANOS = 1_000_000_000L;
+
+    private final IdGenerator idGenerator;
+    private final Clock clock;
+    private final int capacity;
+    private final ByteBuffer[] chunks;
+    private final OffHeapSlotIndex lookup;
+
+    private int[] order = new int[CHUNK_SLOTS]; // slots sorted by Z
+    private int size;
+    private int[] free = new int[0]; // released slots, reused before new ones
+    private int freeCount;
+    private int used; // slots ever used
+    private volatile long version;
+    private IntConsumer pushUpListener = count -> {
+    };
+
+    @Autowired
+    public OffHeapWidgetDao(final IdGenerator idGenerator, final Clock clock, final AppConfiguration config) {
+        this(idGenerator, clock, config.getOffHeapCapacity());
+    }
+
+    OffHeapWidgetDao(final IdGenerator idGenerator, final Clock clock, final int capacity) {
+        if ((capacity <= 0) || (capacity > MAX_CAPACITY)) {
+            throw new IllegalArgumentException(
+                    String.format("Off-heap capacity must be between 1 and %s, got %s", MAX_CAPACITY, capacity));
+        }
+        this.idGenerator = idGenerator;
+        this.clock = clock;
+        this.version = WidgetDao.firstVersion(clock);
+        this.capacity = capacity;
+        this.chunks = new ByteBuffer[(capacity + CHUNK_SLOTS - 1) >>> CHUNK_BITS];
+        this.lookup = new OffHeapSlotIndex(capacity);
+    }
+
+    @Override
+    public synchronized Widget create(final Widget src) {
+        final int slot = store(idGenerator.generateId(), src);
+        chunkOf(slot).putInt(offsetOf(slot) + Z, src.getZ() != null ? src.getZ() : foreground());
+        setVersion(slot, 1L);
+        modify(slot);
+        insert(slot);
+        ++version;
+        return toWidget(slot);
+    }
+
+    @Override
+    public synchronized Widget get(final String id) {
+        final int slot = find(id);
+        return slot >= 0 ? toWidget(slot) : null;
+    }
+
+    @Override
+    public synchronized List<Widget> getAll(final int pageSize, final int offset) {
+        return page(Math.min(Math.max(offset, 0), size), pageSize);
+    }
+
+    @Override
+    public synchronized List<Widget> getAllAfter(final int pageSize, final int z) {
+        return page(z == Integer.MAX_VALUE ? size : lowerBound(z + 1), pageSize);
+    }
+
+    @Override
+    public synchronized List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize,
+                                                  final int z) {
+        final List<Widget> result = new ArrayList<>();
+        final int from = z == Integer.MAX_VALUE ? size : lowerBound(z + 1);
+        for (int i = from; (i < size) && (result.size() < pageSize); ++i) {
+            final Area bounds = areaOf(order[i]);
+            if ((bounds != null) && (intersecting ? area.intersects(bounds) : area.contains(bounds))) {
+                result.add(toWidget(order[i]));
+            }
+        }
+        return unmodifiableList(result);
+    }
+
+    @Override
+    public synchronized Widget update(final Widget entity) {
+        final int slot = find(entity.getId());
+        if (slot < 0) {
+            return null;
+        }
+        VersionMismatchException.check(entity, versionOf(slot));
+        write(slot, entity);
+        setVersion(slot, chunkOf(slot).getLong(offsetOf(slot) + VERSION) + 1); // no version starts over from 1
+        modify(slot);
+        if ((entity.getZ() != null) && (entity.getZ() != zOf(slot))) { // Z changed
+            move(slot, entity.getZ());
+        }
+        ++version;
+        return toWidget(slot);
+    }
+
+    /*
+     * checks capacity upfront too, so the batch is never applied partially
+     */
+    @Override
+    public synchronized List<Widget> apply(final List<Operation<Widget>> operations) {
+        Operation.checkTargets(operations, id -> find(id) >= 0);
+        VersionMismatchException.check(operations, id -> versionOf(find(id)));
+        int count = size;
+        for (Operation<Widget> operation : operations) {
+            if (operation.getType() == Operation.Type.CREATE) {
+                if (++count > capacity) {
+                    throw new CapacityExceededException(capacity);
+                }
+            } else if (operation.getType() == Operation.Type.DELETE) {
+                --count;
+            }
+        }
+        return Operation.applyOneByOne(this, operations);
+    }
+
+    @Override
+    public synchronized Widget restore(final Widget entity) {
+        final int existing = find(entity.getId());
+        if (existing >= 0) {
+            chunkOf(existing).put(offsetOf(existing) + NULLS, ALL_NULLS);
+            write(existing, entity);
+            setVersion(existing, entity.getVersion());
+            modify(existing, entity.getLastModification());
+            if (entity.getZ() != zOf(existing)) {
+                move(existing, entity.getZ());
+            }
+            ++version;
+            return toWidget(existing);
+        }
+        final int slot = store(entity.getId(), entity);
+        chunkOf(slot).putInt(offsetOf(slot) + Z, entity.getZ());
+        setVersion(slot, entity.getVersion());
+        modify(slot, entity.getLastModification());
+        insert(slot);
+        ++version;
+        return toWidget(slot);
+    }
+
+    /*
+     * checks capacity and every id upfront, so the bulk is never restored partially
+     */
+    @Override
+    public synchronized void restoreAll(final List<Widget> entities) {
+        if (size + entities.size() > capacity) {
+            throw new CapacityExceededException(capacity);
+        }
+        entities.forEach(entity -> key(entity.getId()));
+        entities.forEach(this::restore);
+    }
+
+    @Override
+    public synchronized boolean delete(final String id) {
+        final byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        final int slot = lookup.remove(hash(key), candidate -> idEquals(candidate, key));
+        if (slot < 0) {
+            return false;
+        }
+        removeFromOrder(slot);
+        release(slot);
+        ++version;
+        return true;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void setPushUpListener(final IntConsumer listener) {
+        pushUpListener = listener;
+    }
+
+    /*
+     * writes a new record with given id and not null fields of src, except Z and last modification
+     */
+    private int store(final String id, final Widget src) {
+        if (size == capacity) {
+            throw new CapacityExceededException(capacity);
+        }
+        final byte[] key = key(id);
+        final int slot = allocate();
+        final ByteBuffer chunk = chunkOf(slot);
+        final int offset = offsetOf(slot);
+        chunk.put(offset + NULLS, ALL_NULLS);
+        chunk.put(offset + ID_LENGTH, (byte) key.length);
+        chunk.duplicate().position(offset + ID).put(key);
+        write(slot, src);
+        lookup.add(hash(key), slot);
+        return slot;
+    }
+
+    /*
+     * id as stored in a record
+     */
+    private static byte[] key(final String id) {
+        final byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        if (key.length > MAX_ID_LENGTH) {
+            throw new IdTooLongException(id, MAX_ID_LENGTH);
+        }
+        return key;
+    }
+
+    private int find(final String id) {
+        final byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        return lookup.find(hash(key), slot -> idEquals(slot, key));
+    }
+
+    private boolean idEquals(final int slot, final byte[] key) {
+        final ByteBuffer chunk = chunkOf(slot);
+        final int offset = offsetOf(slot);
+        if (chunk.get(offset + ID_LENGTH) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; ++i) {
+            if (chunk.get(offset + ID + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(final byte[] key) {
+        final int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /*
+     * copies not null fields except Z, id and last modification into slot record
+     */
+    private void write(final int slot, final Widget src) {
+        final ByteBuffer chunk = chunkOf(slot);
+        final int offset = offsetOf(slot);
+        byte mask = chunk.get(offset + NULLS);
+        if (src.getX() != null) {
+            chunk.putInt(offset + X, src.getX());
+            mask &= ~NULL_X;
+        }
+        if (src.getY() != null) {
+            chunk.putInt(offset + Y, src.getY());
+            mask &= ~NULL_Y;
+        }
+        if (src.getWidth() != null) {
+            chunk.putInt(offset + WIDTH, src.getWidth());
+            mask &= ~NULL_WIDTH;
+        }
+        if (src.getHeight() != null) {
+            chunk.putInt(offset + HEIGHT, src.getHeight());
+            mask &= ~NULL_HEIGHT;
+        }
+        chunk.put(offset + NULLS, mask);
+    }
+
+    private void modify(final int slot) {
+        modify(slot, clock.instant());
+    }
+
+    private void modify(final int slot, final Instant now) {
+        final ByteBuffer chunk = chunkOf(slot);
+        final int offset = offsetOf(slot);
+        final byte mask = chunk.get(offset + NULLS);
+        if (now != null) {
+            chunk.putLong(offset + MODIFICATION, now.getEpochSecond() * NANOS + now.getNano());
+            chunk.put(offset + NULLS, (byte) (mask & ~NULL_MODIFICATION));
+        } else {
+            chunk.put(offset + NULLS, (byte) (mask | NULL_MODIFICATION));
+        }
+    }
+
+    private Widget toWidget(final int slot) {
+        final ByteBuffer chunk = chunkOf(slot);
+        final int offset = offsetOf(slot);
+        final byte mask = chunk.get(offset + NULLS);
+        final byte[] id = new byte[chunk.get(offset + ID_LENGTH)];
+        chunk.duplicate().position(offset + ID).get(id);
+        final long modification = chunk.getLong(offset + MODIFICATION);
+        return Widget.builder()
+                .id(new String(id, StandardCharsets.UTF_8))
+                .x((mask & NULL_X) == 0 ? chunk.getInt(offset + X) : null)
+                .y((mask & NULL_Y) == 0 ? chunk.getInt(offset + Y) : null)
+                .z(chunk.getInt(offset + Z))
+                .width((mask & NULL_WIDTH) == 0 ? chunk.getInt(offset + WIDTH) : null)
+                .height((mask & NULL_HEIGHT) == 0 ? chunk.getInt(offset + HEIGHT) : null)
+                .lastModification((mask & NULL_MODIFICATION) == 0
+                        ? Instant.ofEpochSecond(Math.floorDiv(modification, NANOS), Math.floorMod(modification, NANOS))
+                        : null)
+                .version(versionOf(slot))
+                .build();
+    }
+
+    private Long versionOf(final int slot) {
+        final long version = chunkOf(slot).getLong(offsetOf(slot) + VERSION);
+        return version != 0 ? version : null;
+    }
+
+    private void setVersion(final int slot, final Long version) {
+        chunkOf(slot).putLong(offsetOf(slot) + VERSION, version != null ? version : 0);
+    }
+
+    private List<Widget> page(final int from, final int pageSize) {
+        final int to = from + Math.min(Math.max(pageSize, 0), size - from);
+        final List<Widget> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; ++i) {
+            result.add(toWidget(order[i]));
+        }
+        return unmodifiableList(result);
+    }
+
+    /*
+     * returns area covered by widget in slot, or null if it has no coordinates or size
+     */
+    private Area areaOf(final int slot) {
+        final ByteBuffer chunk = chunkOf(slot);
+        final int offset = offsetOf(slot);
+        if ((chunk.get(offset + NULLS) & (NULL_X | NULL_Y | NULL_WIDTH | NULL_HEIGHT)) != 0) {
+            return null;
+        }
+        final long x = chunk.getInt(offset + X);
+        final long y = chunk.getInt(offset + Y);
+        return Area.of(x, y, x + chunk.getInt(offset + WIDTH), y + chunk.getInt(offset + HEIGHT));
+    }
+
+    private int zOf(final int slot) {
+        return chunkOf(slot).getInt(offsetOf(slot) + Z);
+    }
+
+    /*
+     * returns current foreground z-index
+     */
+    private int foreground() {
+        return size == 0 ? 0 : zOf(order[size - 1]) + 1;
+    }
+
+    /*
+     * binary search for the first position in Z order with Z not less than given one
+     */
+    private int lowerBound(final int z) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (zOf(order[middle]) < z) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * inserts slot into Z order pushing other widgets up, in place
+     */
+    private void insert(final int slot) {
+        final int z = zOf(slot);
+        final int i = lowerBound(z);
+        if ((i < size) && (zOf(order[i]) == z)) { // found
+            for (int j = i; j < size; ++j) { // push up
+                final ByteBuffer chunk = chunkOf(order[j]);
+                final int offset = offsetOf(order[j]) + Z;
+                chunk.putInt(offset, chunk.getInt(offset) + 1);
+            }
+            pushUpListener.accept(size - i);
+        } else {
+            pushUpListener.accept(0);
+        }
+        if (size == order.length) {
+            order = Arrays.copyOf(order, Math.min(size * 2, capacity));
+        }
+        System.arraycopy(order, i, order, i + 1, size - i);
+        order[i] = slot;
+        ++size;
+    }
+
+    /*
+     * moves slot to another Z, pushing other widgets up if needed
+     */
+    private void move(final int slot, final int z) {
+        removeFromOrder(slot);
+        chunkOf(slot).putInt(offsetOf(slot) + Z, z);
+        insert(slot);
+    }
+
+    private void removeFromOrder(final int slot) {
+        final int i = lowerBound(zOf(slot)); // Z is unique
+        System.arraycopy(order, i + 1, order, i, size - i - 1);
+        --size;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        final int chunk = used >>> CHUNK_BITS;
+        if (chunks[chunk] == null) {
+            chunks[chunk] = ByteBuffer.allocateDirect(CHUNK_SLOTS * RECORD);
+        }
+        return used++;
+    }
+
+    private void release(final int slot) {
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, Math.max(16, freeCount * 2));
+        }
+        free[freeCount++] = slot;
+    }
+
+    private ByteBuffer chunkOf(final int slot) {
+        return chunks[slot >>> CHUNK_BITS];
+    }
+
+    private static int offsetOf(final int slot) {
+        return (slot & (CHUNK_SLOTS - 1)) * RECORD;
+    }
+}
@@ -0,0 +1,82 @@
+package dev.widget.widgetservice.persistance;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/*
+ * Single change of a batch: create from entity, update entity by id, or delete by id.
+ * Updated entity must carry the same id
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class Operation<T> {
+    public enum Type {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    Type type;
+    String id;
+    T entity;
+
+    public static <T> Operation<T> create(final T src) {
+        return new Operation<>(Type.CREATE, null, src);
+    }
+
+    public static <T> Operation<T> update(final String id, final T entity) {
+        return new Operation<>(Type.UPDATE, id, entity);
+    }
+
+    public static <T> Operation<T> delete(final String id) {
+        return new Operation<>(Type.DELETE, id, null);
+    }
+
+    /*
+     * throws if any update or delete misses its target, taking deletes earlier in the batch into account
+     */
+    static <T> void checkTargets(final List<Operation<T>> operations, final Predicate<String> exists) {
+        final Set<String> deleted = new HashSet<>();
+        for (Operation<T> operation : operations) {
+            if (operation.type == Type.CREATE) {
+                continue;
+            }
+            if (deleted.contains(operation.id) || !exists.test(operation.id)) {
+                throw new WidgetNotFoundException(operation.id);
+            }
+            if (operation.type == Type.DELETE) {
+                deleted.add(operation.id);
+            }
+        }
+    }
+
+    /*
+     * applies checked operations one by one; caller holds the lock which makes it atomic.
+     * Result of delete is the deleted entity
+     */
+    static <T> List<T> applyOneByOne(final WidgetDao<T> dao, final List<Operation<T>> operations) {
+        final List<T> results = new ArrayList<>(operations.size());
+        for (Operation<T> operation : operations) {
+            switch (operation.type) {
+                case CREATE:
+                    results.add(dao.create(operation.entity));
+                    break;
+                case UPDATE:
+                    results.add(dao.update(operation.entity));
+                    break;
+                case DELETE:
+                default:
+                    results.add(dao.get(operation.id));
+                    dao.delete(operation.id);
+            }
+        }
+        return results;
+    }
+}
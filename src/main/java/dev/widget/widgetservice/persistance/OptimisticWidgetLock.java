@@ -0,0 +1,60 @@
+package dev.widget.widgetservice.persistance;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/*
+ * reads run without acquiring anything and are validated afterwards;
+ * when a write sneaked in, the read is repeated under the read lock.
+ * Read actions must tolerate concurrently modified state: any runtime exception thrown by a read
+ * which turns out to be invalid is treated as a failed optimistic attempt.
+ * Not reentrant, storage must not call write from write
+ */
+public class OptimisticWidgetLock implements WidgetLock {
+    private final StampedLock lock = new StampedLock();
+    private final ContentionCounters counters = new ContentionCounters("optimistic");
+
+    @Override
+    public <T> T read(final Supplier<T> action) {
+        final long optimisticStamp = lock.tryOptimisticRead();
+        if (optimisticStamp != 0L) { // no writer at the moment
+            try {
+                final T result = action.get();
+                if (lock.validate(optimisticStamp)) {
+                    counters.optimisticRead();
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(optimisticStamp)) {
+                    throw e; // not caused by a concurrent write
+                }
+            }
+            counters.optimisticFailure();
+        }
+        final long start = System.nanoTime();
+        final long stamp = lock.readLock();
+        try {
+            counters.read(System.nanoTime() - start);
+            return action.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public <T> T write(final Supplier<T> action) {
+        final long start = System.nanoTime();
+        final long stamp = lock.writeLock();
+        try {
+            counters.write(System.nanoTime() - start);
+            return action.get();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public LockStatistics statistics() {
+        return counters.toStatistics();
+    }
+}
@@ -0,0 +1,42 @@
+package dev.widget.widgetservice.persistance;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/*
+ * readers share the lock and never block each other, writers are exclusive
+ */
+public class ReadWriteWidgetLock implements WidgetLock {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ContentionCounters counters = new ContentionCounters("read-write");
+
+    @Override
+    public <T> T read(final Supplier<T> action) {
+        final long start = System.nanoTime();
+        lock.readLock().lock();
+        try {
+            counters.read(System.nanoTime() - start);
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> T write(final Supplier<T> action) {
+        final long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            counters.write(System.nanoTime() - start);
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public LockStatistics statistics() {
+        return counters.toStatistics();
+    }
+}
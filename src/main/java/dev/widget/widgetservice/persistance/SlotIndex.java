@@ -0,0 +1,100 @@
+package dev.widget.widgetservice.persistance;
+
+/*
+ * open addressing String to int map without boxing, used to find widget slot by id.
+ * Linear probing; removal shifts following entries back, so there are no tombstones.
+ * Not thread safe.
+ */
+class SlotIndex {
+    private static final int ABSENT = -1;
+
+    private String[] keys;
+    private int[] values;
+    private int size;
+
+    SlotIndex(final int capacity) {
+        final int tableSize = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+        keys = new String[tableSize];
+        values = new int[tableSize];
+    }
+
+    /*
+     * returns value, or -1 if key is absent
+     */
+    int get(final String key) {
+        final int mask = keys.length - 1;
+        for (int i = slotOf(key, mask); keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(key)) {
+                return values[i];
+            }
+        }
+        return ABSENT;
+    }
+
+    void put(final String key, final int value) {
+        if ((size + 1) * 3 > keys.length * 2) { // keep load factor below 2/3
+            resize(keys.length * 2);
+        }
+        final int mask = keys.length - 1;
+        int i = slotOf(key, mask);
+        while (keys[i] != null) {
+            if (keys[i].equals(key)) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        ++size;
+    }
+
+    /*
+     * returns removed value, or -1 if key was absent
+     */
+    int remove(final String key) {
+        final int mask = keys.length - 1;
+        int i = slotOf(key, mask);
+        while ((keys[i] != null) && !keys[i].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == null) {
+            return ABSENT;
+        }
+        final int result = values[i];
+        keys[i] = null;
+        --size;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) { // close the gap
+            final int home = slotOf(keys[j], mask);
+            if (((j - home) & mask) >= ((j - i) & mask)) { // entry at j may move back to i
+                keys[i] = keys[j];
+                values[i] = values[j];
+                keys[j] = null;
+                i = j;
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize(final int tableSize) {
+        final String[] oldKeys = keys;
+        final int[] oldValues = values;
+        keys = new String[tableSize];
+        values = new int[tableSize];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != null) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int slotOf(final String key, final int mask) {
+        final int h = key.hashCode() * 0x9E3779B9; // spread sequential hashes of similar ids
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,159 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * Compact binary dump of the whole Z ordered state, written and read through a memory mapped file.
+ * Layout: header (magic, format, log position, count), fixed size part of every widget
+ * (null mask, x, y, z, width, height, last modification, version), its id, and CRC32 of everything before it.
+ * Snapshots of the first format, written before widgets had versions, are still loaded.
+ * Log position tells where write-ahead log replay continues after loading the snapshot.
+ * Snapshot is written to a temporary file and then moved over the old one, so a crash never leaves a half written
+ * snapshot behind. A single mapping limits snapshot to 2GB, that is ~30M widgets.
+ */
+public final class SnapshotFile {
+    private static final int MAGIC = 0x57494447; // WIDG
+    private static final int FORMAT = 2;
+    private static final int UNVERSIONED_FORMAT = 1;
+    private static final int HEADER = 4 + 4 + 8 + 4;
+    private static final int RECORD = 1 + 5 * 4 + 8 + 4 + 8 + 2; // everything but id bytes
+    private static final int CRC = 4;
+
+    private SnapshotFile() {
+    }
+
+    /*
+     * writes Z ordered widgets along with the log position they are consistent with
+     */
+    public static void write(final Path path, final List<Widget> widgets, final long logPosition) throws IOException {
+        final byte[][] ids = new byte[widgets.size()][];
+        long size = HEADER + CRC;
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = widgets.get(i).getId().getBytes(StandardCharsets.UTF_8);
+            if (ids[i].length > 0xFFFF) {
+                throw new IllegalArgumentException("Widget id is too long: " + widgets.get(i).getId());
+            }
+            size += RECORD + ids[i].length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Snapshot of %d widgets doesn't fit into a single mapping",
+                    widgets.size()));
+        }
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putInt(FORMAT).putLong(logPosition).putInt(widgets.size());
+            for (int i = 0; i < ids.length; ++i) {
+                put(buffer, widgets.get(i), ids[i]);
+            }
+            buffer.putInt(crc(buffer, buffer.position()));
+            buffer.force();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * restores widgets from the snapshot into the storage, returns log position to continue replay from.
+     * Nothing is restored if the snapshot is corrupt
+     */
+    public static long load(final Path path, final WidgetDao<Widget> target) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER + CRC) {
+                throw new IOException("Snapshot is truncated: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final int end = buffer.limit() - CRC;
+        if (crc(buffer, end) != buffer.getInt(end)) {
+            throw new IOException("Snapshot is corrupt: " + path);
+        }
+        final int magic = buffer.getInt();
+        final int format = buffer.getInt();
+        if ((magic != MAGIC) || ((format != FORMAT) && (format != UNVERSIONED_FORMAT))) {
+            throw new IOException("Unknown snapshot format: " + path);
+        }
+        final long logPosition = buffer.getLong();
+        final int count = buffer.getInt();
+        final List<Widget> widgets = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            widgets.add(get(buffer, format == FORMAT));
+        }
+        target.restoreAll(widgets);
+        return logPosition;
+    }
+
+    private static void put(final ByteBuffer buffer, final Widget widget, final byte[] id) {
+        final Instant modification = widget.getLastModification();
+        buffer.put((byte) (mask(widget.getX(), 0) | mask(widget.getY(), 1) | mask(widget.getZ(), 2)
+                | mask(widget.getWidth(), 3) | mask(widget.getHeight(), 4) | (modification == null ? 1 << 5 : 0)
+                | (widget.getVersion() == null ? 1 << 6 : 0)));
+        buffer.putInt(orZero(widget.getX()));
+        buffer.putInt(orZero(widget.getY()));
+        buffer.putInt(orZero(widget.getZ()));
+        buffer.putInt(orZero(widget.getWidth()));
+        buffer.putInt(orZero(widget.getHeight()));
+        buffer.putLong(modification != null ? modification.getEpochSecond() : 0);
+        buffer.putInt(modification != null ? modification.getNano() : 0);
+        buffer.putLong(widget.getVersion() != null ? widget.getVersion() : 0);
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+    }
+
+    private static Widget get(final ByteBuffer buffer, final boolean versioned) {
+        final byte nulls = buffer.get();
+        final Integer x = nullable(buffer.getInt(), nulls, 0);
+        final Integer y = nullable(buffer.getInt(), nulls, 1);
+        final Integer z = nullable(buffer.getInt(), nulls, 2);
+        final Integer width = nullable(buffer.getInt(), nulls, 3);
+        final Integer height = nullable(buffer.getInt(), nulls, 4);
+        final long seconds = buffer.getLong();
+        final int nanos = buffer.getInt();
+        final long version = versioned ? buffer.getLong() : 0;
+        final byte[] id = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(id);
+        return Widget.builder()
+                .id(new String(id, StandardCharsets.UTF_8))
+                .x(x)
+                .y(y)
+                .z(z)
+                .width(width)
+                .height(height)
+                .lastModification((nulls & (1 << 5)) == 0 ? Instant.ofEpochSecond(seconds, nanos) : null)
+                .version(versioned && ((nulls & (1 << 6)) == 0) ? version : null)
+                .build();
+    }
+
+    private static int mask(final Integer value, final int bit) {
+        return value == null ? 1 << bit : 0;
+    }
+
+    private static int orZero(final Integer value) {
+        return value != null ? value : 0;
+    }
+
+    private static Integer nullable(final int value, final byte nulls, final int bit) {
+        return (nulls & (1 << bit)) == 0 ? value : null;
+    }
+
+    private static int crc(final ByteBuffer buffer, final int end) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(0).limit(end));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,37 @@
+package dev.widget.widgetservice.persistance;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/*
+ * for storages publishing immutable snapshots: reads don't lock at all, writers are serialized.
+ * Lock-free reads are counted as optimistic reads which never fail
+ */
+public class SnapshotWidgetLock implements WidgetLock {
+    private final Lock lock = new ReentrantLock();
+    private final ContentionCounters counters = new ContentionCounters("snapshot");
+
+    @Override
+    public <T> T read(final Supplier<T> action) {
+        counters.optimisticRead();
+        return action.get();
+    }
+
+    @Override
+    public <T> T write(final Supplier<T> action) {
+        final long start = System.nanoTime();
+        lock.lock();
+        try {
+            counters.write(System.nanoTime() - start);
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public LockStatistics statistics() {
+        return counters.toStatistics();
+    }
+}
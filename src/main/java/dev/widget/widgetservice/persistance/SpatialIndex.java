@@ -0,0 +1,211 @@
+package dev.widget.widgetservice.persistance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/*
+ * Region quadtree of items with rectangular bounds.
+ * Every item is kept in the deepest node which fully contains it, leaves are split once they hold
+ * more than CAPACITY items. Items crossing a split line stay in the parent node.
+ * Root covers every area a widget can take (int coordinates plus int size), so the tree never grows.
+ * Search visits only nodes intersecting the query area, which is O(log n + k) for reasonably spread widgets.
+ * Bulk add goes in Z-curve (Morton) order of items, so consecutive adds walk mostly the same, cached, path.
+ * Not thread safe: owner has to guard it.
+ */
+public class SpatialIndex<T> {
+    private static final int CAPACITY = 16;
+    private static final int MAX_DEPTH = 32;
+    private static final long ROOT_SIZE = 1L << 33;
+    private static final int BULK_BITS = 19; // bits per coordinate in Morton key
+    private static final int INDEX_BITS = 24; // lower bits of the key are index of item, so key stays positive
+    private static final int BULK_SIZE = 1 << INDEX_BITS;
+
+    private final Node<T> root = new Node<>(-ROOT_SIZE / 2, -ROOT_SIZE / 2, ROOT_SIZE, 0);
+    private int size;
+
+    /*
+     * adds item with given bounds
+     */
+    public void add(final T item, final Area bounds) {
+        Node<T> node = root;
+        while (node.children != null) {
+            final Node<T> child = node.childFor(bounds);
+            if (child == null) {
+                break;
+            }
+            node = child;
+        }
+        node.entries.add(new Entry<>(item, bounds));
+        ++size;
+        if ((node.children == null) && (node.entries.size() > CAPACITY) && (node.depth < MAX_DEPTH)) {
+            node.split();
+        }
+    }
+
+    /*
+     * adds items with bounds given at the same positions; much faster than adding one by one for large bulks
+     */
+    public void addAll(final List<T> items, final List<Area> bounds) {
+        for (int from = 0; from < items.size(); from += BULK_SIZE) {
+            final int to = Math.min(items.size(), from + BULK_SIZE);
+            long minX = Long.MAX_VALUE;
+            long minY = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = from; i < to; ++i) {
+                minX = Math.min(minX, bounds.get(i).getX1());
+                minY = Math.min(minY, bounds.get(i).getY1());
+            }
+            for (int i = from; i < to; ++i) {
+                max = Math.max(max, Math.max(bounds.get(i).getX1() - minX, bounds.get(i).getY1() - minY));
+            }
+            final int shift = Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(max) - BULK_BITS);
+            final long[] keys = new long[to - from];
+            for (int i = from; i < to; ++i) {
+                final Area area = bounds.get(i);
+                final long morton = spread((area.getX1() - minX) >>> shift) << 1
+                        | spread((area.getY1() - minY) >>> shift);
+                keys[i - from] = morton << INDEX_BITS | (i - from);
+            }
+            Arrays.sort(keys);
+            for (long key : keys) {
+                final int i = from + (int) (key & (BULK_SIZE - 1));
+                add(items.get(i), bounds.get(i));
+            }
+        }
+    }
+
+    /*
+     * removes item, bounds must be the same as given on add. Returns true if item was found
+     */
+    public boolean remove(final T item, final Area bounds) {
+        Node<T> node = root;
+        while (node.children != null) {
+            final Node<T> child = node.childFor(bounds);
+            if (child == null) {
+                break;
+            }
+            node = child;
+        }
+        for (int i = 0; i < node.entries.size(); ++i) {
+            if (node.entries.get(i).item.equals(item)) {
+                final Entry<T> last = node.entries.remove(node.entries.size() - 1);
+                if (i < node.entries.size()) {
+                    node.entries.set(i, last);
+                }
+                --size;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * passes to consumer all items fully inside the area, or intersecting it
+     */
+    public void search(final Area area, final boolean intersecting, final Consumer<T> consumer) {
+        search(root, area, intersecting, consumer);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * spreads lower BULK_BITS bits of value to even bit positions
+     */
+    private static long spread(final long value) {
+        long result = value & ((1L << BULK_BITS) - 1);
+        result = (result | (result << 16)) & 0x0000FFFF0000FFFFL;
+        result = (result | (result << 8)) & 0x00FF00FF00FF00FFL;
+        result = (result | (result << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        result = (result | (result << 2)) & 0x3333333333333333L;
+        result = (result | (result << 1)) & 0x5555555555555555L;
+        return result;
+    }
+
+    private static <T> void search(final Node<T> node, final Area area, final boolean intersecting,
+                                   final Consumer<T> consumer) {
+        if (!node.bounds.intersects(area)) {
+            return;
+        }
+        for (Entry<T> entry : node.entries) {
+            if (intersecting ? area.intersects(entry.bounds) : area.contains(entry.bounds)) {
+                consumer.accept(entry.item);
+            }
+        }
+        if (node.children != null) {
+            for (Node<T> child : node.children) {
+                search(child, area, intersecting, consumer);
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final Area bounds;
+
+        private Entry(final T item, final Area bounds) {
+            this.item = item;
+            this.bounds = bounds;
+        }
+    }
+
+    private static final class Node<T> {
+        private final long x;
+        private final long y;
+        private final long size;
+        private final int depth;
+        private final Area bounds;
+        private List<Entry<T>> entries = new ArrayList<>();
+        private Node<T>[] children;
+
+        private Node(final long x, final long y, final long size, final int depth) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            this.depth = depth;
+            this.bounds = new Area(x, y, x + size - 1, y + size - 1);
+        }
+
+        /*
+         * returns child quadrant fully containing given bounds, or null if bounds cross the split lines
+         */
+        private Node<T> childFor(final Area area) {
+            final long half = size / 2;
+            final int column = quadrant(area.getX1(), area.getX2(), x + half);
+            final int row = quadrant(area.getY1(), area.getY2(), y + half);
+            return (column < 0) || (row < 0) ? null : children[row * 2 + column];
+        }
+
+        private static int quadrant(final long from, final long to, final long middle) {
+            if (to < middle) {
+                return 0;
+            }
+            return from >= middle ? 1 : -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void split() {
+            final long half = size / 2;
+            children = new Node[]{
+                    new Node<>(x, y, half, depth + 1),
+                    new Node<>(x + half, y, half, depth + 1),
+                    new Node<>(x, y + half, half, depth + 1),
+                    new Node<>(x + half, y + half, half, depth + 1)
+            };
+            final List<Entry<T>> remaining = new ArrayList<>();
+            for (Entry<T> entry : entries) {
+                final Node<T> child = childFor(entry.bounds);
+                (child != null ? child.entries : remaining).add(entry);
+            }
+            entries = remaining;
+            for (Node<T> child : children) { // everything could land in the same quadrant
+                if ((child.entries.size() > CAPACITY) && (child.depth < MAX_DEPTH)) {
+                    child.split();
+                }
+            }
+        }
+    }
+}
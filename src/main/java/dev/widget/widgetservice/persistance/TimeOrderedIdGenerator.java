@@ -0,0 +1,74 @@
+package dev.widget.widgetservice.persistance;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * ULID-style generator of 128-bit ids, encoded as 26 Crockford base32 chars:
+ * 48 bits of epoch millis, 16 bits of node id, 24 bits of thread slot, and 40 bits of per-thread counter.
+ * Every thread gets its own slot once and then works on thread-local state only, so generation never contends.
+ * Slot and counter make ids unique within a node, node id makes them unique within a cluster.
+ * Ids of a single thread are strictly increasing even if the clock goes back;
+ * ids of different threads are ordered by time up to a millisecond.
+ */
+public class TimeOrderedIdGenerator extends IdGenerator {
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int LENGTH = 26;
+    private static final long NODE_MASK = 0xFFFF;
+    private static final int SLOT_BITS = 24;
+    private static final int COUNTER_BITS = 40;
+    private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+
+    private final Clock clock;
+    private final long node;
+    private final AtomicInteger slots = new AtomicInteger();
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(() -> new State(slots.getAndIncrement()));
+
+    public TimeOrderedIdGenerator(final Clock clock, final int node) {
+        if ((node & ~NODE_MASK) != 0) {
+            throw new IllegalArgumentException("Node id must fit into 16 bits, got " + node);
+        }
+        this.clock = clock;
+        this.node = node;
+    }
+
+    @Override
+    public String generateId() {
+        final State current = state.get();
+        current.millis = Math.max(current.millis, clock.millis()); // never go back in time
+        final long high = (current.millis << 16) | node;
+        final long low = ((current.slot & SLOT_MASK) << COUNTER_BITS) | (current.counter++ & COUNTER_MASK);
+        return encode(high, low);
+    }
+
+    /*
+     * writes 128 bits as 26 base32 digits, most significant first, so string order is numeric order
+     */
+    private static String encode(final long high, final long low) {
+        final char[] result = new char[LENGTH];
+        for (int i = 0; i < LENGTH; ++i) {
+            final int shift = (LENGTH - 1 - i) * 5; // lowest bit of the digit, first digit holds 3 bits only
+            final long digit;
+            if (shift >= 64) {
+                digit = high >>> (shift - 64);
+            } else if (shift > 59) { // digit crosses the word boundary
+                digit = (low >>> shift) | (high << (64 - shift));
+            } else {
+                digit = low >>> shift;
+            }
+            result[i] = ALPHABET[(int) (digit & 31)];
+        }
+        return new String(result);
+    }
+
+    private static final class State {
+        private final long slot;
+        private long counter;
+        private long millis;
+
+        private State(final long slot) {
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+import static java.util.Collections.unmodifiableList;
+
+/*
+ * Storage using implicit treap (randomized order-statistic tree) as storage backend.
+ * Widgets are stored ordered by Z, every node knows the size of its subtree, so rank lookups are O(log n).
+ * Push up is done lazily: instead of touching every widget above the inserted one,
+ * the right part of the tree gets a "shift z by +1" tag which is pushed down only when the subtree is split.
+ * This gives O(log n) create, update, and delete, and O(log n + pageSize) getAll and getAllAfter.
+ * Nodes keep parent links, so Map lookup by id allows to find node rank and actual Z bottom-up.
+ * Stored widgets never leave the DAO, callers always get a copy with actual Z.
+ * Nodes are also indexed by widget area in a SpatialIndex; area query finds nodes there and gets their Z bottom-up.
+ */
+@Component
+@Lazy
+public class TreeWidgetDao implements WidgetDao<Widget> {
+    private final IdGenerator idGenerator;
+    private final Map<String, Node> lookup;
+    private final Clock clock;
+    private final SpatialIndex<Node> areas = new SpatialIndex<>();
+    private Node root;
+    private volatile long version;
+    private IntConsumer pushUpListener = count -> {
+    };
+
+    public TreeWidgetDao(final IdGenerator idGenerator, final Clock clock) {
+        this.idGenerator = idGenerator;
+        this.lookup = new HashMap<>();
+        this.clock = clock;
+        this.version = WidgetDao.firstVersion(clock);
+    }
+
+    @Override
+    public synchronized Widget create(final Widget src) {
+        final Widget widget = src.toBuilder().id(idGenerator.generateId()).build();
+        if (widget.getZ() == null) {
+            widget.setZ(foreground());
+        }
+        widget.setLastModification(clock.instant());
+        widget.setVersion(1L);
+        final Node node = new Node(widget);
+        insert(node);
+        lookup.put(widget.getId(), node);
+        index(node);
+        ++version;
+        return node.toWidget(widget.getZ());
+    }
+
+    @Override
+    public synchronized Widget get(final String id) {
+        final Node node = lookup.get(id);
+        return node != null ? node.toWidget(zOf(node)) : null;
+    }
+
+    @Override
+    public synchronized List<Widget> getAll(final int pageSize, final int offset) {
+        final List<Widget> result = new ArrayList<>(Math.max(0, Math.min(pageSize, size(root) - offset)));
+        collect(root, 0, offset, pageSize, result);
+        return unmodifiableList(result);
+    }
+
+    @Override
+    public synchronized List<Widget> getAllAfter(final int pageSize, final int z) {
+        final int offset = z == Integer.MAX_VALUE ? size(root) : lowerBound(z + 1);
+        return getAll(pageSize, offset);
+    }
+
+    @Override
+    public synchronized List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize,
+                                                  final int z) {
+        final List<Widget> result = new ArrayList<>();
+        areas.search(area, intersecting, node -> {
+            final int actualZ = zOf(node);
+            if (actualZ > z) {
+                result.add(node.toWidget(actualZ));
+            }
+        });
+        result.sort(Comparator.comparingInt(Widget::getZ));
+        return unmodifiableList(result.subList(0, Math.min(Math.max(pageSize, 0), result.size())));
+    }
+
+    @Override
+    public synchronized Widget update(final Widget entity) {
+        final Node node = lookup.get(entity.getId());
+        if (node == null) {
+            return null;
+        }
+        VersionMismatchException.check(entity, node.widget.getVersion());
+        final Widget result = Widget.merge(node.toWidget(zOf(node)), entity);
+        result.setLastModification(clock.instant());
+        result.setVersion(Widget.nextVersion(node.widget));
+        replace(node, result);
+        ++version;
+        return node.toWidget(result.getZ());
+    }
+
+    @Override
+    public synchronized List<Widget> apply(final List<Operation<Widget>> operations) {
+        Operation.checkTargets(operations, lookup::containsKey);
+        VersionMismatchException.check(operations, id -> get(id).getVersion());
+        return Operation.applyOneByOne(this, operations); // every push up is O(log n) already
+    }
+
+    @Override
+    public synchronized Widget restore(final Widget entity) {
+        final Widget result = entity.toBuilder().build();
+        final Node node = lookup.get(result.getId());
+        if (node != null) {
+            replace(node, result);
+        } else {
+            final Node created = new Node(result);
+            insert(created);
+            lookup.put(result.getId(), created);
+            index(created);
+        }
+        ++version;
+        return result.toBuilder().build();
+    }
+
+    @Override
+    public synchronized boolean delete(final String id) {
+        final Node node = lookup.remove(id);
+        if (node != null) {
+            remove(node);
+            unindex(node);
+            ++version;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size(root);
+    }
+
+    @Override
+    public synchronized void setPushUpListener(final IntConsumer listener) {
+        pushUpListener = listener;
+    }
+
+    /*
+     * replaces widget stored in the node with a new version of it
+     */
+    private void replace(final Node node, final Widget result) {
+        final boolean moved = !Objects.equals(Area.of(node.widget), Area.of(result));
+        if (moved) {
+            unindex(node);
+        }
+        if (result.getZ() == zOf(node)) { // no changes in Z; just update data
+            node.widget = result;
+        } else { // Z changed
+            remove(node);
+            node.reset(result);
+            insert(node);
+        }
+        if (moved) {
+            index(node);
+        }
+    }
+
+    private void index(final Node node) {
+        final Area area = Area.of(node.widget);
+        if (area != null) {
+            areas.add(node, area);
+        }
+    }
+
+    private void unindex(final Node node) {
+        final Area area = Area.of(node.widget);
+        if (area != null) {
+            areas.remove(node, area);
+        }
+    }
+
+    /*
+     * returns current foreground z-index
+     */
+    private int foreground() {
+        if (root == null) {
+            return 0;
+        }
+        int shift = 0;
+        Node node = root;
+        while (node.right != null) {
+            shift += node.shift;
+            node = node.right;
+        }
+        return node.z + shift + 1;
+    }
+
+    /*
+     * inserts detached node pushing other widgets up
+     */
+    private void insert(final Node node) {
+        final int z = node.z;
+        final int i = lowerBound(z);
+        final Node[] parts = split(root, i);
+        Node right = parts[1];
+        if ((right != null) && (firstZ(right) == z)) { // found
+            right.shiftBy(1); // push up, lazily
+            pushUpListener.accept(size(right));
+        } else {
+            pushUpListener.accept(0);
+        }
+        root = merge(merge(parts[0], node), right);
+        root.parent = null;
+    }
+
+    /*
+     * removes node from the tree, keeping node itself intact
+     */
+    private void remove(final Node node) {
+        final int i = rankOf(node);
+        final Node[] left = split(root, i);
+        final Node[] right = split(left[1], 1);
+        root = merge(left[0], right[1]);
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    /*
+     * returns number of widgets with Z less than given
+     */
+    private int lowerBound(final int z) {
+        int result = 0;
+        int shift = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.z + shift < z) {
+                result += size(node.left) + 1;
+                shift += node.shift;
+                node = node.right;
+            } else {
+                shift += node.shift;
+                node = node.left;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * returns Z of the leftmost widget of the (detached) subtree
+     */
+    private static int firstZ(final Node subtree) {
+        int shift = 0;
+        Node node = subtree;
+        while (node.left != null) {
+            shift += node.shift;
+            node = node.left;
+        }
+        return node.z + shift;
+    }
+
+    /*
+     * returns actual Z of the node, applying all pending shifts of its ancestors
+     */
+    private static int zOf(final Node node) {
+        int z = node.z;
+        for (Node p = node.parent; p != null; p = p.parent) {
+            z += p.shift;
+        }
+        return z;
+    }
+
+    /*
+     * returns zero based position of the node in Z order
+     */
+    private static int rankOf(final Node node) {
+        int result = size(node.left);
+        for (Node n = node; n.parent != null; n = n.parent) {
+            if (n == n.parent.right) {
+                result += size(n.parent.left) + 1;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * in-order walk collecting at most limit widgets starting from rank offset; does not modify the tree
+     */
+    private static void collect(final Node node, final int shift, final int offset, final int limit,
+                                final List<Widget> result) {
+        if ((node == null) || (result.size() >= limit)) {
+            return;
+        }
+        final int leftSize = size(node.left);
+        final int childShift = shift + node.shift;
+        if (offset < leftSize) {
+            collect(node.left, childShift, offset, limit, result);
+        }
+        if ((offset <= leftSize) && (result.size() < limit)) {
+            result.add(node.toWidget(node.z + shift));
+        }
+        collect(node.right, childShift, Math.max(0, offset - leftSize - 1), limit, result);
+    }
+
+    /*
+     * splits subtree into two: first count nodes, and the rest
+     */
+    private static Node[] split(final Node node, final int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        node.push();
+        final Node[] result;
+        if (size(node.left) < count) {
+            final Node[] parts = split(node.right, count - size(node.left) - 1);
+            node.setRight(parts[0]);
+            result = new Node[]{node, parts[1]};
+        } else {
+            final Node[] parts = split(node.left, count);
+            node.setLeft(parts[1]);
+            result = new Node[]{parts[0], node};
+        }
+        for (Node part : result) {
+            if (part != null) {
+                part.parent = null;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * merges two subtrees, all nodes of left go before all nodes of right
+     */
+    private static Node merge(final Node left, final Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.push();
+            left.setRight(merge(left.right, right));
+            return left;
+        } else {
+            right.push();
+            right.setLeft(merge(left, right.left));
+            return right;
+        }
+    }
+
+    private static int size(final Node node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static final class Node {
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Widget widget; // Z of stored widget is ignored
+        private int z; // Z of this node, not including shifts of ancestors
+        private int shift; // pending shift of both subtrees
+        private int size = 1;
+        private Node left;
+        private Node right;
+        private Node parent;
+
+        private Node(final Widget widget) {
+            reset(widget);
+        }
+
+        /*
+         * re-initializes detached node with new content
+         */
+        private void reset(final Widget widget) {
+            this.widget = widget;
+            this.z = widget.getZ();
+            this.shift = 0;
+            this.size = 1;
+            this.left = null;
+            this.right = null;
+            this.parent = null;
+        }
+
+        private Widget toWidget(final int actualZ) {
+            return widget.toBuilder().z(actualZ).build();
+        }
+
+        /*
+         * shifts Z of the whole subtree
+         */
+        private void shiftBy(final int delta) {
+            z += delta;
+            shift += delta;
+        }
+
+        /*
+         * pushes pending shift down to children
+         */
+        private void push() {
+            if (shift != 0) {
+                if (left != null) {
+                    left.shiftBy(shift);
+                }
+                if (right != null) {
+                    right.shiftBy(shift);
+                }
+                shift = 0;
+            }
+        }
+
+        private void setLeft(final Node node) {
+            left = node;
+            if (node != null) {
+                node.parent = this;
+            }
+            update();
+        }
+
+        private void setRight(final Node node) {
+            right = node;
+            if (node != null) {
+                node.parent = this;
+            }
+            update();
+        }
+
+        private void update() {
+            size = size(left) + size(right) + 1;
+        }
+    }
+}
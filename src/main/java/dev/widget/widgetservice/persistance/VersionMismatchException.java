@@ -0,0 +1,44 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/*
+ * thrown when update expects a version of the widget other than the stored one, nothing is updated then
+ */
+public class VersionMismatchException extends RuntimeException {
+    public VersionMismatchException(final String id, final long expected, final Long actual) {
+        super(String.format("Widget [%s] has version %s, not %s", id, actual, expected));
+    }
+
+    /*
+     * checks version expected by the update entity, if any, against the stored widget's one
+     */
+    static void check(final Widget entity, final Long stored) {
+        if ((entity.getVersion() != null) && !Objects.equals(entity.getVersion(), stored)) {
+            throw new VersionMismatchException(entity.getId(), entity.getVersion(), stored);
+        }
+    }
+
+    /*
+     * checks versions expected by the updates of a batch upfront, taking updates earlier in the batch into account,
+     * so a stale one fails the batch before anything is applied. Targets must be checked beforehand
+     */
+    static void check(final List<Operation<Widget>> operations, final Function<String, Long> stored) {
+        final Map<String, Long> updated = new HashMap<>();
+        for (Operation<Widget> operation : operations) {
+            if (operation.getType() != Operation.Type.UPDATE) {
+                continue;
+            }
+            final String id = operation.getId();
+            final Long version = updated.containsKey(id) ? updated.get(id) : stored.apply(id);
+            check(operation.getEntity(), version);
+            updated.put(id, version != null ? version + 1 : 1);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/*
+ * Plays a batch of operations on top of a Z ordered list as if they were applied one by one,
+ * but moves every widget at most once.
+ * While playing, the list itself is not touched. Widgets created or changed by the batch are kept aside, sorted by Z;
+ * removed ones are only marked by rank. Push up of the listed widgets is recorded as "+1 from this rank on"
+ * in a Fenwick tree, so current Z of a listed widget is its stored Z plus the push ups up to its rank, O(log n),
+ * and rank by Z is a binary search over those, O(log^2 n).
+ * Merge then rebuilds the list from the first affected rank in a single pass.
+ * Not thread safe: owner has to hold the write lock from the first operation till the end of merge.
+ */
+final class WidgetBatch {
+    private final List<Widget> widgets;
+    private final Map<String, Widget> lookup;
+    private final IdGenerator idGenerator;
+    private final Clock clock;
+    private final IntConsumer pushUpListener;
+    private final Consumer<WidgetChange> changeListener; // gets every push up as a range of Z
+    private final BitSet removed = new BitSet(); // ranks of listed widgets deleted or changed by the batch
+    private final List<Widget> placed = new ArrayList<>(); // widgets created or changed by the batch, by Z
+    private final Map<String, Widget> placedById = new HashMap<>();
+    private final Map<String, Widget> originals = new HashMap<>(); // listed versions of changed widgets
+    private int[] shifts; // Fenwick tree of push ups by rank, created on the first one
+    private int[] starts = new int[8]; // ranks push ups start from
+    private int startCount;
+
+    WidgetBatch(final List<Widget> widgets, final Map<String, Widget> lookup, final IdGenerator idGenerator,
+                final Clock clock, final IntConsumer pushUpListener, final Consumer<WidgetChange> changeListener) {
+        this.widgets = widgets;
+        this.lookup = lookup;
+        this.idGenerator = idGenerator;
+        this.clock = clock;
+        this.pushUpListener = pushUpListener;
+        this.changeListener = changeListener;
+    }
+
+    /*
+     * plays operation, returns what a single call would return: state of the widget right after it.
+     * Targets and versions must be checked beforehand
+     */
+    Widget apply(final Operation<Widget> operation) {
+        switch (operation.getType()) {
+            case CREATE:
+                return create(operation.getEntity());
+            case UPDATE:
+                return update(operation.getId(), operation.getEntity());
+            case DELETE:
+            default:
+                return remove(operation.getId());
+        }
+    }
+
+    /*
+     * rewrites the list from the first affected rank, and reports every widget replaced with a new version
+     * as (before, after); before is null for created widgets, after is null for deleted ones.
+     * Returns the first affected rank
+     */
+    int merge(final BiConsumer<Widget, Widget> changes) {
+        final int size = widgets.size();
+        int from = removed.isEmpty() ? size : removed.nextSetBit(0);
+        Arrays.sort(starts, 0, startCount);
+        if (startCount > 0) {
+            from = Math.min(from, starts[0]);
+        }
+        if (!placed.isEmpty()) {
+            from = Math.min(from, rankAtLeast(placed.get(0).getZ()));
+        }
+        final List<Widget> tail = new ArrayList<>(size - from + placed.size());
+        int shift = 0;
+        int start = 0;
+        int next = 0;
+        for (int rank = from; rank < size; ++rank) {
+            while ((start < startCount) && (starts[start] <= rank)) {
+                ++shift;
+                ++start;
+            }
+            final Widget listed = widgets.get(rank);
+            if (removed.get(rank)) {
+                if (!placedById.containsKey(listed.getId())) {
+                    changes.accept(listed, null); // deleted
+                }
+                continue;
+            }
+            final int z = listed.getZ() + shift;
+            while ((next < placed.size()) && (placed.get(next).getZ() < z)) {
+                tail.add(place(placed.get(next++), changes));
+            }
+            if (shift == 0) {
+                tail.add(listed);
+            } else {
+                final Widget pushed = listed.toBuilder().z(z).build();
+                tail.add(pushed);
+                changes.accept(listed, pushed);
+            }
+        }
+        while (next < placed.size()) {
+            tail.add(place(placed.get(next++), changes));
+        }
+        widgets.subList(from, size).clear();
+        widgets.addAll(tail);
+        return from;
+    }
+
+    private Widget place(final Widget widget, final BiConsumer<Widget, Widget> changes) {
+        changes.accept(originals.get(widget.getId()), widget);
+        return widget;
+    }
+
+    private Widget create(final Widget src) {
+        final Widget widget = src.toBuilder().id(idGenerator.generateId()).build();
+        if (widget.getZ() == null) {
+            widget.setZ(foreground());
+        }
+        widget.setLastModification(clock.instant());
+        widget.setVersion(1L);
+        insert(widget);
+        return widget.toBuilder().build();
+    }
+
+    private Widget update(final String id, final Widget entity) {
+        final Widget placedWidget = placedById.get(id);
+        VersionMismatchException.check(entity, (placedWidget != null ? placedWidget : lookup.get(id)).getVersion());
+        final Widget current = remove(id);
+        final Widget widget = Widget.merge(current, entity);
+        widget.setLastModification(clock.instant());
+        widget.setVersion(Widget.nextVersion(current));
+        insert(widget);
+        return widget.toBuilder().build();
+    }
+
+    /*
+     * takes widget out, returns its current state
+     */
+    private Widget remove(final String id) {
+        final Widget current = placedById.remove(id);
+        if (current != null) {
+            placed.remove(placedIndex(current.getZ()));
+            return current;
+        }
+        final Widget listed = lookup.get(id);
+        final int rank = rankAtLeast(listed.getZ(), false);
+        removed.set(rank);
+        originals.put(id, listed);
+        return listed.toBuilder().z(zAt(rank)).build();
+    }
+
+    /*
+     * puts widget aside, pushing up everything from its Z if it is taken
+     */
+    private void insert(final Widget widget) {
+        final int z = widget.getZ();
+        final int i = placedIndex(z);
+        final int rank = rankAtLeast(z);
+        final boolean taken = ((i < placed.size()) && (placed.get(i).getZ() == z))
+                || ((rank < widgets.size()) && !removed.get(rank) && (zAt(rank) == z));
+        if (taken) {
+            changeListener.accept(WidgetChange.pushed(z, foreground() - 1));
+            for (int j = i; j < placed.size(); ++j) {
+                final Widget pushed = placed.get(j);
+                pushed.setZ(pushed.getZ() + 1); // widgets aside are never visible to anyone, fine to modify
+            }
+            if (rank < widgets.size()) {
+                shiftFrom(rank);
+            }
+            pushUpListener.accept(placed.size() - i + widgets.size() - rank
+                    - removed.get(rank, Math.max(rank, widgets.size())).cardinality());
+        } else {
+            pushUpListener.accept(0);
+        }
+        placed.add(i, widget);
+        placedById.put(widget.getId(), widget);
+    }
+
+    /*
+     * Z above every widget, both listed and aside
+     */
+    private int foreground() {
+        final int last = widgets.isEmpty() ? -1 : removed.previousClearBit(widgets.size() - 1);
+        Integer top = last >= 0 ? zAt(last) : null;
+        if (!placed.isEmpty()) {
+            final int placedTop = placed.get(placed.size() - 1).getZ();
+            top = top == null ? placedTop : Math.max(top, placedTop);
+        }
+        return top == null ? 0 : top + 1;
+    }
+
+    /*
+     * first position aside with Z not less than given
+     */
+    private int placedIndex(final int z) {
+        int low = 0;
+        int high = placed.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (placed.get(middle).getZ() < z) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * first rank of listed widgets with current Z not less than given
+     */
+    private int rankAtLeast(final int z) {
+        return rankAtLeast(z, true);
+    }
+
+    /*
+     * first rank with Z not less than given, either current or as stored in the list
+     */
+    private int rankAtLeast(final int z, final boolean current) {
+        int low = 0;
+        int high = widgets.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if ((current ? zAt(middle) : widgets.get(middle).getZ()) < z) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int zAt(final int rank) {
+        int result = widgets.get(rank).getZ();
+        if (shifts != null) {
+            for (int i = rank + 1; i > 0; i -= i & -i) {
+                result += shifts[i];
+            }
+        }
+        return result;
+    }
+
+    private void shiftFrom(final int rank) {
+        if (shifts == null) {
+            shifts = new int[widgets.size() + 1];
+        }
+        for (int i = rank + 1; i < shifts.length; i += i & -i) {
+            ++shifts[i];
+        }
+        if (startCount == starts.length) {
+            starts = Arrays.copyOf(starts, startCount * 2);
+        }
+        starts[startCount++] = rank;
+    }
+}
@@ -0,0 +1,373 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Independent widget stores of boards, e.g. one board per customer. Every board has a storage of its own,
+ * so it has its own Z space and its own lock: a push up on one board never waits for another one.
+ * Storage of a board is created on the first call to it.
+ *
+ * Board nobody called for the idle timeout is evicted: an empty one is just dropped, a non-empty one is paged out
+ * into a snapshot file of its own and loaded back on the next call. Without a page out directory
+ * non-empty boards stay in memory. On close every board is paged out, so boards survive a restart.
+ * Page stays after loading, so after a crash a board is restored as of its last page out.
+ * Every call holds the read lock of its board; eviction takes the write lock only if nobody holds it,
+ * so a call never sees a half paged out board, and a call which comes to an evicted board goes to the next one.
+ * Board version is the version of its storage, which starts from the time the storage is created (see WidgetDao),
+ * or goes on from the version the board was paged out with if that is more, so an ETag of a dropped or paged out
+ * board never matches other widgets later; version of a paged out board is known without loading it.
+ * A board can be released, e.g. to another cluster node, which takes its write lock the same way eviction does.
+ */
+public class WidgetBoards implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WidgetBoards.class);
+    private static final Pattern BOARD_ID = Pattern.compile("[\\w-]+"); // board id is a file name too
+    private static final String PAGE_SUFFIX = ".snapshot";
+
+    private final Supplier<WidgetDao<Widget>> factory;
+    private final Clock clock;
+    private final Duration idleTimeout;
+    private final Path directory;
+    private final ConcurrentHashMap<String, Board> boards = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> pagedOut = new ConcurrentHashMap<>(); // versions of paged out boards
+    private final ScheduledExecutorService evictions;
+
+    /*
+     * directory is optional; boards are not evicted if idle timeout is not positive
+     */
+    public WidgetBoards(final Supplier<WidgetDao<Widget>> factory, final Clock clock, final Duration idleTimeout,
+                        final Path directory) throws IOException {
+        this.factory = factory;
+        this.clock = clock;
+        this.idleTimeout = idleTimeout;
+        this.directory = directory;
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        if (!idleTimeout.isNegative() && !idleTimeout.isZero()) {
+            evictions = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "widget-board-eviction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            evictions.scheduleWithFixedDelay(this::scheduledEviction, idleTimeout.toNanos(), idleTimeout.toNanos(),
+                    TimeUnit.NANOSECONDS);
+        } else {
+            evictions = null;
+        }
+    }
+
+    /*
+     * storage of the board; nothing is created or loaded until it is called
+     */
+    public WidgetDao<Widget> get(final String boardId) {
+        if (!BOARD_ID.matcher(boardId).matches()) {
+            throw new IllegalArgumentException("Board id may have letters, digits, '_' and '-' only: " + boardId);
+        }
+        return new BoardDao(boardId);
+    }
+
+    /*
+     * evicts every board nobody called for the idle timeout
+     */
+    public void evictIdle() {
+        final long idleSince = clock.millis() - idleTimeout.toMillis();
+        for (Board board : boards.values()) {
+            if ((board.lastCall <= idleSince) && board.lock.writeLock().tryLock()) { // held means not idle
+                try {
+                    evict(board);
+                } finally {
+                    board.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /*
+     * ids of boards in memory and of boards paged out into the directory, by this instance or before its start
+     */
+    public Set<String> ids() throws IOException {
+        final Set<String> ids = new TreeSet<>(boards.keySet());
+        if (directory != null) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.map(file -> file.getFileName().toString())
+                        .filter(name -> name.endsWith(PAGE_SUFFIX))
+                        .map(name -> name.substring(0, name.length() - PAGE_SUFFIX.length()))
+                        .filter(id -> BOARD_ID.matcher(id).matches())
+                        .forEach(ids::add);
+            }
+        }
+        return ids;
+    }
+
+    /*
+     * hands the board over, e.g. to another node: passes its widgets to the transfer under the write lock
+     * of the board, so nothing changes meanwhile, and drops the board with its page if transfer returns true.
+     * An empty board is dropped without a transfer. Returns true if the board is dropped
+     */
+    public boolean release(final String boardId, final Predicate<List<Widget>> transfer) {
+        while (true) {
+            final Board board = boards.computeIfAbsent(boardId, this::open);
+            board.lock.writeLock().lock();
+            try {
+                if (board.evicted) {
+                    continue;
+                }
+                final List<Widget> widgets = board.store.snapshot();
+                if (!widgets.isEmpty() && !transfer.test(widgets)) {
+                    return false;
+                }
+                if (directory != null) {
+                    try {
+                        Files.deleteIfExists(file(boardId));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(String.format("Board [%s] can't be released", boardId), e);
+                    }
+                }
+                pagedOut.remove(boardId);
+                board.evicted = true;
+                boards.remove(boardId, board);
+                return true;
+            } finally {
+                board.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /*
+     * number of boards in memory
+     */
+    public int loaded() {
+        return boards.size();
+    }
+
+    /*
+     * number of boards paged out by this instance and not loaded since
+     */
+    public int pagedOut() {
+        return pagedOut.size();
+    }
+
+    /*
+     * stops evictions and pages out every non-empty board
+     */
+    @Override
+    public void close() {
+        try {
+            if (evictions != null) {
+                evictions.shutdown();
+                evictions.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Board board : boards.values()) {
+            board.lock.writeLock().lock();
+            try {
+                evict(board);
+            } finally {
+                board.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void scheduledEviction() {
+        try {
+            evictIdle();
+        } catch (RuntimeException e) { // keep evicting, a board which can't be paged out just stays
+            logger.warn("Board eviction failed", e);
+        }
+    }
+
+    /*
+     * drops the board or pages it out, if it can; called under its write lock
+     */
+    private void evict(final Board board) {
+        final long version = board.version();
+        if ((board.store.size() != 0) && (directory == null)) {
+            return;
+        }
+        if (directory != null) {
+            try {
+                if (board.store.size() != 0) {
+                    SnapshotFile.write(file(board.id), board.store.snapshot(), version); // version takes log position
+                    pagedOut.put(board.id, version);
+                } else {
+                    Files.deleteIfExists(file(board.id)); // the last page would bring deleted widgets back
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Board [{}] can't be paged out", board.id, e);
+                return;
+            }
+        }
+        board.evicted = true;
+        boards.remove(board.id, board);
+    }
+
+    /*
+     * creates storage of the board and loads its page, if there is one
+     */
+    private Board open(final String boardId) {
+        final WidgetDao<Widget> store = factory.get();
+        long base = 0;
+        if ((directory != null) && Files.exists(file(boardId))) {
+            try {
+                base = Math.max(base, SnapshotFile.load(file(boardId), store) - store.version());
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Board [%s] can't be loaded", boardId), e);
+            }
+            pagedOut.remove(boardId);
+        }
+        return new Board(boardId, store, base, clock.millis());
+    }
+
+    private Path file(final String boardId) {
+        return directory.resolve(boardId + PAGE_SUFFIX);
+    }
+
+    private static final class Board {
+        private final String id;
+        private final WidgetDao<Widget> store;
+        private final long base; // added to storage version
+        private final ReadWriteLock lock = new ReentrantReadWriteLock(); // calls share it, eviction excludes them
+        private volatile boolean evicted;
+        private volatile long lastCall; // millis
+
+        private Board(final String id, final WidgetDao<Widget> store, final long base, final long lastCall) {
+            this.id = id;
+            this.store = store;
+            this.base = base;
+            this.lastCall = lastCall;
+        }
+
+        private long version() {
+            return base + store.version();
+        }
+    }
+
+    /*
+     * storage of a single board, finds the board in memory or loads it on every call
+     */
+    private final class BoardDao implements WidgetDao<Widget> {
+        private final String id;
+
+        private BoardDao(final String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Widget create(final Widget src) {
+            return call(board -> board.store.create(src));
+        }
+
+        @Override
+        public Widget get(final String id) {
+            return call(board -> board.store.get(id));
+        }
+
+        @Override
+        public List<Widget> getAll(final int pageSize, final int offset) {
+            return call(board -> board.store.getAll(pageSize, offset));
+        }
+
+        @Override
+        public List<Widget> getAllAfter(final int pageSize, final int z) {
+            return call(board -> board.store.getAllAfter(pageSize, z));
+        }
+
+        @Override
+        public List<Widget> getAllInArea(final Area area, final boolean intersecting, final int pageSize,
+                                         final int z) {
+            return call(board -> board.store.getAllInArea(area, intersecting, pageSize, z));
+        }
+
+        @Override
+        public List<Widget> snapshot() {
+            return call(board -> board.store.snapshot());
+        }
+
+        @Override
+        public Widget update(final Widget entity) {
+            return call(board -> board.store.update(entity));
+        }
+
+        @Override
+        public List<Widget> apply(final List<Operation<Widget>> operations) {
+            return call(board -> board.store.apply(operations));
+        }
+
+        @Override
+        public Widget restore(final Widget entity) {
+            return call(board -> board.store.restore(entity));
+        }
+
+        @Override
+        public void restoreAll(final List<Widget> entities) {
+            call(board -> {
+                board.store.restoreAll(entities);
+                return null;
+            });
+        }
+
+        @Override
+        public boolean delete(final String id) {
+            return call(board -> board.store.delete(id));
+        }
+
+        /*
+         * doesn't take the board lock; loads the board only if it is neither in memory nor paged out since start
+         */
+        @Override
+        public long version() {
+            final Board board = boards.get(id);
+            if ((board != null) && !board.evicted) {
+                return board.version();
+            }
+            final Long version = pagedOut.get(id);
+            return version != null ? version : call(Board::version);
+        }
+
+        @Override
+        public int size() {
+            return call(board -> board.store.size());
+        }
+
+        private <R> R call(final Function<Board, R> action) {
+            while (true) {
+                final Board board = boards.computeIfAbsent(id, WidgetBoards.this::open);
+                board.lock.readLock().lock();
+                try {
+                    if (!board.evicted) {
+                        board.lastCall = clock.millis();
+                        return action.apply(board);
+                    }
+                } finally {
+                    board.lock.readLock().unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.WidgetChange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/*
+ * Change listener of a storage which keeps the latest changes in a ring buffer of fixed capacity and streams them
+ * to subscribers. Every change gets the next sequence number; sequences start from the creation time
+ * in microseconds, so a sequence seen before a restart is never mistaken for a new one.
+ *
+ * Writer only puts changes into the ring and schedules a single fan out, it never waits for subscribers.
+ * Every subscriber reads the ring on its own cursor and only as much as it requested, so a slow one doesn't hold
+ * anything but its cursor. Subscriber which fell behind by more than the capacity, or asked for a sequence
+ * the ring doesn't have, gets a reset instead and its stream completes: it has to load the state again
+ * and subscribe from the sequence of the reset.
+ */
+public class WidgetChangeFeed implements Consumer<List<WidgetChange>>, Closeable {
+    private final AtomicReferenceArray<WidgetChange> ring;
+    private final int mask;
+    private final Scheduler scheduler;
+    private final long first; // sequence of the first change
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long next; // sequence of the next change; changes below it are in the ring
+
+    public WidgetChangeFeed(final int capacity, final Scheduler scheduler, final long first) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        final int size = Math.max(1, Integer.highestOneBit(capacity - 1) << 1); // rounded up to a power of two
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.scheduler = scheduler;
+        this.first = first;
+        this.next = first;
+    }
+
+    /*
+     * numbers changes and puts them into the ring, overwriting the oldest ones
+     */
+    @Override
+    public synchronized void accept(final List<WidgetChange> changes) {
+        long sequence = next;
+        for (WidgetChange change : changes) {
+            change.setSequence(sequence);
+            ring.set((int) sequence & mask, change);
+            next = ++sequence;
+        }
+        if (!subscriptions.isEmpty() && scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::fanOut);
+        }
+    }
+
+    /*
+     * changes after given sequence, or after the latest one if null; the stream ends only with a reset
+     */
+    public Flux<WidgetChange> changes(final Long lastSequence) {
+        return Flux.create(sink -> {
+            final Subscription subscription = new Subscription(sink,
+                    lastSequence == null ? next : lastSequence + 1);
+            subscriptions.add(subscription);
+            sink.onRequest(n -> subscription.drain());
+            sink.onDispose(() -> subscriptions.remove(subscription));
+        });
+    }
+
+    /*
+     * sequence the next change gets
+     */
+    public long next() {
+        return next;
+    }
+
+    /*
+     * number of open streams
+     */
+    public int subscribers() {
+        return subscriptions.size();
+    }
+
+    /*
+     * completes every stream
+     */
+    @Override
+    public void close() {
+        subscriptions.forEach(subscription -> subscription.sink.complete());
+        scheduler.dispose();
+    }
+
+    private void fanOut() {
+        scheduled.set(false);
+        subscriptions.forEach(Subscription::drain);
+    }
+
+    /*
+     * cursor of a single subscriber; drain runs on one thread at a time, whoever comes first
+     * (subscriber asking for more or writer fanning out) emits for the others
+     */
+    private final class Subscription {
+        private final FluxSink<WidgetChange> sink;
+        private final AtomicInteger wip = new AtomicInteger();
+        private long cursor; // sequence of the next change to emit
+        private boolean done;
+
+        private Subscription(final FluxSink<WidgetChange> sink, final long cursor) {
+            this.sink = sink;
+            this.cursor = cursor;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                long requested = sink.requestedFromDownstream();
+                long last = next;
+                while (!done && (requested > 0) && (cursor != last)) {
+                    final WidgetChange change = cursor < last ? ring.get((int) cursor & mask) : null;
+                    if ((cursor < first) || (change == null) || (change.getSequence() != cursor)) {
+                        reset();
+                    } else {
+                        sink.next(change);
+                        ++cursor;
+                        --requested;
+                    }
+                    last = next;
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /*
+         * the change at the cursor is lost or not there yet
+         */
+        private void reset() {
+            done = true;
+            final WidgetChange reset = WidgetChange.reset();
+            reset.setSequence(next - 1);
+            sink.next(reset);
+            sink.complete();
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package dev.widget.widgetservice.persistance;
 
+import dev.widget.widgetservice.models.WidgetChange;
+
+import java.time.Clock;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 public interface WidgetDao<T> {
     /*
@@ -19,12 +26,97 @@ public interface WidgetDao<T> {
     List<T> getAll(final int pageSize, final int offset);
 
     /*
-     * updates entity
+     * loads entities with z above given one, sorted in natural order; z works as a cursor of keyset pagination
+     */
+    List<T> getAllAfter(final int pageSize, final int z);
+
+    /*
+     * loads entities fully inside (or intersecting) the area with z above given one, sorted in natural order
+     */
+    List<T> getAllInArea(final Area area, final boolean intersecting, final int pageSize, final int z);
+
+    /*
+     * all entities in natural order as of a single moment; the list may be iterated without holding any lock.
+     * Copies the whole storage under its lock by default; storages which publish immutable snapshots return them
+     */
+    default List<T> snapshot() {
+        return getAll(Integer.MAX_VALUE, 0);
+    }
+
+    /*
+     * snapshot along with whatever capture reads of the change listener, e.g. the sequence of the next change:
+     * storages which record changes take it under the write lock, so the listener has seen exactly the changes
+     * in the snapshot. Capture must be short, writers wait for it
+     */
+    default <R> R snapshot(final Function<List<T>, R> capture) {
+        return capture.apply(snapshot());
+    }
+
+    /*
+     * updates entity. Version of the entity, if any, is the version stored entity must have: otherwise nothing
+     * is updated and VersionMismatchException is thrown. Version of the updated entity grows by one
      */
     T update(final T entity);
 
+    /*
+     * applies operations atomically, as if they were applied one by one; returns result of every operation,
+     * for delete it is the deleted entity. Throws WidgetNotFoundException and applies nothing
+     * if any update or delete misses its target, VersionMismatchException if any update expects another version
+     */
+    List<T> apply(final List<Operation<T>> operations);
+
+    /*
+     * stores entity as is, keeping its id, z, and last modification; entity with the same id is replaced.
+     * Used to rebuild storage from persisted changes
+     */
+    T restore(final T entity);
+
+    /*
+     * restores Z ordered entities with distinct ids and Z, none of them stored yet, e.g. loads a snapshot
+     * or a chunk of an import; Z are free, so nothing is pushed up.
+     * Restores them one by one; storages which can load a bulk faster override it
+     */
+    default void restoreAll(final List<T> entities) {
+        entities.forEach(this::restore);
+    }
+
     /*
      * deletes entity by id. Return true id entity existed.
      */
     boolean delete(final String id);
+
+    /*
+     * returns store-wide modification counter, it grows with every change.
+     * Cheap and never waits for the storage lock, so it can be checked before anything is loaded.
+     * Counter starts from firstVersion, so a version is never repeated by a storage created later,
+     * e.g. after a restart, and an ETag of a previous run never matches other widgets
+     */
+    long version();
+
+    /*
+     * returns number of stored entities
+     */
+    int size();
+
+    /*
+     * listener gets number of entities every insert pushed up, zero included; called under the write lock.
+     * Storages which don't count them ignore it
+     */
+    default void setPushUpListener(final IntConsumer listener) {
+    }
+
+    /*
+     * listener gets changes of every write, in order, right after they became visible to readers;
+     * called under the write lock. Storages which don't record changes ignore it
+     */
+    default void setChangeListener(final Consumer<List<WidgetChange>> listener) {
+    }
+
+    /*
+     * first version of a storage created now: time in microseconds, as long as the storage changes
+     * less often than once a microsecond its versions stay below those of any storage created after it
+     */
+    static long firstVersion(final Clock clock) {
+        return TimeUnit.MILLISECONDS.toMicros(clock.millis());
+    }
 }
@@ -0,0 +1,23 @@
+package dev.widget.widgetservice.persistance;
+
+import java.util.function.Supplier;
+
+/*
+ * concurrency strategy used by storage to guard its internal state
+ */
+public interface WidgetLock {
+    /*
+     * runs action which only reads storage state
+     */
+    <T> T read(final Supplier<T> action);
+
+    /*
+     * runs action which modifies storage state, exclusively
+     */
+    <T> T write(final Supplier<T> action);
+
+    /*
+     * returns contention counters collected so far
+     */
+    LockStatistics statistics();
+}
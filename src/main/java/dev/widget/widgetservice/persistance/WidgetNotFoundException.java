@@ -0,0 +1,10 @@
+package dev.widget.widgetservice.persistance;
+
+/*
+ * thrown when a batch refers to a widget which doesn't exist, nothing of the batch is applied then
+ */
+public class WidgetNotFoundException extends RuntimeException {
+    public WidgetNotFoundException(final String id) {
+        super(String.format("Widget [%s] not found", id));
+    }
+}
@@ -0,0 +1,201 @@
+package dev.widget.widgetservice.persistance;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/*
+ * Follows the default storage of a leader instance into an in-memory storage of its own, over plain HTTP:
+ * loads the leader's export, which tells the sequence of the first change not in it, then streams changes
+ * from right before that sequence and replays them in order, push ups included, see InMemoryWidgetDao.
+ * Changes of a write are replayed together, up to the last one which carries the leader's version,
+ * so readers never see a push up without the change which caused it, or a part of a batch.
+ * The store takes the leader's versions, the export's included, so ETags of the leader and its replicas agree.
+ * On a reset, e.g. the replica fell behind more than the leader's change feed keeps, or the leader restarted,
+ * the export is loaded again; on a broken connection the stream is resumed from the last replayed change.
+ *
+ * Leader sends a heartbeat every heartbeat interval; a heartbeat comes after every change sent before it,
+ * so once it is here and every change is replayed the replica is in sync as of then. Lag is the time since.
+ */
+public class WidgetReplica implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WidgetReplica.class);
+    private static final String EXPORT_PATH = "/widgets/export";
+    private static final String CHANGES_PATH = "/widgets/changes";
+    private static final String CHANGE_SEQUENCE_HEADER = "X-Change-Sequence";
+    private static final String STORE_VERSION_HEADER = "X-Store-Version";
+    private static final Duration RETRY_INTERVAL = Duration.ofSeconds(1);
+
+    private final InMemoryWidgetDao store;
+    private final String leader;
+    private final HttpClient client;
+    private final ObjectReader widgetReader;
+    private final ObjectReader changeReader;
+    private final Clock clock;
+    private final Duration heartbeat;
+    private final Thread thread = new Thread(this::follow, "widget-replica");
+    private volatile long synced = Long.MIN_VALUE; // millis the replica was last known in sync
+    private volatile Stream<String> lines; // of the open change stream
+    private volatile boolean closed;
+
+    public WidgetReplica(final InMemoryWidgetDao store, final String leader, final HttpClient client,
+                         final ObjectMapper mapper, final Clock clock, final Duration heartbeat) {
+        this.store = store;
+        this.leader = leader;
+        this.client = client;
+        this.widgetReader = mapper.readerFor(Widget.class);
+        this.changeReader = mapper.readerFor(WidgetChange.class);
+        this.clock = clock;
+        this.heartbeat = heartbeat;
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    /*
+     * milliseconds since the replica was last known in sync with the leader, Long.MAX_VALUE if it never was
+     */
+    public long lag() {
+        final long synced = this.synced;
+        return synced == Long.MIN_VALUE ? Long.MAX_VALUE : Math.max(0, clock.millis() - synced);
+    }
+
+    /*
+     * stops following; the storage keeps what it has
+     */
+    @Override
+    public void close() {
+        closed = true;
+        final Stream<String> lines = this.lines;
+        if (lines != null) {
+            lines.close();
+        }
+        thread.interrupt();
+    }
+
+    private void follow() {
+        Long last = null; // sequence of the last replayed change, null if the export has to be loaded
+        while (!closed) {
+            try {
+                if (last == null) {
+                    last = load() - 1;
+                }
+                last = stream(last);
+                if (last == null) {
+                    continue; // reset, load again right away
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    logger.warn("Replica can't follow leader [{}]", leader, e);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Thread.sleep(RETRY_INTERVAL.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * replaces the whole state with the leader's export; returns the sequence of the first change not in it
+     */
+    long load() throws IOException, InterruptedException {
+        final long start = clock.millis();
+        final HttpResponse<InputStream> response = client.send(HttpRequest.newBuilder(URI.create(leader + EXPORT_PATH))
+                .build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            final String sequence = response.headers().firstValue(CHANGE_SEQUENCE_HEADER).orElse(null);
+            final String version = response.headers().firstValue(STORE_VERSION_HEADER).orElse(null);
+            if ((response.statusCode() != 200) || (sequence == null) || (version == null)) {
+                throw new IOException(String.format("Leader answered export with %s", response.statusCode()));
+            }
+            final List<Widget> widgets = new ArrayList<>();
+            try (MappingIterator<Widget> values = widgetReader.readValues(body)) {
+                while (values.hasNextValue()) {
+                    widgets.add(values.nextValue());
+                }
+            }
+            store.reload(widgets, Long.parseLong(version));
+            synced = start; // export is as of some moment after the request
+            return Long.parseLong(sequence);
+        }
+    }
+
+    /*
+     * replays changes after the last one until the stream ends; returns the last replayed, or null on a reset
+     */
+    Long stream(final long last) throws IOException, InterruptedException {
+        final HttpResponse<Stream<String>> response = client.send(HttpRequest.newBuilder(
+                URI.create(String.format("%s%s?heartbeat=%s", leader, CHANGES_PATH, heartbeat.toMillis())))
+                .header("Accept", "text/event-stream")
+                .header("Last-Event-ID", Long.toString(last))
+                .build(), HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> lines = response.body()) {
+            this.lines = lines;
+            if (response.statusCode() != 200) {
+                throw new IOException(String.format("Leader answered change stream with %s", response.statusCode()));
+            }
+            return replay(lines.iterator(), last);
+        } finally {
+            this.lines = null;
+        }
+    }
+
+    /*
+     * reads server-sent events: only data and comments matter, as data has the whole change
+     */
+    Long replay(final Iterator<String> lines, final long last) throws IOException {
+        final List<WidgetChange> pending = new ArrayList<>(); // changes wait for the last one of their write
+        final StringBuilder data = new StringBuilder();
+        long replayed = last;
+        while (!closed && lines.hasNext()) {
+            final String line = lines.next();
+            if (line.startsWith(":")) { // heartbeat
+                if (pending.isEmpty()) {
+                    synced = clock.millis();
+                }
+            } else if (line.startsWith("data:")) {
+                data.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+            } else if (line.isEmpty() && (data.length() != 0)) {
+                final WidgetChange change = changeReader.readValue(data.toString());
+                data.setLength(0);
+                if (change.getType() == WidgetChange.Type.RESET) {
+                    return null;
+                }
+                pending.add(change);
+                if (change.getVersion() != null) {
+                    store.replay(pending);
+                    replayed = change.getSequence();
+                    pending.clear();
+                }
+            }
+        }
+        return replayed;
+    }
+}
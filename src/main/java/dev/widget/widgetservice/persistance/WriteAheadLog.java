@@ -0,0 +1,509 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only log of widget changes with group commit.
+ * Every change is a record: length, CRC32 of the payload, and the payload: either the full widget state
+ * after the change (put), or id of the deleted widget. Ids come from clients and have no length limit, so they are
+ * written as length and UTF-8 bytes; records written before that carry them in the 64 KB limited writeUTF form.
+ * Writers append records to a memory buffer and get a sequence number; a single flusher thread writes the buffer with one write and one fsync per batch,
+ * and wakes up writers waiting for their sequence number. Batch is flushed when it has batchSize records,
+ * or flushInterval after its first record, whichever comes first; changes appended during fsync go to the next batch.
+ * On open, log is read back record by record; torn or corrupt tail (crash during write) is cut off.
+ * Position is the byte offset right after the last appended record; replay may start from a position
+ * captured earlier (e.g. by a snapshot), skipping everything before it.
+ * Log is a chain of segment files: the first one is the path itself, every next one is named after the position
+ * it starts at, e.g. widgets.wal.67108864. Flusher starts a new segment once the last one reaches segmentSize,
+ * and truncate deletes segments which are entirely before a position nobody replays from any more.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte UTF8_ID = 0x10; // type flag: id is int length and UTF-8; records without it have writeUTF
+    private static final int HEADER = 8; // length and CRC
+    private static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+    private final Path path;
+    private final long segmentSize;
+    private final long flushIntervalNanos;
+    private final int batchSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    private final Thread flusher;
+    private final TreeMap<Long, Path> segments; // by position they start at
+
+    private FileChannel channel; // the last segment, appends go there
+    private long base; // position the last segment starts at
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingRecords;
+    private long appendedSeq;
+    private long durableSeq;
+    private long flushes;
+    private long position;
+    private IOException failure;
+    private boolean closed;
+    private boolean stopped; // flusher is done, nothing else will reach the disk
+
+    public WriteAheadLog(final Path path, final Duration flushInterval, final int batchSize) throws IOException {
+        this(path, flushInterval, batchSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public WriteAheadLog(final Path path, final Duration flushInterval, final int batchSize, final long segmentSize)
+            throws IOException {
+        this.path = path;
+        this.segmentSize = Math.max(1, segmentSize);
+        this.segments = segments(path);
+        this.base = segments.lastKey();
+        this.channel = FileChannel.open(segments.lastEntry().getValue(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.position = base + channel.size();
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.batchSize = Math.max(1, batchSize);
+        this.flusher = new Thread(this::flushLoop, "widget-wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /*
+     * applies all valid records to the storage, and cuts off the invalid tail; must be called before any append
+     */
+    public void replay(final WidgetDao<Widget> target) throws IOException {
+        replay(target, 0);
+    }
+
+    /*
+     * applies valid records starting from given position, and cuts off the invalid tail.
+     * An invalid record in the middle of the chain is a tail as well: segments after it are deleted
+     */
+    public void replay(final WidgetDao<Widget> target, final long from) throws IOException {
+        final long size = base + channel.size();
+        if (from > size) {
+            throw new IOException(String.format("Log has %d bytes, but replay starts from %d", size, from));
+        }
+        if (from < segments.firstKey()) {
+            throw new IOException(String.format("Log starts at %d, but replay starts from %d",
+                    segments.firstKey(), from));
+        }
+        long valid = from;
+        Map.Entry<Long, Path> segment = segments.floorEntry(from);
+        while (segment.getKey() != base) {
+            final Map.Entry<Long, Path> next = segments.higherEntry(segment.getKey());
+            try (FileChannel file = FileChannel.open(segment.getValue(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                valid = read(file, segment.getKey(), valid, target);
+                if (valid != next.getKey()) { // torn, corrupt, or followed by a gap
+                    file.truncate(valid - segment.getKey());
+                    file.force(false);
+                    cut(segment.getKey());
+                    break;
+                }
+            }
+            segment = next;
+        }
+        if (segment.getKey() == base) {
+            valid = read(channel, base, valid, target);
+        }
+        channel.truncate(valid - base);
+        channel.position(valid - base);
+        lock.lock();
+        try {
+            position = valid;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * appends full state of widget, returns its sequence number
+     */
+    public long put(final Widget widget) {
+        return append(encode(PUT, widget.getId(), widget));
+    }
+
+    /*
+     * appends deletion of widget, returns its sequence number
+     */
+    public long delete(final String id) {
+        return append(encode(DELETE, id, null));
+    }
+
+    /*
+     * blocks until record with given sequence number and all records before it are on disk
+     */
+    public void await(final long seq) {
+        lock.lock();
+        try {
+            while ((durableSeq < seq) && (failure == null) && !stopped) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durableSeq < seq) {
+                throw new UncheckedIOException("Change is not persisted",
+                        failure != null ? failure : new IOException("Log is closed"));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * offset right after the last appended record, whether it is on disk yet or not
+     */
+    public long position() {
+        lock.lock();
+        try {
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * position of the first record which may still be replayed, zero until the log is truncated
+     */
+    public long start() {
+        lock.lock();
+        try {
+            return segments.firstKey();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * deletes segments which end at or before given position, e.g. of the oldest snapshot kept;
+     * the last segment is never deleted
+     */
+    public void truncate(final long before) throws IOException {
+        final List<Path> obsolete;
+        lock.lock();
+        try {
+            final Long kept = segments.floorKey(before);
+            if (kept == null) {
+                return;
+            }
+            final Map<Long, Path> older = segments.headMap(kept, false);
+            obsolete = new ArrayList<>(older.values());
+            older.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Path file : obsolete) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /*
+     * sequence number of the last appended record
+     */
+    public long sequence() {
+        lock.lock();
+        try {
+            return appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * number of fsync calls so far
+     */
+    public long flushes() {
+        lock.lock();
+        try {
+            return flushes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * flushes everything appended so far and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private long append(final byte[] payload) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Log is closed");
+            }
+            final int crc = crc(payload);
+            pending.write(payload.length >>> 24);
+            pending.write(payload.length >>> 16);
+            pending.write(payload.length >>> 8);
+            pending.write(payload.length);
+            pending.write(crc >>> 24);
+            pending.write(crc >>> 16);
+            pending.write(crc >>> 8);
+            pending.write(crc);
+            pending.writeBytes(payload);
+            ++pendingRecords;
+            position += HEADER + payload.length;
+            if ((pendingRecords == 1) || (pendingRecords >= batchSize)) {
+                appended.signal();
+            }
+            return ++appendedSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            final byte[] batch;
+            final long seq;
+            lock.lock();
+            try {
+                while ((pendingRecords == 0) && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (pendingRecords == 0) { // closed and nothing left
+                    stopped = true;
+                    flushed.signalAll();
+                    return;
+                }
+                long remaining = flushIntervalNanos;
+                while ((pendingRecords < batchSize) && !closed && (remaining > 0)) {
+                    try {
+                        remaining = appended.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        remaining = 0;
+                    }
+                }
+                batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream(batch.length);
+                pendingRecords = 0;
+                seq = appendedSeq;
+            } finally {
+                lock.unlock();
+            }
+            IOException error = null;
+            try {
+                final ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+                if (channel.size() >= segmentSize) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                    stopped = true;
+                } else {
+                    durableSeq = seq;
+                    ++flushes;
+                }
+                flushed.signalAll();
+                if (stopped) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+     * starts the next segment; called by the flusher only, right after everything before it is on disk
+     */
+    private void rotate() throws IOException {
+        final long next = base + channel.size();
+        final Path file = segment(next);
+        final FileChannel created = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        final FileChannel full = channel;
+        lock.lock();
+        try {
+            segments.put(next, file);
+            channel = created;
+            base = next;
+        } finally {
+            lock.unlock();
+        }
+        full.close();
+    }
+
+    /*
+     * makes the segment at given position the last one, deleting every segment after it
+     */
+    private void cut(final long at) throws IOException {
+        final Map<Long, Path> later = segments.tailMap(at, false);
+        for (Path file : later.values()) {
+            Files.deleteIfExists(file);
+        }
+        later.clear();
+        channel.close();
+        channel = FileChannel.open(segments.get(at), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        base = at;
+    }
+
+    private Path segment(final long start) {
+        return start == 0 ? path : path.resolveSibling(path.getFileName() + "." + start);
+    }
+
+    /*
+     * existing segments of the log at given path, or just the path if there are none yet
+     */
+    private static TreeMap<Long, Path> segments(final Path path) throws IOException {
+        final TreeMap<Long, Path> segments = new TreeMap<>();
+        if (Files.exists(path)) {
+            segments.put(0L, path);
+        }
+        final String prefix = path.getFileName() + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path.toAbsolutePath().getParent(),
+                file -> file.getFileName().toString().startsWith(prefix)
+                        && file.getFileName().toString().substring(prefix.length()).matches("[0-9]+"))) {
+            for (Path file : files) {
+                segments.put(Long.parseLong(file.getFileName().toString().substring(prefix.length())),
+                        path.resolveSibling(file.getFileName()));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, path);
+        }
+        return segments;
+    }
+
+    /*
+     * applies valid records of the segment starting at given base, from given position on;
+     * returns position right after the last valid one
+     */
+    private static long read(final FileChannel file, final long base, final long from,
+                             final WidgetDao<Widget> target) throws IOException {
+        final long size = base + file.size();
+        file.position(from - base);
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file)));
+        long valid = from;
+        while (valid + HEADER <= size) {
+            final int length = input.readInt();
+            final int crc = input.readInt();
+            if ((length <= 0) || (valid + HEADER + length > size)) {
+                break; // torn write
+            }
+            final byte[] payload = input.readNBytes(length);
+            if (crc(payload) != crc) {
+                break; // corrupt record
+            }
+            apply(payload, target);
+            valid += HEADER + length;
+        }
+        return valid;
+    }
+
+    private static byte[] encode(final byte type, final String id, final Widget widget) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(type | UTF8_ID);
+            final byte[] utf8 = id.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(utf8.length);
+            output.write(utf8);
+            if (widget != null) {
+                writeNullable(output, widget.getX());
+                writeNullable(output, widget.getY());
+                writeNullable(output, widget.getZ());
+                writeNullable(output, widget.getWidth());
+                writeNullable(output, widget.getHeight());
+                final Instant modification = widget.getLastModification();
+                output.writeBoolean(modification != null);
+                if (modification != null) {
+                    output.writeLong(modification.getEpochSecond());
+                    output.writeInt(modification.getNano());
+                }
+                output.writeBoolean(widget.getVersion() != null);
+                if (widget.getVersion() != null) {
+                    output.writeLong(widget.getVersion());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // never happens with memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void apply(final byte[] payload, final WidgetDao<Widget> target) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        final byte flags = input.readByte();
+        final byte type = (byte) (flags & ~UTF8_ID);
+        final String id = (flags & UTF8_ID) != 0
+                ? new String(input.readNBytes(input.readInt()), StandardCharsets.UTF_8)
+                : input.readUTF();
+        if (type == DELETE) {
+            target.delete(id);
+            return;
+        }
+        final Widget widget = Widget.builder()
+                .id(id)
+                .x(readNullable(input))
+                .y(readNullable(input))
+                .z(readNullable(input))
+                .width(readNullable(input))
+                .height(readNullable(input))
+                .build();
+        if (input.readBoolean()) {
+            widget.setLastModification(Instant.ofEpochSecond(input.readLong(), input.readInt()));
+        }
+        if ((input.available() > 0) && input.readBoolean()) { // records written before versions end right here
+            widget.setVersion(input.readLong());
+        }
+        target.restore(widget);
+    }
+
+    private static void writeNullable(final DataOutputStream output, final Integer value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeInt(value);
+        }
+    }
+
+    private static Integer readNullable(final DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readInt() : null;
+    }
+
+    private static int crc(final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,198 @@
+package dev.widget.widgetservice.application;
+
+import dev.widget.widgetservice.controllers.BoardForwarding;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/*
+ * runs two nodes on localhost, every node is a separate application context with its own port
+ */
+class ClusterApplicationTests {
+    private static final int BOARDS = 20;
+    private static final String SECRET = "secret";
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private final List<String> urls = new ArrayList<>();
+
+    @AfterEach
+    void after() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dev", "dev,reactive"})
+    void boardsAreServedByAnyNode(final String profiles) throws Exception {
+        // Arrange
+        start(profiles, 2);
+        Map<String, Widget> created = new HashMap<>();
+        for (int i = 0; i < BOARDS; ++i) {
+            created.put("board-" + i, restTemplate.postForObject(widgetsUrl(0, "board-" + i),
+                    Widget.builder().x(i).y(i).z(1).width(1).height(1).build(), Widget.class));
+        }
+
+        // Act
+        Map<String, List<Widget>> result = new HashMap<>();
+        created.keySet().forEach(board -> result.put(board, getAll(1, board)));
+
+        // Assert
+        created.forEach((board, widget) -> assertThat(result.get(board), contains(widget)));
+        assertThat(loaded(0) + loaded(1), is(BOARDS));
+        assertThat(loaded(0), greaterThan(0));
+        assertThat(loaded(1), greaterThan(0));
+    }
+
+    @Test
+    void zIsOrderedOnOwnerWhicheverNodeIsCalled() throws Exception {
+        // Arrange
+        start("dev", 2);
+        Widget first = restTemplate.postForObject(widgetsUrl(0, "board"),
+                Widget.builder().x(1).y(1).z(1).width(1).height(1).build(), Widget.class);
+
+        // Act
+        Widget second = restTemplate.postForObject(widgetsUrl(1, "board"),
+                Widget.builder().x(2).y(2).z(1).width(1).height(1).build(), Widget.class);
+
+        // Assert
+        List<Widget> result = getAll(0, "board");
+        assertThat(result.stream().map(Widget::getId).collect(Collectors.toList()),
+                contains(second.getId(), first.getId()));
+        assertThat(result.get(1).getZ(), is(2));
+        assertThat(getAll(1, "board"), is(result));
+    }
+
+    @Test
+    void leavingNodeHandsItsBoardsOver() throws Exception {
+        // Arrange
+        start("dev", 2);
+        Map<String, Widget> created = new HashMap<>();
+        for (int i = 0; i < BOARDS; ++i) {
+            created.put("board-" + i, restTemplate.postForObject(widgetsUrl(0, "board-" + i),
+                    Widget.builder().x(i).y(i).z(1).width(1).height(1).build(), Widget.class));
+        }
+
+        // Act
+        setNodes(1, List.of(urls.get(1))); // on the node which stays, it passes the list on
+
+        // Assert
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((loaded(0) != 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(50);
+        }
+        assertThat(loaded(0), is(0));
+        assertThat(loaded(1), is(BOARDS));
+        assertThat(restTemplate.getForObject(urls.get(1) + "/cluster/nodes", List.class), is(List.of(urls.get(1))));
+        created.forEach((board, widget) -> assertThat(getAll(0, board), contains(widget)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dev", "dev,reactive"})
+    void writesDuringRebalanceKeepBoards(final String profiles) throws Exception {
+        // Arrange
+        start(profiles, 2);
+        Map<String, Widget> created = new HashMap<>();
+        for (int i = 0; i < BOARDS; ++i) {
+            created.put("board-" + i, restTemplate.postForObject(widgetsUrl(0, "board-" + i),
+                    Widget.builder().x(i).y(i).z(1).width(1).height(1).build(), Widget.class));
+        }
+
+        // Act
+        setNodes(1, List.of(urls.get(1))); // on the node which stays, it passes the list on
+        Map<String, Widget> written = new HashMap<>();
+        for (int i = 0; i < BOARDS; ++i) { // while boards are handed over in the background
+            written.put("board-" + i, restTemplate.postForObject(widgetsUrl(0, "board-" + i),
+                    Widget.builder().x(i).y(i).z(1).width(1).height(1).build(), Widget.class));
+        }
+
+        // Assert
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((loaded(0) != 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(50);
+        }
+        assertThat(loaded(0), is(0));
+        assertThat(loaded(1), is(BOARDS));
+        created.forEach((board, widget) -> assertThat(getAll(1, board).stream().map(Widget::getId)
+                .collect(Collectors.toList()), contains(written.get(board).getId(), widget.getId())));
+    }
+
+    private void start(final String profiles, final int count) throws Exception {
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                ports.add(socket.getLocalPort());
+            }
+        }
+        ports.forEach(port -> urls.add("http://localhost:" + port));
+        for (int i = 0; i < count; ++i) {
+            nodes.add(new SpringApplication(WidgetServiceApplication.class).run(
+                    "--spring.profiles.active=" + profiles,
+                    "--server.port=" + ports.get(i),
+                    "--clusterNodes=" + String.join(",", urls),
+                    "--clusterNode=" + urls.get(i),
+                    "--clusterSecret=" + SECRET));
+        }
+    }
+
+    @Test
+    void nodeListNeedsClusterSecret() throws Exception {
+        // Arrange
+        start("dev", 2);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(BoardForwarding.SECRET_HEADER, "guess");
+
+        // Act
+        HttpClientErrorException result = assertThrows(HttpClientErrorException.class, () ->
+                restTemplate.exchange(urls.get(1) + "/cluster/nodes", HttpMethod.PUT,
+                        new HttpEntity<>(List.of(urls.get(1), "http://attacker:8080"), headers), Void.class));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.FORBIDDEN));
+        assertThat(restTemplate.getForObject(urls.get(1) + "/cluster/nodes", List.class), is(urls));
+    }
+
+    private void setNodes(final int node, final List<String> nodes) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(BoardForwarding.SECRET_HEADER, SECRET);
+        restTemplate.exchange(urls.get(node) + "/cluster/nodes", HttpMethod.PUT, new HttpEntity<>(nodes, headers),
+                Void.class);
+    }
+
+    private List<Widget> getAll(final int node, final String board) {
+        return restTemplate.exchange(widgetsUrl(node, board), HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Widget>>() {
+                }).getBody();
+    }
+
+    private int loaded(final int node) {
+        return nodes.get(node).getBean(WidgetBoards.class).loaded();
+    }
+
+    private String widgetsUrl(final int node, final String board) {
+        return format("%s/boards/%s/widgets", urls.get(node), board);
+    }
+}
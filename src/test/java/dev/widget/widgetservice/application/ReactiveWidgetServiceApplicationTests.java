@@ -0,0 +1,508 @@
+package dev.widget.widgetservice.application;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.controllers.PageCache;
+import dev.widget.widgetservice.controllers.ReactiveWidgetController;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import dev.widget.widgetservice.models.WidgetOperation;
+import dev.widget.widgetservice.persistance.WidgetChangeFeed;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.embedded.netty.NettyWebServer;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toUnmodifiableList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.test.annotation.DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD;
+
+/*
+ * same API on WebFlux, see WidgetServiceApplicationTests
+ */
+@SpringBootTest(webEnvironment = RANDOM_PORT)
+@ActiveProfiles({"dev", "reactive"})
+@DirtiesContext(classMode = AFTER_EACH_TEST_METHOD)
+class ReactiveWidgetServiceApplicationTests {
+    @Autowired
+    ReactiveWidgetController controller;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private WidgetChangeFeed feed;
+
+    @Autowired
+    private PageCache pageCache;
+
+    @Autowired
+    private ReactiveWebServerApplicationContext context;
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    void contextLoads() {
+        assertThat(controller, notNullValue());
+    }
+
+    @Test
+    void reactiveStackRunsOnNetty() {
+        assertThat(context.getWebServer(), instanceOf(NettyWebServer.class));
+    }
+
+    @Test
+    void createWidgetSuccess() {
+        // Arrange
+        Widget src = randomWidget();
+
+        // Act
+        ResponseEntity<Widget> result = restTemplate.postForEntity(widgetsUrl(), src, Widget.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CREATED));
+        assertThat(result.getHeaders().getLocation().toString(), is(widgetUrl(result.getBody().getId())));
+        assertThat(result.getBody().getX(), is(src.getX()));
+        assertThat(result.getBody().getZ(), is(src.getZ()));
+        assertThat(result.getBody().getLastModification(), notNullValue());
+    }
+
+    @Test
+    void createWidgetError() {
+        // Arrange
+        Widget src = randomWidget();
+        src.setX(null);
+
+        // Act
+        ResponseEntity<String> result = restTemplate.postForEntity(widgetsUrl(), src, String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(result.getBody(), containsString("Request missing required params"));
+    }
+
+    @Test
+    void getWidgetSuccess() {
+        // Arrange
+        Widget created = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+
+        // Act
+        ResponseEntity<Widget> result = restTemplate.getForEntity(widgetUrl(created.getId()), Widget.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getETag(), notNullValue());
+        assertThat(result.getBody(), is(created));
+    }
+
+    @Test
+    void getWidgetError() {
+        // Act
+        ResponseEntity<String> result = restTemplate.getForEntity(widgetUrl("NO!"), String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
+        assertThat(result.getBody(), containsString("Widget [NO!] not found"));
+    }
+
+    @Test
+    void getAllWidgetStreamsLargePage() {
+        // Arrange
+        List<WidgetOperation> batch = IntStream.range(0, 500).mapToObj(i -> WidgetOperation.builder()
+                .op(WidgetOperation.Type.CREATE)
+                .widget(randomWidget().toBuilder().z(null).build())
+                .build()
+        ).collect(toUnmodifiableList());
+        Widget[] created = restTemplate.postForObject(batchUrl(), batch, Widget[].class);
+
+        // Act
+        ResponseEntity<Widget[]> result = restTemplate.getForEntity(pagedUrl(500, 0), Widget[].class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getETag(), notNullValue());
+        assertThat(result.getBody(), is(created));
+    }
+
+    @Test
+    void getAllWidgetNoContent() {
+        // Act
+        ResponseEntity<Widget[]> result = restTemplate.getForEntity(pagedUrl(10, 0), Widget[].class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+    }
+
+    @Test
+    void getAllWidgetErrorsOnTooBigPageSize() {
+        // Act
+        ResponseEntity<String> result = restTemplate.getForEntity(pagedUrl(501, 0), String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(result.getBody(), containsString("Requested page size 501 is more than maximum page size 500"));
+    }
+
+    @Test
+    void getAllWidgetsReturnsNotModifiedUntilStoreChanges() {
+        // Arrange
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        String etag = restTemplate.getForEntity(pagedUrl(100, 0), Widget[].class).getHeaders().getETag();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(etag);
+
+        // Act
+        ResponseEntity<Widget[]> unchanged = restTemplate.exchange(pagedUrl(100, 0), HttpMethod.GET,
+                new HttpEntity<>(headers), Widget[].class);
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        ResponseEntity<Widget[]> changed = restTemplate.exchange(pagedUrl(100, 0), HttpMethod.GET,
+                new HttpEntity<>(headers), Widget[].class);
+
+        // Assert
+        assertThat(unchanged.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(unchanged.getHeaders().getETag(), is(etag));
+        assertThat(unchanged.getBody(), nullValue());
+        assertThat(changed.getStatusCode(), is(HttpStatus.OK));
+        assertThat(changed.getBody().length, is(2));
+    }
+
+    @Test
+    void setWidgetChecksIfMatch() {
+        // Arrange
+        Widget created = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch("\"1\"");
+        HttpEntity<Widget> updateRequest = new HttpEntity<>(created.toBuilder().x(created.getX() + 1).build(), headers);
+
+        // Act
+        ResponseEntity<Widget> first = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.PUT,
+                updateRequest, Widget.class);
+        ResponseEntity<Widget> second = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.PUT,
+                updateRequest, Widget.class);
+
+        // Assert
+        assertThat(created.getVersion(), is(1L));
+        assertThat(first.getStatusCode(), is(HttpStatus.OK));
+        assertThat(first.getBody().getVersion(), is(2L));
+        assertThat(second.getStatusCode(), is(HttpStatus.PRECONDITION_FAILED));
+        assertThat(restTemplate.getForObject(widgetUrl(created.getId()), Widget.class).getVersion(), is(2L));
+    }
+
+    @Test
+    void boardsHaveIndependentWidgets() {
+        // Arrange
+        Widget src = randomWidget().toBuilder().z(1).build();
+        Widget existing = restTemplate.postForObject(widgetsUrl(), src, Widget.class);
+
+        // Act
+        ResponseEntity<Widget> first = restTemplate.postForEntity(boardUrl("first") + "/widgets", src, Widget.class);
+        ResponseEntity<Widget> second = restTemplate.postForEntity(boardUrl("second") + "/widgets", src, Widget.class);
+
+        // Assert
+        assertThat(first.getBody().getZ(), is(1));
+        assertThat(second.getBody().getZ(), is(1));
+        assertThat(first.getHeaders().getLocation().toString(),
+                is(boardUrl("first") + format("/widget/%s", first.getBody().getId())));
+        assertThat(restTemplate.getForObject(first.getHeaders().getLocation(), Widget.class), is(first.getBody()));
+        assertThat(restTemplate.getForEntity(boardUrl("second") + format("/widget/%s", first.getBody().getId()),
+                Widget.class).getStatusCode(), is(HttpStatus.NOT_FOUND));
+        assertThat(restTemplate.getForObject(widgetUrl(existing.getId()), Widget.class).getZ(), is(1));
+    }
+
+    @Test
+    void getAllWidgetsSendsCachedPageUntilItChanges() {
+        // Arrange
+        Widget bottom = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(1).build(), Widget.class);
+        restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+
+        // Act
+        Widget[] cached = restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+        restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(null).build(), Widget.class);
+        Widget[] unchanged = restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+        Widget below = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(0).build(), Widget.class);
+        Widget[] changed = restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+
+        // Assert
+        assertThat(cached, arrayContaining(bottom));
+        assertThat(unchanged, arrayContaining(bottom));
+        assertThat(changed, arrayContaining(below));
+        assertThat(pageCache.hits(), is(1L));
+        assertThat(pageCache.revalidations(), is(1L));
+        assertThat(pageCache.misses(), is(2L));
+    }
+
+    @Test
+    void getAllWidgetWithCursor() {
+        // Arrange
+        List<Widget> created = IntStream.range(0, 5).mapToObj(
+                i -> restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(null).build(), Widget.class)
+        ).collect(toUnmodifiableList());
+
+        // Act
+        List<Widget> result = new ArrayList<>();
+        String cursor = Integer.toString(Integer.MIN_VALUE);
+        while (cursor != null) {
+            ResponseEntity<Widget[]> page = restTemplate.getForEntity(
+                    widgetsUrl() + format("?pageSize=%s&after=%s", 2, cursor), Widget[].class);
+            result.addAll(List.of(page.getBody()));
+            cursor = page.getHeaders().getFirst("X-Next-Cursor");
+        }
+
+        // Assert
+        assertThat(result, is(created));
+    }
+
+    @Test
+    void exportWidgetsStreamsAllWidgetsAsLines() throws IOException {
+        // Arrange
+        List<Widget> created = IntStream.range(0, 5).mapToObj(
+                i -> restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(null).build(), Widget.class)
+        ).collect(toUnmodifiableList());
+
+        // Act
+        ResponseEntity<String> result = restTemplate.getForEntity(widgetsUrl() + "/export", String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getContentType().toString(), is("application/x-ndjson"));
+        List<Widget> exported = new ArrayList<>();
+        for (String line : result.getBody().split("\n")) {
+            exported.add(mapper.readValue(line, Widget.class));
+        }
+        assertThat(exported, is(created));
+    }
+
+    @Test
+    void importWidgetsLoadsLinesAsIs() throws IOException {
+        // Arrange
+        List<Widget> widgets = IntStream.range(0, 1000).mapToObj(
+                z -> randomWidget().toBuilder().id("id" + z).z(z).lastModification(Instant.EPOCH).build()
+        ).collect(toUnmodifiableList());
+        StringBuilder body = new StringBuilder();
+        for (int i = widgets.size() - 1; i >= 0; --i) {
+            body.append(mapper.writeValueAsString(widgets.get(i))).append('\n');
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+
+        // Act
+        ResponseEntity<String> result = restTemplate.postForEntity(widgetsUrl() + "/import",
+                new HttpEntity<>(body.toString(), headers), String.class);
+        ResponseEntity<String> again = restTemplate.postForEntity(widgetsUrl() + "/import",
+                new HttpEntity<>(body.toString(), headers), String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        assertThat(again.getStatusCode(), is(HttpStatus.CONFLICT));
+        assertThat(List.of(restTemplate.getForObject(pagedUrl(500, 500), Widget[].class)),
+                is(widgets.subList(500, 1000)));
+    }
+
+    @Test
+    void importWidgetsErrorsOnMalformedLine() {
+        // Arrange
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+
+        // Act
+        ResponseEntity<String> result = restTemplate.postForEntity(widgetsUrl() + "/import",
+                new HttpEntity<>("{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}\n{\"id\"\n",
+                        headers), String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(result.getBody(), containsString("Widget 1 is malformed"));
+    }
+
+    @Test
+    void getWidgetsInArea() {
+        // Arrange
+        Widget inside = restTemplate.postForObject(widgetsUrl(),
+                Widget.builder().x(10).y(10).z(2).width(10).height(10).build(), Widget.class);
+        restTemplate.postForObject(widgetsUrl(),
+                Widget.builder().x(200).y(200).z(0).width(10).height(10).build(), Widget.class);
+
+        // Act
+        Widget[] result = restTemplate.getForObject(
+                widgetsUrl() + "?x1=0&y1=0&x2=100&y2=100", Widget[].class);
+
+        // Assert
+        assertThat(result, arrayContaining(inside));
+    }
+
+    @Test
+    void updateWidgetSuccess() {
+        // Arrange
+        Widget created = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        Widget update = randomWidget();
+
+        // Act
+        ResponseEntity<Widget> result = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.PUT,
+                new HttpEntity<>(update), Widget.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody().getX(), is(update.getX()));
+        assertThat(result.getBody().getId(), is(created.getId()));
+    }
+
+    @Test
+    void updateWidgetError() {
+        // Act
+        ResponseEntity<String> result = restTemplate.exchange(widgetUrl("NO!"), HttpMethod.PUT,
+                new HttpEntity<>(randomWidget()), String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    void deleteWidget() {
+        // Arrange
+        Widget created = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+
+        // Act
+        ResponseEntity<Void> first = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.DELETE,
+                HttpEntity.EMPTY, Void.class);
+        ResponseEntity<Void> second = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.DELETE,
+                HttpEntity.EMPTY, Void.class);
+
+        // Assert
+        assertThat(first.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        assertThat(second.getStatusCode(), is(HttpStatus.GONE));
+    }
+
+    @Test
+    void applyBatchIsAtomic() {
+        // Arrange
+        Widget existing = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        List<WidgetOperation> batch = List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id(existing.getId()).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("NO!").build()
+        );
+
+        // Act
+        ResponseEntity<String> response = restTemplate.postForEntity(batchUrl(), batch, String.class);
+
+        // Assert
+        assertThat(response.getStatusCode(), is(HttpStatus.NOT_FOUND));
+        Widget[] widgets = restTemplate.getForObject(pagedUrl(100, 0), Widget[].class);
+        assertThat(widgets, arrayContaining(existing));
+    }
+
+    @Test
+    void prometheusExposesWidgetMetrics() {
+        // Arrange
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        restTemplate.getForEntity(widgetUrl("NO!"), String.class);
+
+        // Act
+        String result = restTemplate.getForObject(localServerUrl() + "/actuator/prometheus", String.class);
+
+        // Assert
+        assertThat(result, allOf(
+                containsString("widget_http_requests_seconds_count{endpoint=\"createWidget\",} 1.0"),
+                containsString("widget_http_errors_total{endpoint=\"getWidget\",status=\"404\",} 1.0"),
+                containsString("widget_dao_calls_seconds_count{method=\"create\",} 1.0")
+        ));
+    }
+
+    @Test
+    void getChangesStreamsEveryChangeAsEvent() throws InterruptedException {
+        // Arrange
+        List<ServerSentEvent<WidgetChange>> events = new CopyOnWriteArrayList<>();
+        Disposable stream = WebClient.create(localServerUrl()).get().uri("/widgets/changes")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<WidgetChange>>() {
+                })
+                .subscribe(events::add);
+        try {
+            for (int i = 0; (i < 500) && (feed.subscribers() == 0); ++i) {
+                Thread.sleep(10);
+            }
+
+            // Act
+            Widget first = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(0).build(), Widget.class);
+            Widget second = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(0).build(), Widget.class);
+            restTemplate.delete(widgetUrl(first.getId()));
+            for (int i = 0; (i < 500) && (events.size() < 4); ++i) {
+                Thread.sleep(10);
+            }
+
+            // Assert
+            assertThat(events.stream().map(ServerSentEvent::event).collect(toUnmodifiableList()),
+                    contains("created", "pushed", "created", "deleted"));
+            assertThat(events.get(1).data().getFromZ(), is(0));
+            assertThat(events.get(1).data().getToZ(), is(0));
+            assertThat(events.get(2).data().getWidget(), is(second));
+            assertThat(events.get(3).data().getId(), is(first.getId()));
+            assertThat(Long.parseLong(events.get(3).id()), is(Long.parseLong(events.get(0).id()) + 3));
+        } finally {
+            stream.dispose();
+        }
+    }
+
+    private String pagedUrl(int pageSize, int offset) {
+        return widgetsUrl() + format("?pageSize=%s&offset=%s", pageSize, offset);
+    }
+
+    private String widgetUrl(final String id) {
+        return localServerUrl() + format("/widget/%s", id);
+    }
+
+    private String batchUrl() {
+        return widgetsUrl() + "/batch";
+    }
+
+    private String widgetsUrl() {
+        return localServerUrl() + "/widgets";
+    }
+
+    private String boardUrl(final String boardId) {
+        return localServerUrl() + format("/boards/%s", boardId);
+    }
+
+    private String localServerUrl() {
+        return format("http://localhost:%s", port);
+    }
+
+    private Widget randomWidget() {
+        return Widget.builder()
+                .x(ThreadLocalRandom.current().nextInt())
+                .y(ThreadLocalRandom.current().nextInt())
+                .z(ThreadLocalRandom.current().nextInt())
+                .width(ThreadLocalRandom.current().nextInt())
+                .height(ThreadLocalRandom.current().nextInt())
+                .build();
+    }
+}
@@ -0,0 +1,155 @@
+package dev.widget.widgetservice.application;
+
+import dev.widget.widgetservice.controllers.ReplicaReads;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetOperation;
+import org.hamcrest.Matcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/*
+ * runs a leader and a replica on localhost, every one is a separate application context with its own port
+ */
+class ReplicaApplicationTests {
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private String leader;
+    private String replica;
+
+    @AfterEach
+    void after() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dev", "dev,reactive"})
+    void replicaServesWritesOfLeader(final String profiles) throws Exception {
+        // Arrange
+        start(profiles);
+        Widget before = restTemplate.postForObject(leader + "/widgets",
+                Widget.builder().x(1).y(1).z(1).width(1).height(1).build(), Widget.class);
+        await(() -> getAll(replica).getBody(), hasSize(1));
+
+        // Act
+        Widget pushing = restTemplate.postForObject(leader + "/widgets",
+                Widget.builder().x(2).y(2).z(1).width(1).height(1).build(), Widget.class);
+        restTemplate.put(leader + "/widget/" + before.getId(), before.toBuilder().x(5).build());
+
+        // Assert
+        List<Widget> expected = getAll(leader).getBody();
+        await(() -> getAll(replica).getBody(), is(expected));
+        assertThat(expected.get(0).getId(), is(before.getId()));
+        assertThat(expected.get(1), is(pushing.toBuilder().z(2).build()));
+        ResponseEntity<List<Widget>> result = getAll(replica);
+        assertThat(Long.parseLong(result.getHeaders().getFirst(ReplicaReads.REPLICA_LAG_HEADER)),
+                lessThanOrEqualTo(5_000L));
+        assertThat(restTemplate.getForObject(replica + "/widget/" + pushing.getId(), Widget.class),
+                is(expected.get(1)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dev", "dev,reactive"})
+    void replicaTagsStateAsLeaderDoes(final String profiles) throws Exception {
+        // Arrange
+        start(profiles);
+        Widget widget = restTemplate.postForObject(leader + "/widgets",
+                Widget.builder().x(1).y(1).z(1).width(1).height(1).build(), Widget.class);
+        await(() -> getAll(replica).getBody(), hasSize(1));
+
+        // Act
+        restTemplate.postForObject(leader + "/widgets/batch", List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.CREATE)
+                        .widget(Widget.builder().x(2).y(2).z(1).width(1).height(1).build()).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.CREATE)
+                        .widget(Widget.builder().x(3).y(3).z(1).width(1).height(1).build()).build()
+        ), Widget[].class);
+        String etag = getAll(leader).getHeaders().getETag();
+
+        // Assert
+        await(() -> getAll(replica).getHeaders().getETag(), is(etag));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(etag);
+        assertThat(restTemplate.exchange(replica + "/widgets", HttpMethod.GET, new HttpEntity<>(headers),
+                Widget[].class).getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(restTemplate.getForEntity(replica + "/widget/" + widget.getId(), Widget.class).getHeaders()
+                .getETag(), is(restTemplate.getForEntity(leader + "/widget/" + widget.getId(), Widget.class)
+                .getHeaders().getETag()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"dev", "dev,reactive"})
+    void replicaRedirectsWritesToLeader(final String profiles) throws Exception {
+        // Arrange
+        start(profiles);
+
+        // Act
+        ResponseEntity<Void> result = restTemplate.exchange(replica + "/widget/id", HttpMethod.DELETE, null,
+                Void.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.TEMPORARY_REDIRECT));
+        assertThat(result.getHeaders().getLocation().toString(), is(leader + "/widget/id"));
+    }
+
+    private void start(final String profiles) throws Exception {
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                ports.add(socket.getLocalPort());
+            }
+        }
+        leader = "http://localhost:" + ports.get(0);
+        replica = "http://localhost:" + ports.get(1);
+        nodes.add(new SpringApplication(WidgetServiceApplication.class).run(
+                "--spring.profiles.active=" + profiles,
+                "--server.port=" + ports.get(0)));
+        nodes.add(new SpringApplication(WidgetServiceApplication.class).run(
+                "--spring.profiles.active=" + profiles,
+                "--server.port=" + ports.get(1),
+                "--replicaOf=" + leader,
+                "--replicaHeartbeat=100ms"));
+    }
+
+    private ResponseEntity<List<Widget>> getAll(final String node) {
+        return restTemplate.exchange(node + "/widgets", HttpMethod.GET, null,
+                new ParameterizedTypeReference<List<Widget>>() {
+                });
+    }
+
+    /*
+     * replica follows the leader asynchronously, so it is polled until it matches or the time is up
+     */
+    private static <T> void await(final Supplier<T> actual, final Matcher<? super T> matcher)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if (matcher.matches(actual.get())) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // replica is not in sync yet
+            }
+            Thread.sleep(50);
+        }
+        assertThat(actual.get(), matcher);
+    }
+}
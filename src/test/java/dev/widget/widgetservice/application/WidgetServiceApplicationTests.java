@@ -1,20 +1,35 @@
 package dev.widget.widgetservice.application;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.controllers.PageCache;
 import dev.widget.widgetservice.controllers.WidgetController;
 import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import dev.widget.widgetservice.models.WidgetOperation;
+import dev.widget.widgetservice.persistance.WidgetChangeFeed;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
 import org.springframework.web.client.RestClientException;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.IntStream;
 
@@ -35,6 +50,15 @@ class WidgetServiceApplicationTests {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private ObjectMapper mapper;
+
+    @Autowired
+    private WidgetChangeFeed feed;
+
+    @Autowired
+    private PageCache pageCache;
+
     @LocalServerPort
     private int port;
 
@@ -147,6 +171,171 @@ class WidgetServiceApplicationTests {
         }
     }
 
+    @Test
+    void getAllWidgetETagChangesWithStore() {
+        // Arrange
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        String before = restTemplate.getForEntity(pagedUrl(100, 0), Widget[].class).getHeaders().getETag();
+
+        // Act
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        String after = restTemplate.getForEntity(pagedUrl(100, 0), Widget[].class).getHeaders().getETag();
+
+        // Assert
+        assertThat(before, notNullValue());
+        assertThat(after, notNullValue());
+        assertThat(after, not(before));
+    }
+
+    @Test
+    void getAllWidgetsReturnsNotModifiedUntilStoreChanges() {
+        // Arrange
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        String etag = restTemplate.getForEntity(pagedUrl(100, 0), Widget[].class).getHeaders().getETag();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(etag);
+
+        // Act
+        ResponseEntity<Widget[]> unchanged = restTemplate.exchange(pagedUrl(100, 0), HttpMethod.GET,
+                new HttpEntity<>(headers), Widget[].class);
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        ResponseEntity<Widget[]> changed = restTemplate.exchange(pagedUrl(100, 0), HttpMethod.GET,
+                new HttpEntity<>(headers), Widget[].class);
+
+        // Assert
+        assertThat(unchanged.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(unchanged.getHeaders().getETag(), is(etag));
+        assertThat(unchanged.getBody(), nullValue());
+        assertThat(changed.getStatusCode(), is(HttpStatus.OK));
+        assertThat(changed.getBody().length, is(2));
+    }
+
+    @Test
+    void getAllWidgetsSendsCachedPageUntilItChanges() {
+        // Arrange
+        Widget bottom = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(1).build(), Widget.class);
+        restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+
+        // Act
+        Widget[] cached = restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+        restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(null).build(), Widget.class);
+        Widget[] unchanged = restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+        Widget below = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(0).build(), Widget.class);
+        Widget[] changed = restTemplate.getForObject(pagedUrl(1, 0), Widget[].class);
+
+        // Assert
+        assertThat(cached, arrayContaining(bottom));
+        assertThat(unchanged, arrayContaining(bottom));
+        assertThat(changed, arrayContaining(below));
+        assertThat(pageCache.hits(), is(1L));
+        assertThat(pageCache.revalidations(), is(1L));
+        assertThat(pageCache.misses(), is(2L));
+    }
+
+    @Test
+    void getAllWidgetWithCursor() {
+        // Arrange
+        List<Widget> created = IntStream.range(0, 5).mapToObj(
+                i -> restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(null).build(), Widget.class)
+        ).collect(toUnmodifiableList());
+
+        // Act
+        List<Widget> result = new ArrayList<>();
+        String cursor = Integer.toString(Integer.MIN_VALUE);
+        while (cursor != null) {
+            ResponseEntity<Widget[]> page = restTemplate.getForEntity(
+                    widgetsUrl() + format("?pageSize=%s&after=%s", 2, cursor), Widget[].class);
+            result.addAll(List.of(page.getBody()));
+            cursor = page.getHeaders().getFirst("X-Next-Cursor");
+        }
+
+        // Assert
+        assertThat(result, is(created));
+    }
+
+    @Test
+    void exportWidgetsStreamsAllWidgetsAsLines() throws IOException {
+        // Arrange
+        List<Widget> created = IntStream.range(0, 5).mapToObj(
+                i -> restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(null).build(), Widget.class)
+        ).collect(toUnmodifiableList());
+
+        // Act
+        ResponseEntity<String> result = restTemplate.getForEntity(widgetsUrl() + "/export", String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getContentType().toString(), is("application/x-ndjson"));
+        List<Widget> exported = new ArrayList<>();
+        for (String line : result.getBody().split("\n")) {
+            exported.add(mapper.readValue(line, Widget.class));
+        }
+        assertThat(exported, is(created));
+    }
+
+    @Test
+    void importWidgetsLoadsLinesAsIs() throws IOException {
+        // Arrange
+        List<Widget> widgets = IntStream.range(0, 1000).mapToObj(
+                z -> randomWidget().toBuilder().id("id" + z).z(z).lastModification(Instant.EPOCH).build()
+        ).collect(toUnmodifiableList());
+        StringBuilder body = new StringBuilder();
+        for (int i = widgets.size() - 1; i >= 0; --i) {
+            body.append(mapper.writeValueAsString(widgets.get(i))).append('\n');
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+
+        // Act
+        ResponseEntity<String> result = restTemplate.postForEntity(widgetsUrl() + "/import",
+                new HttpEntity<>(body.toString(), headers), String.class);
+        ResponseEntity<String> again = restTemplate.postForEntity(widgetsUrl() + "/import",
+                new HttpEntity<>(body.toString(), headers), String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        assertThat(again.getStatusCode(), is(HttpStatus.CONFLICT));
+        assertThat(List.of(restTemplate.getForObject(pagedUrl(500, 500), Widget[].class)),
+                is(widgets.subList(500, 1000)));
+    }
+
+    @Test
+    void importWidgetsErrorsOnMalformedLine() {
+        // Arrange
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/x-ndjson"));
+
+        // Act
+        ResponseEntity<String> result = restTemplate.postForEntity(widgetsUrl() + "/import",
+                new HttpEntity<>("{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}\n{\"id\"\n",
+                        headers), String.class);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(result.getBody(), containsString("Widget 1 is malformed"));
+    }
+
+    @Test
+    void getWidgetsInArea() {
+        // Arrange
+        Widget inside = restTemplate.postForObject(widgetsUrl(),
+                Widget.builder().x(10).y(10).z(2).width(10).height(10).build(), Widget.class);
+        Widget crossing = restTemplate.postForObject(widgetsUrl(),
+                Widget.builder().x(90).y(90).z(1).width(20).height(20).build(), Widget.class);
+        restTemplate.postForObject(widgetsUrl(),
+                Widget.builder().x(200).y(200).z(0).width(10).height(10).build(), Widget.class);
+
+        // Act
+        Widget[] result = restTemplate.getForObject(
+                widgetsUrl() + "?x1=0&y1=0&x2=100&y2=100", Widget[].class);
+        Widget[] intersecting = restTemplate.getForObject(
+                widgetsUrl() + "?x1=0&y1=0&x2=100&y2=100&intersecting=true", Widget[].class);
+
+        // Assert
+        assertThat(result, arrayContaining(inside));
+        assertThat(intersecting, arrayContaining(crossing, inside));
+    }
+
     @Test
     void getAllWidgetTooBigPage() {
         // Arrange -- nothing!
@@ -196,6 +385,71 @@ class WidgetServiceApplicationTests {
         assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
     }
 
+    @Test
+    void setWidgetChecksIfMatch() {
+        // Arrange
+        Widget created = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch("\"1\"");
+        HttpEntity<Widget> updateRequest = new HttpEntity<>(created.toBuilder().x(created.getX() + 1).build(), headers);
+
+        // Act
+        ResponseEntity<Widget> first = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.PUT,
+                updateRequest, Widget.class);
+        ResponseEntity<Widget> second = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.PUT,
+                updateRequest, Widget.class);
+
+        // Assert
+        assertThat(created.getVersion(), is(1L));
+        assertThat(first.getStatusCode(), is(HttpStatus.OK));
+        assertThat(first.getBody().getVersion(), is(2L));
+        assertThat(second.getStatusCode(), is(HttpStatus.PRECONDITION_FAILED));
+        assertThat(restTemplate.getForObject(widgetUrl(created.getId()), Widget.class).getVersion(), is(2L));
+    }
+
+    @Test
+    void setWidgetAcceptsETagOfGetAsIfMatch() {
+        // Arrange
+        Widget created = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class); // store version moves on
+        String etag = restTemplate.getForEntity(widgetUrl(created.getId()), Widget.class).getHeaders().getETag();
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfMatch(etag);
+        HttpEntity<Widget> updateRequest = new HttpEntity<>(created.toBuilder().x(created.getX() + 1).build(), headers);
+
+        // Act
+        ResponseEntity<Widget> first = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.PUT,
+                updateRequest, Widget.class);
+        ResponseEntity<Widget> second = restTemplate.exchange(widgetUrl(created.getId()), HttpMethod.PUT,
+                updateRequest, Widget.class);
+
+        // Assert
+        assertThat(etag, endsWith("-1\""));
+        assertThat(first.getStatusCode(), is(HttpStatus.OK));
+        assertThat(second.getStatusCode(), is(HttpStatus.PRECONDITION_FAILED));
+    }
+
+    @Test
+    void boardsHaveIndependentWidgets() {
+        // Arrange
+        Widget src = randomWidget().toBuilder().z(1).build();
+        Widget existing = restTemplate.postForObject(widgetsUrl(), src, Widget.class);
+
+        // Act
+        ResponseEntity<Widget> first = restTemplate.postForEntity(boardUrl("first") + "/widgets", src, Widget.class);
+        ResponseEntity<Widget> second = restTemplate.postForEntity(boardUrl("second") + "/widgets", src, Widget.class);
+
+        // Assert
+        assertThat(first.getBody().getZ(), is(1));
+        assertThat(second.getBody().getZ(), is(1));
+        assertThat(first.getHeaders().getLocation().toString(),
+                is(boardUrl("first") + format("/widget/%s", first.getBody().getId())));
+        assertThat(restTemplate.getForObject(first.getHeaders().getLocation(), Widget.class), is(first.getBody()));
+        assertThat(restTemplate.getForEntity(boardUrl("second") + format("/widget/%s", first.getBody().getId()),
+                Widget.class).getStatusCode(), is(HttpStatus.NOT_FOUND));
+        assertThat(restTemplate.getForObject(widgetUrl(existing.getId()), Widget.class).getZ(), is(1));
+    }
+
     @Test
     void setWidgetPushesUp() {
         // Arrange
@@ -280,6 +534,106 @@ class WidgetServiceApplicationTests {
         assertThat(response.getStatusCode(), is(HttpStatus.GONE));
     }
 
+    @Test
+    void applyBatchSuccess() {
+        // Arrange
+        Widget bottom = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(0).build(), Widget.class);
+        Widget top = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(1).build(), Widget.class);
+        Widget created = randomWidget().toBuilder().z(0).build();
+        List<WidgetOperation> batch = List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.CREATE).widget(created).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.UPDATE).id(bottom.getId())
+                        .widget(bottom.toBuilder().z(10).build()).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id(top.getId()).build()
+        );
+
+        // Act
+        Widget[] result = restTemplate.postForObject(batchUrl(), batch, Widget[].class);
+
+        // Assert
+        assertThat(result.length, is(3));
+        assertThat(result[0].getZ(), is(0));
+        assertThat(result[1].getZ(), is(10));
+        assertThat(result[2].getId(), is(top.getId()));
+        assertThat(result[2].getZ(), is(2));
+        Widget[] widgets = restTemplate.getForObject(pagedUrl(100, 0), Widget[].class);
+        assertThat(widgets, arrayContaining(result[0], result[1]));
+    }
+
+    @Test
+    void applyBatchIsAtomic() {
+        // Arrange
+        Widget existing = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        List<WidgetOperation> batch = List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id(existing.getId()).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id(existing.getId()).build()
+        );
+
+        // Act
+        ResponseEntity<String> response = restTemplate.postForEntity(batchUrl(), batch, String.class);
+
+        // Assert
+        assertThat(response.getStatusCode(), is(HttpStatus.NOT_FOUND));
+        Widget[] widgets = restTemplate.getForObject(pagedUrl(100, 0), Widget[].class);
+        assertThat(widgets, arrayContaining(existing));
+    }
+
+    @Test
+    void prometheusExposesWidgetMetrics() {
+        // Arrange
+        Widget created = restTemplate.postForObject(widgetsUrl(), randomWidget(), Widget.class);
+        restTemplate.getForEntity(widgetUrl(created.getId() + "NO!"), Widget.class);
+
+        // Act
+        String result = restTemplate.getForObject(localServerUrl() + "/actuator/prometheus", String.class);
+
+        // Assert
+        assertThat(result, allOf(
+                containsString("widget_http_requests_seconds_count{endpoint=\"createWidget\",} 1.0"),
+                containsString("widget_http_errors_total{endpoint=\"getWidget\",status=\"404\",} 1.0"),
+                containsString("widget_dao_calls_seconds_count{method=\"create\",} 1.0"),
+                containsString("widget_push_ups_widgets_count 1.0"),
+                containsString("widget_store_size 1.0"),
+                containsString("widget_lock_wait_seconds_count{access=\"write\",}")
+        ));
+    }
+
+    @Test
+    void getChangesStreamsEveryChangeAsEvent() throws InterruptedException {
+        // Arrange
+        List<ServerSentEvent<WidgetChange>> events = new CopyOnWriteArrayList<>();
+        Disposable stream = WebClient.create(localServerUrl()).get().uri("/widgets/changes")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<WidgetChange>>() {
+                })
+                .subscribe(events::add);
+        try {
+            for (int i = 0; (i < 500) && (feed.subscribers() == 0); ++i) {
+                Thread.sleep(10);
+            }
+
+            // Act
+            Widget first = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(0).build(), Widget.class);
+            Widget second = restTemplate.postForObject(widgetsUrl(), randomWidget().toBuilder().z(0).build(), Widget.class);
+            restTemplate.delete(widgetUrl(first.getId()));
+            for (int i = 0; (i < 500) && (events.size() < 4); ++i) {
+                Thread.sleep(10);
+            }
+
+            // Assert
+            assertThat(events.stream().map(ServerSentEvent::event).collect(toUnmodifiableList()),
+                    contains("created", "pushed", "created", "deleted"));
+            assertThat(events.get(1).data().getFromZ(), is(0));
+            assertThat(events.get(1).data().getToZ(), is(0));
+            assertThat(events.get(2).data().getWidget(), is(second));
+            assertThat(events.get(3).data().getId(), is(first.getId()));
+            assertThat(Long.parseLong(events.get(3).id()), is(Long.parseLong(events.get(0).id()) + 3));
+        } finally {
+            stream.dispose();
+        }
+    }
+
     private String pagedUrl(int pageSize, int offset) {
         return widgetsUrl() + format("?pageSize=%s&offset=%s", pageSize, offset);
     }
@@ -288,10 +642,18 @@ class WidgetServiceApplicationTests {
         return localServerUrl() + format("/widget/%s", id);
     }
 
+    private String batchUrl() {
+        return widgetsUrl() + "/batch";
+    }
+
     private String widgetsUrl() {
         return localServerUrl() + "/widgets";
     }
 
+    private String boardUrl(final String boardId) {
+        return localServerUrl() + format("/boards/%s", boardId);
+    }
+
     private String localServerUrl() {
         return format("http://localhost:%s", port);
     }
@@ -1,38 +1,374 @@
 package dev.widget.widgetservice.application.configuration;
 
 import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.BoardRing;
+import dev.widget.widgetservice.persistance.ColumnarWidgetDao;
+import dev.widget.widgetservice.persistance.GapWidgetDao;
+import dev.widget.widgetservice.persistance.IdGenerator;
 import dev.widget.widgetservice.persistance.InMemoryWidgetDao;
+import dev.widget.widgetservice.persistance.MeteredWidgetDao;
+import dev.widget.widgetservice.persistance.MonitorWidgetLock;
+import dev.widget.widgetservice.persistance.OffHeapWidgetDao;
+import dev.widget.widgetservice.persistance.OptimisticWidgetLock;
+import dev.widget.widgetservice.persistance.ReadWriteWidgetLock;
+import dev.widget.widgetservice.persistance.SnapshotWidgetLock;
+import dev.widget.widgetservice.persistance.TimeOrderedIdGenerator;
+import dev.widget.widgetservice.persistance.TreeWidgetDao;
+import dev.widget.widgetservice.persistance.WidgetBoards;
 import dev.widget.widgetservice.persistance.WidgetDao;
+import dev.widget.widgetservice.persistance.WidgetLock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.coyote.http11.Http11NioProtocol;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.util.unit.DataSize;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anEmptyMap;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
-import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 
 @ExtendWith(MockitoExtension.class)
 class SpringConfigurationTest {
+    @Mock
+    AppConfiguration config;
+
     @Mock
     InMemoryWidgetDao inMemoryWidgetDao;
 
+    @Mock
+    ObjectProvider<InMemoryWidgetDao> inMemoryWidgetDaoProvider;
+
+    @Mock
+    TreeWidgetDao treeWidgetDao;
+
+    @Mock
+    ObjectProvider<TreeWidgetDao> treeWidgetDaoProvider;
+
+    @Mock
+    ColumnarWidgetDao columnarWidgetDao;
+
+    @Mock
+    ObjectProvider<ColumnarWidgetDao> columnarWidgetDaoProvider;
+
+    @Mock
+    OffHeapWidgetDao offHeapWidgetDao;
+
+    @Mock
+    ObjectProvider<OffHeapWidgetDao> offHeapWidgetDaoProvider;
+
+    @Mock
+    GapWidgetDao gapWidgetDao;
+
+    @Mock
+    ObjectProvider<GapWidgetDao> gapWidgetDaoProvider;
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     SpringConfiguration sut;
 
     @Test
-    void widgetDao() {
+    void widgetDao() throws Exception {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.IN_MEMORY);
+        when(inMemoryWidgetDaoProvider.getObject()).thenReturn(inMemoryWidgetDao);
+
+        // Act
+        WidgetDao<Widget> result = sut.widgetDao(config, inMemoryWidgetDaoProvider, treeWidgetDaoProvider,
+                columnarWidgetDaoProvider, offHeapWidgetDaoProvider, gapWidgetDaoProvider,
+                meterRegistry);
+
+        // Assert
+        assertThat(result, instanceOf(MeteredWidgetDao.class));
+        result.get("id");
+        verify(inMemoryWidgetDao).get("id"); // measures the selected storage
+        verifyNoInteractions(treeWidgetDaoProvider, columnarWidgetDaoProvider); // unused implementations are never created
+    }
+
+    @Test
+    void widgetDaoSelectsTree() throws Exception {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.TREE);
+        when(treeWidgetDaoProvider.getObject()).thenReturn(treeWidgetDao);
+
+        // Act
+        WidgetDao<Widget> result = sut.widgetDao(config, inMemoryWidgetDaoProvider, treeWidgetDaoProvider,
+                columnarWidgetDaoProvider, offHeapWidgetDaoProvider, gapWidgetDaoProvider,
+                meterRegistry);
+
+        // Assert
+        assertThat(result, instanceOf(MeteredWidgetDao.class));
+        result.get("id");
+        verify(treeWidgetDao).get("id"); // measures the selected storage
+        verifyNoInteractions(inMemoryWidgetDaoProvider, columnarWidgetDaoProvider);
+    }
+
+    @Test
+    void widgetDaoSelectsColumnar() throws Exception {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.COLUMNAR);
+        when(columnarWidgetDaoProvider.getObject()).thenReturn(columnarWidgetDao);
+
+        // Act
+        WidgetDao<Widget> result = sut.widgetDao(config, inMemoryWidgetDaoProvider, treeWidgetDaoProvider,
+                columnarWidgetDaoProvider, offHeapWidgetDaoProvider, gapWidgetDaoProvider,
+                meterRegistry);
+
+        // Assert
+        assertThat(result, instanceOf(MeteredWidgetDao.class));
+        result.get("id");
+        verify(columnarWidgetDao).get("id"); // measures the selected storage
+        verifyNoInteractions(inMemoryWidgetDaoProvider, treeWidgetDaoProvider);
+    }
+
+    @Test
+    void widgetDaoSelectsOffHeap() throws Exception {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.OFF_HEAP);
+        when(offHeapWidgetDaoProvider.getObject()).thenReturn(offHeapWidgetDao);
+
+        // Act
+        WidgetDao<Widget> result = sut.widgetDao(config, inMemoryWidgetDaoProvider, treeWidgetDaoProvider,
+                columnarWidgetDaoProvider, offHeapWidgetDaoProvider, gapWidgetDaoProvider,
+                meterRegistry);
+
+        // Assert
+        assertThat(result, instanceOf(MeteredWidgetDao.class));
+        result.get("id");
+        verify(offHeapWidgetDao).get("id"); // measures the selected storage
+        verifyNoInteractions(inMemoryWidgetDaoProvider, treeWidgetDaoProvider, columnarWidgetDaoProvider);
+    }
+
+    @Test
+    void widgetDaoSelectsGap() throws Exception {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.GAP);
+        when(gapWidgetDaoProvider.getObject()).thenReturn(gapWidgetDao);
+
+        // Act
+        WidgetDao<Widget> result = sut.widgetDao(config, inMemoryWidgetDaoProvider, treeWidgetDaoProvider,
+                columnarWidgetDaoProvider, offHeapWidgetDaoProvider, gapWidgetDaoProvider,
+                meterRegistry);
+
+        // Assert
+        assertThat(result, instanceOf(MeteredWidgetDao.class));
+        result.get("id");
+        verify(gapWidgetDao).get("id"); // measures the selected storage
+        verifyNoInteractions(inMemoryWidgetDaoProvider, treeWidgetDaoProvider, columnarWidgetDaoProvider,
+                offHeapWidgetDaoProvider);
+    }
+
+    @Test
+    void widgetDaoWrapsStorageWithWriteAheadLog(@TempDir final Path directory) throws Exception {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.IN_MEMORY);
+        when(config.getWalPath()).thenReturn(directory.resolve("widgets.wal").toString());
+        when(config.getWalFlushInterval()).thenReturn(Duration.ofMillis(1));
+        when(config.getWalBatchSize()).thenReturn(16);
+        when(config.getWalSegmentSize()).thenReturn(DataSize.ofMegabytes(1));
+        when(inMemoryWidgetDaoProvider.getObject()).thenReturn(inMemoryWidgetDao);
+
+        // Act
+        WidgetDao<Widget> result = sut.widgetDao(config, inMemoryWidgetDaoProvider, treeWidgetDaoProvider,
+                columnarWidgetDaoProvider, offHeapWidgetDaoProvider, gapWidgetDaoProvider,
+                meterRegistry);
+
+        // Assert
+        assertThat(result, instanceOf(MeteredWidgetDao.class));
+        assertThat(Files.exists(directory.resolve("widgets.wal")), is(true));
+        ((MeteredWidgetDao) result).close();
+    }
+
+    @Test
+    void widgetLock() {
+        // Arrange&Act&Assert
+        when(config.getConcurrency()).thenReturn(AppConfiguration.Concurrency.MONITOR);
+        assertThat(sut.widgetLock(config), instanceOf(MonitorWidgetLock.class));
+
+        when(config.getConcurrency()).thenReturn(AppConfiguration.Concurrency.READ_WRITE);
+        assertThat(sut.widgetLock(config), instanceOf(ReadWriteWidgetLock.class));
+
+        when(config.getConcurrency()).thenReturn(AppConfiguration.Concurrency.OPTIMISTIC);
+        assertThat(sut.widgetLock(config), instanceOf(OptimisticWidgetLock.class));
+
+        when(config.getConcurrency()).thenReturn(AppConfiguration.Concurrency.SNAPSHOT);
+        assertThat(sut.widgetLock(config), instanceOf(SnapshotWidgetLock.class));
+    }
+
+    @Test
+    void widgetLockMetrics() {
+        // Arrange
+        WidgetLock lock = new MonitorWidgetLock();
+        lock.write(() -> null);
+
+        // Act
+        sut.widgetLockMetrics(lock).bindTo(meterRegistry);
+
+        // Assert
+        assertThat(meterRegistry.get("widget.lock.wait").tag("access", "write").functionTimer().count(), is(1.0));
+        assertThat(meterRegistry.get("widget.lock.wait").tag("access", "read").functionTimer().count(), is(0.0));
+    }
+
+    @Test
+    void widgetBoards() throws Exception {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.OFF_HEAP);
+        when(config.getBoardIdleTimeout()).thenReturn(Duration.ZERO);
+        WidgetBoards boards = sut.widgetBoards(config, new IdGenerator(), Clock.systemUTC());
+        sut.widgetBoardsMetrics(boards).bindTo(meterRegistry);
+
+        // Act
+        Widget result = boards.get("board").create(Widget.builder().z(1).build());
+
+        // Assert
+        assertThat(boards.get("board").get(result.getId()), is(result));
+        assertThat(meterRegistry.get("widget.boards").tag("state", "loaded").gauge().value(), is(1.0));
+        boards.close();
+    }
+
+    @Test
+    void boardRing() {
+        // Arrange
+        when(config.getClusterNodes()).thenReturn(List.of("http://a:8080", "http://b:8080"));
+        when(config.getClusterNode()).thenReturn("http://a:8080");
+        when(config.getClusterSecret()).thenReturn("secret");
+        when(config.getClusterVirtualNodes()).thenReturn(16);
+
+        // Act
+        BoardRing result = sut.boardRing(config);
+
+        // Assert
+        assertThat(result.isClustered(), is(true));
+    }
+
+    @Test
+    void boardRingNeedsClusterSecret() {
+        // Arrange
+        when(config.getClusterNodes()).thenReturn(List.of("http://a:8080"));
+        when(config.getClusterNode()).thenReturn("http://a:8080");
+
+        // Act&Assert
+        assertThrows(IllegalStateException.class, () -> sut.boardRing(config));
+    }
+
+    @Test
+    void boardRingNeedsUrlOfThisNode() {
+        // Arrange
+        when(config.getClusterNodes()).thenReturn(List.of("http://a:8080"));
+
+        // Act&Assert
+        assertThrows(IllegalStateException.class, () -> sut.boardRing(config));
+    }
+
+    @Test
+    void widgetReplicaNeedsInMemoryStorage() {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.TREE);
+
+        // Act&Assert
+        IllegalStateException result = assertThrows(IllegalStateException.class,
+                () -> sut.widgetReplica(config, inMemoryWidgetDao, null, null, Clock.systemUTC()));
+        assertThat(result.getMessage(), containsString("in-memory"));
+    }
+
+    @Test
+    void virtualThreadsRejectMonitorConcurrency() {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.IN_MEMORY);
+        when(config.getConcurrency()).thenReturn(AppConfiguration.Concurrency.MONITOR);
+
+        // Act
+        IllegalStateException result = assertThrows(IllegalStateException.class, () -> sut.virtualThreads(config));
+
+        // Assert
+        assertThat(result.getMessage(), containsString("pins virtual threads"));
+    }
+
+    @Test
+    void virtualThreadsRejectSynchronizedStorage() {
+        // Arrange
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.TREE);
+
+        // Act&Assert
+        assertThrows(IllegalStateException.class, () -> sut.virtualThreads(config));
+    }
+
+    @Test
+    void virtualThreadsNeedJava21() {
+        // Arrange
+        assumeTrue(Runtime.version().feature() < 21);
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.IN_MEMORY);
+        when(config.getConcurrency()).thenReturn(AppConfiguration.Concurrency.SNAPSHOT);
+
+        // Act
+        IllegalStateException result = assertThrows(IllegalStateException.class, () -> sut.virtualThreads(config));
+
+        // Assert
+        assertThat(result.getMessage(), containsString("need Java 21"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void virtualThreadsHandleRequests() throws Exception {
+        // Arrange
+        assumeTrue(Runtime.version().feature() >= 21);
+        when(config.getStorage()).thenReturn(AppConfiguration.Storage.IN_MEMORY);
+        when(config.getConcurrency()).thenReturn(AppConfiguration.Concurrency.SNAPSHOT);
+        Http11NioProtocol protocol = new Http11NioProtocol();
+
+        // Act
+        ((TomcatProtocolHandlerCustomizer<Http11NioProtocol>) sut.virtualThreads(config)).customize(protocol);
+
+        // Assert
+        ExecutorService executor = (ExecutorService) protocol.getExecutor();
+        assertThat(executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get(),
+                is(true));
+    }
+
+    @Test
+    void widgetLookup() {
         // Arrange -- nothing!
 
         // Act
-        WidgetDao<Widget> result = sut.widgetDao(inMemoryWidgetDao);
+        Map<String, Widget> result = sut.widgetLookup();
 
         // Assert
-        assertThat(result, sameInstance(inMemoryWidgetDao)); // no logic in this method currently
+        assertThat(result, anEmptyMap());
+    }
+
+    @Test
+    void idGenerator() {
+        // Arrange&Act&Assert
+        when(config.getIds()).thenReturn(AppConfiguration.Ids.UUID);
+        assertThat(sut.idGenerator(config, Clock.systemUTC()).getClass(), is(IdGenerator.class));
+
+        when(config.getIds()).thenReturn(AppConfiguration.Ids.TIME_ORDERED);
+        when(config.getNodeId()).thenReturn(3);
+        assertThat(sut.idGenerator(config, Clock.systemUTC()), instanceOf(TimeOrderedIdGenerator.class));
     }
 
     @Test
@@ -45,4 +381,4 @@ class SpringConfigurationTest {
         // Assert
         assertThat(result, notNullValue()); // just a clock
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,282 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.persistance.BoardRing;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BoardForwardingTest {
+    private static final String SELF = "http://localhost:8081";
+    private static final String OTHER = "http://localhost:8082";
+    private static final String SECRET = "secret";
+
+    @Mock
+    HttpClient client;
+
+    @Mock
+    HttpResponse<InputStream> forwarded;
+
+    @Mock
+    HttpResponse<String> handedOver;
+
+    BoardRing ring = new BoardRing(List.of(SELF, OTHER), 128);
+
+    BoardForwarding sut;
+
+    @BeforeEach
+    void before() {
+        AppConfiguration config = new AppConfiguration();
+        config.setClusterNode(SELF);
+        config.setClusterSecret(SECRET);
+        sut = new BoardForwarding(ring, config, client, new ObjectMapper());
+    }
+
+    @Test
+    void ownBoardIsServedHere() throws Exception {
+        // Arrange
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/boards/" + board(SELF) + "/widgets");
+
+        // Act
+        boolean result = sut.preHandle(request, new MockHttpServletResponse(), null);
+
+        // Assert
+        assertThat(result, is(true));
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    void forwardedRequestIsServedHere() throws Exception {
+        // Arrange
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/boards/" + board(SELF) + "/widgets");
+        request.addHeader(BoardForwarding.FORWARDED_HEADER, OTHER);
+        request.addHeader(BoardForwarding.SECRET_HEADER, SECRET);
+
+        // Act
+        boolean result = sut.preHandle(request, new MockHttpServletResponse(), null);
+
+        // Assert
+        assertThat(result, is(true));
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void forwardedBoardOfOtherNodeIsTakenOverFromIt() throws Exception {
+        // Arrange
+        String board = board(OTHER);
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/boards/" + board + "/widgets");
+        request.addHeader(BoardForwarding.FORWARDED_HEADER, OTHER);
+        request.addHeader(BoardForwarding.SECRET_HEADER, SECRET);
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        when(handedOver.statusCode()).thenReturn(204);
+        when(client.send(captor.capture(), any(HttpResponse.BodyHandler.class))).thenReturn(handedOver);
+
+        // Act
+        boolean result = sut.preHandle(request, new MockHttpServletResponse(), null);
+
+        // Assert
+        assertThat(result, is(true));
+        assertThat(captor.getValue().uri().toString(), is(OTHER + "/cluster/boards/" + board + "/handoff"));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.FORWARDED_HEADER).orElse(null), is(SELF));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.SECRET_HEADER).orElse(null), is(SECRET));
+        assertThat(ring.isTakenOver(board), is(false)); // it is not the board of this node
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void boardOfPreviousOwnerIsTakenOverOnce() throws Exception {
+        // Arrange
+        String board = board(OTHER);
+        ring.setNodes(List.of(SELF));
+        when(handedOver.statusCode()).thenReturn(204);
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(handedOver);
+
+        // Act
+        boolean first = sut.preHandle(new MockHttpServletRequest("POST", "/boards/" + board + "/widgets"),
+                new MockHttpServletResponse(), null);
+        boolean second = sut.preHandle(new MockHttpServletRequest("POST", "/boards/" + board + "/widgets"),
+                new MockHttpServletResponse(), null);
+
+        // Assert
+        assertThat(first, is(true));
+        assertThat(second, is(true));
+        assertThat(ring.isTakenOver(board), is(true));
+        verify(client, times(1)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void takeOverRetriesWhileSourcePlacesBoardElsewhere() throws Exception {
+        // Arrange
+        when(handedOver.statusCode()).thenReturn(409, 409, 204);
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(handedOver);
+
+        // Act
+        ErrorResponse result = sut.takeOver("board", OTHER);
+
+        // Assert
+        assertThat(result, nullValue());
+        verify(client, times(3)).send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void boardIsUnavailableUntilItIsTakenOver() throws Exception {
+        // Arrange
+        String board = board(OTHER);
+        ring.setNodes(List.of(SELF));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenThrow(new ConnectException("refused"));
+
+        // Act
+        boolean result = sut.preHandle(new MockHttpServletRequest("POST", "/boards/" + board + "/widgets"),
+                response, null);
+
+        // Assert
+        assertThat(result, is(false));
+        assertThat(response.getStatus(), is(503));
+        assertThat(response.getContentAsString(), containsString(OTHER));
+        assertThat(ring.isTakenOver(board), is(false));
+    }
+
+    @Test
+    void handedOverBoardIsServedAsItComes() throws Exception {
+        // Arrange
+        ring.setNodes(List.of(SELF));
+        MockHttpServletRequest request = new MockHttpServletRequest("POST",
+                "/boards/" + board(SELF) + "/widgets/import");
+        request.addHeader(BoardForwarding.FORWARDED_HEADER, OTHER);
+        request.addHeader(BoardForwarding.SECRET_HEADER, SECRET);
+        request.addHeader(BoardForwarding.HANDOFF_HEADER, "true");
+
+        // Act
+        boolean result = sut.preHandle(request, new MockHttpServletResponse(), null);
+
+        // Assert
+        assertThat(result, is(true));
+        verifyNoInteractions(client);
+    }
+
+    @Test
+    void everythingIsServedHereWithoutCluster() {
+        // Arrange
+        ring.setNodes(List.of());
+
+        // Act&Assert
+        assertThat(sut.owner("/boards/board/widgets", null), nullValue());
+    }
+
+    @Test
+    void requestWithoutBoardIsServedHere() {
+        // Act&Assert
+        assertThat(sut.owner("/widgets", null), nullValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void boardOfOtherNodeIsForwardedToIt() throws Exception {
+        // Arrange
+        String path = "/boards/" + board(OTHER) + "/widgets";
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+        request.setQueryString("pageSize=10");
+        request.addHeader("If-None-Match", "\"1\"");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        when(forwarded.statusCode()).thenReturn(200);
+        when(forwarded.headers()).thenReturn(HttpHeaders.of(Map.of("ETag", List.of("\"2\"")), (name, value) -> true));
+        when(forwarded.body()).thenReturn(new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        when(client.send(captor.capture(), any(HttpResponse.BodyHandler.class))).thenReturn(forwarded);
+
+        // Act
+        boolean result = sut.preHandle(request, response, null);
+
+        // Assert
+        assertThat(result, is(false));
+        assertThat(captor.getValue().uri().toString(), is(OTHER + path + "?pageSize=10"));
+        assertThat(captor.getValue().headers().firstValue("If-None-Match").orElse(null), is("\"1\""));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.FORWARDED_HEADER).orElse(null), is(SELF));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.SECRET_HEADER).orElse(null), is(SECRET));
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeader("ETag"), is("\"2\""));
+        assertThat(response.getContentAsString(), is("[]"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void marksWithoutSecretAreNotTrustedNorPassedOn() throws Exception {
+        // Arrange
+        String path = "/boards/" + board(OTHER) + "/widgets/import";
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        request.addHeader(BoardForwarding.FORWARDED_HEADER, "http://attacker:8080");
+        request.addHeader(BoardForwarding.HANDOFF_HEADER, "true");
+        request.addHeader(BoardForwarding.SECRET_HEADER, "guess");
+        when(forwarded.statusCode()).thenReturn(204);
+        when(forwarded.headers()).thenReturn(HttpHeaders.of(Map.of(), (name, value) -> true));
+        when(forwarded.body()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        when(client.send(captor.capture(), any(HttpResponse.BodyHandler.class))).thenReturn(forwarded);
+
+        // Act
+        boolean result = sut.preHandle(request, new MockHttpServletResponse(), null);
+
+        // Assert
+        assertThat(result, is(false));
+        assertThat(captor.getValue().uri().toString(), is(OTHER + path));
+        assertThat(captor.getValue().headers().allValues(BoardForwarding.FORWARDED_HEADER), is(List.of(SELF)));
+        assertThat(captor.getValue().headers().allValues(BoardForwarding.SECRET_HEADER), is(List.of(SECRET)));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.HANDOFF_HEADER).isPresent(), is(false));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void unavailableOwnerIsBadGateway() throws Exception {
+        // Arrange
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/boards/" + board(OTHER) + "/widgets");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenThrow(new ConnectException("refused"));
+
+        // Act
+        boolean result = sut.preHandle(request, response, null);
+
+        // Assert
+        assertThat(result, is(false));
+        assertThat(response.getStatus(), is(502));
+        assertThat(response.getContentAsString(), containsString(OTHER));
+    }
+
+    private String board(final String owner) {
+        return IntStream.range(0, 1000)
+                .mapToObj(i -> "board-" + i)
+                .filter(board -> ring.owner(board).equals(owner))
+                .findFirst()
+                .orElseThrow();
+    }
+}
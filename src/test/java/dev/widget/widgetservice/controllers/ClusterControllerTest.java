@@ -0,0 +1,269 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.persistance.BoardRing;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterControllerTest {
+    private static final String SELF = "http://localhost:8081";
+    private static final String OTHER = "http://localhost:8082";
+    private static final String SECRET = "secret";
+
+    @Mock
+    WidgetBoards boards;
+
+    @Mock
+    HttpClient client;
+
+    @Mock
+    HttpResponse<String> imported;
+
+    BoardRing ring = new BoardRing(List.of(SELF), 128);
+
+    AppConfiguration config = new AppConfiguration();
+
+    ClusterController sut;
+
+    @BeforeEach
+    void before() {
+        config.setClusterNode(SELF);
+        config.setClusterSecret(SECRET);
+        sut = new ClusterController(ring, boards, config, client, new ObjectMapper());
+    }
+
+    @AfterEach
+    void after() throws Exception {
+        sut.stop();
+    }
+
+    @Test
+    void getNodesReturnsNodesOfRing() {
+        // Act
+        ResponseEntity<List<String>> result = sut.getNodes();
+
+        // Assert
+        assertThat(result.getBody(), contains(SELF));
+    }
+
+    @Test
+    void setNodesRejectsNodeWhichIsNotBaseUrl() {
+        // Act
+        ResponseEntity result = sut.setNodes(SECRET, null, List.of(SELF, "localhost:8082/widgets"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), containsString("localhost:8082/widgets"));
+        assertThat(ring.getNodes(), contains(SELF));
+    }
+
+    @Test
+    void setNodesRejectsDuplicates() {
+        // Act
+        ResponseEntity result = sut.setNodes(SECRET, null, List.of(SELF, SELF));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    void setNodesNeedsClusterSecret() {
+        // Act
+        ResponseEntity wrong = sut.setNodes("guess", OTHER, List.of(SELF, OTHER));
+        ResponseEntity missing = sut.setNodes(null, null, List.of(SELF, OTHER));
+
+        // Assert
+        assertThat(wrong.getStatusCode(), is(HttpStatus.FORBIDDEN));
+        assertThat(missing.getStatusCode(), is(HttpStatus.FORBIDDEN));
+        assertThat(ring.getNodes(), contains(SELF));
+    }
+
+    @Test
+    void setNodesRejectsListWithoutThisNode() {
+        // Act
+        ResponseEntity result = sut.setNodes(SECRET, null, List.of(OTHER));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), containsString(SELF));
+        assertThat(ring.getNodes(), contains(SELF));
+    }
+
+    @Test
+    void setNodesPassedOnMayDropThisNode() {
+        // Act
+        ResponseEntity result = sut.setNodes(SECRET, OTHER, List.of(OTHER));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.ACCEPTED));
+        assertThat(ring.getNodes(), contains(OTHER));
+    }
+
+    @Test
+    void setNodesNeedsUrlOfThisNode() {
+        // Arrange
+        AppConfiguration unnamed = new AppConfiguration();
+        unnamed.setClusterSecret(SECRET);
+        sut = new ClusterController(ring, boards, unnamed, client, new ObjectMapper());
+
+        // Act
+        ResponseEntity result = sut.setNodes(SECRET, null, List.of(SELF, OTHER));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CONFLICT));
+    }
+
+    @Test
+    void setNodesReplacesNodesOfRing() {
+        // Act
+        ResponseEntity result = sut.setNodes(SECRET, OTHER, List.of(SELF, OTHER));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.ACCEPTED));
+        assertThat(ring.getNodes(), contains(SELF, OTHER));
+    }
+
+    @Test
+    void handOffKeepsOwnBoards() throws Exception {
+        // Arrange
+        when(boards.ids()).thenReturn(Set.of("first", "second"));
+
+        // Act
+        int result = sut.handOff();
+
+        // Assert
+        assertThat(result, is(0));
+        verify(boards, never()).release(anyString(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void handOffImportsBoardIntoItsOwner() throws Exception {
+        // Arrange
+        ring.setNodes(List.of(OTHER));
+        Widget widget = Widget.builder().id("id").z(1).build();
+        when(boards.ids()).thenReturn(Set.of("board"));
+        when(boards.release(eq("board"), any())).thenAnswer(invocation ->
+                invocation.<Predicate<List<Widget>>>getArgument(1).test(List.of(widget)));
+        when(imported.statusCode()).thenReturn(204);
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        when(client.send(captor.capture(), any(HttpResponse.BodyHandler.class))).thenReturn(imported);
+
+        // Act
+        int result = sut.handOff();
+
+        // Assert
+        assertThat(result, is(0));
+        assertThat(captor.getValue().uri().toString(), is(OTHER + "/boards/board/widgets/import"));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.FORWARDED_HEADER).orElse(null), is(SELF));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.HANDOFF_HEADER).isPresent(), is(true));
+        assertThat(captor.getValue().headers().firstValue(BoardForwarding.SECRET_HEADER).orElse(null), is(SECRET));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void handOffKeepsBoardIfOwnerIsNotAvailable() throws Exception {
+        // Arrange
+        ring.setNodes(List.of(OTHER));
+        when(boards.ids()).thenReturn(Set.of("board"));
+        when(boards.release(eq("board"), any())).thenAnswer(invocation ->
+                invocation.<Predicate<List<Widget>>>getArgument(1).test(List.of(Widget.builder().build())));
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+                .thenThrow(new ConnectException("refused"));
+
+        // Act
+        int result = sut.handOff();
+
+        // Assert
+        assertThat(result, is(1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void handOverImportsBoardIntoNodeWhichAsks() throws Exception {
+        // Arrange
+        ring.setNodes(List.of(OTHER));
+        when(boards.release(eq("board"), any())).thenAnswer(invocation ->
+                invocation.<Predicate<List<Widget>>>getArgument(1).test(List.of(Widget.builder().build())));
+        when(imported.statusCode()).thenReturn(204);
+        ArgumentCaptor<HttpRequest> captor = ArgumentCaptor.forClass(HttpRequest.class);
+        when(client.send(captor.capture(), any(HttpResponse.BodyHandler.class))).thenReturn(imported);
+
+        // Act
+        ResponseEntity result = sut.handOver(SECRET, OTHER, "board").get();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        assertThat(captor.getValue().uri().toString(), is(OTHER + "/boards/board/widgets/import"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void handOverErrorsIfNodeWhichAsksRefusesBoard() throws Exception {
+        // Arrange
+        ring.setNodes(List.of(OTHER));
+        when(boards.release(eq("board"), any())).thenAnswer(invocation ->
+                invocation.<Predicate<List<Widget>>>getArgument(1).test(List.of(Widget.builder().build())));
+        when(imported.statusCode()).thenReturn(409);
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(imported);
+
+        // Act
+        ResponseEntity result = sut.handOver(SECRET, OTHER, "board").get();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_GATEWAY));
+    }
+
+    @Test
+    void handOverNeedsClusterSecret() throws Exception {
+        // Arrange
+        ring.setNodes(List.of(OTHER));
+
+        // Act
+        ResponseEntity result = sut.handOver("guess", OTHER, "board").get();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.FORBIDDEN));
+        verify(boards, never()).release(anyString(), any());
+    }
+
+    @Test
+    void handOverConflictsWhileBoardBelongsElsewhereHere() throws Exception {
+        // Act
+        ResponseEntity result = sut.handOver(SECRET, OTHER, "board").get();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CONFLICT));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), containsString(SELF));
+        verify(boards, never()).release(anyString(), any());
+    }
+}
@@ -0,0 +1,148 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.simple.SimpleConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+
+class EndpointMetricsTest {
+    MockClock clock;
+    SimpleMeterRegistry registry;
+    EndpointMetrics sut;
+
+    @BeforeEach
+    void before() {
+        clock = new MockClock();
+        registry = new SimpleMeterRegistry(SimpleConfig.DEFAULT, clock);
+        sut = new EndpointMetrics(registry);
+    }
+
+    @Test
+    void requestIsTimedByEndpoint() throws Exception {
+        // Arrange
+        HandlerMethod handler = handler("getWidget");
+
+        // Act
+        handle(handler, 200, Duration.ofMillis(3));
+        handle(handler, 200, Duration.ofMillis(5));
+
+        // Assert
+        assertThat(registry.get("widget.http.requests").tag("endpoint", "getWidget").timer().count(), is(2L));
+        assertThat(registry.get("widget.http.requests").tag("endpoint", "getWidget").timer()
+                .totalTime(TimeUnit.MILLISECONDS), is(8.0));
+        assertThat(registry.get("widget.http.errors").tag("endpoint", "getWidget").tag("status", "404").counter()
+                .count(), is(0.0));
+    }
+
+    @Test
+    void errorsAreCountedByStatus() throws Exception {
+        // Arrange
+        HandlerMethod handler = handler("removeWidget");
+
+        // Act
+        handle(handler, 204, Duration.ZERO);
+        handle(handler, 410, Duration.ZERO);
+        handle(handler, 410, Duration.ZERO);
+        handle(handler, 400, Duration.ZERO);
+        handle(handler, 507, Duration.ZERO);
+
+        // Assert
+        assertThat(registry.get("widget.http.requests").tag("endpoint", "removeWidget").timer().count(), is(5L));
+        assertThat(registry.get("widget.http.errors").tag("endpoint", "removeWidget").tag("status", "410").counter()
+                .count(), is(2.0));
+        assertThat(registry.get("widget.http.errors").tag("endpoint", "removeWidget").tag("status", "400").counter()
+                .count(), is(1.0));
+        assertThat(registry.get("widget.http.errors").tag("endpoint", "removeWidget").tag("status", "404").counter()
+                .count(), is(0.0));
+    }
+
+    @Test
+    void reactiveRequestIsTimedByEndpoint() throws Exception {
+        // Arrange
+        HandlerMethod handler = handler("removeWidget");
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.delete("/widget/id"));
+        WebFilterChain chain = filtered -> {
+            filtered.getAttributes().put(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, handler);
+            filtered.getResponse().setStatusCode(HttpStatus.GONE);
+            clock.add(Duration.ofMillis(4));
+            return Mono.empty();
+        };
+
+        // Act
+        sut.filter(exchange, chain).block();
+
+        // Assert
+        assertThat(registry.get("widget.http.requests").tag("endpoint", "removeWidget").timer()
+                .totalTime(TimeUnit.MILLISECONDS), is(4.0));
+        assertThat(registry.get("widget.http.errors").tag("endpoint", "removeWidget").tag("status", "410").counter()
+                .count(), is(1.0));
+    }
+
+    @Test
+    void unmatchedReactiveRequestIsSkipped() {
+        // Arrange
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/favicon.ico"));
+
+        // Act
+        sut.filter(exchange, filtered -> Mono.empty()).block();
+
+        // Assert
+        assertThat(registry.getMeters(), empty());
+    }
+
+    @Test
+    void otherHandlersAreSkipped() throws Exception {
+        // Arrange
+        HandlerMethod handler = new HandlerMethod(new Object(), Object.class.getMethod("toString"));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        // Act
+        sut.preHandle(request, new MockHttpServletResponse(), handler);
+        sut.afterCompletion(request, new MockHttpServletResponse(), handler, null);
+        sut.preHandle(request, new MockHttpServletResponse(), "static resource");
+
+        // Assert
+        assertThat(registry.getMeters(), empty());
+    }
+
+    private void handle(final HandlerMethod handler, final int status, final Duration duration) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertThat(sut.preHandle(request, response, handler), is(true));
+        clock.add(duration);
+        response.setStatus(status);
+        sut.afterCompletion(request, response, handler, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HandlerMethod handler(final String name) throws NoSuchMethodException {
+        for (Method method : WidgetController.class.getMethods()) {
+            if (method.getName().equals(name)) {
+                return new HandlerMethod(new WidgetController(null, null, new ObjectMapper(), null, null,
+                        mock(ObjectProvider.class)), method);
+            }
+        }
+        throw new NoSuchMethodException(name);
+    }
+}
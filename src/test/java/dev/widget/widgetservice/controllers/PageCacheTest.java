@@ -0,0 +1,155 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.models.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class PageCacheTest {
+    private static final List<Widget> PAGE = List.of(Widget.builder().id("1").z(1).build(),
+            Widget.builder().id("2").z(2).build());
+
+    ObjectMapper mapper = new ObjectMapper();
+
+    PageCache sut = new PageCache(1 << 20, mapper);
+
+    @Test
+    void getReturnsNothingBeforeLoad() {
+        // Act
+        PageCache.Page result = sut.get(PageCache.offset(2, 0), 1);
+
+        // Assert
+        assertThat(result, nullValue());
+    }
+
+    @Test
+    void loadSerializesPage() throws Exception {
+        // Act
+        PageCache.Page result = sut.load(PageCache.offset(2, 0), 1, () -> PAGE);
+
+        // Assert
+        assertThat(result.getBody(), is(mapper.writeValueAsBytes(PAGE)));
+        assertThat(sut.misses(), is(1L));
+    }
+
+    @Test
+    void getReturnsPageLoadedAtSameVersion() {
+        // Arrange
+        PageCache.Page page = sut.load(PageCache.offset(2, 0), 1, () -> PAGE);
+
+        // Act
+        PageCache.Page result = sut.get(PageCache.offset(2, 0), 1);
+
+        // Assert
+        assertThat(result, sameInstance(page));
+        assertThat(sut.hits(), is(1L));
+        assertThat(sut.hitRatio(), is(0.5));
+    }
+
+    @Test
+    void getReturnsNothingAfterChange() {
+        // Arrange
+        sut.load(PageCache.offset(2, 0), 1, () -> PAGE);
+
+        // Act
+        PageCache.Page result = sut.get(PageCache.offset(2, 0), 2);
+
+        // Assert
+        assertThat(result, nullValue());
+    }
+
+    @Test
+    void getTellsPagesApart() {
+        // Arrange
+        sut.load(PageCache.offset(2, 0), 1, () -> PAGE);
+
+        // Act&Assert
+        assertThat(sut.get(PageCache.offset(2, 2), 1), nullValue());
+        assertThat(sut.get(PageCache.offset(3, 0), 1), nullValue());
+        assertThat(sut.get(PageCache.after(2, 0), 1), nullValue());
+    }
+
+    @Test
+    void loadKeepsBodyOfUnchangedPage() {
+        // Arrange
+        PageCache.Page page = sut.load(PageCache.offset(2, 0), 1, () -> PAGE);
+
+        // Act
+        PageCache.Page result = sut.load(PageCache.offset(2, 0), 2, () -> List.copyOf(PAGE));
+
+        // Assert
+        assertThat(result.getBody(), sameInstance(page.getBody()));
+        assertThat(result.getVersion(), is(2L));
+        assertThat(sut.revalidations(), is(1L));
+        assertThat(sut.get(PageCache.offset(2, 0), 2), sameInstance(result));
+    }
+
+    @Test
+    void loadSerializesChangedPage() throws Exception {
+        // Arrange
+        sut.load(PageCache.offset(2, 0), 1, () -> PAGE);
+        List<Widget> changed = List.of(PAGE.get(0), PAGE.get(1).toBuilder().x(5).build());
+
+        // Act
+        PageCache.Page result = sut.load(PageCache.offset(2, 0), 2, () -> changed);
+
+        // Assert
+        assertThat(result.getBody(), is(mapper.writeValueAsBytes(changed)));
+        assertThat(sut.misses(), is(2L));
+    }
+
+    @Test
+    void loadDoesNotReplacePageOfLaterVersion() {
+        // Arrange
+        PageCache.Page later = sut.load(PageCache.offset(2, 0), 5, () -> PAGE);
+
+        // Act
+        sut.load(PageCache.offset(2, 0), 4, () -> PAGE);
+
+        // Assert
+        assertThat(sut.get(PageCache.offset(2, 0), 5), sameInstance(later));
+    }
+
+    @Test
+    void leastRecentlyUsedPagesAreEvictedBeyondCapacity() throws Exception {
+        // Arrange
+        long weight = 2L * mapper.writeValueAsBytes(PAGE).length;
+        sut = new PageCache(2 * weight, mapper);
+        sut.load(PageCache.offset(2, 0), 1, () -> PAGE);
+        sut.load(PageCache.offset(2, 2), 1, () -> PAGE);
+        sut.get(PageCache.offset(2, 0), 1);
+
+        // Act
+        sut.load(PageCache.offset(2, 4), 1, () -> PAGE);
+
+        // Assert
+        assertThat(sut.evictions(), is(1L));
+        assertThat(sut.size(), is(2));
+        assertThat(sut.weight(), is(2 * weight));
+        assertThat(sut.get(PageCache.offset(2, 0), 1), notNullValue());
+        assertThat(sut.get(PageCache.offset(2, 2), 1), nullValue());
+    }
+
+    @Test
+    void pageLargerThanCapacityIsNotCached() {
+        // Arrange
+        sut = new PageCache(10, mapper);
+        AtomicInteger loads = new AtomicInteger();
+
+        // Act
+        PageCache.Page result = sut.load(PageCache.offset(2, 0), 1, () -> {
+            loads.incrementAndGet();
+            return PAGE;
+        });
+
+        // Assert
+        assertThat(result.getWidgets(), is(PAGE));
+        assertThat(sut.size(), is(0));
+        assertThat(sut.weight(), is(0L));
+    }
+}
@@ -0,0 +1,659 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import dev.widget.widgetservice.models.WidgetOperation;
+import dev.widget.widgetservice.persistance.Area;
+import dev.widget.widgetservice.persistance.CapacityExceededException;
+import dev.widget.widgetservice.persistance.Operation;
+import dev.widget.widgetservice.persistance.VersionMismatchException;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import dev.widget.widgetservice.persistance.WidgetChangeFeed;
+import dev.widget.widgetservice.persistance.WidgetDao;
+import dev.widget.widgetservice.persistance.WidgetNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.http.server.reactive.MockServerHttpResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveWidgetControllerTest {
+    @Mock
+    WidgetDao<Widget> dao;
+
+    @Mock
+    AppConfiguration config;
+
+    @Mock
+    WidgetBoards boards;
+
+    @Mock
+    ObjectProvider<PageCache> pageCache;
+
+    ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+    MockServerHttpResponse response = new MockServerHttpResponse();
+
+    WidgetChangeFeed feed = new WidgetChangeFeed(4, Schedulers.immediate(), 100);
+
+    private ReactiveWidgetController sut;
+
+    @BeforeEach
+    void before() {
+        sut = new ReactiveWidgetController(dao, config, mapper, Schedulers.immediate(), feed, boards, pageCache);
+    }
+
+    @Test
+    void createWidgetCreatesWidget() {
+        // Arrange
+        Widget src = randomWidget();
+        Widget created = src.toBuilder().id("id").build();
+        when(dao.create(src)).thenReturn(created);
+
+        // Act
+        ResponseEntity result = sut.createWidget(null, src, UriComponentsBuilder.fromUriString("http://host")).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CREATED));
+        assertThat(result.getHeaders().getLocation().toString(), is("http://host/widget/id"));
+        assertThat(result.getBody(), sameInstance(created));
+    }
+
+    @Test
+    void createWidgetReturnErrorOnInvalidSource() {
+        // Act
+        ResponseEntity result = sut.createWidget(null, new Widget(), UriComponentsBuilder.newInstance()).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void createWidgetReturnsInsufficientStorageWhenFull() {
+        // Arrange
+        Widget src = randomWidget();
+        when(dao.create(src)).thenThrow(new CapacityExceededException(10));
+
+        // Act
+        ResponseEntity result = sut.createWidget(null, src, UriComponentsBuilder.newInstance()).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.INSUFFICIENT_STORAGE));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Storage capacity of 10 widgets is exhausted"));
+    }
+
+    @Test
+    void storageIsCalledOnStorageScheduler() {
+        // Arrange
+        Scheduler scheduler = Schedulers.newSingle("test-storage");
+        sut = new ReactiveWidgetController(dao, config, mapper, scheduler, feed, boards, pageCache);
+        String[] thread = new String[1];
+        when(dao.get("id")).thenAnswer(invocation -> {
+            thread[0] = Thread.currentThread().getName();
+            return randomWidget();
+        });
+
+        // Act
+        try {
+            sut.getWidget(null, "id", null).block();
+        } finally {
+            scheduler.dispose();
+        }
+
+        // Assert
+        assertThat(thread[0], containsString("test-storage"));
+    }
+
+    @Test
+    void getWidgetGetsWidgetWithStoreAndWidgetVersionAsETag() {
+        // Arrange
+        Widget widget = randomWidget();
+        Widget versioned = widget.toBuilder().version(3L).build();
+        when(dao.version()).thenReturn(42L);
+        when(dao.get("versioned")).thenReturn(versioned);
+        when(dao.get("id")).thenReturn(widget);
+
+        // Act
+        ResponseEntity result = sut.getWidget(null, "versioned", null).block();
+        ResponseEntity unversioned = sut.getWidget(null, "id", null).block();
+
+        // Assert
+        assertThat(result.getHeaders().getETag(), is("\"42-3\""));
+        assertThat(unversioned.getHeaders().getETag(), is("\"42\""));
+    }
+
+    @Test
+    void getWidgetGetsWidgetWithStoreVersionAsETag() {
+        // Arrange
+        Widget widget = randomWidget();
+        when(dao.version()).thenReturn(42L);
+        when(dao.get("id")).thenReturn(widget);
+
+        // Act
+        ResponseEntity result = sut.getWidget(null, "id", null).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getETag(), is("\"42\""));
+        assertThat(result.getBody(), sameInstance(widget));
+    }
+
+    @Test
+    void getWidgetReturnsNotFoundWhenWidgetNotFound() {
+        // Act
+        ResponseEntity result = sut.getWidget(null, "id", null).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    void getAllWidgetsStreamsPageInChunks() throws IOException {
+        // Arrange
+        List<Widget> widgets = IntStream.range(0, 150).mapToObj(i -> randomWidget()).collect(Collectors.toList());
+        when(config.getMaxPageSize()).thenReturn(500);
+        when(dao.version()).thenReturn(7L);
+        when(dao.getAll(150, 3)).thenReturn(widgets);
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getAllWidgets(null, 150, 3, null, response).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getETag(), is("\"7\""));
+        assertThat(result.getHeaders().getContentType(), is(MediaType.APPLICATION_JSON));
+        assertThat(result.getBody().count().block(), is(3L));
+        assertThat(List.of(mapper.readValue(body(result), Widget[].class)), is(widgets));
+    }
+
+    @Test
+    void getAllWidgetsSendsCachedPageWithoutLoadingIt() throws IOException {
+        // Arrange
+        PageCache cache = new PageCache(1 << 20, mapper);
+        when(pageCache.getIfAvailable()).thenReturn(cache);
+        sut = new ReactiveWidgetController(dao, config, mapper, Schedulers.immediate(), feed, boards, pageCache);
+        List<Widget> widgets = IntStream.range(0, 3).mapToObj(i -> randomWidget()).collect(Collectors.toList());
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.version()).thenReturn(7L);
+        when(dao.getAll(3, 0)).thenReturn(widgets);
+        sut.getAllWidgets(null, 3, 0, null, response).block();
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getAllWidgets(null, 3, 0, null, response).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getETag(), is("\"7\""));
+        assertThat(List.of(mapper.readValue(body(result), Widget[].class)), is(widgets));
+        verify(dao, times(1)).getAll(3, 0);
+        assertThat(cache.hits(), is(1L));
+    }
+
+    @Test
+    void getWidgetsAfterSendsCachedPageWithNextCursor() throws IOException {
+        // Arrange
+        when(pageCache.getIfAvailable()).thenReturn(new PageCache(1 << 20, mapper));
+        sut = new ReactiveWidgetController(dao, config, mapper, Schedulers.immediate(), feed, boards, pageCache);
+        List<Widget> widgets = List.of(randomWidget().toBuilder().z(4).build(), randomWidget().toBuilder().z(9).build());
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.getAllAfter(2, 3)).thenReturn(widgets);
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getWidgetsAfter(null, 2, 3, null, response).block();
+
+        // Assert
+        assertThat(result.getHeaders().getFirst("X-Next-Cursor"), is("9"));
+        assertThat(List.of(mapper.readValue(body(result), Widget[].class)), is(widgets));
+    }
+
+    @Test
+    void getAllWidgetsStreamsSingleWidget() throws IOException {
+        // Arrange
+        Widget widget = randomWidget();
+        when(config.getDefaultPageSize()).thenReturn(10);
+        when(config.getMaxPageSize()).thenReturn(500);
+        when(dao.getAll(10, 0)).thenReturn(List.of(widget));
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getAllWidgets(null, null, null, null, response).block();
+
+        // Assert
+        assertThat(mapper.readValue(body(result), Widget[].class), arrayContaining(widget));
+    }
+
+    @Test
+    void getAllWidgetsErrorsOnTooBigPageSize() throws IOException {
+        // Arrange
+        when(config.getMaxPageSize()).thenReturn(10);
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getAllWidgets(null, 11, 0, null, response).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(mapper.readTree(body(result)).get("message").asText(),
+                is("Requested page size 11 is more than maximum page size 10"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void getAllWidgetsReturnsNoContentWhenNoWidgets() {
+        // Arrange
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.getAll(5, 0)).thenReturn(List.of());
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getAllWidgets(null, 5, 0, null, response).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        assertThat(result.getBody(), nullValue());
+    }
+
+    @Test
+    void getWidgetsAfterReturnsPageWithNextCursor() throws IOException {
+        // Arrange
+        List<Widget> widgets = List.of(randomWidget().toBuilder().z(5).build(), randomWidget().toBuilder().z(9).build());
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.getAllAfter(2, 3)).thenReturn(widgets);
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getWidgetsAfter(null, 2, 3, null, response).block();
+
+        // Assert
+        assertThat(result.getHeaders().getFirst("X-Next-Cursor"), is("9"));
+        assertThat(List.of(mapper.readValue(body(result), Widget[].class)), is(widgets));
+    }
+
+    @Test
+    void getWidgetsInAreaOmitsNextCursorOnLastPage() throws IOException {
+        // Arrange
+        List<Widget> widgets = List.of(randomWidget());
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.getAllInArea(Area.of(0, 0, 10, 10), true, 2, Integer.MIN_VALUE)).thenReturn(widgets);
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getWidgetsInArea(null, 0, 0, 10, 10, true, 2, null, null, response).block();
+
+        // Assert
+        assertThat(result.getHeaders().containsKey("X-Next-Cursor"), is(false));
+        assertThat(List.of(mapper.readValue(body(result), Widget[].class)), is(widgets));
+    }
+
+    @Test
+    void exportWidgetsStreamsSnapshotAsLinesInChunks() throws IOException {
+        // Arrange
+        List<Widget> widgets = IntStream.range(0, 150).mapToObj(i -> randomWidget()).collect(Collectors.toList());
+        when(dao.version()).thenReturn(7L, 8L); // a write comes between ETag and snapshot
+        snapshot(widgets);
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.exportWidgets(null, null, response).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getETag(), is("\"7\""));
+        assertThat(result.getHeaders().getFirst("X-Change-Sequence"), is("100"));
+        assertThat(result.getHeaders().getFirst("X-Store-Version"), is("8"));
+        assertThat(result.getHeaders().getContentType(), is(MediaType.parseMediaType("application/x-ndjson")));
+        assertThat(result.getBody().count().block(), is(3L));
+        List<Widget> lines = new ArrayList<>();
+        for (String line : body(result).split("\n")) {
+            lines.add(mapper.readValue(line, Widget.class));
+        }
+        assertThat(lines, is(widgets));
+        assertThat(body(result).charAt(body(result).length() - 1), is('\n'));
+    }
+
+    @Test
+    void exportWidgetsStreamsNothingWhenNoWidgets() {
+        // Arrange
+        snapshot(List.of());
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.exportWidgets(null, null, response).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody().count().block(), is(0L));
+    }
+
+    @Test
+    void getWidgetReturnsNotModifiedWithoutLoadingWhenETagIsCurrent() {
+        // Arrange
+        when(dao.version()).thenReturn(42L);
+
+        // Act
+        ResponseEntity result = sut.getWidget(null, "id", "\"42\"").block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(result.getHeaders().getETag(), is("\"42\""));
+        verify(dao, never()).get(any());
+    }
+
+    @Test
+    void getWidgetsAfterReturnsNotModifiedWithoutLoadingWhenETagIsCurrent() {
+        // Arrange
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.version()).thenReturn(7L);
+
+        // Act
+        ResponseEntity<Flux<DataBuffer>> result = sut.getWidgetsAfter(null, 2, 3, "W/\"7\"", response).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(result.getBody(), nullValue());
+        verify(dao, never()).getAllAfter(anyInt(), anyInt());
+    }
+
+    @Test
+    void getChangesStreamsChangesAfterLastEventId() {
+        // Arrange
+        Widget widget = randomWidget().toBuilder().id("id").build();
+        feed.accept(List.of(WidgetChange.created(widget), WidgetChange.deleted("id")));
+        List<ServerSentEvent<WidgetChange>> events = new ArrayList<>();
+
+        // Act
+        sut.getChanges(100L, null).subscribe(events::add);
+
+        // Assert
+        assertThat(events, hasSize(1));
+        assertThat(events.get(0).id(), is("101"));
+        assertThat(events.get(0).event(), is("deleted"));
+        assertThat(events.get(0).data().getId(), is("id"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void importWidgetsRestoresThemSortedByZ() {
+        // Arrange
+        Widget first = randomWidget().toBuilder().id("1").z(-5).build();
+        Widget second = randomWidget().toBuilder().id("2").z(8).build();
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, Flux.just(second, first)).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        verify(dao).restoreAll(List.of(first, second));
+    }
+
+    @Test
+    void importWidgetsErrorsOnMissingParams() {
+        // Act
+        ResponseEntity result = sut.importWidgets(null, Flux.just(randomWidget())).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget 0 missing required params"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void importWidgetsErrorsOnStoredId() {
+        // Arrange
+        Widget stored = randomWidget().toBuilder().id("1").build();
+        when(dao.size()).thenReturn(1);
+        when(dao.getAll(1, 0)).thenReturn(List.of(stored));
+        when(dao.get("1")).thenReturn(stored);
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, Flux.just(randomWidget().toBuilder().id("1").build())).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CONFLICT));
+        verify(dao, never()).restoreAll(any());
+    }
+
+    @Test
+    void importWidgetsRestoresThemChunkByChunk() {
+        // Arrange
+        List<Widget> widgets = IntStream.rangeClosed(0, WidgetController.IMPORT_CHUNK_SIZE)
+                .mapToObj(i -> randomWidget().toBuilder().id(Integer.toString(i)).z(i).build())
+                .collect(Collectors.toList());
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, Flux.fromIterable(widgets)).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        InOrder order = inOrder(dao);
+        order.verify(dao).restoreAll(widgets.subList(0, WidgetController.IMPORT_CHUNK_SIZE));
+        order.verify(dao).restoreAll(List.of(widgets.get(WidgetController.IMPORT_CHUNK_SIZE)));
+    }
+
+    @Test
+    void setWidgetUpdatesWidget() {
+        // Arrange
+        Widget widget = randomWidget();
+        Widget updated = widget.toBuilder().id("id").build();
+        when(dao.update(widget)).thenReturn(updated);
+
+        // Act
+        ResponseEntity result = sut.setWidget(null, "id", widget, null).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody(), sameInstance(updated));
+        assertThat(widget.getId(), is("id"));
+    }
+
+    @Test
+    void setWidgetErrorsWhenNotFound() {
+        // Act
+        ResponseEntity result = sut.setWidget(null, "id", randomWidget(), null).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    void setWidgetExpectsVersionFromIfMatch() {
+        // Arrange
+        Widget widget = randomWidget().toBuilder().version(7L).build();
+        when(dao.update(widget)).thenReturn(widget);
+
+        // Act
+        ResponseEntity result = sut.setWidget(null, "id", widget, "\"3\"").block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(widget.getVersion(), is(3L));
+    }
+
+    @Test
+    void setWidgetErrorsOnVersionMismatch() {
+        // Arrange
+        when(dao.update(any())).thenThrow(new VersionMismatchException("id", 3, 4L));
+
+        // Act
+        ResponseEntity result = sut.setWidget(null, "id", randomWidget(), "\"3\"").block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.PRECONDITION_FAILED));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget [id] has version 4, not 3"));
+    }
+
+    @Test
+    void setWidgetErrorsOnMalformedIfMatch() {
+        // Act
+        ResponseEntity result = sut.setWidget(null, "id", randomWidget(), "\"three\"").block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void setWidgetErrorsOnIdMismatch() {
+        // Act
+        ResponseEntity result = sut.setWidget(null, "id", randomWidget().toBuilder().id("other").build(), null).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void removeWidgetRemovesWidget() {
+        // Arrange
+        when(dao.delete("id")).thenReturn(true);
+
+        // Act
+        ResponseEntity result = sut.removeWidget(null, "id").block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void removeWidgetRemovesWidgetOfBoard() {
+        // Arrange
+        WidgetDao<Widget> board = mock(WidgetDao.class);
+        when(boards.get("board")).thenReturn(board);
+        when(board.delete("id")).thenReturn(true);
+
+        // Act
+        ResponseEntity result = sut.removeWidget("board", "id").block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void removeWidgetErrorsOnMissingWidget() {
+        // Act
+        ResponseEntity result = sut.removeWidget(null, "id").block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.GONE));
+    }
+
+    @Test
+    void applyBatchAppliesOperations() {
+        // Arrange
+        Widget widget = randomWidget();
+        when(config.getMaxBatchSize()).thenReturn(10);
+        when(dao.apply(List.of(Operation.create(widget), Operation.delete("id")))).thenReturn(List.of(widget, widget));
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.CREATE).widget(widget).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("id").build()
+        )).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody(), is(List.of(widget, widget)));
+    }
+
+    @Test
+    void applyBatchErrorsOnInvalidOperation() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(10);
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).build()
+        )).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Operation 0 missing required params"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void applyBatchReturnsNotFoundWhenTargetIsMissing() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(10);
+        when(dao.apply(List.of(Operation.delete("id")))).thenThrow(new WidgetNotFoundException("id"));
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("id").build()
+        )).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    void applyBatchReturnsPreconditionFailedOnVersionMismatch() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(10);
+        when(dao.apply(List.of(Operation.delete("id")))).thenThrow(new VersionMismatchException("id", 3, 4L));
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("id").build()
+        )).block();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.PRECONDITION_FAILED));
+    }
+
+    private static String body(final ResponseEntity<Flux<DataBuffer>> response) {
+        return DataBufferUtils.join(response.getBody()).map(buffer -> {
+            String result = buffer.toString(UTF_8);
+            DataBufferUtils.release(buffer);
+            return result;
+        }).block();
+    }
+
+    private static Widget randomWidget() {
+        return Widget.builder()
+                .x(ThreadLocalRandom.current().nextInt())
+                .y(ThreadLocalRandom.current().nextInt())
+                .z(ThreadLocalRandom.current().nextInt())
+                .width(ThreadLocalRandom.current().nextInt())
+                .height(ThreadLocalRandom.current().nextInt())
+                .lastModification(Instant.ofEpochMilli(ThreadLocalRandom.current().nextInt()))
+                .build();
+    }
+
+    /*
+     * storage hands the snapshot to the capture, as storages which record changes do
+     */
+    @SuppressWarnings("unchecked")
+    private void snapshot(final List<Widget> widgets) {
+        when(dao.snapshot(any())).thenAnswer(invocation ->
+                invocation.<Function<List<Widget>, Object>>getArgument(0).apply(widgets));
+    }
+}
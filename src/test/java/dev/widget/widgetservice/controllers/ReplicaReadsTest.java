@@ -0,0 +1,143 @@
+package dev.widget.widgetservice.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.application.configuration.AppConfiguration;
+import dev.widget.widgetservice.persistance.WidgetReplica;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReplicaReadsTest {
+    private static final String LEADER = "http://localhost:8081";
+
+    @Mock
+    WidgetReplica replica;
+
+    @Mock
+    ObjectProvider<WidgetReplica> provider;
+
+    ReplicaReads sut;
+
+    @BeforeEach
+    void before() {
+        when(provider.getIfAvailable()).thenReturn(replica);
+        lenient().when(replica.getLeader()).thenReturn(LEADER);
+        sut = new ReplicaReads(provider, new AppConfiguration(), new ObjectMapper());
+    }
+
+    @Test
+    void nothingIsDecidedOnLeader() {
+        // Arrange
+        @SuppressWarnings("unchecked")
+        ObjectProvider<WidgetReplica> none = mock(ObjectProvider.class);
+        sut = new ReplicaReads(none, new AppConfiguration(), new ObjectMapper());
+
+        // Act
+        ReplicaReads.Decision result = sut.decide("/widgets", HttpMethod.GET);
+
+        // Assert
+        assertThat(result, nullValue());
+    }
+
+    @Test
+    void nothingIsDecidedOnOtherPaths() {
+        // Act
+        ReplicaReads.Decision result = sut.decide("/statistics", HttpMethod.GET);
+
+        // Assert
+        assertThat(result, nullValue());
+    }
+
+    @Test
+    void readInSyncIsServedWithLag() {
+        // Arrange
+        when(replica.lag()).thenReturn(120L);
+
+        // Act
+        ReplicaReads.Decision result = sut.decide("/widget/id", HttpMethod.GET);
+
+        // Assert
+        assertThat(result.getStatus(), nullValue());
+        assertThat(result.getLag(), is("120"));
+    }
+
+    @Test
+    void readTooFarBehindIsUnavailable() {
+        // Arrange
+        when(replica.lag()).thenReturn(60_000L);
+
+        // Act
+        ReplicaReads.Decision result = sut.decide("/widgets", HttpMethod.GET);
+
+        // Assert
+        assertThat(result.getStatus(), is(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(result.getLag(), is("60000"));
+    }
+
+    @Test
+    void readBeforeFirstSyncIsUnavailable() {
+        // Arrange
+        when(replica.lag()).thenReturn(Long.MAX_VALUE);
+
+        // Act
+        ReplicaReads.Decision result = sut.decide("/widgets", HttpMethod.GET);
+
+        // Assert
+        assertThat(result.getStatus(), is(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(result.getLag(), nullValue());
+    }
+
+    @Test
+    void boardsAreRedirectedToLeader() {
+        // Act
+        ReplicaReads.Decision result = sut.decide("/boards/board/widgets", HttpMethod.GET);
+
+        // Assert
+        assertThat(result.getStatus(), is(HttpStatus.TEMPORARY_REDIRECT));
+    }
+
+    @Test
+    void writeIsRedirectedToLeaderWithQuery() throws Exception {
+        // Arrange
+        MockHttpServletRequest request = new MockHttpServletRequest("DELETE", "/widget/id");
+        request.setQueryString("version=3");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        boolean result = sut.preHandle(request, response, null);
+
+        // Assert
+        assertThat(result, is(false));
+        assertThat(response.getStatus(), is(307));
+        assertThat(response.getHeader("Location"), is(LEADER + "/widget/id?version=3"));
+        assertThat(response.getContentAsString(), containsString("read-only"));
+    }
+
+    @Test
+    void servedReadGetsLagHeader() throws Exception {
+        // Arrange
+        when(replica.lag()).thenReturn(7L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        boolean result = sut.preHandle(new MockHttpServletRequest("GET", "/widgets"), response, null);
+
+        // Assert
+        assertThat(result, is(true));
+        assertThat(response.getHeader(ReplicaReads.REPLICA_LAG_HEADER), is("7"));
+    }
+}
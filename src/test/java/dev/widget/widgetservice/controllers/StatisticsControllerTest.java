@@ -0,0 +1,39 @@
+package dev.widget.widgetservice.controllers;
+
+import dev.widget.widgetservice.persistance.LockStatistics;
+import dev.widget.widgetservice.persistance.WidgetLock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StatisticsControllerTest {
+    @Mock
+    WidgetLock lock;
+
+    @InjectMocks
+    StatisticsController sut;
+
+    @Test
+    void getLockStatisticsReturnsStatistics() {
+        // Arrange
+        LockStatistics statistics = LockStatistics.builder().mode("monitor").reads(1).writes(2).build();
+        when(lock.statistics()).thenReturn(statistics);
+
+        // Act
+        ResponseEntity<LockStatistics> result = sut.getLockStatistics();
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody(), sameInstance(statistics));
+    }
+}
@@ -1,29 +1,61 @@
 package dev.widget.widgetservice.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.widget.widgetservice.application.configuration.AppConfiguration;
 import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import dev.widget.widgetservice.models.WidgetOperation;
+import dev.widget.widgetservice.models.ErrorResponse;
+import dev.widget.widgetservice.persistance.Area;
+import dev.widget.widgetservice.persistance.CapacityExceededException;
+import dev.widget.widgetservice.persistance.IdTooLongException;
+import dev.widget.widgetservice.persistance.Operation;
+import dev.widget.widgetservice.persistance.VersionMismatchException;
+import dev.widget.widgetservice.persistance.WidgetBoards;
+import dev.widget.widgetservice.persistance.WidgetChangeFeed;
 import dev.widget.widgetservice.persistance.WidgetDao;
+import dev.widget.widgetservice.persistance.WidgetNotFoundException;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 
 import static java.lang.String.format;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.*;
 
@@ -37,6 +69,9 @@ class WidgetControllerTest {
     @Mock
     AppConfiguration config;
 
+    @Mock
+    WidgetBoards boards;
+
     @Mock
     Widget src;
 
@@ -54,6 +89,12 @@ class WidgetControllerTest {
     @Mock
     List<Widget> widgets;
 
+    @Mock
+    ObjectProvider<PageCache> pageCache;
+
+    @Spy
+    ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
     @InjectMocks
     private WidgetController sut;
 
@@ -75,7 +116,7 @@ class WidgetControllerTest {
         when(uriComponents.toUri()).thenReturn(uri);
 
         // Act
-        ResponseEntity result = sut.createWidget(src, uriBuilder);
+        ResponseEntity result = sut.createWidget(null, src, uriBuilder);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.CREATED));
@@ -96,7 +137,7 @@ class WidgetControllerTest {
         when(src.isValidSource()).thenReturn(false);
 
         // Act
-        ResponseEntity result = sut.createWidget(src, uriBuilder);
+        ResponseEntity result = sut.createWidget(null, src, uriBuilder);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
@@ -104,12 +145,26 @@ class WidgetControllerTest {
         verify(src).isValidSource();
     }
 
+    @Test
+    void createWidgetReturnsInsufficientStorageWhenFull() {
+        // Arrange
+        when(src.isValidSource()).thenReturn(true);
+        when(dao.create(src)).thenThrow(new CapacityExceededException(10));
+
+        // Act
+        ResponseEntity result = sut.createWidget(null, src, uriBuilder);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.INSUFFICIENT_STORAGE));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Storage capacity of 10 widgets is exhausted"));
+    }
+
     @Test
     void createWidgetHandlesNullSource() {
         // Arrange -- nothing!
 
         // Act
-        ResponseEntity result = sut.createWidget(null, uriBuilder);
+        ResponseEntity result = sut.createWidget(null, null, uriBuilder);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
@@ -122,7 +177,7 @@ class WidgetControllerTest {
         when(dao.get(id)).thenReturn(widget);
 
         // Act
-        ResponseEntity result = sut.getWidget(id);
+        ResponseEntity result = sut.getWidget(null, id, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.OK));
@@ -131,6 +186,66 @@ class WidgetControllerTest {
         verify(dao).get(id);
     }
 
+    @Test
+    void GetWidgetSetsStoreAndWidgetVersionAsETag() {
+        // Arrange
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        long version = ThreadLocalRandom.current().nextLong();
+        when(dao.version()).thenReturn(version);
+        when(dao.get(id)).thenReturn(widget);
+        when(widget.getVersion()).thenReturn(3L);
+
+        // Act
+        ResponseEntity result = sut.getWidget(null, id, null);
+
+        // Assert
+        assertThat(result.getHeaders().getETag(), is(format("\"%s-3\"", version)));
+        assertThat(WidgetController.expectedVersion(result.getHeaders().getETag()), is(3L));
+    }
+
+    @Test
+    void GetWidgetReturnsNotModifiedWhenWidgetETagIsCurrent() {
+        // Arrange
+        when(dao.version()).thenReturn(42L);
+
+        // Act
+        ResponseEntity result = sut.getWidget(null, "id", "\"42-3\"");
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(result.getHeaders().getETag(), is("\"42-3\""));
+        verify(dao, never()).get(any());
+    }
+
+    @Test
+    void GetWidgetReturnsNotModifiedWithoutLoadingWhenETagIsCurrent() {
+        // Arrange
+        when(dao.version()).thenReturn(42L);
+
+        // Act
+        ResponseEntity result = sut.getWidget(null, "id", "\"41\", W/\"42\"");
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        assertThat(result.getHeaders().getETag(), is("\"42\""));
+        assertThat(result.getBody(), nullValue());
+        verify(dao, never()).get(any());
+    }
+
+    @Test
+    void GetWidgetReturnsWidgetWhenETagIsStale() {
+        // Arrange
+        when(dao.version()).thenReturn(42L);
+        when(dao.get("id")).thenReturn(widget);
+
+        // Act
+        ResponseEntity result = sut.getWidget(null, "id", "\"41\"");
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody(), sameInstance(widget));
+    }
+
     @Test
     void GetWidgetReturnsNotFoundWhenWidgetNotFound() {
         // Arrange
@@ -138,7 +253,7 @@ class WidgetControllerTest {
         when(dao.get(id)).thenReturn(null);
 
         // Act
-        ResponseEntity result = sut.getWidget(id);
+        ResponseEntity result = sut.getWidget(null, id, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
@@ -156,7 +271,7 @@ class WidgetControllerTest {
         when(widgets.size()).thenReturn(2);
 
         // Act
-        ResponseEntity result = sut.getAllWidgets(pageSize, offset);
+        ResponseEntity result = sut.getAllWidgets(null, pageSize, offset, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.OK));
@@ -167,6 +282,37 @@ class WidgetControllerTest {
         verify(widgets).size();
     }
 
+    @Test
+    void GetWidgetAllWidgetsSetsStoreVersionAsETag() {
+        // Arrange
+        int pageSize = 10;
+        long version = ThreadLocalRandom.current().nextLong();
+        when(config.getMaxPageSize()).thenReturn(pageSize);
+        when(dao.version()).thenReturn(version);
+        when(dao.getAll(pageSize, 0)).thenReturn(widgets);
+        when(widgets.size()).thenReturn(2);
+
+        // Act
+        ResponseEntity result = sut.getAllWidgets(null, pageSize, 0, null);
+
+        // Assert
+        assertThat(result.getHeaders().getETag(), is(format("\"%s\"", version)));
+    }
+
+    @Test
+    void GetWidgetAllWidgetsReturnsNotModifiedWithoutLoadingWhenETagIsCurrent() {
+        // Arrange
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.version()).thenReturn(7L);
+
+        // Act
+        ResponseEntity result = sut.getAllWidgets(null, 10, 0, "\"7\"");
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_MODIFIED));
+        verify(dao, never()).getAll(anyInt(), anyInt());
+    }
+
     @Test
     void GetWidgetAllWidgetsUsesDefaultPageSize() {
         // Arrange
@@ -178,7 +324,7 @@ class WidgetControllerTest {
         when(widgets.size()).thenReturn(2);
 
         // Act
-        ResponseEntity result = sut.getAllWidgets(null, offset);
+        ResponseEntity result = sut.getAllWidgets(null, null, offset, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.OK));
@@ -196,7 +342,7 @@ class WidgetControllerTest {
         when(config.getMaxPageSize()).thenReturn(pageSize - 1);
 
         // Act
-        ResponseEntity result = sut.getAllWidgets(pageSize, 0);
+        ResponseEntity result = sut.getAllWidgets(null, pageSize, 0, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
@@ -213,7 +359,7 @@ class WidgetControllerTest {
         when(widgets.size()).thenReturn(2);
 
         // Act
-        ResponseEntity result = sut.getAllWidgets(pageSize, null);
+        ResponseEntity result = sut.getAllWidgets(null, pageSize, null, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.OK));
@@ -234,7 +380,7 @@ class WidgetControllerTest {
         when(widgets.size()).thenReturn(0);
 
         // Act
-        ResponseEntity result = sut.getAllWidgets(pageSize, offset);
+        ResponseEntity result = sut.getAllWidgets(null, pageSize, offset, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
@@ -244,6 +390,489 @@ class WidgetControllerTest {
         verify(widgets).size();
     }
 
+    @Test
+    void getAllWidgetsSendsCachedPage() throws IOException {
+        // Arrange
+        PageCache cache = new PageCache(1 << 20, mapper);
+        when(pageCache.getIfAvailable()).thenReturn(cache);
+        sut = new WidgetController(dao, config, mapper, null, boards, pageCache);
+        List<Widget> page = List.of(Widget.builder().id("1").z(1).build(), Widget.builder().id("2").z(2).build());
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.version()).thenReturn(7L);
+        when(dao.getAll(2, 0)).thenReturn(page);
+        sut.getAllWidgets(null, 2, 0, null);
+
+        // Act
+        ResponseEntity result = sut.getAllWidgets(null, 2, 0, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().getContentType(), is(MediaType.APPLICATION_JSON));
+        assertThat(List.of(mapper.readValue((byte[]) result.getBody(), Widget[].class)), is(page));
+        verify(dao, times(1)).getAll(2, 0);
+        assertThat(cache.hits(), is(1L));
+    }
+
+    @Test
+    void getAllWidgetsDoesNotCachePagesOfBoards() {
+        // Arrange
+        PageCache cache = new PageCache(1 << 20, mapper); // mapper is a spy, so not while stubbing
+        when(pageCache.getIfAvailable()).thenReturn(cache);
+        sut = new WidgetController(dao, config, mapper, null, boards, pageCache);
+        WidgetDao<Widget> board = mock(WidgetDao.class);
+        when(boards.get("board")).thenReturn(board);
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(board.getAll(2, 0)).thenReturn(widgets);
+        when(widgets.size()).thenReturn(2);
+
+        // Act
+        ResponseEntity result = sut.getAllWidgets("board", 2, 0, null);
+
+        // Assert
+        assertThat(result.getBody(), sameInstance(widgets));
+    }
+
+    @Test
+    void getWidgetsAfterSendsCachedPageWithNextCursor() {
+        // Arrange
+        PageCache cache = new PageCache(1 << 20, mapper); // mapper is a spy, so not while stubbing
+        when(pageCache.getIfAvailable()).thenReturn(cache);
+        sut = new WidgetController(dao, config, mapper, null, boards, pageCache);
+        List<Widget> page = List.of(Widget.builder().z(4).build(), Widget.builder().z(9).build());
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.getAllAfter(2, 3)).thenReturn(page);
+
+        // Act
+        ResponseEntity result = sut.getWidgetsAfter(null, 2, 3, null);
+
+        // Assert
+        assertThat(result.getHeaders().getFirst("X-Next-Cursor"), is("9"));
+    }
+
+    @Test
+    void getWidgetsAfterReturnsPageWithNextCursor() {
+        // Arrange
+        int pageSize = 2;
+        int after = ThreadLocalRandom.current().nextInt();
+        List<Widget> page = List.of(Widget.builder().z(after + 1).build(), Widget.builder().z(after + 5).build());
+        when(config.getMaxPageSize()).thenReturn(pageSize);
+        when(dao.getAllAfter(pageSize, after)).thenReturn(page);
+
+        // Act
+        ResponseEntity result = sut.getWidgetsAfter(null, pageSize, after, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody(), sameInstance(page));
+        assertThat(result.getHeaders().getFirst("X-Next-Cursor"), is(Integer.toString(after + 5)));
+    }
+
+    @Test
+    void getWidgetsAfterOmitsNextCursorOnLastPage() {
+        // Arrange
+        int pageSize = 3;
+        List<Widget> page = List.of(Widget.builder().z(1).build(), Widget.builder().z(2).build());
+        when(config.getDefaultPageSize()).thenReturn(pageSize);
+        when(config.getMaxPageSize()).thenReturn(pageSize);
+        when(dao.getAllAfter(pageSize, 0)).thenReturn(page);
+
+        // Act
+        ResponseEntity result = sut.getWidgetsAfter(null, null, 0, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getHeaders().containsKey("X-Next-Cursor"), is(false));
+    }
+
+    @Test
+    void getWidgetsAfterReturnsNoContentWhenNoWidgets() {
+        // Arrange
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.getAllAfter(10, 0)).thenReturn(List.of());
+
+        // Act
+        ResponseEntity result = sut.getWidgetsAfter(null, 10, 0, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+    }
+
+    @Test
+    void getWidgetsAfterErrorsOnTooBigPageSize() {
+        // Arrange
+        when(config.getMaxPageSize()).thenReturn(10);
+
+        // Act
+        ResponseEntity result = sut.getWidgetsAfter(null, 11, 0, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verify(dao, never()).getAllAfter(anyInt(), anyInt());
+    }
+
+    @Test
+    void getWidgetsInAreaReturnsPageWithNextCursor() {
+        // Arrange
+        List<Widget> page = List.of(Widget.builder().z(3).build(), Widget.builder().z(7).build());
+        when(config.getMaxPageSize()).thenReturn(2);
+        when(dao.getAllInArea(Area.of(0, 0, 100, 50), true, 2, 1)).thenReturn(page);
+
+        // Act
+        ResponseEntity result = sut.getWidgetsInArea(null, 100, 50, 0, 0, true, 2, 1, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody(), sameInstance(page));
+        assertThat(result.getHeaders().getFirst("X-Next-Cursor"), is("7"));
+    }
+
+    @Test
+    void getWidgetsInAreaStartsFromBottomWithoutCursor() {
+        // Arrange
+        when(config.getDefaultPageSize()).thenReturn(10);
+        when(config.getMaxPageSize()).thenReturn(10);
+        when(dao.getAllInArea(Area.of(0, 0, 100, 50), false, 10, Integer.MIN_VALUE)).thenReturn(List.of());
+
+        // Act
+        ResponseEntity result = sut.getWidgetsInArea(null, 0, 0, 100, 50, false, null, null, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+    }
+
+    @Test
+    void getWidgetsInAreaErrorsOnTooBigPageSize() {
+        // Arrange
+        when(config.getMaxPageSize()).thenReturn(10);
+
+        // Act
+        ResponseEntity result = sut.getWidgetsInArea(null, 0, 0, 100, 50, false, 11, null, null);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verify(dao, never()).getAllInArea(any(), anyBoolean(), anyInt(), anyInt());
+    }
+
+    @Test
+    void exportWidgetsWritesSnapshotAsLines() throws IOException {
+        // Arrange
+        List<Widget> snapshot = List.of(
+                Widget.builder().id("1").x(1).y(2).z(3).width(4).height(5).build(),
+                Widget.builder().id("2").x(6).y(7).z(8).width(9).height(10).build()
+        );
+        WidgetChangeFeed feed = new WidgetChangeFeed(4, Schedulers.immediate(), 100);
+        sut = new WidgetController(dao, config, mapper, feed, boards, pageCache);
+        when(dao.version()).thenReturn(42L, 43L); // a write comes between ETag and snapshot
+        snapshot(snapshot);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        sut.exportWidgets(null, null, response);
+
+        // Assert
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getContentType(), is("application/x-ndjson"));
+        assertThat(response.getHeader("ETag"), is("\"42\""));
+        assertThat(response.getHeader("X-Change-Sequence"), is("100"));
+        assertThat(response.getHeader("X-Store-Version"), is("43"));
+        String[] lines = response.getContentAsString().split("\n", -1);
+        assertThat(lines.length, is(3));
+        assertThat(mapper.readValue(lines[0], Widget.class), is(snapshot.get(0)));
+        assertThat(mapper.readValue(lines[1], Widget.class), is(snapshot.get(1)));
+        assertThat(lines[2], is(""));
+        verify(dao, never()).getAll(anyInt(), anyInt());
+    }
+
+    @Test
+    void exportWidgetsWritesNothingWhenNoWidgets() throws IOException {
+        // Arrange
+        sut = new WidgetController(dao, config, mapper, new WidgetChangeFeed(4, Schedulers.immediate(), 100), boards,
+                pageCache);
+        snapshot(List.of());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        sut.exportWidgets(null, null, response);
+
+        // Assert
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getContentAsByteArray().length, is(0));
+    }
+
+    @Test
+    void getChangesStreamsResetWhenLastEventIdIsLost() {
+        // Arrange
+        WidgetChangeFeed feed = new WidgetChangeFeed(2, Schedulers.immediate(), 100);
+        feed.accept(List.of(WidgetChange.deleted("1"), WidgetChange.deleted("2"), WidgetChange.deleted("3")));
+        sut = new WidgetController(dao, config, mapper, feed, boards, pageCache);
+        List<ServerSentEvent<WidgetChange>> events = new ArrayList<>();
+
+        // Act
+        sut.getChanges(99L, null).subscribe(events::add);
+
+        // Assert
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).id(), is("102"));
+        assertThat(events.get(0).event(), is("reset"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void changesGetHeartbeatsWhileThereAreNoChanges() {
+        // Act
+        List<ServerSentEvent<WidgetChange>> result = WidgetController
+                .withHeartbeats(Flux.<ServerSentEvent<WidgetChange>>never(), 10L)
+                .take(2)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        // Assert
+        assertThat(result.size(), is(2));
+        assertThat(result.get(0).comment(), is(WidgetController.HEARTBEAT));
+        assertThat(result.get(1).data(), nullValue());
+    }
+
+    @Test
+    void heartbeatsEndWithChanges() {
+        // Arrange
+        ServerSentEvent<WidgetChange> event = ServerSentEvent.builder(WidgetChange.deleted("id")).build();
+
+        // Act
+        List<ServerSentEvent<WidgetChange>> result = WidgetController.withHeartbeats(Flux.just(event), 10L)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        // Assert
+        assertThat(result, is(List.of(event)));
+    }
+
+    @Test
+    void exportWidgetsWritesNothingWhenETagIsCurrent() throws IOException {
+        // Arrange
+        when(dao.version()).thenReturn(42L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // Act
+        sut.exportWidgets(null, "\"42\"", response);
+
+        // Assert
+        assertThat(response.getStatus(), is(HttpStatus.NOT_MODIFIED.value()));
+        assertThat(response.getHeader("ETag"), is("\"42\""));
+        assertThat(response.getContentLength(), is(0));
+        verify(dao, never()).snapshot(any());
+    }
+
+    @Test
+    void isCurrentMatchesOnlyTagOfGivenVersion() {
+        // Act&Assert
+        assertThat(WidgetController.isCurrent(null, 1), is(false));
+        assertThat(WidgetController.isCurrent("*", 1), is(false));
+        assertThat(WidgetController.isCurrent("\"11\"", 1), is(false));
+        assertThat(WidgetController.isCurrent("1", 1), is(false));
+        assertThat(WidgetController.isCurrent("\"1\"", 1), is(true));
+        assertThat(WidgetController.isCurrent("W/\"1\"", 1), is(true));
+        assertThat(WidgetController.isCurrent("\"0\" ,  \"1\"", 1), is(true));
+    }
+
+    @Test
+    void currentTagMatchesStoreVersionOfWidgetTag() {
+        // Act&Assert
+        assertThat(WidgetController.currentTag("\"1-5\"", 1), is("1-5"));
+        assertThat(WidgetController.currentTag("W/\"1-5\"", 1), is("1-5"));
+        assertThat(WidgetController.currentTag("\"11-5\"", 1), nullValue());
+        assertThat(WidgetController.currentTag("\"2-5\", \"1\"", 1), is("1"));
+    }
+
+    @Test
+    void widgetTagAddsWidgetVersion() {
+        // Act&Assert
+        assertThat(WidgetController.widgetTag(42, Widget.builder().version(3L).build()), is("42-3"));
+        assertThat(WidgetController.widgetTag(42, Widget.builder().build()), is("42"));
+    }
+
+    @Test
+    void importWidgetsRestoresThemSortedByZ() throws IOException {
+        // Arrange
+        Widget first = Widget.builder().id("1").x(1).y(2).z(-5).width(4).height(5).build();
+        Widget second = Widget.builder().id("2").x(6).y(7).z(8).width(9).height(10).build();
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(mapper.writeValueAsString(second),
+                mapper.writeValueAsString(first)));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        verify(dao).restoreAll(List.of(first, second));
+    }
+
+    @Test
+    void importWidgetsErrorsOnMalformedWidget() throws IOException {
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines("{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}",
+                "{\"id\":"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget 1 is malformed"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void importWidgetsErrorsOnMissingParams() throws IOException {
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines("{\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget 0 missing required params"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void importWidgetsErrorsOnDuplicateId() throws IOException {
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(
+                "{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}",
+                "{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":2,\"width\":1,\"height\":1}"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget ID [1] is imported twice"));
+    }
+
+    @Test
+    void importWidgetsErrorsOnDuplicateZ() throws IOException {
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(
+                "{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}",
+                "{\"id\":\"2\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Z 1 is imported twice"));
+    }
+
+    @Test
+    void importWidgetsMergesIntoNonEmptyStorage() throws IOException {
+        // Arrange
+        Widget first = Widget.builder().id("1").x(1).y(1).z(1).width(1).height(1).build();
+        Widget second = Widget.builder().id("2").x(1).y(1).z(8).width(1).height(1).build();
+        Widget stored = Widget.builder().id("0").z(5).build();
+        when(dao.size()).thenReturn(1);
+        when(dao.getAll(1, 0)).thenReturn(List.of(stored));
+        when(dao.getAllAfter(1, 0)).thenReturn(List.of(stored));
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(mapper.writeValueAsString(second),
+                mapper.writeValueAsString(first)));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        verify(dao).restoreAll(List.of(first, second));
+    }
+
+    @Test
+    void importWidgetsErrorsOnStoredId() throws IOException {
+        // Arrange
+        when(dao.size()).thenReturn(1);
+        when(dao.getAll(1, 0)).thenReturn(List.of(Widget.builder().id("1").z(0).build()));
+        when(dao.get("1")).thenReturn(Widget.builder().id("1").z(0).build());
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(
+                "{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CONFLICT));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget ID [1] is stored already"));
+        verify(dao, never()).restoreAll(any());
+    }
+
+    @Test
+    void importWidgetsErrorsOnStoredZ() throws IOException {
+        // Arrange
+        Widget stored = Widget.builder().id("0").z(1).build();
+        when(dao.size()).thenReturn(1);
+        when(dao.getAll(1, 0)).thenReturn(List.of(stored));
+        when(dao.getAllAfter(1, 0)).thenReturn(List.of(stored));
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(
+                "{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CONFLICT));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Z 1 is stored already"));
+        verify(dao, never()).restoreAll(any());
+    }
+
+    @Test
+    void importWidgetsRestoresThemChunkByChunk() throws IOException {
+        // Arrange
+        String[] lines = new String[WidgetController.IMPORT_CHUNK_SIZE + 1];
+        for (int i = 0; i < lines.length; ++i) {
+            lines[i] = format("{\"id\":\"%s\",\"x\":1,\"y\":1,\"z\":%s,\"width\":1,\"height\":1}", i, -i);
+        }
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(lines));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        InOrder order = inOrder(dao);
+        order.verify(dao).restoreAll(argThat(chunk -> (chunk.size() == WidgetController.IMPORT_CHUNK_SIZE)
+                && (chunk.get(0).getZ() == 1 - WidgetController.IMPORT_CHUNK_SIZE)));
+        order.verify(dao).restoreAll(List.of(Widget.builder().id(Integer.toString(lines.length - 1))
+                .x(1).y(1).z(1 - lines.length).width(1).height(1).build()));
+    }
+
+    @Test
+    void importWidgetsErrorTellsHowManyWereImported() throws IOException {
+        // Arrange
+        String[] lines = new String[WidgetController.IMPORT_CHUNK_SIZE + 1];
+        for (int i = 0; i < WidgetController.IMPORT_CHUNK_SIZE; ++i) {
+            lines[i] = format("{\"id\":\"%s\",\"x\":1,\"y\":1,\"z\":%s,\"width\":1,\"height\":1}", i, i);
+        }
+        lines[WidgetController.IMPORT_CHUNK_SIZE] = "{\"id\":";
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(lines));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(),
+                is(format("Widget %1$s is malformed; first %1$s widgets are imported",
+                        WidgetController.IMPORT_CHUNK_SIZE)));
+        verify(dao).restoreAll(any());
+    }
+
+    @Test
+    void importWidgetsErrorsWhenWidgetIsStoredConcurrently() throws IOException {
+        // Arrange
+        doThrow(new IllegalStateException("Widget ID [1] or Z 1 is stored already")).when(dao).restoreAll(any());
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(
+                "{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.CONFLICT));
+    }
+
+    @Test
+    void importWidgetsErrorsOnIdStorageCantKeep() throws IOException {
+        // Arrange
+        doThrow(new IdTooLongException("1", 0)).when(dao).restoreAll(any());
+
+        // Act
+        ResponseEntity result = sut.importWidgets(null, lines(
+                "{\"id\":\"1\",\"x\":1,\"y\":1,\"z\":1,\"width\":1,\"height\":1}"));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget ID [1] is longer than 0 bytes"));
+    }
+
     @Test
     void setWidgetUpdatesWidget() {
         // Arrange
@@ -253,7 +882,7 @@ class WidgetControllerTest {
         when(dao.update(src)).thenReturn(widget);
 
         // Act
-        ResponseEntity result = sut.setWidget(id, src);
+        ResponseEntity result = sut.setWidget(null, id, src, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.OK));
@@ -261,9 +890,68 @@ class WidgetControllerTest {
 
         verify(src).isValidSource();
         verify(src, atLeastOnce()).getId();
+        verify(src).setVersion(null);
         verify(dao).update(same(src));
     }
 
+    @Test
+    void setWidgetExpectsVersionFromIfMatch() {
+        // Arrange
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        when(src.isValidSource()).thenReturn(true);
+        when(dao.update(src)).thenReturn(widget);
+
+        // Act
+        ResponseEntity result = sut.setWidget(null, id, src, "\"3\"");
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        verify(src).setVersion(3L);
+    }
+
+    @Test
+    void setWidgetErrorsOnVersionMismatch() {
+        // Arrange
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        when(src.isValidSource()).thenReturn(true);
+        when(dao.update(src)).thenThrow(new VersionMismatchException(id, 3, 4L));
+
+        // Act
+        ResponseEntity result = sut.setWidget(null, id, src, "\"3\"");
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.PRECONDITION_FAILED));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(),
+                is(format("Widget [%s] has version 4, not 3", id)));
+    }
+
+    @Test
+    void setWidgetErrorsOnMalformedIfMatch() {
+        // Arrange
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        when(src.isValidSource()).thenReturn(true);
+
+        // Act
+        ResponseEntity result = sut.setWidget(null, id, src, "3, 4");
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void expectedVersionComparesStrongly() {
+        // Act & Assert
+        assertThat(WidgetController.expectedVersion(null), nullValue());
+        assertThat(WidgetController.expectedVersion("*"), nullValue());
+        assertThat(WidgetController.expectedVersion(" \"42\" "), is(42L));
+        assertThat(WidgetController.expectedVersion("W/\"42\""), is(0L));
+        assertThat(WidgetController.expectedVersion("\"41-42\""), is(42L));
+        assertThat(WidgetController.expectedVersion("\"-41-42\""), is(42L));
+        assertThat(WidgetController.expectedVersion("W/\"41-42\""), is(0L));
+        assertThrows(NumberFormatException.class, () -> WidgetController.expectedVersion("42"));
+    }
+
     @Test
     void setWidgetErrorsWhenNotFound() {
         // Arrange
@@ -273,7 +961,7 @@ class WidgetControllerTest {
         when(dao.update(src)).thenReturn(null);
 
         // Act
-        ResponseEntity result = sut.setWidget(id, src);
+        ResponseEntity result = sut.setWidget(null, id, src, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
@@ -292,7 +980,7 @@ class WidgetControllerTest {
         when(dao.update(src)).thenReturn(widget);
 
         // Act
-        ResponseEntity result = sut.setWidget(id, src);
+        ResponseEntity result = sut.setWidget(null, id, src, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.OK));
@@ -309,7 +997,7 @@ class WidgetControllerTest {
         when(src.getId()).thenReturn(id + "NO!");
 
         // Act
-        ResponseEntity result = sut.setWidget(id, src);
+        ResponseEntity result = sut.setWidget(null, id, src, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
@@ -322,7 +1010,7 @@ class WidgetControllerTest {
         when(src.isValidSource()).thenReturn(false);
 
         // Act
-        ResponseEntity result = sut.setWidget(id, src);
+        ResponseEntity result = sut.setWidget(null, id, src, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
@@ -334,7 +1022,7 @@ class WidgetControllerTest {
         String id = RandomStringUtils.randomAlphanumeric(10);
 
         // Act
-        ResponseEntity result = sut.setWidget(id, null);
+        ResponseEntity result = sut.setWidget(null, id, null, null);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
@@ -347,7 +1035,7 @@ class WidgetControllerTest {
         when(dao.delete(id)).thenReturn(true);
 
         // Act
-        ResponseEntity result = sut.removeWidget(id);
+        ResponseEntity result = sut.removeWidget(null, id);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
@@ -355,6 +1043,23 @@ class WidgetControllerTest {
         verify(dao).delete(id);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void removeWidgetRemovesWidgetOfBoard() {
+        // Arrange
+        WidgetDao<Widget> board = mock(WidgetDao.class);
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        when(boards.get("board")).thenReturn(board);
+        when(board.delete(id)).thenReturn(true);
+
+        // Act
+        ResponseEntity result = sut.removeWidget("board", id);
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NO_CONTENT));
+        verifyNoInteractions(dao);
+    }
+
     @Test
     void removeWidgetErrorsOnNotMissingWidget() {
         // Arrange
@@ -362,11 +1067,148 @@ class WidgetControllerTest {
         when(dao.delete(id)).thenReturn(false);
 
         // Act
-        ResponseEntity result = sut.removeWidget(id);
+        ResponseEntity result = sut.removeWidget(null, id);
 
         // Assert
         assertThat(result.getStatusCode(), is(HttpStatus.GONE));
 
         verify(dao).delete(id);
     }
-}
\ No newline at end of file
+
+    @Test
+    void applyBatchAppliesOperations() {
+        // Arrange
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        Widget created = Widget.builder().x(1).y(1).width(1).height(1).build();
+        Widget changed = Widget.builder().x(2).y(2).z(5).width(2).height(2).build();
+        List<Widget> results = List.of(created, changed, created);
+        when(config.getMaxBatchSize()).thenReturn(3);
+        when(dao.apply(List.of(
+                Operation.create(created),
+                Operation.update(id, changed.toBuilder().id(id).build()),
+                Operation.delete(id)
+        ))).thenReturn(results);
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.CREATE).widget(created).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.UPDATE).id(id).widget(changed).build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id(id).build()
+        ));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.OK));
+        assertThat(result.getBody(), sameInstance(results));
+    }
+
+    @Test
+    void applyBatchIgnoresVersionOfUpdate() {
+        // Arrange
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        Widget changed = Widget.builder().x(2).y(2).width(2).height(2).version(7L).build();
+        when(config.getMaxBatchSize()).thenReturn(1);
+
+        // Act
+        sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.UPDATE).id(id).widget(changed).build()
+        ));
+
+        // Assert
+        verify(dao).apply(List.of(Operation.update(id, changed.toBuilder().id(id).version(null).build())));
+    }
+
+    @Test
+    void applyBatchReturnsPreconditionFailedOnVersionMismatch() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(10);
+        when(dao.apply(any())).thenThrow(new VersionMismatchException("1", 3, 4L));
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("1").build()
+        ));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.PRECONDITION_FAILED));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget [1] has version 4, not 3"));
+    }
+
+    @Test
+    void applyBatchErrorsOnTooBigBatch() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(1);
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("1").build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("2").build()
+        ));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void applyBatchErrorsOnInvalidOperation() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(10);
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("1").build(),
+                WidgetOperation.builder().op(WidgetOperation.Type.UPDATE).id("1")
+                        .widget(Widget.builder().id("2").build()).build()
+        ));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.BAD_REQUEST));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Operation 1 missing required params"));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void applyBatchReturnsNotFoundWhenTargetIsMissing() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(10);
+        when(dao.apply(any())).thenThrow(new WidgetNotFoundException("1"));
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.DELETE).id("1").build()
+        ));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.NOT_FOUND));
+        assertThat(((ErrorResponse) result.getBody()).getMessage(), is("Widget [1] not found"));
+    }
+
+    @Test
+    void applyBatchReturnsInsufficientStorageWhenFull() {
+        // Arrange
+        when(config.getMaxBatchSize()).thenReturn(10);
+        when(dao.apply(any())).thenThrow(new CapacityExceededException(10));
+
+        // Act
+        ResponseEntity result = sut.applyBatch(null, List.of(
+                WidgetOperation.builder().op(WidgetOperation.Type.CREATE)
+                        .widget(Widget.builder().x(1).y(1).width(1).height(1).build()).build()
+        ));
+
+        // Assert
+        assertThat(result.getStatusCode(), is(HttpStatus.INSUFFICIENT_STORAGE));
+    }
+
+    private static ByteArrayInputStream lines(final String... lines) {
+        return new ByteArrayInputStream((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * storage hands the snapshot to the capture, as storages which record changes do
+     */
+    @SuppressWarnings("unchecked")
+    private void snapshot(final List<Widget> widgets) {
+        when(dao.snapshot(any())).thenAnswer(invocation ->
+                invocation.<Function<List<Widget>, Object>>getArgument(0).apply(widgets));
+    }
+}
@@ -0,0 +1,55 @@
+package dev.widget.widgetservice.models;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class IsoInstantDeserializerTest {
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @Test
+    void parsesWhatIsWritten() throws Exception {
+        for (Instant instant : List.of(Instant.EPOCH, Instant.parse("2020-02-29T23:59:59Z"),
+                Instant.parse("2020-01-01T10:00:00.100Z"), Instant.parse("1969-12-31T23:59:59.999999999Z"),
+                Instant.now())) {
+            // Arrange
+            String text = instant.toString();
+
+            // Act
+            Instant result = IsoInstantDeserializer.parse(text.toCharArray(), 0, text.length());
+
+            // Assert
+            assertThat(text, result, is(instant));
+        }
+    }
+
+    @Test
+    void leavesOtherFormsToStandardDeserializer() {
+        for (String text : List.of("2020-01-01T10:00:00+01:00", "2020-01-01T10:00:00.Z", "2020-02-30T10:00:00Z",
+                "2020-01-01T24:00:00Z", "2020-01-01 10:00:00Z", "+12020-01-01T10:00:00Z", "2020-01-01T10:00:0xZ")) {
+            // Act
+            Instant result = IsoInstantDeserializer.parse(text.toCharArray(), 0, text.length());
+
+            // Assert
+            assertThat(text, result, nullValue());
+        }
+    }
+
+    @Test
+    void widgetReadsInstantsAndTimestamps() throws Exception {
+        // Act
+        Widget fast = mapper.readValue("{\"lastModification\":\"2020-01-01T10:00:00.5Z\"}", Widget.class);
+        Widget timestamp = mapper.readValue("{\"lastModification\":1577872800.5}", Widget.class);
+
+        // Assert
+        assertThat(fast.getLastModification(), is(Instant.parse("2020-01-01T10:00:00.500Z")));
+        assertThat(timestamp.getLastModification(), is(Instant.parse("2020-01-01T10:00:00.500Z")));
+    }
+}
@@ -13,7 +13,7 @@ class WidgetTest {
     private void assertValidSource(Integer x, Integer y, Integer z, Integer w, Integer h, String id, Instant modified,
                                    boolean result) {
         // Act
-        Widget sut = new Widget(x, y, z, w, h, modified, id);
+        Widget sut = new Widget(x, y, z, w, h, modified, id, null);
 
         // Assert
         assertThat(sut.isValidSource(), is(result));
@@ -46,76 +46,76 @@ class WidgetTest {
 
         // Overwrites X if not null
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "source", null)
         ).getX(), is(6));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(null, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(null, 7, 8, 9, 10, now, "source", null)
         ).getX(), is(1));
 
         // Overwrites Y if not null
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "source", null)
         ).getY(), is(7));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, null, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, null, 8, 9, 10, now, "source", null)
         ).getY(), is(2));
 
         // Overwrites Z if not null
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "source", null)
         ).getZ(), is(8));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, null, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, null, 9, 10, now, "source", null)
         ).getZ(), is(3));
 
         // Overwrites weights if not null
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "source", null)
         ).getWidth(), is(9));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, null, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, null, 10, now, "source", null)
         ).getWidth(), is(4));
 
         // Overwrites heights if not null
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "source", null)
         ).getHeight(), is(10));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, null, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, null, now, "source", null)
         ).getHeight(), is(5));
 
         // Keep last modification date now matter what
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "source", null)
         ).getLastModification(), sameInstance(past));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, null, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, null, "source", null)
         ).getLastModification(), sameInstance(past));
 
         // Keeps ID no matter what
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "source")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "source", null)
         ).getId(), is("target"));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, "")
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, "", null)
         ).getId(), is("target"));
         assertThat(Widget.merge(
-                new Widget(1, 2, 3, 4, 5, past, "target"),
-                new Widget(6, 7, 8, 9, 10, now, null)
+                new Widget(1, 2, 3, 4, 5, past, "target", null),
+                new Widget(6, 7, 8, 9, 10, now, null, null)
         ).getId(), is("target"));
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package dev.widget.widgetservice.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BoardRingTest {
+    private static final String A = "http://a:8080";
+    private static final String B = "http://b:8080";
+    private static final String C = "http://c:8080";
+    private static final int BOARDS = 10_000;
+
+    BoardRing sut = new BoardRing(List.of(A, B, C), 128);
+
+    @Test
+    void ownerIsNullWithoutNodes() {
+        // Arrange
+        sut = new BoardRing(List.of(), 128);
+
+        // Act&Assert
+        assertThat(sut.owner("board"), nullValue());
+        assertThat(sut.isClustered(), is(false));
+    }
+
+    @Test
+    void ownerDoesNotDependOnOrderOfNodes() {
+        // Arrange
+        BoardRing other = new BoardRing(List.of(C, A, B), 128);
+
+        // Act&Assert
+        for (int i = 0; i < BOARDS; ++i) {
+            assertThat(other.owner("board-" + i), is(sut.owner("board-" + i)));
+        }
+    }
+
+    @Test
+    void boardsAreSpreadEvenly() {
+        // Act
+        Map<String, Long> counts = owners().values().stream()
+                .collect(Collectors.groupingBy(owner -> owner, Collectors.counting()));
+
+        // Assert
+        assertThat(counts.keySet(), containsInAnyOrder(A, B, C));
+        for (long count : counts.values()) {
+            assertThat((double) count, closeTo(BOARDS / 3.0, BOARDS * 0.05));
+        }
+    }
+
+    @Test
+    void joiningNodeTakesBoardsOnlyFromOthers() {
+        // Arrange
+        Map<String, String> before = owners();
+
+        // Act
+        sut.setNodes(List.of(A, B, C, "http://d:8080"));
+
+        // Assert
+        Map<String, String> after = owners();
+        long moved = before.keySet().stream()
+                .filter(board -> !after.get(board).equals(before.get(board)))
+                .peek(board -> assertThat(after.get(board), is("http://d:8080")))
+                .count();
+        assertThat((double) moved, closeTo(BOARDS / 4.0, BOARDS * 0.05));
+    }
+
+    @Test
+    void boardsOfLeavingNodeMoveOnlyFromIt() {
+        // Arrange
+        Map<String, String> before = owners();
+
+        // Act
+        sut.setNodes(List.of(A, C));
+
+        // Assert
+        Map<String, String> after = owners();
+        before.forEach((board, owner) -> {
+            if (!owner.equals(B)) {
+                assertThat(after.get(board), is(owner));
+            }
+        });
+        assertThat(after.values(), everyItem(oneOf(A, C)));
+        assertThat(sut.getNodes(), contains(A, C));
+    }
+
+    @Test
+    void virtualNodesMustBePositive() {
+        // Act&Assert
+        assertThrows(IllegalArgumentException.class, () -> new BoardRing(List.of(A), 0));
+    }
+
+    private Map<String, String> owners() {
+        Map<String, String> owners = new HashMap<>();
+        IntStream.range(0, BOARDS).forEach(i -> owners.put("board-" + i, sut.owner("board-" + i)));
+        return owners;
+    }
+
+    @Test
+    void previousOwnerIsNullUntilNodesChange() {
+        // Act&Assert
+        assertThat(sut.previousOwner("board"), nullValue());
+    }
+
+    @Test
+    void previousOwnerIsOwnerBeforeLastChange() {
+        // Arrange
+        sut.setNodes(List.of(A, B));
+        Map<String, String> before = owners();
+
+        // Act
+        sut.setNodes(List.of(A));
+
+        // Assert
+        before.forEach((board, owner) -> assertThat(sut.previousOwner(board), is(owner)));
+    }
+
+    @Test
+    void takenOverBoardsAreForgottenOnChange() {
+        // Arrange
+        sut.setTakenOver("board");
+
+        // Act
+        boolean before = sut.isTakenOver("board");
+        sut.setNodes(List.of(A));
+
+        // Assert
+        assertThat(before, is(true));
+        assertThat(sut.isTakenOver("board"), is(false));
+    }
+}
@@ -0,0 +1,376 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class DurableWidgetDaoTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void restartRestoresState() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path)) {
+            Widget first = sut.create(Widget.builder().x(1).y(1).width(10).height(10).build());
+            Widget second = sut.create(Widget.builder().x(2).z(0).build()); // pushes first up
+            sut.create(new Widget());
+            sut.update(Widget.builder().id(first.getId()).x(100).z(0).build()); // pushes second up
+            sut.delete(second.getId());
+            assertThat(sut.update(Widget.builder().id("missing").build()), nullValue());
+            assertThat(sut.delete("missing"), is(false));
+            before = sut.getAll(100, 0);
+        }
+
+        // Act
+        try (DurableWidgetDao sut = open(path)) {
+
+            // Assert
+            assertThat(sut.getAll(100, 0), is(before));
+            assertThat(sut.getAllInArea(Area.of(0, 0, 200, 200), false, 10, Integer.MIN_VALUE), contains(before.get(0)));
+        }
+    }
+
+    @Test
+    void restartRestoresStateAfterBatch() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path)) {
+            Widget first = sut.create(Widget.builder().z(0).build());
+            Widget second = sut.create(Widget.builder().z(1).build());
+            List<Widget> result = sut.apply(List.of(
+                    Operation.create(Widget.builder().z(0).build()), // pushes both up
+                    Operation.update(first.getId(), Widget.builder().id(first.getId()).x(7).z(5).build()),
+                    Operation.delete(second.getId())
+            ));
+            assertThat(result.get(2), is(second.toBuilder().z(2).build()));
+            before = sut.getAll(100, 0);
+        }
+
+        // Act
+        try (DurableWidgetDao sut = open(path)) {
+
+            // Assert
+            assertThat(sut.getAll(100, 0), is(before));
+            assertThat(before, hasSize(2));
+        }
+    }
+
+    @Test
+    void restartRestoresBulk() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        List<Widget> bulk = new ArrayList<>();
+        for (int z = 0; z < 100; ++z) {
+            bulk.add(Widget.builder().id("id" + z).x(z).y(z).z(z).width(1).height(1).build());
+        }
+        try (DurableWidgetDao sut = open(path)) {
+            sut.restoreAll(bulk);
+        }
+
+        // Act
+        try (DurableWidgetDao sut = open(path)) {
+
+            // Assert
+            assertThat(sut.getAll(1_000, 0), is(bulk));
+        }
+    }
+
+    @Test
+    void restartRestoresStateAfterConcurrentWrites() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 200; ++j) {
+                        Widget created = sut.create(Widget.builder().z(ThreadLocalRandom.current().nextInt(50)).build());
+                        if (j % 3 == 0) {
+                            sut.update(Widget.builder().id(created.getId()).z(ThreadLocalRandom.current().nextInt(50))
+                                    .build());
+                        }
+                        if (j % 5 == 0) {
+                            sut.delete(created.getId());
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            before = sut.getAll(1_000, 0);
+        }
+        executor.shutdown();
+
+        // Act
+        try (DurableWidgetDao sut = open(path)) {
+
+            // Assert
+            assertThat(sut.getAll(1_000, 0), is(before));
+        }
+    }
+
+    @Test
+    void restartLoadsSnapshotWrittenOnClose() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Path snapshot = directory.resolve("widgets.snapshot");
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path, snapshot, storage())) {
+            for (int i = 0; i < 100; ++i) {
+                sut.create(Widget.builder().z(i % 10).build());
+            }
+            before = sut.getAll(1_000, 0);
+        }
+        InMemoryWidgetDao storage = spy(storage());
+
+        // Act
+        try (DurableWidgetDao sut = open(path, snapshot, storage)) {
+
+            // Assert
+            assertThat(sut.getAll(1_000, 0), is(before));
+            verify(storage).restoreAll(anyList());
+            verify(storage, never()).restore(any());
+        }
+    }
+
+    @Test
+    void restartReplaysOnlyChangesAfterSnapshot() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Path snapshot = directory.resolve("widgets.snapshot");
+        Path copy = directory.resolve("copy.snapshot");
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path, snapshot, storage())) {
+            for (int i = 0; i < 100; ++i) {
+                sut.create(Widget.builder().z(i % 10).build());
+            }
+            sut.checkpoint();
+            Files.copy(snapshot, copy);
+            Widget created = sut.create(Widget.builder().z(0).build());
+            sut.update(Widget.builder().id(created.getId()).x(5).build());
+            sut.delete(sut.getAll(1, 50).get(0).getId());
+            before = sut.getAll(1_000, 0);
+        }
+        Files.move(copy, snapshot, StandardCopyOption.REPLACE_EXISTING); // as if crashed before the last checkpoint
+        InMemoryWidgetDao storage = spy(storage());
+
+        // Act
+        try (DurableWidgetDao sut = open(path, snapshot, storage)) {
+
+            // Assert
+            assertThat(sut.getAll(1_000, 0), is(before));
+            verify(storage).restoreAll(argThat(widgets -> widgets.size() == 100));
+            verify(storage, times(2)).restore(any());
+            verify(storage).delete(any());
+        }
+    }
+
+    @Test
+    void restartFallsBackToLogIfSnapshotIsCorrupt() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Path snapshot = directory.resolve("widgets.snapshot");
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path, snapshot, storage())) {
+            for (int i = 0; i < 100; ++i) {
+                sut.create(Widget.builder().z(i % 10).build());
+            }
+            before = sut.getAll(1_000, 0);
+        }
+        Files.deleteIfExists(directory.resolve("widgets.snapshot.previous"));
+        byte[] content = Files.readAllBytes(snapshot);
+        Files.write(snapshot, Arrays.copyOf(content, content.length / 2)); // torn copy
+
+        // Act
+        try (DurableWidgetDao sut = open(path, snapshot, storage())) {
+
+            // Assert
+            assertThat(sut.getAll(1_000, 0), is(before));
+        }
+    }
+
+    @Test
+    void restartFallsBackToPreviousSnapshot() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Path snapshot = directory.resolve("widgets.snapshot");
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path, snapshot, storage(), 1)) {
+            for (int i = 0; i < 100; ++i) {
+                sut.create(Widget.builder().z(i % 10).build());
+                if (i % 10 == 0) {
+                    sut.checkpoint();
+                }
+            }
+            before = sut.getAll(1_000, 0);
+        }
+        byte[] content = Files.readAllBytes(snapshot);
+        content[content.length / 2] ^= 1;
+        Files.write(snapshot, content);
+        InMemoryWidgetDao storage = spy(storage());
+
+        // Act
+        try (DurableWidgetDao sut = open(path, snapshot, storage, 1)) {
+
+            // Assert
+            assertThat(sut.getAll(1_000, 0), is(before));
+            verify(storage).restoreAll(argThat(widgets -> widgets.size() == 91));
+        }
+    }
+
+    @Test
+    void checkpointTruncatesLogBeforePreviousSnapshot() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Path snapshot = directory.resolve("widgets.snapshot");
+        try (DurableWidgetDao sut = open(path, snapshot, storage(), 1)) {
+            for (int i = 0; i < 100; ++i) {
+                sut.create(Widget.builder().z(i % 10).build());
+            }
+            sut.checkpoint();
+            sut.create(new Widget());
+
+            // Act
+            sut.checkpoint();
+
+            // Assert
+            try (Stream<Path> files = Files.list(directory)) {
+                assertThat(files.filter(file -> file.getFileName().toString().startsWith("widgets.wal"))
+                        .count(), is(2L)); // segment of the previous snapshot, and the empty last one
+            }
+            assertThat(Files.exists(path), is(false));
+        }
+    }
+
+    @Test
+    void checkpointSucceedsAfterFailedWrite() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Path snapshot = directory.resolve("widgets.snapshot");
+        Path temporary = directory.resolve("widgets.snapshot.tmp");
+        List<Widget> before;
+        try (DurableWidgetDao sut = open(path, snapshot, storage())) {
+            sut.create(new Widget());
+            sut.checkpoint();
+            sut.create(new Widget());
+            Files.createDirectory(temporary); // snapshot can't be written over a directory
+            assertThrows(IOException.class, sut::checkpoint);
+            Files.delete(temporary);
+            sut.create(new Widget());
+
+            // Act
+            sut.checkpoint();
+
+            // Assert
+            assertThat(Files.exists(snapshot), is(true));
+            before = sut.getAll(1_000, 0);
+        }
+        try (DurableWidgetDao sut = open(path, snapshot, storage())) {
+            assertThat(sut.getAll(1_000, 0), is(before));
+        }
+    }
+
+    @Test
+    void restartNeverRepeatsVersion() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Path snapshot = directory.resolve("widgets.snapshot");
+        Instant start = Instant.ofEpochSecond(1_600_000_000L);
+        long before;
+        try (DurableWidgetDao sut = open(path, snapshot, storage(Clock.fixed(start, ZoneOffset.UTC)))) {
+            for (int i = 0; i < 100; ++i) {
+                sut.create(Widget.builder().z(i % 10).build());
+            }
+            before = sut.version();
+        }
+
+        // Act
+        try (DurableWidgetDao sut = open(path, snapshot,
+                storage(Clock.fixed(start.plusSeconds(1), ZoneOffset.UTC)))) {
+
+            // Assert
+            assertThat(sut.version(), greaterThan(before));
+        }
+    }
+
+    @Test
+    void checkpointsPeriodically() throws Exception {
+        // Arrange
+        Path snapshot = directory.resolve("widgets.snapshot");
+        try (DurableWidgetDao sut = new DurableWidgetDao(storage(),
+                new WriteAheadLog(directory.resolve("widgets.wal"), Duration.ZERO, 64), snapshot,
+                Duration.ofMillis(10))) {
+
+            // Act
+            sut.create(new Widget());
+
+            // Assert
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!Files.exists(snapshot) && (System.nanoTime() < deadline)) {
+                Thread.sleep(10);
+            }
+            assertThat(Files.exists(snapshot), is(true));
+        }
+    }
+
+    private static DurableWidgetDao open(final Path path) throws Exception {
+        return new DurableWidgetDao(storage(), new WriteAheadLog(path, Duration.ofMillis(1), 64));
+    }
+
+    private static DurableWidgetDao open(final Path path, final Path snapshot, final InMemoryWidgetDao storage)
+            throws Exception {
+        return new DurableWidgetDao(storage, new WriteAheadLog(path, Duration.ZERO, 64), snapshot, Duration.ZERO);
+    }
+
+    private static DurableWidgetDao open(final Path path, final Path snapshot, final InMemoryWidgetDao storage,
+                                         final long segmentSize) throws Exception {
+        return new DurableWidgetDao(storage, new WriteAheadLog(path, Duration.ZERO, 64, segmentSize), snapshot,
+                Duration.ZERO);
+    }
+
+    private static InMemoryWidgetDao storage() {
+        return storage(Clock.systemUTC());
+    }
+
+    private static InMemoryWidgetDao storage(final Clock clock) {
+        return new InMemoryWidgetDao(new IdGenerator(), new ArrayList<>(), new ConcurrentHashMap<>(), clock,
+                new SnapshotWidgetLock());
+    }
+}
@@ -0,0 +1,48 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toUnmodifiableList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class GapWidgetDaoTest extends WidgetDaoContractTest {
+    @Override
+    WidgetDao<Widget> createSut(final IdGenerator idGenerator, final Clock clock) {
+        return new GapWidgetDao(idGenerator, clock);
+    }
+
+    @Override
+    int randomOperations() {
+        return 20_000; // enough to grow, rebalance and shrink the gaps several times
+    }
+
+    @Test
+    void pushUpsSurviveGrowthAndShrink() {
+        // Arrange
+        List<Widget> existing = IntStream.range(0, 2_000).mapToObj(i -> sut.create(Widget.builder().z(0).build()))
+                .collect(toUnmodifiableList()); // every one pushes up all the previous ones
+
+        // Act
+        for (int i = 0; i < 1_990; ++i) {
+            assertThat(sut.delete(existing.get(i).getId()), is(true));
+        }
+        Widget result = sut.create(Widget.builder().z(2).build());
+
+        // Assert
+        List<Widget> widgets = sut.getAll(100, 0);
+        assertThat(widgets.size(), is(11));
+        assertThat(widgets.get(0).getId(), is(existing.get(1_999).getId()));
+        assertThat(widgets.get(0).getZ(), is(0));
+        assertThat(widgets.get(2), is(result));
+        assertThat(widgets.get(10).getId(), is(existing.get(1_990).getId()));
+        assertThat(widgets.get(10).getZ(), is(10));
+        assertThat(sut.delete(existing.get(0).getId()), is(false));
+        assertThat(sut.get(existing.get(0).getId()), nullValue());
+    }
+}
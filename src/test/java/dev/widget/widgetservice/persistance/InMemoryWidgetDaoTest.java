@@ -1,6 +1,7 @@
 package dev.widget.widgetservice.persistance;
 
 import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,16 +11,25 @@ import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toUnmodifiableList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,7 +40,7 @@ class InMemoryWidgetDaoTest {
 
     // used to spy on DAO's internal state
     ArrayList<Widget> widgets;
-    Map<String, Widget> lookup;
+    ConcurrentHashMap<String, Widget> lookup;
 
     @Mock
     Clock clock;
@@ -40,8 +50,9 @@ class InMemoryWidgetDaoTest {
     @BeforeEach
     void before() {
         widgets = new ArrayList<>();
-        lookup = new HashMap<>();
-        sut = new InMemoryWidgetDao(idGenerator, widgets, lookup, clock);
+        lookup = new ConcurrentHashMap<>();
+        sut = new InMemoryWidgetDao(idGenerator, widgets, lookup, clock, new MonitorWidgetLock());
+        lenient().when(idGenerator.generateId()).thenCallRealMethod(); // lookup doesn't support null keys
     }
 
     @Test
@@ -57,7 +68,7 @@ class InMemoryWidgetDaoTest {
         Widget src = new Widget(ThreadLocalRandom.current().nextInt(), ThreadLocalRandom.current().nextInt(),
                 ThreadLocalRandom.current().nextInt(), ThreadLocalRandom.current().nextInt(),
                 ThreadLocalRandom.current().nextInt(),
-                past, wrongId);
+                past, wrongId, null);
 
         // Act
         Widget result = sut.create(src);
@@ -195,6 +206,142 @@ class InMemoryWidgetDaoTest {
         }
     }
 
+    @Test
+    void getAllReturnsPublishedStateOnly() {
+        // Arrange
+        IntStream.range(0, 10).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+        List<Widget> before = sut.getAll(100, 0);
+
+        // Act
+        sut.create(Widget.builder().z(0).build());
+
+        // Assert
+        for (int i = 0; i < before.size(); ++i) {
+            assertThat(before.get(i).getZ(), is(i)); // widgets seen by readers are never pushed in place
+        }
+        List<Widget> after = sut.getAll(100, 0);
+        assertThat(after.size(), is(11));
+        for (int i = 0; i < after.size(); ++i) {
+            assertThat(after.get(i).getZ(), is(i));
+            assertThat(sut.get(after.get(i).getId()), sameInstance(after.get(i)));
+        }
+    }
+
+    @Test
+    void getAllSeesChangesAcrossSnapshotChunks() {
+        // Arrange
+        List<Widget> created = IntStream.range(0, 3_000).mapToObj(z -> sut.create(new Widget()))
+                .collect(toUnmodifiableList());
+        sut.delete(created.get(1500).getId());
+        sut.update(created.get(2999).toBuilder().z(0).build()); // pushes everything up
+        sut.update(created.get(10).toBuilder().x(42).build());
+
+        // Act
+        List<Widget> result = sut.getAll(5_000, 0);
+
+        // Assert
+        assertThat(result, is(widgets));
+        assertThat(sut.getAll(10, 2_990), is(widgets.subList(2_990, 2_999)));
+    }
+
+    @Test
+    void snapshotIsNotChangedByLaterWrites() {
+        // Arrange
+        IntStream.range(0, 2000).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+        List<Widget> snapshot = sut.snapshot();
+
+        // Act
+        sut.create(Widget.builder().z(0).build());
+        sut.delete(snapshot.get(1500).getId());
+
+        // Assert
+        assertThat(snapshot.size(), is(2000));
+        for (int i = 0; i < snapshot.size(); ++i) {
+            assertThat(snapshot.get(i).getZ(), is(i));
+        }
+        assertThat(sut.snapshot(), is(sut.getAll(Integer.MAX_VALUE, 0)));
+    }
+
+    @Test
+    void versionStartsFromCreationTime() {
+        // Arrange
+        when(clock.millis()).thenReturn(1_600_000_000_000L);
+
+        // Act
+        InMemoryWidgetDao result = new InMemoryWidgetDao(idGenerator, new ArrayList<>(), new ConcurrentHashMap<>(),
+                clock, new MonitorWidgetLock());
+
+        // Assert
+        assertThat(result.version(), is(1_600_000_000_000_000L));
+    }
+
+    @Test
+    void versionGrowsWithEveryChange() {
+        // Arrange
+        long initial = sut.version();
+
+        // Act&Assert
+        Widget existing = sut.create(new Widget());
+        assertThat(sut.version(), is(initial + 1));
+        sut.update(existing.toBuilder().x(1).build());
+        assertThat(sut.version(), is(initial + 2));
+        sut.delete(existing.getId());
+        assertThat(sut.version(), is(initial + 3));
+        sut.delete(existing.getId()); // no changes, no new version
+        sut.update(existing);
+        assertThat(sut.version(), is(initial + 3));
+    }
+
+    @Test
+    void getAllAfterReturnsPageAboveCursor() {
+        // Arrange
+        IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(2 * z).build()).forEach(sut::create);
+
+        // Act
+        List<Widget> fromExisting = sut.getAllAfter(10, 20);
+        List<Widget> fromGap = sut.getAllAfter(10, 21);
+        List<Widget> fromBelow = sut.getAllAfter(3, Integer.MIN_VALUE);
+        List<Widget> last = sut.getAllAfter(10, 190);
+        List<Widget> fromAbove = sut.getAllAfter(10, Integer.MAX_VALUE);
+
+        // Assert
+        assertThat(fromExisting.size(), is(10));
+        assertThat(fromExisting.get(0).getZ(), is(22));
+        assertThat(fromExisting.get(9).getZ(), is(40));
+        assertThat(fromGap.get(0).getZ(), is(22));
+        assertThat(fromBelow.size(), is(3));
+        assertThat(fromBelow.get(0).getZ(), is(0));
+        assertThat(last.size(), is(4));
+        assertThat(last.get(3).getZ(), is(198));
+        assertThat(fromAbove, empty());
+    }
+
+    @Test
+    void getAllInAreaFollowsMovedWidgets() {
+        // Arrange
+        Widget inside = sut.create(Widget.builder().x(10).y(10).z(5).width(10).height(10).build());
+        Widget crossing = sut.create(Widget.builder().x(90).y(90).z(1).width(20).height(20).build());
+        Widget deleted = sut.create(Widget.builder().x(20).y(20).z(2).width(10).height(10).build());
+        Widget moved = sut.create(Widget.builder().x(500).y(10).z(7).width(10).height(10).build());
+        sut.update(Widget.builder().id(moved.getId()).x(50).build());
+        sut.delete(deleted.getId());
+        sut.create(Widget.builder().z(1).build()); // push up, not indexed
+
+        // Act
+        List<Widget> result = sut.getAllInArea(Area.of(100, 100, 0, 0), false, 10, Integer.MIN_VALUE);
+        List<Widget> intersecting = sut.getAllInArea(Area.of(0, 0, 100, 100), true, 10, Integer.MIN_VALUE);
+        List<Widget> page = sut.getAllInArea(Area.of(0, 0, 100, 100), true, 2, 2);
+
+        // Assert
+        assertThat(result.stream().map(Widget::getId).collect(toUnmodifiableList()),
+                contains(inside.getId(), moved.getId()));
+        assertThat(result.get(0).getZ(), is(6));
+        assertThat(intersecting.stream().map(Widget::getId).collect(toUnmodifiableList()),
+                contains(crossing.getId(), inside.getId(), moved.getId()));
+        assertThat(page.stream().map(Widget::getId).collect(toUnmodifiableList()),
+                contains(inside.getId(), moved.getId()));
+    }
+
     @Test
     void updateReturnsNullIfNotFound() {
         // Arrange
@@ -209,6 +356,51 @@ class InMemoryWidgetDaoTest {
         assertThat(result, nullValue());
     }
 
+    @Test
+    void updateBumpsVersion() {
+        // Arrange
+        when(idGenerator.generateId()).thenCallRealMethod();
+        Widget existing = sut.create(Widget.builder().x(1).y(2).z(3).width(4).build());
+
+        // Act
+        Widget result = sut.update(Widget.builder().x(11).id(existing.getId()).version(1L).build());
+
+        // Assert
+        assertThat(existing.getVersion(), is(1L));
+        assertThat(result.getVersion(), is(2L));
+        assertThat(sut.get(existing.getId()).getVersion(), is(2L));
+    }
+
+    @Test
+    void updateRejectsStaleVersion() {
+        // Arrange
+        when(idGenerator.generateId()).thenCallRealMethod();
+        Widget existing = sut.create(Widget.builder().x(1).y(2).z(3).width(4).build());
+        sut.update(Widget.builder().x(11).id(existing.getId()).build());
+
+        // Act
+        VersionMismatchException e = assertThrows(VersionMismatchException.class,
+                () -> sut.update(Widget.builder().x(21).id(existing.getId()).version(1L).build()));
+
+        // Assert
+        assertThat(e.getMessage(), containsString("version 2"));
+        assertThat(sut.get(existing.getId()).getX(), is(11));
+    }
+
+    @Test
+    void pushUpKeepsVersion() {
+        // Arrange
+        when(idGenerator.generateId()).thenCallRealMethod();
+        Widget existing = sut.create(Widget.builder().z(1).build());
+
+        // Act
+        sut.create(Widget.builder().z(1).build());
+
+        // Assert
+        assertThat(sut.get(existing.getId()).getZ(), is(2));
+        assertThat(sut.get(existing.getId()).getVersion(), is(1L));
+    }
+
     @Test
     void updateUpdatesData() {
         // Arrange
@@ -264,6 +456,511 @@ class InMemoryWidgetDaoTest {
         }
     }
 
+    @Test
+    void restoreKeepsIdAndModification() {
+        // Arrange
+        IntStream.range(0, 10).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+        Instant past = Instant.ofEpochSecond(1_600_000_000L, 42);
+        Widget src = Widget.builder().id("restored").x(1).y(2).z(5).width(3).height(4).lastModification(past).build();
+
+        // Act
+        Widget result = sut.restore(src);
+
+        // Assert
+        assertThat(result, is(src));
+        assertThat(sut.get("restored"), is(src));
+        assertThat(sut.getAllInArea(Area.of(0, 0, 10, 10), false, 10, Integer.MIN_VALUE), contains(src));
+
+        // Spy on internals
+        assertThat(widgets.size(), is(11));
+        for (int i = 0; i < widgets.size(); ++i) {
+            assertThat(widgets.get(i).getZ(), is(i));
+        }
+        assertThat(widgets.get(5), is(src));
+    }
+
+    @Test
+    void restoreReplacesExistingWidget() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().x(1).y(1).width(1).height(1).build());
+        Widget src = existing.toBuilder().x(100).lastModification(Instant.ofEpochSecond(1)).build();
+
+        // Act
+        sut.restore(src);
+
+        // Assert
+        assertThat(sut.getAll(10, 0), contains(src));
+        assertThat(sut.getAllInArea(Area.of(0, 0, 10, 10), false, 10, Integer.MIN_VALUE), empty());
+    }
+
+    @Test
+    void restoreAllPublishesBulkAtOnce() {
+        // Arrange
+        List<Widget> src = IntStream.range(0, 3_000)
+                .mapToObj(z -> Widget.builder().id("id" + z).x(z).y(z).z(z).width(1).height(1)
+                        .lastModification(Instant.ofEpochSecond(z)).build())
+                .collect(toUnmodifiableList());
+        long version = sut.version();
+
+        // Act
+        sut.restoreAll(src);
+
+        // Assert
+        assertThat(sut.version(), is(version + 1));
+        assertThat(sut.getAll(3_000, 0), is(src));
+        assertThat(sut.get("id42"), is(src.get(42)));
+        assertThat(sut.getAllInArea(Area.of(10, 10, 12, 12), false, 10, Integer.MIN_VALUE),
+                contains(src.get(10), src.get(11)));
+    }
+
+    @Test
+    void restoreAllMergesIntoNonEmptyStorage() {
+        // Arrange
+        Widget low = sut.create(Widget.builder().x(0).y(0).z(2).width(1).height(1).build());
+        Widget high = sut.create(Widget.builder().z(6).build());
+        List<Widget> src = List.of(Widget.builder().id("a").x(0).y(0).z(1).width(1).height(1).build(),
+                Widget.builder().id("b").z(4).build(), Widget.builder().id("c").z(9).build());
+        long version = sut.version();
+
+        // Act
+        sut.restoreAll(new ArrayList<>(src));
+
+        // Assert
+        assertThat(sut.version(), is(version + 1));
+        assertThat(sut.getAll(10, 0), contains(src.get(0), low, src.get(1), high, src.get(2)));
+        assertThat(sut.get("b"), is(src.get(1)));
+        assertThat(sut.getAllInArea(Area.of(0, 0, 1, 1), false, 10, Integer.MIN_VALUE), contains(src.get(0), low));
+    }
+
+    @Test
+    void restoreAllRejectsStoredZ() {
+        // Arrange
+        Widget existing = sut.create(new Widget());
+
+        // Act&Assert
+        assertThrows(IllegalStateException.class,
+                () -> sut.restoreAll(List.of(Widget.builder().id("id").z(existing.getZ()).build())));
+        assertThat(sut.getAll(10, 0), contains(existing));
+    }
+
+    @Test
+    void restoreAllRejectsStoredId() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(0).build());
+
+        // Act&Assert
+        assertThrows(IllegalStateException.class,
+                () -> sut.restoreAll(List.of(Widget.builder().id(existing.getId()).z(1).build())));
+        assertThat(sut.getAll(10, 0), contains(existing));
+    }
+
+    @Test
+    void restoreAllRejectsDuplicateIds() {
+        // Arrange
+        List<Widget> src = List.of(Widget.builder().id("id").z(0).build(), Widget.builder().id("id").z(1).build());
+
+        // Act&Assert
+        assertThrows(IllegalArgumentException.class, () -> sut.restoreAll(src));
+        assertThat(sut.getAll(10, 0), empty());
+        sut.restore(src.get(0));
+        assertThat(sut.getAll(10, 0), contains(src.get(0)));
+    }
+
+    @Test
+    void pushUpListenerGetsNumberOfPushedWidgets() {
+        // Arrange
+        List<Integer> pushUps = new ArrayList<>();
+        sut.setPushUpListener(pushUps::add);
+        IntStream.range(0, 5).forEach(z -> sut.create(Widget.builder().z(z).build()));
+
+        // Act
+        sut.create(Widget.builder().z(2).build());
+
+        // Assert
+        assertThat(pushUps, contains(0, 0, 0, 0, 0, 3));
+    }
+
+    @Test
+    void pushUpListenerGetsNumberOfWidgetsPushedByBatch() {
+        // Arrange
+        List<Integer> pushUps = new ArrayList<>();
+        IntStream.range(0, 5).forEach(z -> sut.create(Widget.builder().z(z).build()));
+        sut.setPushUpListener(pushUps::add);
+
+        // Act
+        sut.apply(List.of(
+                Operation.create(Widget.builder().z(1).build()),
+                Operation.create(Widget.builder().z(1).build()),
+                Operation.create(Widget.builder().z(100).build())
+        ));
+
+        // Assert
+        assertThat(pushUps, contains(4, 5, 0));
+    }
+
+    @Test
+    void changeListenerGetsPushUpAsRangeBeforeChange() {
+        // Arrange
+        List<List<WidgetChange>> changes = new ArrayList<>();
+        IntStream.range(0, 5).forEach(z -> sut.create(Widget.builder().z(z).build()));
+        sut.setChangeListener(changes::add);
+
+        // Act
+        Widget created = sut.create(Widget.builder().z(2).build());
+
+        // Assert
+        assertThat(changes, contains(List.of(WidgetChange.pushed(2, 4),
+                versioned(WidgetChange.created(created), sut.version()))));
+    }
+
+    @Test
+    void changeListenerGetsResetOnBulkRestore() {
+        // Arrange
+        List<List<WidgetChange>> changes = new ArrayList<>();
+        sut.setChangeListener(changes::add);
+
+        // Act
+        sut.restoreAll(new ArrayList<>(List.of(Widget.builder().id("1").z(0).build())));
+
+        // Assert
+        assertThat(changes, contains(List.of(versioned(WidgetChange.reset(), sut.version()))));
+    }
+
+    @Test
+    void changesReplayedOnCopyMatchStorage() {
+        // Arrange
+        Clock fixed = Clock.fixed(Instant.ofEpochSecond(1_000), ZoneOffset.UTC);
+        sut = new InMemoryWidgetDao(sequentialIdGenerator(), widgets, lookup, fixed, new MonitorWidgetLock());
+        List<Widget> copy = new ArrayList<>();
+        sut.setChangeListener(changes -> changes.forEach(change -> replay(copy, change)));
+        Random random = new Random(7);
+        List<String> ids = new ArrayList<>();
+
+        // Act
+        for (int round = 0; round < 200; ++round) {
+            int kind = random.nextInt(4);
+            if ((kind == 0) || ids.isEmpty()) {
+                ids.add(sut.create(randomWidget(random, 100)).getId());
+            } else if (kind == 1) {
+                String id = ids.get(random.nextInt(ids.size()));
+                sut.update(randomWidget(random, 100).toBuilder().id(id).build());
+            } else if (kind == 2) {
+                sut.delete(ids.remove(random.nextInt(ids.size())));
+            } else {
+                List<Operation<Widget>> batch = new ArrayList<>();
+                for (int i = 0; i < 1 + random.nextInt(10); ++i) {
+                    batch.add(Operation.create(randomWidget(random, 100)));
+                }
+                String id = ids.get(random.nextInt(ids.size()));
+                batch.add(Operation.update(id, randomWidget(random, 100).toBuilder().id(id).build()));
+                sut.apply(batch).stream().map(Widget::getId).filter(result -> !ids.contains(result)).forEach(ids::add);
+            }
+        }
+
+        // Assert
+        assertThat(copy, is(sut.getAll(Integer.MAX_VALUE, 0)));
+    }
+
+    @Test
+    void replayOnFollowerMatchesStorage() {
+        // Arrange
+        Clock fixed = Clock.fixed(Instant.ofEpochSecond(1_000), ZoneOffset.UTC);
+        sut = new InMemoryWidgetDao(sequentialIdGenerator(), widgets, lookup, fixed, new MonitorWidgetLock());
+        InMemoryWidgetDao follower = new InMemoryWidgetDao(idGenerator, new ArrayList<>(), new ConcurrentHashMap<>(),
+                clock, new MonitorWidgetLock());
+        sut.setChangeListener(follower::replay);
+        Random random = new Random(11);
+        List<String> ids = new ArrayList<>();
+
+        // Act
+        for (int round = 0; round < 300; ++round) {
+            int kind = random.nextInt(4);
+            if ((kind == 0) || ids.isEmpty()) {
+                ids.add(sut.create(randomWidget(random, 20)).getId());
+            } else if (kind == 1) {
+                String id = ids.get(random.nextInt(ids.size()));
+                sut.update(randomWidget(random, 20).toBuilder().id(id).build());
+            } else if (kind == 2) {
+                sut.delete(ids.remove(random.nextInt(ids.size())));
+            } else {
+                List<Operation<Widget>> batch = new ArrayList<>();
+                for (int i = 0; i < 1 + random.nextInt(5); ++i) {
+                    batch.add(Operation.create(randomWidget(random, 20)));
+                }
+                String id = ids.get(random.nextInt(ids.size()));
+                batch.add(Operation.update(id, randomWidget(random, 20).toBuilder().id(id).build()));
+                sut.apply(batch).stream().map(Widget::getId).filter(result -> !ids.contains(result)).forEach(ids::add);
+            }
+            assertThat(follower.getAll(Integer.MAX_VALUE, 0), is(sut.getAll(Integer.MAX_VALUE, 0)));
+        }
+
+        // Assert
+        assertThat(follower.getAll(Integer.MAX_VALUE, 0), is(sut.getAll(Integer.MAX_VALUE, 0)));
+        assertThat(follower.getAllInArea(Area.of(0, 0, 50, 50), false, Integer.MAX_VALUE, Integer.MIN_VALUE),
+                is(sut.getAllInArea(Area.of(0, 0, 50, 50), false, Integer.MAX_VALUE, Integer.MIN_VALUE)));
+    }
+
+    @Test
+    void replayMovesUpdatedWidgetAsideBeforePushUp() {
+        // Arrange
+        Widget first = Widget.builder().id("first").z(1).build();
+        Widget second = Widget.builder().id("second").z(2).build();
+        sut.restoreAll(new ArrayList<>(List.of(first, second)));
+        Widget updated = second.toBuilder().z(1).build();
+
+        // Act
+        sut.replay(List.of(WidgetChange.pushed(1, 1), WidgetChange.updated(updated)));
+
+        // Assert
+        assertThat(sut.getAll(10, 0), contains(updated, first.toBuilder().z(2).build()));
+    }
+
+    @Test
+    void replayedChangesAreRecordedAgain() {
+        // Arrange
+        List<List<WidgetChange>> changes = new ArrayList<>();
+        sut.restoreAll(new ArrayList<>(List.of(Widget.builder().id("1").z(1).build())));
+        sut.setChangeListener(changes::add);
+        Widget created = Widget.builder().id("2").z(1).build();
+
+        // Act
+        sut.replay(List.of(WidgetChange.pushed(1, 1), versioned(WidgetChange.created(created), 42)));
+
+        // Assert
+        assertThat(sut.getAll(10, 0), contains(created, Widget.builder().id("1").z(2).build()));
+        assertThat(sut.version(), is(42L));
+        assertThat(changes, contains(List.of(WidgetChange.pushed(1, 1), versioned(WidgetChange.created(created), 42))));
+    }
+
+    @Test
+    void replayWithoutVersionGoesOnFromOwnVersion() {
+        // Arrange
+        long before = sut.version();
+
+        // Act
+        sut.replay(List.of(WidgetChange.created(Widget.builder().id("1").z(1).build())));
+
+        // Assert
+        assertThat(sut.version(), is(before + 1));
+    }
+
+    @Test
+    void reloadReplacesState() {
+        // Arrange
+        List<List<WidgetChange>> changes = new ArrayList<>();
+        Widget old = sut.create(Widget.builder().z(0).build());
+        sut.setChangeListener(changes::add);
+        Widget loaded = Widget.builder().id("loaded").x(1).y(1).z(5).width(1).height(1).build();
+
+        // Act
+        sut.reload(new ArrayList<>(List.of(loaded)), 42);
+
+        // Assert
+        assertThat(sut.getAll(10, 0), contains(loaded));
+        assertThat(sut.version(), is(42L));
+        assertThat(sut.get(old.getId()), nullValue());
+        assertThat(sut.getAllInArea(Area.of(0, 0, 10, 10), false, 10, Integer.MIN_VALUE), contains(loaded));
+        assertThat(changes, contains(List.of(versioned(WidgetChange.reset(), 42))));
+    }
+
+    @Test
+    void snapshotCapturesChangesRecordedSoFar() {
+        // Arrange
+        List<List<WidgetChange>> changes = new ArrayList<>();
+        sut.setChangeListener(changes::add);
+        Widget created = sut.create(Widget.builder().z(0).build());
+
+        // Act
+        int result = sut.snapshot(snapshot -> {
+            assertThat(snapshot, contains(created));
+            return changes.size();
+        });
+
+        // Assert
+        assertThat(result, is(1));
+    }
+
+    @Test
+    void applyMatchesOneByOne() {
+        // Arrange
+        Clock fixed = Clock.fixed(Instant.ofEpochSecond(1_000), ZoneOffset.UTC);
+        InMemoryWidgetDao expected = new InMemoryWidgetDao(sequentialIdGenerator(), new ArrayList<>(),
+                new ConcurrentHashMap<>(), fixed, new MonitorWidgetLock());
+        sut = new InMemoryWidgetDao(sequentialIdGenerator(), widgets, lookup, fixed, new MonitorWidgetLock());
+        Random random = new Random(42);
+        for (int i = 0; i < 300; ++i) {
+            Widget src = randomWidget(random, 200);
+            expected.create(src);
+            sut.create(src);
+        }
+        List<String> ids = expected.getAll(Integer.MAX_VALUE, 0).stream()
+                .map(Widget::getId)
+                .collect(toList());
+
+        for (int round = 0; round < 50; ++round) {
+            List<Operation<Widget>> batch = new ArrayList<>();
+            List<Widget> one = new ArrayList<>();
+            List<String> created = new ArrayList<>(); // ids are not known to clients before the batch is applied
+            for (int i = 0; i < 1 + random.nextInt(30); ++i) {
+                int kind = random.nextInt(3);
+                if ((kind == 0) || ids.isEmpty()) {
+                    Widget src = randomWidget(random, 250);
+                    batch.add(Operation.create(src));
+                    Widget widget = expected.create(src);
+                    created.add(widget.getId());
+                    one.add(widget);
+                } else if (kind == 1) {
+                    String id = ids.get(random.nextInt(ids.size()));
+                    Widget entity = randomWidget(random, 250).toBuilder().id(id).build();
+                    batch.add(Operation.update(id, entity));
+                    one.add(expected.update(entity));
+                } else {
+                    String id = ids.remove(random.nextInt(ids.size()));
+                    batch.add(Operation.delete(id));
+                    one.add(expected.get(id));
+                    expected.delete(id);
+                }
+            }
+            ids.addAll(created);
+
+            // Act
+            List<Widget> result = sut.apply(batch);
+
+            // Assert
+            assertThat(result, is(one));
+            assertThat(sut.getAll(Integer.MAX_VALUE, 0), is(expected.getAll(Integer.MAX_VALUE, 0)));
+            assertThat(sut.getAllInArea(Area.of(0, 0, 50, 50), false, Integer.MAX_VALUE, Integer.MIN_VALUE),
+                    is(expected.getAllInArea(Area.of(0, 0, 50, 50), false, Integer.MAX_VALUE, Integer.MIN_VALUE)));
+        }
+        for (Widget widget : widgets) {
+            assertThat(lookup, hasEntry(widget.getId(), widget));
+        }
+        assertThat(lookup.size(), is(widgets.size()));
+    }
+
+    @Test
+    void applyChangesNothingIfTargetIsMissing() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(0).build());
+        long version = sut.version();
+        List<Operation<Widget>> batch = List.of(
+                Operation.create(Widget.builder().z(0).build()),
+                Operation.delete(existing.getId()),
+                Operation.update(existing.getId(), existing.toBuilder().x(1).build())
+        );
+
+        // Act&Assert
+        WidgetNotFoundException e = assertThrows(WidgetNotFoundException.class, () -> sut.apply(batch));
+        assertThat(e.getMessage(), containsString(existing.getId()));
+        assertThat(sut.getAll(10, 0), contains(existing));
+        assertThat(sut.version(), is(version));
+    }
+
+    @Test
+    void applyChangesNothingIfVersionIsStale() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(0).build());
+        Widget other = sut.create(Widget.builder().z(1).build());
+        List<WidgetChange> published = new ArrayList<>();
+        sut.setChangeListener(published::addAll);
+        long version = sut.version();
+        List<Operation<Widget>> batch = List.of(
+                Operation.create(Widget.builder().z(0).build()),
+                Operation.update(other.getId(), Widget.builder().id(other.getId()).x(1).version(1L).build()),
+                Operation.update(existing.getId(), Widget.builder().id(existing.getId()).x(2).version(1L).build()),
+                Operation.update(existing.getId(), Widget.builder().id(existing.getId()).x(3).version(1L).build())
+        );
+
+        // Act&Assert
+        VersionMismatchException e = assertThrows(VersionMismatchException.class, () -> sut.apply(batch));
+        assertThat(e.getMessage(), containsString("version 2"));
+        assertThat(sut.getAll(10, 0), contains(existing, other));
+        assertThat(sut.version(), is(version));
+        assertThat(published, empty());
+    }
+
+    @Test
+    void applyExpectsVersionsOfEarlierUpdates() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(0).build());
+        List<Operation<Widget>> batch = List.of(
+                Operation.update(existing.getId(), Widget.builder().id(existing.getId()).x(2).version(1L).build()),
+                Operation.update(existing.getId(), Widget.builder().id(existing.getId()).x(3).version(2L).build())
+        );
+
+        // Act
+        List<Widget> result = sut.apply(batch);
+
+        // Assert
+        assertThat(result.get(1).getX(), is(3));
+        assertThat(result.get(1).getVersion(), is(3L));
+        assertThat(sut.get(existing.getId()), is(result.get(1)));
+    }
+
+    @Test
+    void applyReturnsStateRightAfterEveryOperation() {
+        // Arrange
+        Instant now = Instant.now();
+        when(clock.instant()).thenReturn(now);
+        Widget bottom = sut.create(Widget.builder().z(0).build());
+
+        // Act
+        List<Widget> result = sut.apply(List.of(
+                Operation.create(Widget.builder().z(0).build()),
+                Operation.create(Widget.builder().z(0).build()),
+                Operation.delete(bottom.getId())
+        ));
+
+        // Assert
+        assertThat(result.get(0).getZ(), is(0));
+        assertThat(result.get(1).getZ(), is(0));
+        assertThat(result.get(2), is(bottom.toBuilder().z(2).build()));
+        assertThat(sut.getAll(10, 0), contains(result.get(1), result.get(0).toBuilder().z(1).build()));
+    }
+
+    /*
+     * applies change the way a feed client does
+     */
+    private static void replay(final List<Widget> widgets, final WidgetChange change) {
+        switch (change.getType()) {
+            case PUSHED:
+                widgets.replaceAll(widget -> (widget.getZ() >= change.getFromZ()) && (widget.getZ() <= change.getToZ())
+                        ? widget.toBuilder().z(widget.getZ() + 1).build() : widget);
+                break;
+            case DELETED:
+                widgets.removeIf(widget -> widget.getId().equals(change.getId()));
+                break;
+            default:
+                widgets.removeIf(widget -> widget.getId().equals(change.getWidget().getId()));
+                widgets.add(change.getWidget());
+                widgets.sort(Comparator.comparingInt(Widget::getZ));
+        }
+    }
+
+    private static Widget randomWidget(Random random, int zRange) {
+        return Widget.builder()
+                .x(random.nextInt(100))
+                .y(random.nextInt(100))
+                .z(random.nextInt(10) == 0 ? null : random.nextInt(zRange))
+                .width(1 + random.nextInt(20))
+                .height(1 + random.nextInt(20))
+                .build();
+    }
+
+    /*
+     * generates the same ids for DAOs fed with the same calls
+     */
+    private static IdGenerator sequentialIdGenerator() {
+        return new IdGenerator() {
+            private int next;
+
+            @Override
+            public String generateId() {
+                return Integer.toString(next++);
+            }
+        };
+    }
+
     @Test
     void deleteDeletesWidget() {
         // Arrange
@@ -301,4 +998,71 @@ class InMemoryWidgetDaoTest {
         assertThat(widgets.size(), is(0));
         assertThat(lookup.size(), is(0));
     }
-}
\ No newline at end of file
+
+    @Test
+    void optimisticReadsSurviveConcurrentWrites() throws Exception {
+        // Arrange
+        when(idGenerator.generateId()).thenCallRealMethod();
+        sut = new InMemoryWidgetDao(idGenerator, widgets, lookup, clock, new OptimisticWidgetLock());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // Act
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 2; ++t) {
+            futures.add(executor.submit(() -> IntStream.range(0, 2_000)
+                    .forEach(i -> sut.create(Widget.builder().z(ThreadLocalRandom.current().nextInt(100)).build()))));
+            futures.add(executor.submit(() -> IntStream.range(0, 2_000).forEach(i -> {
+                List<Widget> page = sut.getAll(100, 0);
+                for (int j = 1; j < page.size(); ++j) {
+                    assertThat(page.get(j).getZ(), greaterThan(page.get(j - 1).getZ()));
+                }
+            })));
+        }
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES); // rethrows assertion errors from readers
+        }
+        executor.shutdown();
+
+        // Assert
+        assertThat(widgets.size(), is(4_000));
+        assertThat(lookup.size(), is(4_000));
+    }
+
+    @Test
+    void snapshotReadsNeverSeeHalfPushedState() throws Exception {
+        // Arrange
+        sut = new InMemoryWidgetDao(idGenerator, widgets, lookup, clock, new SnapshotWidgetLock());
+        IntStream.range(0, 1_000).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        // Act
+        Future<?> writer = executor.submit(() -> IntStream.range(0, 1_000)
+                .forEach(i -> sut.create(Widget.builder().z(0).build())));
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < 2; ++t) {
+            readers.add(executor.submit(() -> {
+                while (!writer.isDone()) {
+                    long version = sut.version();
+                    List<Widget> page = sut.getAll(500, 0);
+                    for (int j = 0; j < page.size(); ++j) {
+                        assertThat(page.get(j).getZ(), is(j)); // push up is either fully visible or not at all
+                    }
+                    assertThat(sut.version(), greaterThanOrEqualTo(version));
+                }
+            }));
+        }
+        writer.get(1, TimeUnit.MINUTES);
+        for (Future<?> reader : readers) {
+            reader.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        // Assert
+        assertThat(widgets.size(), is(2_000));
+    }
+
+    private static WidgetChange versioned(final WidgetChange change, final long version) {
+        change.setVersion(version);
+        return change;
+    }
+}
@@ -0,0 +1,145 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.simple.SimpleConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@ExtendWith(MockitoExtension.class)
+class MeteredWidgetDaoTest {
+    @Mock
+    WidgetDao<Widget> storage;
+
+    MockClock clock;
+    SimpleMeterRegistry registry;
+    MeteredWidgetDao sut;
+
+    @BeforeEach
+    void before() {
+        clock = new MockClock();
+        registry = new SimpleMeterRegistry(SimpleConfig.DEFAULT, clock);
+        sut = new MeteredWidgetDao(storage, registry);
+    }
+
+    @Test
+    void createRecordsTime() {
+        // Arrange
+        Widget src = new Widget();
+        Widget created = Widget.builder().id("id").build();
+        when(storage.create(src)).thenAnswer(invocation -> {
+            clock.add(Duration.ofMillis(5));
+            return created;
+        });
+
+        // Act
+        Widget result = sut.create(src);
+
+        // Assert
+        assertThat(result, sameInstance(created));
+        assertThat(registry.get("widget.dao.calls").tag("method", "create").timer().count(), is(1L));
+        assertThat(registry.get("widget.dao.calls").tag("method", "create").timer().totalTime(TimeUnit.MILLISECONDS),
+                is(5.0));
+        assertThat(registry.get("widget.dao.calls").tag("method", "get").timer().count(), is(0L));
+    }
+
+    @Test
+    void everyMethodHasItsTimer() {
+        // Arrange
+        Widget widget = Widget.builder().id("id").build();
+        List<Operation<Widget>> batch = List.of(Operation.delete("id"));
+
+        // Act
+        sut.get("id");
+        sut.getAll(10, 0);
+        sut.getAllAfter(10, 0);
+        sut.getAllInArea(Area.of(0, 0, 1, 1), false, 10, 0);
+        sut.snapshot();
+        sut.update(widget);
+        sut.apply(batch);
+        sut.restore(widget);
+        sut.restoreAll(List.of(widget));
+        sut.delete("id");
+
+        // Assert
+        for (String method : List.of("get", "getAll", "getAllAfter", "getAllInArea", "snapshot", "update", "apply",
+                "restore", "restoreAll", "delete")) {
+            assertThat(method, registry.get("widget.dao.calls").tag("method", method).timer().count(), is(1L));
+        }
+        verify(storage).getAllInArea(Area.of(0, 0, 1, 1), false, 10, 0);
+        verify(storage).snapshot();
+        verify(storage).apply(batch);
+        verify(storage).restoreAll(List.of(widget));
+    }
+
+    @Test
+    void failedCallIsRecordedToo() {
+        // Arrange
+        when(storage.apply(List.of())).thenThrow(new WidgetNotFoundException("id"));
+
+        // Act&Assert
+        assertThrows(WidgetNotFoundException.class, () -> sut.apply(List.of()));
+        assertThat(registry.get("widget.dao.calls").tag("method", "apply").timer().count(), is(1L));
+    }
+
+    @Test
+    void pushUpsAreRecorded() {
+        // Arrange
+        ArgumentCaptor<IntConsumer> listener = ArgumentCaptor.forClass(IntConsumer.class);
+        verify(storage).setPushUpListener(listener.capture());
+
+        // Act
+        listener.getValue().accept(3);
+        listener.getValue().accept(0);
+
+        // Assert
+        assertThat(registry.get("widget.push.ups").summary().count(), is(2L));
+        assertThat(registry.get("widget.push.ups").summary().totalAmount(), is(3.0));
+    }
+
+    @Test
+    void storeSizeIsGauged() {
+        // Arrange
+        when(storage.size()).thenReturn(7);
+
+        // Act
+        double result = registry.get("widget.store.size").gauge().value();
+
+        // Assert
+        assertThat(result, is(7.0));
+    }
+
+    @Test
+    void closeClosesStorage() throws Exception {
+        // Arrange
+        @SuppressWarnings("unchecked")
+        WidgetDao<Widget> closeable = mock(WidgetDao.class, withSettings().extraInterfaces(Closeable.class));
+        sut = new MeteredWidgetDao(closeable, new SimpleMeterRegistry());
+
+        // Act
+        sut.close();
+
+        // Assert
+        verify((Closeable) closeable).close();
+    }
+}
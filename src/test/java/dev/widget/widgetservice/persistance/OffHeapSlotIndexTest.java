@@ -0,0 +1,36 @@
+package dev.widget.widgetservice.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class OffHeapSlotIndexTest {
+    @Test
+    void behavesAsHashMap() {
+        // Arrange
+        Random random = new Random(42); // fixed seed keeps failures reproducible
+        OffHeapSlotIndex sut = new OffHeapSlotIndex(5_000);
+        Map<Integer, Integer> reference = new HashMap<>(); // slot is a key here, hash collides a lot
+
+        // Act&Assert
+        for (int i = 0; i < 100_000; ++i) {
+            int slot = random.nextInt(5_000);
+            int hash = slot % 97;
+            if (random.nextBoolean()) {
+                if (!reference.containsKey(slot)) {
+                    sut.add(hash, slot);
+                    reference.put(slot, slot);
+                }
+            } else {
+                Integer removed = reference.remove(slot);
+                assertThat(sut.remove(hash, candidate -> candidate == slot), is(removed != null ? removed : -1));
+            }
+            assertThat(sut.find(hash, candidate -> candidate == slot), is(reference.getOrDefault(slot, -1)));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OffHeapWidgetDaoTest extends WidgetDaoContractTest {
+    @Override
+    WidgetDao<Widget> createSut(final IdGenerator idGenerator, final Clock clock) {
+        return new OffHeapWidgetDao(idGenerator, clock, 10_000);
+    }
+
+    @Test
+    void createFailsWhenCapacityIsExhausted() {
+        // Arrange
+        sut = new OffHeapWidgetDao(idGenerator, clock, 2);
+        sut.create(new Widget());
+        Widget last = sut.create(new Widget());
+
+        // Act&Assert
+        assertThrows(CapacityExceededException.class, () -> sut.create(new Widget()));
+        sut.delete(last.getId());
+        assertThat(sut.create(new Widget()).getZ(), is(1));
+    }
+
+    @Test
+    void idsAreKeptAsUtf8() {
+        // Arrange
+        Widget first = Widget.builder().id("widget-\u00e4").z(1).build();
+        Widget second = Widget.builder().id("widget-\u00f6").z(2).build();
+
+        // Act
+        sut.restore(first);
+        sut.restore(second);
+
+        // Assert
+        assertThat(sut.get(first.getId()), is(first));
+        assertThat(sut.get(second.getId()), is(second));
+        assertThat(sut.size(), is(2));
+    }
+
+    @Test
+    void restoreAllRejectsTooLongIdBeforeRestoringAnything() {
+        // Arrange
+        List<Widget> entities = List.of(
+                Widget.builder().id("short").z(1).build(),
+                Widget.builder().id("\u00e4".repeat(OffHeapWidgetDao.MAX_ID_LENGTH / 2 + 1)).z(2).build()
+        );
+
+        // Act&Assert
+        assertThrows(IdTooLongException.class, () -> sut.restoreAll(entities));
+        assertThat(sut.size(), is(0));
+    }
+
+    @Test
+    void constructorRejectsTooBigCapacity() {
+        // Arrange&Act&Assert
+        assertThrows(IllegalArgumentException.class,
+                () -> new OffHeapWidgetDao(idGenerator, clock, OffHeapWidgetDao.MAX_CAPACITY + 1));
+    }
+
+    @Test
+    void applyChecksCapacityUpfront() {
+        // Arrange
+        sut = new OffHeapWidgetDao(idGenerator, clock, 2);
+        Widget existing = sut.create(Widget.builder().z(0).build());
+        List<Operation<Widget>> tooMany = List.of(
+                Operation.create(new Widget()),
+                Operation.create(new Widget())
+        );
+        List<Operation<Widget>> fitting = List.of(
+                Operation.create(new Widget()),
+                Operation.delete(existing.getId()),
+                Operation.create(new Widget())
+        );
+
+        // Act&Assert
+        assertThrows(CapacityExceededException.class, () -> sut.apply(tooMany));
+        assertThat(sut.getAll(10, 0), contains(existing));
+        assertThat(sut.apply(fitting), hasSize(3));
+        assertThat(sut.getAll(10, 0), hasSize(2));
+    }
+}
@@ -0,0 +1,35 @@
+package dev.widget.widgetservice.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class SlotIndexTest {
+    @Test
+    void behavesAsHashMap() {
+        // Arrange
+        Random random = new Random(42); // fixed seed keeps failures reproducible
+        SlotIndex sut = new SlotIndex(4);
+        Map<String, Integer> reference = new HashMap<>();
+
+        // Act&Assert
+        for (int i = 0; i < 100_000; ++i) {
+            String key = Integer.toString(random.nextInt(5_000));
+            int op = random.nextInt(3);
+            if (op == 0) {
+                sut.put(key, i);
+                reference.put(key, i);
+            } else if (op == 1) {
+                Integer removed = reference.remove(key);
+                assertThat(sut.remove(key), is(removed != null ? removed : -1));
+            }
+            assertThat(sut.get(key), is(reference.getOrDefault(key, -1)));
+        }
+        assertThat(sut.size(), is(reference.size()));
+    }
+}
@@ -0,0 +1,101 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotFileTest {
+    @TempDir
+    Path directory;
+
+    @Mock
+    WidgetDao<Widget> dao;
+
+    @Test
+    void loadRestoresWrittenWidgets() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.snapshot");
+        List<Widget> widgets = List.of(
+                Widget.builder().id("first").x(-1).y(2).z(Integer.MIN_VALUE).width(3).height(4)
+                        .lastModification(Instant.ofEpochSecond(1_600_000_000L, 999_999_999)).version(42L).build(),
+                Widget.builder().id("второй").z(0).build(),
+                Widget.builder().id("third").x(0).y(0).z(Integer.MAX_VALUE).width(0).height(0)
+                        .lastModification(Instant.EPOCH).build());
+        SnapshotFile.write(path, List.of(Widget.builder().id("old").z(0).build()), 1);
+        SnapshotFile.write(path, widgets, 12_345);
+
+        // Act
+        long result = SnapshotFile.load(path, dao);
+
+        // Assert
+        assertThat(result, is(12_345L));
+        verify(dao).restoreAll(widgets);
+        assertThat(Files.exists(directory.resolve("widgets.snapshot.tmp")), is(false));
+    }
+
+    @Test
+    void loadRestoresSnapshotWrittenBeforeVersions() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.snapshot");
+        byte[] id = "old".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(20 + 1 + 5 * 4 + 8 + 4 + 2 + id.length + 4);
+        buffer.putInt(0x57494447).putInt(1).putLong(99).putInt(1);
+        buffer.put((byte) (1 << 5)).putInt(1).putInt(2).putInt(3).putInt(4).putInt(5).putLong(0).putInt(0);
+        buffer.putShort((short) id.length).put(id);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        Files.write(path, buffer.array());
+
+        // Act
+        long result = SnapshotFile.load(path, dao);
+
+        // Assert
+        assertThat(result, is(99L));
+        verify(dao).restoreAll(List.of(Widget.builder().id("old").x(1).y(2).z(3).width(4).height(5).build()));
+    }
+
+    @Test
+    void loadRejectsCorruptSnapshot() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.snapshot");
+        SnapshotFile.write(path, List.of(Widget.builder().id("id").z(0).build()), 0);
+        byte[] content = Files.readAllBytes(path);
+        content[content.length / 2] ^= 1;
+        Files.write(path, content);
+
+        // Act&Assert
+        assertThrows(IOException.class, () -> SnapshotFile.load(path, dao));
+        verifyNoInteractions(dao);
+    }
+
+    @Test
+    void loadRejectsTruncatedSnapshot() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.snapshot");
+        Files.write(path, new byte[]{1, 2, 3});
+
+        // Act&Assert
+        assertThrows(IOException.class, () -> SnapshotFile.load(path, dao));
+        verifyNoInteractions(dao);
+    }
+}
@@ -0,0 +1,131 @@
+package dev.widget.widgetservice.persistance;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class SpatialIndexTest {
+    @Test
+    void searchFindsContainedAndIntersecting() {
+        // Arrange
+        SpatialIndex<String> sut = new SpatialIndex<>();
+        sut.add("inside", Area.of(10, 10, 20, 20));
+        sut.add("crossing", Area.of(90, 90, 110, 110));
+        sut.add("outside", Area.of(200, 200, 210, 210));
+        sut.add("huge", Area.of(Integer.MIN_VALUE, Integer.MIN_VALUE, 2L * Integer.MAX_VALUE, 2L * Integer.MAX_VALUE));
+
+        // Act
+        Set<String> contained = new HashSet<>();
+        sut.search(Area.of(0, 0, 100, 100), false, contained::add);
+        Set<String> intersecting = new HashSet<>();
+        sut.search(Area.of(0, 0, 100, 100), true, intersecting::add);
+
+        // Assert
+        assertThat(contained, containsInAnyOrder("inside"));
+        assertThat(intersecting, containsInAnyOrder("inside", "crossing", "huge"));
+        assertThat(sut.size(), is(4));
+    }
+
+    @Test
+    void removeForgetsItem() {
+        // Arrange
+        SpatialIndex<String> sut = new SpatialIndex<>();
+        sut.add("a", Area.of(10, 10, 20, 20));
+        sut.add("b", Area.of(10, 10, 20, 20));
+
+        // Act
+        boolean removed = sut.remove("a", Area.of(10, 10, 20, 20));
+        boolean missing = sut.remove("a", Area.of(10, 10, 20, 20));
+
+        // Assert
+        Set<String> result = new HashSet<>();
+        sut.search(Area.of(0, 0, 100, 100), false, result::add);
+        assertThat(removed, is(true));
+        assertThat(missing, is(false));
+        assertThat(result, containsInAnyOrder("b"));
+        assertThat(sut.size(), is(1));
+    }
+
+    @Test
+    void searchMatchesFullScan() {
+        // Arrange
+        Random random = new Random(42); // fixed seed keeps failures reproducible
+        SpatialIndex<Integer> sut = new SpatialIndex<>();
+        Map<Integer, Area> items = new HashMap<>();
+        for (int i = 0; i < 10_000; ++i) {
+            Area area = randomArea(random, 1 + random.nextInt(100));
+            sut.add(i, area);
+            items.put(i, area);
+        }
+        for (int i = 0; i < 10_000; i += 3) {
+            sut.remove(i, items.remove(i));
+        }
+
+        // Act&Assert
+        for (int i = 0; i < 100; ++i) {
+            Area query = randomArea(random, random.nextInt(5_000));
+            boolean intersecting = random.nextBoolean();
+            List<Integer> expected = new ArrayList<>();
+            items.forEach((item, area) -> {
+                if (intersecting ? query.intersects(area) : query.contains(area)) {
+                    expected.add(item);
+                }
+            });
+            List<Integer> result = new ArrayList<>();
+            sut.search(query, intersecting, result::add);
+            assertThat(result, containsInAnyOrder(expected.toArray()));
+        }
+    }
+
+    @Test
+    void addAllMatchesAddingOneByOne() {
+        // Arrange
+        Random random = new Random(42);
+        List<Integer> items = new ArrayList<>();
+        List<Area> bounds = new ArrayList<>();
+        SpatialIndex<Integer> expected = new SpatialIndex<>();
+        for (int i = 0; i < 10_000; ++i) {
+            Area area = i % 100 == 0
+                    ? Area.of(Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE + 1L, 2L * Integer.MAX_VALUE)
+                    : randomArea(random, 1 + random.nextInt(100));
+            items.add(i);
+            bounds.add(area);
+            expected.add(i, area);
+        }
+        SpatialIndex<Integer> sut = new SpatialIndex<>();
+        sut.add(-1, Area.of(0, 0, 1, 1));
+        expected.add(-1, Area.of(0, 0, 1, 1));
+
+        // Act
+        sut.addAll(items, bounds);
+
+        // Assert
+        assertThat(sut.size(), is(10_001));
+        for (int i = 0; i < 100; ++i) {
+            Area query = i == 0
+                    ? Area.of(Integer.MIN_VALUE, Integer.MIN_VALUE, 2L * Integer.MAX_VALUE, 2L * Integer.MAX_VALUE)
+                    : randomArea(random, random.nextInt(5_000));
+            boolean intersecting = random.nextBoolean();
+            List<Integer> result = new ArrayList<>();
+            sut.search(query, intersecting, result::add);
+            List<Integer> reference = new ArrayList<>();
+            expected.search(query, intersecting, reference::add);
+            assertThat(result, containsInAnyOrder(reference.toArray()));
+        }
+    }
+
+    private static Area randomArea(final Random random, final int size) {
+        long x = random.nextInt(20_000) - 10_000;
+        long y = random.nextInt(20_000) - 10_000;
+        return Area.of(x, y, x + random.nextInt(size), y + random.nextInt(size));
+    }
+}
@@ -0,0 +1,97 @@
+package dev.widget.widgetservice.persistance;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toUnmodifiableList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TimeOrderedIdGeneratorTest {
+    public static final int THREADS = 8;
+    public static final int GENERATE_COUNT = 250_000;
+
+    @Mock
+    Clock clock;
+
+    @Test
+    void generateIdIsUniqueUnderConcurrentLoad() throws Exception {
+        // Arrange
+        TimeOrderedIdGenerator sut = new TimeOrderedIdGenerator(Clock.systemUTC(), 7);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // Act
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; ++i) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return IntStream.range(0, GENERATE_COUNT).mapToObj(j -> sut.generateId())
+                        .collect(toUnmodifiableList());
+            }));
+        }
+        start.countDown();
+        Set<String> ids = new HashSet<>();
+        for (Future<List<String>> future : futures) {
+            List<String> generated = future.get();
+            assertThat(generated, is(generated.stream().sorted().collect(toUnmodifiableList()))); // monotonic
+            ids.addAll(generated);
+        }
+        executor.shutdown();
+
+        // Assert
+        assertThat(ids.size(), is(THREADS * GENERATE_COUNT));
+    }
+
+    @Test
+    void generateIdIsOrderedByTime() {
+        // Arrange
+        TimeOrderedIdGenerator sut = new TimeOrderedIdGenerator(clock, 1);
+        TimeOrderedIdGenerator other = new TimeOrderedIdGenerator(clock, 0);
+        when(clock.millis()).thenReturn(1_000L, 1_001L, 999L);
+
+        // Act
+        String first = sut.generateId();
+        String second = other.generateId();
+        String clockWentBack = sut.generateId();
+
+        // Assert
+        assertThat(first.length(), is(26));
+        assertThat(first, lessThan(second));
+        assertThat(first, lessThan(clockWentBack));
+    }
+
+    @Test
+    void generateIdEncodesNode() {
+        // Arrange
+        when(clock.millis()).thenReturn(0L);
+
+        // Act
+        String result = new TimeOrderedIdGenerator(clock, 0xFFFF).generateId();
+
+        // Assert
+        assertThat(result, is("0000000000ZZZG000000000000")); // 48 bits of time, 16 bits of node, 0 slot & counter
+    }
+
+    @Test
+    void constructorRejectsTooBigNode() {
+        // Arrange&Act&Assert
+        assertThrows(IllegalArgumentException.class, () -> new TimeOrderedIdGenerator(clock, 1 << 16));
+    }
+}
@@ -0,0 +1,12 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+
+import java.time.Clock;
+
+class TreeWidgetDaoTest extends WidgetDaoContractTest {
+    @Override
+    WidgetDao<Widget> createSut(final IdGenerator idGenerator, final Clock clock) {
+        return new TreeWidgetDao(idGenerator, clock);
+    }
+}
@@ -0,0 +1,239 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class WidgetBoardsTest {
+    private static final Duration IDLE = Duration.ofMinutes(10);
+
+    @Mock
+    Clock clock;
+
+    @TempDir
+    Path directory;
+
+    Instant now = Instant.ofEpochSecond(1_600_000_000L);
+
+    WidgetBoards sut;
+
+    @BeforeEach
+    void before() throws Exception {
+        lenient().when(clock.instant()).thenAnswer(invocation -> now);
+        lenient().when(clock.millis()).thenAnswer(invocation -> now.toEpochMilli());
+        sut = boards(null);
+    }
+
+    @AfterEach
+    void after() {
+        sut.close();
+    }
+
+    @Test
+    void boardsHaveIndependentZ() {
+        // Arrange
+        WidgetDao<Widget> first = sut.get("first");
+        WidgetDao<Widget> second = sut.get("second");
+        Widget existing = first.create(Widget.builder().z(1).build());
+
+        // Act
+        Widget result = second.create(Widget.builder().z(1).build());
+
+        // Assert
+        assertThat(result.getZ(), is(1));
+        assertThat(first.get(existing.getId()).getZ(), is(1));
+        assertThat(second.get(existing.getId()), nullValue());
+        assertThat(sut.loaded(), is(2));
+    }
+
+    @Test
+    void getRejectsIdWhichIsNotFileName() {
+        // Act&Assert
+        assertThrows(IllegalArgumentException.class, () -> sut.get("../widgets"));
+    }
+
+    @Test
+    void getCreatesNothingUntilCalled() {
+        // Act
+        sut.get("board");
+
+        // Assert
+        assertThat(sut.loaded(), is(0));
+    }
+
+    @Test
+    void evictIdleDropsEmptyBoards() {
+        // Arrange
+        sut.get("board").getAll(10, 0);
+        now = now.plus(IDLE);
+
+        // Act
+        sut.evictIdle();
+
+        // Assert
+        assertThat(sut.loaded(), is(0));
+        assertThat(sut.pagedOut(), is(0));
+    }
+
+    @Test
+    void evictIdleKeepsRecentlyCalledBoards() {
+        // Arrange
+        sut.get("board").getAll(10, 0);
+        now = now.plus(IDLE).minusMillis(1);
+
+        // Act
+        sut.evictIdle();
+
+        // Assert
+        assertThat(sut.loaded(), is(1));
+    }
+
+    @Test
+    void evictIdleKeepsNonEmptyBoardsWithoutDirectory() {
+        // Arrange
+        sut.get("board").create(Widget.builder().z(1).build());
+        now = now.plus(IDLE);
+
+        // Act
+        sut.evictIdle();
+
+        // Assert
+        assertThat(sut.loaded(), is(1));
+    }
+
+    @Test
+    void evictIdlePagesOutBoardsWhichAreLoadedBackOnCall() throws Exception {
+        // Arrange
+        sut = boards(directory);
+        WidgetDao<Widget> board = sut.get("board");
+        Widget created = board.create(Widget.builder().x(1).z(1).build());
+        long version = board.version();
+        now = now.plus(IDLE);
+
+        // Act
+        sut.evictIdle();
+
+        // Assert
+        assertThat(sut.loaded(), is(0));
+        assertThat(sut.pagedOut(), is(1));
+        assertThat(Files.exists(directory.resolve("board.snapshot")), is(true));
+        assertThat(board.version(), is(version)); // known without loading
+        assertThat(sut.loaded(), is(0));
+        assertThat(board.get(created.getId()), is(created));
+        assertThat(sut.loaded(), is(1));
+        assertThat(sut.pagedOut(), is(0));
+        board.update(Widget.builder().id(created.getId()).x(2).build());
+        assertThat(board.version(), greaterThan(version));
+    }
+
+    @Test
+    void evictIdleForgetsPageOfBoardWhichIsEmptyNow() throws Exception {
+        // Arrange
+        sut = boards(directory);
+        WidgetDao<Widget> board = sut.get("board");
+        Widget created = board.create(Widget.builder().z(1).build());
+        now = now.plus(IDLE);
+        sut.evictIdle();
+        board.delete(created.getId());
+        now = now.plus(IDLE);
+
+        // Act
+        sut.evictIdle();
+
+        // Assert
+        assertThat(Files.exists(directory.resolve("board.snapshot")), is(false));
+        assertThat(board.size(), is(0));
+    }
+
+    @Test
+    void closePagesOutBoardsForNextStart() throws Exception {
+        // Arrange
+        sut = boards(directory);
+        Widget created = sut.get("board").create(Widget.builder().z(1).build());
+
+        // Act
+        sut.close();
+        sut = boards(directory);
+
+        // Assert
+        assertThat(sut.get("board").get(created.getId()), is(created));
+    }
+
+    @Test
+    void idsListLoadedAndPagedOutBoards() throws Exception {
+        // Arrange
+        sut = boards(directory);
+        sut.get("paged").create(Widget.builder().z(1).build());
+        now = now.plus(IDLE);
+        sut.evictIdle();
+        sut.get("loaded").size();
+
+        // Act
+        Set<String> result = sut.ids();
+
+        // Assert
+        assertThat(result, contains("loaded", "paged"));
+    }
+
+    @Test
+    void releaseDropsBoardWithItsPageOnceTransferred() throws Exception {
+        // Arrange
+        sut = boards(directory);
+        Widget created = sut.get("board").create(Widget.builder().z(1).build());
+        now = now.plus(IDLE);
+        sut.evictIdle();
+        List<Widget> transferred = new ArrayList<>();
+
+        // Act
+        boolean result = sut.release("board", transferred::addAll);
+
+        // Assert
+        assertThat(result, is(true));
+        assertThat(transferred, contains(created));
+        assertThat(sut.ids(), empty());
+        assertThat(sut.pagedOut(), is(0));
+        assertThat(sut.get("board").size(), is(0));
+    }
+
+    @Test
+    void releaseKeepsBoardIfTransferFails() {
+        // Arrange
+        Widget created = sut.get("board").create(Widget.builder().z(1).build());
+
+        // Act
+        boolean result = sut.release("board", widgets -> false);
+
+        // Assert
+        assertThat(result, is(false));
+        assertThat(sut.get("board").get(created.getId()), is(created));
+    }
+
+    private WidgetBoards boards(final Path directory) throws Exception {
+        if (sut != null) {
+            sut.close();
+        }
+        return new WidgetBoards(() -> new InMemoryWidgetDao(new IdGenerator(), new ArrayList<>(),
+                new ConcurrentHashMap<>(), clock, new MonitorWidgetLock()), clock, IDLE, directory);
+    }
+}
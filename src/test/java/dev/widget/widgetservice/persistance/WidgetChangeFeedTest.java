@@ -0,0 +1,152 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.WidgetChange;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class WidgetChangeFeedTest {
+    WidgetChangeFeed sut = new WidgetChangeFeed(4, Schedulers.immediate(), 100);
+
+    @Test
+    void acceptNumbersChangesInOrder() {
+        // Arrange
+        List<WidgetChange> changes = deletes(3);
+
+        // Act
+        sut.accept(changes);
+
+        // Assert
+        assertThat(changes.stream().map(WidgetChange::getSequence).collect(Collectors.toList()),
+                contains(100L, 101L, 102L));
+        assertThat(sut.next(), is(103L));
+    }
+
+    @Test
+    void changesStreamsOnlyNewChangesWithoutLastSequence() {
+        // Arrange
+        sut.accept(deletes(2));
+        List<WidgetChange> result = new ArrayList<>();
+
+        // Act
+        sut.changes(null).subscribe(result::add);
+        sut.accept(List.of(WidgetChange.deleted("new")));
+
+        // Assert
+        assertThat(result, hasSize(1));
+        assertThat(result.get(0).getId(), is("new"));
+        assertThat(result.get(0).getSequence(), is(102L));
+    }
+
+    @Test
+    void changesResumesRightAfterLastSequence() {
+        // Arrange
+        sut.accept(deletes(3));
+        List<WidgetChange> result = new ArrayList<>();
+
+        // Act
+        sut.changes(100L).subscribe(result::add);
+
+        // Assert
+        assertThat(result.stream().map(WidgetChange::getId).collect(Collectors.toList()), contains("1", "2"));
+    }
+
+    @Test
+    void changesEndWithResetWhenLastSequenceIsOverwritten() {
+        // Arrange
+        sut.accept(deletes(6));
+        List<WidgetChange> result = new ArrayList<>();
+        boolean[] completed = new boolean[1];
+
+        // Act
+        sut.changes(100L).subscribe(result::add, e -> {
+        }, () -> completed[0] = true);
+
+        // Assert
+        assertThat(result, hasSize(1));
+        assertThat(result.get(0).getType(), is(WidgetChange.Type.RESET));
+        assertThat(result.get(0).getSequence(), is(105L));
+        assertThat(completed[0], is(true));
+        assertThat(sut.subscribers(), is(0));
+    }
+
+    @Test
+    void changesEndWithResetWhenLastSequenceIsFromFuture() {
+        // Arrange
+        List<WidgetChange> result = new ArrayList<>();
+
+        // Act
+        sut.changes(1000L).subscribe(result::add);
+
+        // Assert
+        assertThat(result, hasSize(1));
+        assertThat(result.get(0).getType(), is(WidgetChange.Type.RESET));
+    }
+
+    @Test
+    void slowSubscriberGetsOnlyWhatItRequestedAndThenReset() {
+        // Arrange
+        List<WidgetChange> result = new ArrayList<>();
+        Requesting subscriber = new Requesting(result);
+        sut.changes(null).subscribe(subscriber);
+
+        // Act
+        sut.accept(deletes(3));
+        assertThat(result, hasSize(1));
+        sut.accept(deletes(4)); // the second change is overwritten now
+        subscriber.request(10);
+
+        // Assert
+        assertThat(result, hasSize(2));
+        assertThat(result.get(1).getType(), is(WidgetChange.Type.RESET));
+    }
+
+    @Test
+    void cancelledSubscriberIsForgotten() {
+        // Arrange
+        Disposable subscription = sut.changes(null).subscribe();
+
+        // Act
+        subscription.dispose();
+
+        // Assert
+        assertThat(sut.subscribers(), is(0));
+    }
+
+    private static List<WidgetChange> deletes(final int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> WidgetChange.deleted(Integer.toString(i)))
+                .collect(Collectors.toList());
+    }
+
+    /*
+     * requests a single change upfront, the rest on demand
+     */
+    private static final class Requesting extends BaseSubscriber<WidgetChange> {
+        private final List<WidgetChange> result;
+
+        private Requesting(final List<WidgetChange> result) {
+            this.result = result;
+        }
+
+        @Override
+        protected void hookOnSubscribe(final Subscription subscription) {
+            request(1);
+        }
+
+        @Override
+        protected void hookOnNext(final WidgetChange change) {
+            result.add(change);
+        }
+    }
+}
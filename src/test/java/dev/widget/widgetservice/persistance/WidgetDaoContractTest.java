@@ -0,0 +1,621 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toUnmodifiableList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+/*
+ * WidgetDao contract every storage keeps; storage tests extend it and add only what is specific to them
+ */
+@ExtendWith(MockitoExtension.class)
+abstract class WidgetDaoContractTest {
+    @Mock
+    IdGenerator idGenerator;
+
+    @Mock
+    Clock clock;
+
+    WidgetDao<Widget> sut;
+
+    /*
+     * storage under test, empty
+     */
+    abstract WidgetDao<Widget> createSut(final IdGenerator idGenerator, final Clock clock);
+
+    /*
+     * operations behavesAsInMemoryWidgetDao runs, storages which rebalance need more to get there
+     */
+    int randomOperations() {
+        return 5_000;
+    }
+
+    @BeforeEach
+    void before() {
+        sut = createSut(idGenerator, clock);
+        lenient().when(idGenerator.generateId()).thenCallRealMethod(); // some lookups don't support null keys
+    }
+
+    @Test
+    void createCreatesWidget() {
+        // Arrange
+        String id = RandomStringUtils.randomAlphanumeric(10);
+        when(idGenerator.generateId()).thenReturn(id);
+        Instant now = Instant.now();
+        when(clock.instant()).thenReturn(now);
+        Widget src = new Widget(ThreadLocalRandom.current().nextInt(), ThreadLocalRandom.current().nextInt(),
+                ThreadLocalRandom.current().nextInt(), ThreadLocalRandom.current().nextInt(),
+                ThreadLocalRandom.current().nextInt(),
+                now.minusSeconds(100), id + "NO!", null);
+
+        // Act
+        Widget result = sut.create(src);
+
+        // Assert
+        assertThat(result, is(src.toBuilder().id(id).lastModification(now).version(1L).build()));
+        assertThat(sut.get(id), is(result));
+        assertThat(sut.getAll(10, 0), contains(result));
+    }
+
+    @Test
+    void createStoresWidgets() {
+        // Act
+        IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+
+        // Assert
+        List<Widget> widgets = sut.getAll(1000, 0);
+        assertThat(widgets.size(), is(100));
+        for (int i = 0; i < widgets.size(); ++i) {
+            Widget w = widgets.get(i);
+            assertThat(w.getZ(), is(i));
+            assertThat(sut.get(w.getId()), is(w));
+        }
+    }
+
+    @Test
+    void createKeepsNullFields() {
+        // Arrange -- nothing!
+
+        // Act
+        Widget result = sut.create(Widget.builder().y(-1).build());
+
+        // Assert
+        assertThat(result.getX(), nullValue());
+        assertThat(result.getY(), is(-1));
+        assertThat(result.getWidth(), nullValue());
+        assertThat(result.getHeight(), nullValue());
+        assertThat(result.getLastModification(), nullValue());
+        assertThat(result.getZ(), is(0));
+    }
+
+    @Test
+    void createMovesToForeground() {
+        // Arrange
+        IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+
+        // Act
+        Widget result = sut.create(new Widget());
+
+        // Assert
+        assertThat(result.getZ(), is(100));
+    }
+
+    @Test
+    void createCreatesKeepZWhenSet() {
+        // Arrange
+        int z = ThreadLocalRandom.current().nextInt();
+        Widget src = Widget.builder().z(z).build();
+
+        // Act
+        Widget result = sut.create(src);
+
+        // Assert
+        assertThat(result.getZ(), is(z));
+    }
+
+    @Test
+    void createPushesExistingUp() {
+        // Arrange
+        List<Widget> existing = IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(z).build())
+                .map(sut::create).collect(toUnmodifiableList());
+
+        // Act
+        Widget result = sut.create(Widget.builder().z(50).build());
+
+        // Assert
+        List<Widget> widgets = sut.getAll(1000, 0);
+        assertThat(widgets.size(), is(101));
+        for (int i = 0; i < widgets.size(); ++i) {
+            assertThat(widgets.get(i).getZ(), is(i));
+        }
+        assertThat(widgets.get(50), is(result));
+        assertThat(widgets.get(49), is(existing.get(49)));
+        assertThat(widgets.get(51).getId(), is(existing.get(50).getId()));
+        assertThat(sut.get(existing.get(99).getId()).getZ(), is(100));
+    }
+
+    @Test
+    void createKeepsGapsAbovePushedUp() {
+        // Arrange
+        Widget bottom = sut.create(Widget.builder().z(1).build());
+        Widget top = sut.create(Widget.builder().z(5).build());
+
+        // Act
+        sut.create(Widget.builder().z(1).build());
+
+        // Assert
+        assertThat(sut.get(bottom.getId()).getZ(), is(2));
+        assertThat(sut.get(top.getId()).getZ(), is(6)); // everything above is pushed, gaps are not consumed
+    }
+
+    @Test
+    void getFindsWidgetById() {
+        // Arrange
+        IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+        Widget existing = sut.create(Widget.builder().z(50).build());
+
+        // Act
+        Widget result = sut.get(existing.getId());
+
+        // Assert
+        assertThat(result, is(existing));
+    }
+
+    @Test
+    void getReturnsCopy() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(1).build());
+
+        // Act
+        sut.get(existing.getId()).setZ(2);
+        existing.setZ(3);
+
+        // Assert
+        assertThat(sut.get(existing.getId()).getZ(), is(1));
+    }
+
+    @Test
+    void getAllReturnPagedData() {
+        // Arrange
+        IntStream.range(0, 199).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+
+        // Act
+        List<List<Widget>> result = IntStream.range(0, 20)
+                .mapToObj(i -> sut.getAll(10, i * 10))
+                .collect(toUnmodifiableList());
+
+        // Assert
+        assertThat(result.size(), is(20));
+        for (int i = 0; i < result.size(); ++i) {
+            List<Widget> page = result.get(i);
+            if (i != result.size() - 1) {
+                assertThat(page.size(), is(10));
+            } else {
+                assertThat(page.size(), is(9));
+            }
+            for (int j = 0; j < page.size(); ++j) {
+                assertThat(page.get(j).getZ(), is(10 * i + j));
+            }
+        }
+    }
+
+    @Test
+    void getAllReturnsEmptyPageBeyondEnd() {
+        // Arrange
+        IntStream.range(0, 10).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+
+        // Act
+        List<Widget> result = sut.getAll(10, 100);
+
+        // Assert
+        assertThat(result, empty());
+    }
+
+    @Test
+    void snapshotCopiesAllWidgets() {
+        // Arrange
+        IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+        List<Widget> snapshot = sut.snapshot();
+
+        // Act
+        sut.create(Widget.builder().z(0).build());
+
+        // Assert
+        assertThat(snapshot.size(), is(100));
+        for (int i = 0; i < snapshot.size(); ++i) {
+            assertThat(snapshot.get(i).getZ(), is(i));
+        }
+    }
+
+    @Test
+    void getAllAfterReturnsPageAboveCursor() {
+        // Arrange
+        IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(2 * z).build()).forEach(sut::create);
+
+        // Act
+        List<Widget> fromExisting = sut.getAllAfter(10, 20);
+        List<Widget> fromGap = sut.getAllAfter(10, 21);
+        List<Widget> fromBelow = sut.getAllAfter(3, Integer.MIN_VALUE);
+        List<Widget> last = sut.getAllAfter(10, 190);
+        List<Widget> fromAbove = sut.getAllAfter(10, Integer.MAX_VALUE);
+
+        // Assert
+        assertThat(fromExisting.size(), is(10));
+        assertThat(fromExisting.get(0).getZ(), is(22));
+        assertThat(fromExisting.get(9).getZ(), is(40));
+        assertThat(fromGap.get(0).getZ(), is(22));
+        assertThat(fromBelow.size(), is(3));
+        assertThat(fromBelow.get(0).getZ(), is(0));
+        assertThat(last.size(), is(4));
+        assertThat(last.get(3).getZ(), is(198));
+        assertThat(fromAbove, empty());
+    }
+
+    @Test
+    void getAllInAreaFollowsMovedWidgets() {
+        // Arrange
+        Widget inside = sut.create(Widget.builder().x(10).y(10).z(5).width(10).height(10).build());
+        Widget crossing = sut.create(Widget.builder().x(90).y(90).z(1).width(20).height(20).build());
+        sut.create(Widget.builder().x(500).y(500).z(3).width(10).height(10).build());
+        Widget moved = sut.create(Widget.builder().x(500).y(10).z(7).width(10).height(10).build());
+        sut.update(Widget.builder().id(moved.getId()).x(50).build());
+        sut.create(Widget.builder().z(1).build()); // push up, not indexed
+
+        // Act
+        List<Widget> result = sut.getAllInArea(Area.of(0, 0, 100, 100), false, 10, Integer.MIN_VALUE);
+        List<Widget> intersecting = sut.getAllInArea(Area.of(0, 0, 100, 100), true, 10, Integer.MIN_VALUE);
+        List<Widget> above = sut.getAllInArea(Area.of(0, 0, 100, 100), true, 10, 2);
+
+        // Assert
+        assertThat(result.stream().map(Widget::getId).collect(toUnmodifiableList()), contains(inside.getId(), moved.getId()));
+        assertThat(result.get(0).getZ(), is(6));
+        assertThat(intersecting.stream().map(Widget::getId).collect(toUnmodifiableList()),
+                contains(crossing.getId(), inside.getId(), moved.getId()));
+        assertThat(above.size(), is(2));
+    }
+
+    @Test
+    void updateUpdatesData() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().x(1).y(2).z(3).width(4).build());
+        Instant now = Instant.now();
+        when(clock.instant()).thenReturn(now);
+
+        // Act
+        Widget result = sut.update(Widget.builder().x(11).y(12).id(existing.getId()).build());
+
+        // Assert
+        assertThat(result, is(Widget.builder().x(11).y(12).z(3).width(4).id(existing.getId())
+                .lastModification(now).version(2L).build()));
+        assertThat(sut.get(result.getId()), is(result));
+        assertThat(sut.getAll(10, 0), contains(result));
+    }
+
+    @Test
+    void updatePushesOthersUp() {
+        // Arrange
+        IntStream.range(0, 100).mapToObj(z -> Widget.builder().z(z).build()).forEach(sut::create);
+        Widget existing = sut.getAll(1, 50).get(0);
+        Widget newExisting = Widget.builder().x(11).y(12).z(0).id(existing.getId()).build();
+        Instant now = Instant.now();
+        when(clock.instant()).thenReturn(now);
+
+        // Act
+        Widget result = sut.update(newExisting);
+
+        // Assert
+        assertThat(result.getLastModification(), is(now));
+        List<Widget> widgets = sut.getAll(1000, 0);
+        assertThat(widgets.size(), is(100));
+        assertThat(widgets.get(0).getLastModification(), is(now));
+        assertThat(widgets.get(0).getId(), is(result.getId()));
+        for (int i = 0; i < widgets.size(); ++i) {
+            if (i < 50) {
+                assertThat(widgets.get(i).getZ(), is(i));
+            } else if (i > 50) {
+                assertThat(widgets.get(i).getZ(), is(i + 1));
+            }
+        }
+    }
+
+    @Test
+    void updateReturnsNullIfNotFound() {
+        // Arrange
+        Widget existing = sut.create(new Widget());
+
+        // Act
+        Widget result = sut.update(existing.toBuilder().id(existing.getId() + "NO!").build());
+
+        // Assert
+        assertThat(result, nullValue());
+    }
+
+    @Test
+    void updateBumpsVersion() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().x(1).y(2).z(3).width(4).build());
+
+        // Act
+        Widget result = sut.update(Widget.builder().x(11).id(existing.getId()).version(1L).build());
+
+        // Assert
+        assertThat(existing.getVersion(), is(1L));
+        assertThat(result.getVersion(), is(2L));
+        assertThat(sut.get(existing.getId()).getVersion(), is(2L));
+    }
+
+    @Test
+    void updateRejectsStaleVersion() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().x(1).y(2).z(3).width(4).build());
+        sut.update(Widget.builder().x(11).id(existing.getId()).build());
+
+        // Act
+        VersionMismatchException e = assertThrows(VersionMismatchException.class,
+                () -> sut.update(Widget.builder().x(21).id(existing.getId()).version(1L).build()));
+
+        // Assert
+        assertThat(e.getMessage(), containsString("version 2"));
+        assertThat(sut.get(existing.getId()).getX(), is(11));
+    }
+
+    @Test
+    void pushUpKeepsVersion() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(1).build());
+
+        // Act
+        sut.create(Widget.builder().z(1).build());
+
+        // Assert
+        assertThat(sut.get(existing.getId()).getZ(), is(2));
+        assertThat(sut.get(existing.getId()).getVersion(), is(1L));
+    }
+
+    @Test
+    void restoreKeepsVersion() {
+        // Act
+        sut.restore(Widget.builder().id("versioned").z(1).version(7L).build());
+        sut.restore(Widget.builder().id("unversioned").z(2).build());
+
+        // Assert
+        assertThat(sut.get("versioned").getVersion(), is(7L));
+        assertThat(sut.get("unversioned").getVersion(), nullValue());
+        assertThat(sut.update(Widget.builder().id("unversioned").x(1).build()).getVersion(), is(1L));
+    }
+
+    @Test
+    void deleteDeletesWidget() {
+        // Arrange
+        Widget existing = sut.create(new Widget());
+
+        // Act
+        boolean result = sut.delete(existing.getId());
+
+        // Assert
+        assertThat(result, is(true));
+        assertThat(sut.get(existing.getId()), nullValue());
+        assertThat(sut.getAll(10, 0), empty());
+    }
+
+    @Test
+    void deleteReturnsFalseOnNotExitsing() {
+        // Arrange
+        Widget existing = sut.create(new Widget());
+        sut.delete(existing.getId());
+
+        // Act
+        boolean result = sut.delete(existing.getId());
+
+        // Assert
+        assertThat(result, is(false));
+        assertThat(sut.getAll(10, 0), empty());
+    }
+
+    @Test
+    void createWorksAfterDeletingEverything() {
+        // Arrange
+        List<Widget> existing = IntStream.range(0, 2_000).mapToObj(z -> sut.create(new Widget()))
+                .collect(toUnmodifiableList());
+
+        // Act
+        existing.forEach(widget -> assertThat(sut.delete(widget.getId()), is(true)));
+        Widget result = sut.create(Widget.builder().x(1).build());
+
+        // Assert
+        assertThat(sut.getAll(10, 0), contains(result));
+        assertThat(sut.delete(existing.get(0).getId()), is(false));
+        assertThat(sut.get(existing.get(0).getId()), nullValue());
+    }
+
+    @Test
+    void behavesAsInMemoryWidgetDao() {
+        // Arrange
+        Random random = new Random(42); // fixed seed keeps failures reproducible
+        sut = createSut(sequentialIdGenerator(), clock);
+        InMemoryWidgetDao reference = new InMemoryWidgetDao(sequentialIdGenerator(), new ArrayList<>(),
+                new ConcurrentHashMap<>(), clock, new MonitorWidgetLock());
+        when(clock.instant()).thenAnswer(invocation -> Instant.ofEpochSecond(random.nextInt(), random.nextInt(1_000_000_000)));
+        List<String> ids = new ArrayList<>();
+        int operations = randomOperations();
+
+        // Act&Assert
+        for (int i = 0; i < operations; ++i) {
+            int op = i < operations * 3 / 4 ? random.nextInt(10) : 5 + random.nextInt(5); // shrinks at the end
+            Integer z = random.nextInt(4) == 0 ? null : random.nextInt(8) == 0 ? 100 : random.nextInt(200);
+            if ((op < 5) || ids.isEmpty()) {
+                Widget src = Widget.builder().x(random.nextInt(1000)).y(random.nextInt(1000)).z(z)
+                        .width(random.nextInt(100)).height(random.nextBoolean() ? random.nextInt(100) : null).build();
+                Widget result = sut.create(src.toBuilder().build());
+                Widget expected = reference.create(src.toBuilder().build());
+                assertThat(result, is(expected.toBuilder().lastModification(result.getLastModification()).build()));
+                ids.add(expected.getId());
+            } else if (op < 7) {
+                String id = ids.get(random.nextInt(ids.size()));
+                Widget change = Widget.builder().id(id).y(random.nextInt(1000)).height(random.nextInt(100)).z(z).build();
+                Widget result = sut.update(change);
+                Widget expected = reference.update(change.toBuilder().build());
+                assertThat(result, is(expected.toBuilder().lastModification(result.getLastModification()).build()));
+            } else if (op < 8) {
+                boolean existing = random.nextBoolean();
+                String id = existing ? ids.get(random.nextInt(ids.size())) : "restored" + i;
+                Widget state = Widget.builder().id(id).x(random.nextInt(1000)).y(random.nextInt(1000))
+                        .z(random.nextInt(200)).width(random.nextInt(100))
+                        .lastModification(Instant.ofEpochSecond(i, i)).build();
+                assertThat(sut.restore(state.toBuilder().build()), is(reference.restore(state.toBuilder().build())));
+                if (!existing) {
+                    ids.add(id);
+                }
+            } else {
+                String id = ids.remove(random.nextInt(ids.size()));
+                assertThat(sut.delete(id), is(reference.delete(id)));
+            }
+        }
+        assertThat(withoutModification(sut.getAll(operations, 0)), is(withoutModification(reference.getAll(operations, 0))));
+        for (int offset = 0; offset < operations / 5; offset += 97) {
+            assertThat(withoutModification(sut.getAll(10, offset)),
+                    is(withoutModification(reference.getAll(10, offset))));
+        }
+        for (int z = -1; z < operations / 4; z += 7) {
+            assertThat(withoutModification(sut.getAllAfter(10, z)),
+                    is(withoutModification(reference.getAllAfter(10, z))));
+        }
+        for (String id : ids) {
+            assertThat(withoutModification(List.of(sut.get(id))), is(withoutModification(List.of(reference.get(id)))));
+        }
+        for (int i = 0; i < 50; ++i) {
+            Area area = Area.of(random.nextInt(1100), random.nextInt(1100), random.nextInt(1100), random.nextInt(1100));
+            boolean intersecting = random.nextBoolean();
+            int z = random.nextInt(operations / 4) - 50;
+            assertThat(withoutModification(sut.getAllInArea(area, intersecting, 20, z)),
+                    is(withoutModification(reference.getAllInArea(area, intersecting, 20, z))));
+        }
+    }
+
+    @Test
+    void pushUpListenerGetsNumberOfPushedWidgets() {
+        // Arrange
+        List<Integer> pushUps = new ArrayList<>();
+        sut.setPushUpListener(pushUps::add);
+        IntStream.range(0, 5).forEach(z -> sut.create(Widget.builder().z(z).build()));
+
+        // Act
+        sut.create(Widget.builder().z(2).build());
+
+        // Assert
+        assertThat(pushUps, contains(0, 0, 0, 0, 0, 3));
+    }
+
+    @Test
+    void applyMatchesOneByOne() {
+        // Arrange
+        Random random = new Random(42); // fixed seed keeps failures reproducible
+        when(clock.instant()).thenReturn(Instant.ofEpochSecond(1_000));
+        sut = createSut(sequentialIdGenerator(), clock);
+        InMemoryWidgetDao expected = new InMemoryWidgetDao(sequentialIdGenerator(), new ArrayList<>(),
+                new ConcurrentHashMap<>(), clock, new MonitorWidgetLock());
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            Widget src = Widget.builder().x(random.nextInt(100)).z(random.nextInt(100)).build();
+            ids.add(sut.create(src).getId());
+            expected.create(src);
+        }
+        List<Operation<Widget>> batch = new ArrayList<>();
+        List<Widget> one = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            Integer z = random.nextInt(4) == 0 ? null : random.nextInt(150);
+            if (i % 3 == 0) {
+                Widget src = Widget.builder().y(random.nextInt(100)).z(z).build();
+                batch.add(Operation.create(src));
+                one.add(expected.create(src));
+            } else if (i % 3 == 1) {
+                String id = ids.get(random.nextInt(ids.size()));
+                Widget entity = Widget.builder().id(id).width(random.nextInt(100)).z(z).build();
+                batch.add(Operation.update(id, entity));
+                one.add(expected.update(entity));
+            } else {
+                String id = ids.remove(random.nextInt(ids.size()));
+                batch.add(Operation.delete(id));
+                one.add(expected.get(id));
+                expected.delete(id);
+            }
+        }
+
+        // Act
+        List<Widget> result = sut.apply(batch);
+
+        // Assert
+        assertThat(result, is(one));
+        assertThat(sut.getAll(1_000, 0), is(expected.getAll(1_000, 0)));
+    }
+
+    @Test
+    void applyChangesNothingIfTargetIsMissing() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(0).build());
+        List<Operation<Widget>> batch = List.of(
+                Operation.create(Widget.builder().z(0).build()),
+                Operation.update("missing", Widget.builder().id("missing").x(1).build())
+        );
+
+        // Act&Assert
+        assertThrows(WidgetNotFoundException.class, () -> sut.apply(batch));
+        assertThat(sut.getAll(10, 0), contains(existing));
+    }
+
+    @Test
+    void applyChangesNothingIfVersionIsStale() {
+        // Arrange
+        Widget existing = sut.create(Widget.builder().z(0).build());
+        List<Operation<Widget>> batch = List.of(
+                Operation.create(Widget.builder().z(0).build()),
+                Operation.update(existing.getId(), Widget.builder().id(existing.getId()).x(2).version(1L).build()),
+                Operation.update(existing.getId(), Widget.builder().id(existing.getId()).x(3).version(1L).build())
+        );
+
+        // Act&Assert
+        assertThrows(VersionMismatchException.class, () -> sut.apply(batch));
+        assertThat(sut.getAll(10, 0), contains(existing));
+    }
+
+    /*
+     * both DAOs ask the clock, so they never get the same time
+     */
+    static List<Widget> withoutModification(final List<Widget> widgets) {
+        return widgets.stream().map(widget -> widget.toBuilder().lastModification(null).build())
+                .collect(toUnmodifiableList());
+    }
+
+    /*
+     * generates the same ids for DAOs fed with the same calls
+     */
+    static IdGenerator sequentialIdGenerator() {
+        return new IdGenerator() {
+            private int next;
+
+            @Override
+            public String generateId() {
+                return Integer.toString(next++);
+            }
+        };
+    }
+}
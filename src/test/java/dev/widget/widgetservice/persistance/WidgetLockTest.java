@@ -0,0 +1,126 @@
+package dev.widget.widgetservice.persistance;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class WidgetLockTest {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 10_000;
+
+    static Stream<Arguments> locks() {
+        return Stream.of(
+                Arguments.of("monitor", (Supplier<WidgetLock>) MonitorWidgetLock::new),
+                Arguments.of("read-write", (Supplier<WidgetLock>) ReadWriteWidgetLock::new),
+                Arguments.of("optimistic", (Supplier<WidgetLock>) OptimisticWidgetLock::new),
+                Arguments.of("snapshot", (Supplier<WidgetLock>) SnapshotWidgetLock::new)
+        );
+    }
+
+    static Stream<Arguments> sharedLocks() {
+        return locks().filter(a -> !a.get()[0].equals("monitor"));
+    }
+
+    static Stream<Arguments> consistentLocks() { // snapshot lock relies on storage never mutating published state
+        return locks().filter(a -> !a.get()[0].equals("snapshot"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("locks")
+    void writesAreExclusive(final String mode, final Supplier<WidgetLock> factory) throws Exception {
+        // Arrange
+        WidgetLock sut = factory.get();
+        int[] counter = new int[1]; // not thread-safe on purpose
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        // Act
+        for (int t = 0; t < THREADS; ++t) {
+            executor.submit(() -> {
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    sut.write(() -> ++counter[0]);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // Assert
+        assertThat(counter[0], is(THREADS * ITERATIONS));
+        assertThat(sut.statistics().getWrites(), is((long) THREADS * ITERATIONS));
+        assertThat(sut.statistics().getMode(), is(mode));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("sharedLocks")
+    void readsDontBlockEachOther(final String mode, final Supplier<WidgetLock> factory) throws Exception {
+        // Arrange
+        WidgetLock sut = factory.get();
+        CountDownLatch bothInside = new CountDownLatch(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // Act
+        Future<Boolean> first = executor.submit(() -> sut.read(() -> await(bothInside)));
+        Future<Boolean> second = executor.submit(() -> sut.read(() -> await(bothInside)));
+
+        // Assert
+        assertThat(first.get(1, TimeUnit.MINUTES), is(true));
+        assertThat(second.get(1, TimeUnit.MINUTES), is(true));
+        executor.shutdown();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("consistentLocks")
+    void readsSeeCompleteWrites(final String mode, final Supplier<WidgetLock> factory) throws Exception {
+        // Arrange
+        WidgetLock sut = factory.get();
+        int[] pair = new int[2]; // writers keep both elements equal
+        AtomicInteger torn = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        // Act
+        for (int t = 0; t < THREADS; ++t) {
+            boolean writer = t % 2 == 0;
+            executor.submit(() -> {
+                for (int i = 0; i < ITERATIONS; ++i) {
+                    if (writer) {
+                        sut.write(() -> {
+                            ++pair[0];
+                            return ++pair[1];
+                        });
+                    } else if (sut.read(() -> pair[0] != pair[1])) {
+                        torn.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // Assert
+        assertThat(torn.get(), is(0));
+        LockStatistics statistics = sut.statistics();
+        assertThat(statistics.getReads() + statistics.getOptimisticReads(), is((long) THREADS / 2 * ITERATIONS));
+    }
+
+    private static boolean await(final CountDownLatch latch) {
+        latch.countDown();
+        try {
+            return latch.await(10, TimeUnit.SECONDS); // only succeeds when both readers are inside at once
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package dev.widget.widgetservice.persistance;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.widget.widgetservice.models.Widget;
+import dev.widget.widgetservice.models.WidgetChange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class WidgetReplicaTest {
+    private static final String LEADER = "http://localhost:8081";
+
+    @Mock
+    HttpClient client;
+
+    @Mock
+    HttpResponse<InputStream> export;
+
+    @Mock
+    Clock clock;
+
+    ObjectMapper mapper = new ObjectMapper();
+
+    InMemoryWidgetDao store;
+
+    WidgetReplica sut;
+
+    @BeforeEach
+    void before() {
+        store = new InMemoryWidgetDao(new IdGenerator(), new ArrayList<>(), new ConcurrentHashMap<>(),
+                Clock.systemUTC(), new MonitorWidgetLock());
+        sut = new WidgetReplica(store, LEADER, client, mapper, clock, Duration.ofMillis(500));
+    }
+
+    @Test
+    void lagIsUnknownBeforeFirstSync() {
+        // Act
+        long result = sut.lag();
+
+        // Assert
+        assertThat(result, is(Long.MAX_VALUE));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void loadReplacesStoreWithExport() throws Exception {
+        // Arrange
+        store.create(Widget.builder().z(0).build());
+        Widget widget = Widget.builder().id("id").x(1).y(2).z(3).width(4).height(5).build();
+        when(clock.millis()).thenReturn(1_000L, 1_200L);
+        when(export.statusCode()).thenReturn(200);
+        when(export.headers()).thenReturn(HttpHeaders.of(Map.of("X-Change-Sequence", List.of("42"),
+                "X-Store-Version", List.of("7")), (k, v) -> true));
+        when(export.body()).thenReturn(new ByteArrayInputStream(
+                (mapper.writeValueAsString(widget) + "\n").getBytes(StandardCharsets.UTF_8)));
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(export);
+
+        // Act
+        long result = sut.load();
+
+        // Assert
+        assertThat(result, is(42L));
+        assertThat(store.getAll(10, 0), contains(widget));
+        assertThat(store.version(), is(7L));
+        assertThat(sut.lag(), is(200L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void loadFailsWithoutChangeSequence() throws Exception {
+        // Arrange
+        when(export.statusCode()).thenReturn(200);
+        when(export.headers()).thenReturn(HttpHeaders.of(Map.of(), (k, v) -> true));
+        when(export.body()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(client.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(export);
+
+        // Act&Assert
+        assertThrows(IOException.class, () -> sut.load());
+    }
+
+    @Test
+    void replayAppliesChangesAndReturnsLastSequence() throws Exception {
+        // Arrange
+        Widget first = Widget.builder().id("first").z(1).build();
+        Widget second = Widget.builder().id("second").z(1).build();
+
+        // Act
+        Long result = sut.replay(List.of(
+                event(versioned(WidgetChange.created(first), 10), 5),
+                event(WidgetChange.pushed(1, 1), 6),
+                event(versioned(WidgetChange.created(second), 11), 7)
+        ).stream().flatMap(List::stream).iterator(), 4);
+
+        // Assert
+        assertThat(result, is(7L));
+        assertThat(store.getAll(10, 0), contains(second, first.toBuilder().z(2).build()));
+        assertThat(store.version(), is(11L));
+    }
+
+    @Test
+    void replayKeepsChangesUntilLastOfTheirWrite() throws Exception {
+        // Arrange
+        List<String> lines = new ArrayList<>(event(WidgetChange.created(Widget.builder().id("first").z(1).build()), 5));
+        lines.addAll(event(WidgetChange.created(Widget.builder().id("second").z(2).build()), 6));
+
+        // Act
+        Long result = sut.replay(lines.iterator(), 4);
+
+        // Assert
+        assertThat(result, is(4L));
+        assertThat(store.getAll(10, 0), empty());
+    }
+
+    @Test
+    void replayKeepsPushUpUntilItsCauseIsHere() throws Exception {
+        // Arrange
+        store.restoreAll(new ArrayList<>(List.of(Widget.builder().id("first").z(1).build())));
+
+        // Act
+        Long result = sut.replay(event(WidgetChange.pushed(1, 1), 5).iterator(), 4);
+
+        // Assert
+        assertThat(result, is(4L));
+        assertThat(store.get("first").getZ(), is(1));
+    }
+
+    @Test
+    void replayIsInSyncOnHeartbeat() throws Exception {
+        // Arrange
+        when(clock.millis()).thenReturn(1_000L, 1_300L);
+
+        // Act
+        sut.replay(List.of(":heartbeat", "").iterator(), 4);
+
+        // Assert
+        assertThat(sut.lag(), is(300L));
+    }
+
+    @Test
+    void replayIsNotInSyncOnHeartbeatWhilePushUpIsPending() throws Exception {
+        // Arrange
+        List<String> lines = new ArrayList<>(event(WidgetChange.pushed(1, 1), 5));
+        lines.add(":heartbeat");
+
+        // Act
+        sut.replay(lines.iterator(), 4);
+
+        // Assert
+        assertThat(sut.lag(), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    void replayStopsOnReset() throws Exception {
+        // Arrange
+        List<String> lines = new ArrayList<>(event(WidgetChange.reset(), 5));
+        lines.addAll(event(WidgetChange.created(Widget.builder().id("id").z(1).build()), 6));
+
+        // Act
+        Long result = sut.replay(lines.iterator(), 4);
+
+        // Assert
+        assertThat(result, nullValue());
+        assertThat(store.getAll(10, 0), empty());
+    }
+
+    private static WidgetChange versioned(final WidgetChange change, final long version) {
+        change.setVersion(version);
+        return change;
+    }
+
+    /*
+     * lines of a server-sent event the way the leader's change stream sends it
+     */
+    private List<String> event(final WidgetChange change, final long sequence) throws Exception {
+        change.setSequence(sequence);
+        return List.of("id:" + sequence, "event:" + change.getType().name().toLowerCase(),
+                "data:" + mapper.writeValueAsString(change), "");
+    }
+}
@@ -0,0 +1,354 @@
+package dev.widget.widgetservice.persistance;
+
+import dev.widget.widgetservice.models.Widget;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class WriteAheadLogTest {
+    @TempDir
+    Path directory;
+
+    @Mock
+    WidgetDao<Widget> dao;
+
+    @Test
+    void replayAppliesChangesInOrder() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Widget first = Widget.builder().id("first").x(1).y(2).z(3).width(4).height(5)
+                .lastModification(Instant.ofEpochSecond(1_600_000_000L, 42)).version(7L).build();
+        Widget second = Widget.builder().id("second").z(-1).build();
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+            sut.put(first);
+            sut.put(second);
+            sut.await(sut.delete("first"));
+        }
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+        }
+
+        // Assert
+        InOrder order = inOrder(dao);
+        order.verify(dao).restore(first);
+        order.verify(dao).restore(second);
+        order.verify(dao).delete("first");
+        order.verifyNoMoreInteractions();
+    }
+
+    @Test
+    void replayKeepsIdsLongerThanWriteUtfAllows() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Widget widget = Widget.builder().id("\u00e4".repeat(40_000)).z(1).build(); // 80 000 bytes in UTF-8
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+            sut.put(widget);
+            sut.await(sut.delete(widget.getId()));
+        }
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+        }
+
+        // Assert
+        InOrder order = inOrder(dao);
+        order.verify(dao).restore(widget);
+        order.verify(dao).delete(widget.getId());
+        order.verifyNoMoreInteractions();
+    }
+
+    @Test
+    void replayReadsRecordsWrittenBeforeVersions() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(payload)) {
+            output.writeByte(1); // put
+            output.writeUTF("old");
+            output.writeBoolean(false); // x
+            output.writeBoolean(false); // y
+            output.writeBoolean(true); // z
+            output.writeInt(5);
+            output.writeBoolean(false); // width
+            output.writeBoolean(false); // height
+            output.writeBoolean(false); // last modification
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(record)) {
+            output.writeInt(payload.size());
+            output.writeInt((int) crc.getValue());
+            output.write(payload.toByteArray());
+        }
+        Files.write(path, record.toByteArray());
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+        }
+
+        // Assert
+        verify(dao).restore(Widget.builder().id("old").z(5).build());
+    }
+
+    @Test
+    void replayCutsOffTornTail() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        Widget widget = Widget.builder().id("id").z(0).build();
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+            sut.await(sut.put(widget));
+        }
+        long valid = Files.size(path);
+        Files.write(path, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND); // crash mid record
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+            sut.await(sut.delete("id"));
+        }
+
+        // Assert
+        assertThat(Files.size(path), greaterThan(valid));
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+        }
+        InOrder order = inOrder(dao);
+        order.verify(dao, times(2)).restore(widget);
+        order.verify(dao).delete("id");
+        order.verifyNoMoreInteractions();
+    }
+
+    @Test
+    void replayStopsAtCorruptRecord() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+            sut.await(sut.delete("id"));
+        }
+        byte[] content = Files.readAllBytes(path);
+        content[content.length - 1] ^= 1;
+        Files.write(path, content);
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+        }
+
+        // Assert
+        verifyNoInteractions(dao);
+        assertThat(Files.size(path), is(0L));
+    }
+
+    @Test
+    void replayStartsFromPosition() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        long position;
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+            sut.delete("first");
+            position = sut.position();
+            sut.await(sut.delete("second"));
+            assertThat(sut.position(), is(Files.size(path)));
+        }
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao, position);
+        }
+
+        // Assert
+        verify(dao).delete("second");
+        verifyNoMoreInteractions(dao);
+    }
+
+    @Test
+    void replayFailsIfLogIsShorterThanPosition() throws Exception {
+        // Arrange
+        try (WriteAheadLog sut = new WriteAheadLog(directory.resolve("widgets.wal"), Duration.ZERO, 16)) {
+
+            // Act&Assert
+            assertThrows(IOException.class, () -> sut.replay(dao, 1));
+        }
+    }
+
+    @Test
+    void replayReadsSegmentsInOrder() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        long position;
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) { // every flush starts a segment
+            sut.replay(dao);
+            sut.await(sut.delete("first"));
+            position = sut.position();
+            sut.await(sut.delete("second"));
+            sut.await(sut.delete("third"));
+        }
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) {
+            sut.replay(dao);
+            sut.await(sut.delete("fourth"));
+        }
+
+        // Assert
+        assertThat(Files.exists(path.resolveSibling("widgets.wal." + position)), is(true));
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) {
+            sut.replay(dao, position);
+        }
+        InOrder order = inOrder(dao);
+        order.verify(dao).delete("first");
+        order.verify(dao).delete("second");
+        order.verify(dao).delete("third");
+        order.verify(dao).delete("second");
+        order.verify(dao).delete("third");
+        order.verify(dao).delete("fourth");
+        order.verifyNoMoreInteractions();
+    }
+
+    @Test
+    void replayCutsOffSegmentsAfterCorruptOne() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) {
+            sut.replay(dao);
+            sut.await(sut.delete("first"));
+            sut.await(sut.delete("second"));
+        }
+        byte[] content = Files.readAllBytes(path);
+        content[content.length - 1] ^= 1;
+        Files.write(path, content);
+
+        // Act
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) {
+            sut.replay(dao);
+            sut.await(sut.delete("third"));
+        }
+
+        // Assert
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) {
+            sut.replay(dao);
+        }
+        verify(dao).delete("third");
+        verifyNoMoreInteractions(dao);
+    }
+
+    @Test
+    void truncateDeletesSegmentsBeforePosition() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        long position;
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) {
+            sut.replay(dao);
+            sut.await(sut.delete("first"));
+            sut.await(sut.delete("second"));
+            position = sut.position();
+            sut.await(sut.delete("third"));
+
+            // Act
+            sut.truncate(position);
+
+            // Assert
+            assertThat(sut.start(), is(position));
+            assertThat(Files.exists(path), is(false));
+            assertThrows(IOException.class, () -> sut.replay(dao, 0));
+        }
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16, 1)) {
+            sut.replay(dao, position);
+        }
+        verify(dao).delete("third");
+        verifyNoMoreInteractions(dao);
+    }
+
+    @Test
+    void truncateKeepsLastSegment() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ZERO, 16)) {
+            sut.replay(dao);
+            sut.await(sut.delete("first"));
+
+            // Act
+            sut.truncate(sut.position());
+
+            // Assert
+            assertThat(sut.start(), is(0L));
+            assertThat(Files.exists(path), is(true));
+        }
+    }
+
+    @Test
+    void concurrentWritersShareFsyncs() throws Exception {
+        // Arrange
+        Path path = directory.resolve("widgets.wal");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try (WriteAheadLog sut = new WriteAheadLog(path, Duration.ofMillis(5), 1_000)) {
+            sut.replay(dao);
+
+            // Act
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 100; ++j) {
+                        sut.await(sut.delete("id"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            // Assert
+            assertThat(sut.flushes(), lessThan(800L));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void appendFailsWhenClosed() throws Exception {
+        // Arrange
+        WriteAheadLog sut = new WriteAheadLog(directory.resolve("widgets.wal"), Duration.ZERO, 16);
+        sut.close();
+
+        // Act&Assert
+        assertThrows(IllegalStateException.class, () -> sut.delete("id"));
+    }
+}